@@ -438,7 +438,7 @@ public class ASN1 {
     if (pkcs8.tag != 0x30)
       throw new CoseException("Invalid PKCS8 structure");
     ArrayList<TagValue> retValue = pkcs8.list;
-    if (retValue.size() != 3 && retValue.size() != 4) {
+    if (retValue.size() < 3 || retValue.size() > 5) {
       throw new CoseException("Invalid PKCS8 structure");
     }
 
@@ -463,8 +463,16 @@ public class ASN1 {
       throw new CoseException(
           "Invalid PKCS8 structure");
 
-    // This is attributes, but we are not going to check for correctness.
-    if (retValue.size() == 4 && retValue.get(3).tag != 0xa0) {
+    // Attributes and, in a version 2 OneAsymmetricKey (RFC 5958), the public key. Neither is
+    // checked for correctness.
+    int next = 3;
+    if (retValue.size() > next && (retValue.get(next).tag & 0xff) == 0xa0) {
+      next++;
+    }
+    if (retValue.size() > next && (retValue.get(next).tag & 0xdf) == 0x81) {
+      next++;
+    }
+    if (retValue.size() != next) {
       throw new CoseException("Invalid PKCS8 structure");
     }
 
@@ -0,0 +1,149 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import javax.crypto.AEADBadTagException;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.GCMModeCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * AES-GCM with the BouncyCastle lightweight API, for {@link CipherBackend#BOUNCY_CASTLE}. Each
+ * platform thread keeps the cipher of the last key it used. Setting up a cipher for a key expands
+ * the AES key and builds the GHASH multiplication tables; a message with the same key as the one
+ * before it on the thread only sets the nonce and the additional data.
+ * <p>
+ * The kept cipher holds a copy of the key until the thread uses another key, ends, or calls
+ * {@link #clear()}. Virtual threads run a single task each and would never reuse the cipher, so
+ * they set one up for every message and wipe the key copy afterwards.
+ */
+final class AesGcmEngine {
+
+  static final ThreadLocal<AesGcmEngine> ENGINES = new ThreadLocal<AesGcmEngine>();
+
+  private final GCMModeCipher cipher = GCMBlockCipher.newInstance(AESEngine.newInstance());
+  private final byte[] rgbKey;
+  private byte[] lastNonce;
+
+  private AesGcmEngine(byte[] rgbKey) {
+    this.rgbKey = rgbKey.clone();
+  }
+
+  /**
+   * @return the engine of the current thread, set up for a key
+   */
+  private static AesGcmEngine forKey(byte[] rgbKey) {
+    AesGcmEngine engine = ENGINES.get();
+    if (engine == null || !MessageDigest.isEqual(engine.rgbKey, rgbKey)) {
+      engine = newEngine(rgbKey);
+    }
+    return engine;
+  }
+
+  /**
+   * @return a new engine for a key, kept for the current thread unless it is a virtual thread
+   */
+  private static AesGcmEngine newEngine(byte[] rgbKey) {
+    clear();
+    AesGcmEngine engine = new AesGcmEngine(rgbKey);
+    if (!Thread.currentThread().isVirtual()) {
+      ENGINES.set(engine);
+    }
+    return engine;
+  }
+
+  /**
+   * Wipe the key copy of an engine that is not kept for the thread.
+   */
+  private static void release(AesGcmEngine engine) {
+    if (ENGINES.get() != engine) {
+      Arrays.fill(engine.rgbKey, (byte) 0);
+    }
+  }
+
+  /**
+   * Wipe and drop the engine kept for the current thread, if any.
+   */
+  static void clear() {
+    AesGcmEngine engine = ENGINES.get();
+    if (engine != null) {
+      Arrays.fill(engine.rgbKey, (byte) 0);
+      ENGINES.remove();
+    }
+  }
+
+  private void init(boolean forEncryption, int tagBits, byte[] nonce, byte[] aad) {
+    // The key is given only the first time, after that the expanded key is kept by the cipher
+    KeyParameter key = lastNonce == null ? new KeyParameter(rgbKey) : null;
+    cipher.init(forEncryption, new AEADParameters(key, tagBits, nonce, aad));
+    lastNonce = nonce.clone();
+  }
+
+  /**
+   * Encrypt content.
+   *
+   * @param rgbKey AES key
+   * @param tagBits length of the authentication tag in bits
+   * @param nonce 96 bit nonce
+   * @param aad additional authenticated data
+   * @param rgbPlain plain text
+   * @return the ciphertext followed by the authentication tag
+   */
+  static byte[] encrypt(byte[] rgbKey, int tagBits, byte[] nonce, byte[] aad, byte[] rgbPlain)
+      throws CoseException {
+    AesGcmEngine engine = forKey(rgbKey);
+    if (engine.lastNonce != null && Arrays.equals(engine.lastNonce, nonce)) {
+      // The cipher refuses to encrypt twice with a nonce, start over with a new one
+      engine = newEngine(rgbKey);
+    }
+    try {
+      engine.init(true, tagBits, nonce, aad);
+      byte[] rgbEncrypt = new byte[engine.cipher.getOutputSize(rgbPlain.length)];
+      int len = engine.cipher.processBytes(rgbPlain, 0, rgbPlain.length, rgbEncrypt, 0);
+      engine.cipher.doFinal(rgbEncrypt, len);
+      return rgbEncrypt;
+    } catch (InvalidCipherTextException | RuntimeException ex) {
+      clear();
+      throw new CoseException("Encryption failure", ex);
+    } finally {
+      release(engine);
+    }
+  }
+
+  /**
+   * Decrypt content and check its authentication tag.
+   *
+   * @param rgbKey AES key
+   * @param tagBits length of the authentication tag in bits
+   * @param nonce 96 bit nonce
+   * @param aad additional authenticated data
+   * @param rgbEncrypt ciphertext followed by the authentication tag
+   * @return the plain text
+   * @throws CoseException if the tag does not match, with an {@link AEADBadTagException} as cause
+   */
+  static byte[] decrypt(byte[] rgbKey, int tagBits, byte[] nonce, byte[] aad, byte[] rgbEncrypt)
+      throws CoseException {
+    AesGcmEngine engine = forKey(rgbKey);
+    try {
+      engine.init(false, tagBits, nonce, aad);
+      byte[] rgbPlain = new byte[engine.cipher.getOutputSize(rgbEncrypt.length)];
+      int len = engine.cipher.processBytes(rgbEncrypt, 0, rgbEncrypt.length, rgbPlain, 0);
+      engine.cipher.doFinal(rgbPlain, len);
+      return rgbPlain;
+    } catch (InvalidCipherTextException ex) {
+      throw new CoseException("Decryption failure", new AEADBadTagException(ex.getMessage()));
+    } catch (RuntimeException ex) {
+      clear();
+      throw new CoseException("Decryption failure", ex);
+    } finally {
+      release(engine);
+    }
+  }
+}
@@ -0,0 +1,173 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * AES key wrap as defined in RFC 3394, for {@link CipherBackend#BOUNCY_CASTLE}. The rounds are run
+ * here over the AES block cipher of the BouncyCastle lightweight API. Each platform thread keeps
+ * the block ciphers of the last key encryption key it used, with the key already expanded, and a
+ * block buffer, so that wrapping with the same key only allocates the result.
+ * <p>
+ * As for {@link AesGcmEngine}, the kept key stays until the thread uses another key, ends, or
+ * calls {@link #clear()}, and virtual threads wipe it after every use instead of keeping it.
+ */
+final class AesKeyWrapEngine {
+
+  static final ThreadLocal<AesKeyWrapEngine> ENGINES = new ThreadLocal<AesKeyWrapEngine>();
+
+  /** The default initial value of RFC 3394 section 2.2.3.1. */
+  private static final byte[] IV = {
+      (byte) 0xa6, (byte) 0xa6, (byte) 0xa6, (byte) 0xa6,
+      (byte) 0xa6, (byte) 0xa6, (byte) 0xa6, (byte) 0xa6};
+
+  private final byte[] rgbKek;
+  private final byte[] block = new byte[16];
+  private BlockCipher encryptor;
+  private BlockCipher decryptor;
+
+  private AesKeyWrapEngine(byte[] rgbKek) {
+    this.rgbKek = rgbKek.clone();
+  }
+
+  /**
+   * @return the engine of the current thread, set up for a key encryption key
+   */
+  private static AesKeyWrapEngine forKey(byte[] rgbKek) {
+    AesKeyWrapEngine engine = ENGINES.get();
+    if (engine == null || !MessageDigest.isEqual(engine.rgbKek, rgbKek)) {
+      clear();
+      engine = new AesKeyWrapEngine(rgbKek);
+      if (!Thread.currentThread().isVirtual()) {
+        ENGINES.set(engine);
+      }
+    }
+    return engine;
+  }
+
+  /**
+   * Wipe the key copy of an engine that is not kept for the thread.
+   */
+  private static void release(AesKeyWrapEngine engine) {
+    if (ENGINES.get() != engine) {
+      Arrays.fill(engine.rgbKek, (byte) 0);
+    }
+  }
+
+  /**
+   * Wipe and drop the engine kept for the current thread, if any.
+   */
+  static void clear() {
+    AesKeyWrapEngine engine = ENGINES.get();
+    if (engine != null) {
+      Arrays.fill(engine.rgbKek, (byte) 0);
+      ENGINES.remove();
+    }
+  }
+
+  private BlockCipher cipher(boolean forEncryption) {
+    BlockCipher cipher = forEncryption ? encryptor : decryptor;
+    if (cipher == null) {
+      cipher = AESEngine.newInstance();
+      cipher.init(forEncryption, new KeyParameter(rgbKek));
+      if (forEncryption) {
+        encryptor = cipher;
+      } else {
+        decryptor = cipher;
+      }
+    }
+    return cipher;
+  }
+
+  /**
+   * Wrap a key.
+   *
+   * @param rgbKek key encryption key
+   * @param rgbKey key to wrap, a multiple of 8 bytes and at least 16 bytes long
+   * @return the wrapped key, 8 bytes longer than the key
+   * @throws CoseException if the key to wrap has the wrong length
+   */
+  static byte[] wrap(byte[] rgbKek, byte[] rgbKey) throws CoseException {
+    int n = rgbKey.length / 8;
+    if (rgbKey.length % 8 != 0 || n < 2) {
+      throw new CoseException("Key Wrap failure");
+    }
+    AesKeyWrapEngine engine = forKey(rgbKek);
+    BlockCipher cipher = engine.cipher(true);
+    byte[] block = engine.block;
+
+    // A is kept in the first half of the block, R[i] at offset 8 * i of the output
+    byte[] rgbOut = new byte[rgbKey.length + 8];
+    System.arraycopy(rgbKey, 0, rgbOut, 8, rgbKey.length);
+    System.arraycopy(IV, 0, block, 0, 8);
+    long t = 0;
+    for (int j = 0; j < 6; j++) {
+      for (int i = 1; i <= n; i++) {
+        System.arraycopy(rgbOut, 8 * i, block, 8, 8);
+        cipher.processBlock(block, 0, block, 0);
+        xorCounter(block, ++t);
+        System.arraycopy(block, 8, rgbOut, 8 * i, 8);
+      }
+    }
+    System.arraycopy(block, 0, rgbOut, 0, 8);
+    Arrays.fill(block, (byte) 0);
+    release(engine);
+    return rgbOut;
+  }
+
+  /**
+   * Unwrap a key and check its integrity.
+   *
+   * @param rgbKek key encryption key
+   * @param rgbWrapped wrapped key
+   * @return the key
+   * @throws CoseException if the wrapped key has the wrong length or fails the integrity check
+   */
+  static byte[] unwrap(byte[] rgbKek, byte[] rgbWrapped) throws CoseException {
+    int n = rgbWrapped.length / 8 - 1;
+    if (rgbWrapped.length % 8 != 0 || n < 2) {
+      throw new CoseException("Key Unwrap failure");
+    }
+    AesKeyWrapEngine engine = forKey(rgbKek);
+    BlockCipher cipher = engine.cipher(false);
+    byte[] block = engine.block;
+
+    byte[] rgbKey = new byte[n * 8];
+    System.arraycopy(rgbWrapped, 8, rgbKey, 0, rgbKey.length);
+    System.arraycopy(rgbWrapped, 0, block, 0, 8);
+    long t = 6L * n;
+    for (int j = 5; j >= 0; j--) {
+      for (int i = n; i >= 1; i--) {
+        xorCounter(block, t--);
+        System.arraycopy(rgbKey, 8 * (i - 1), block, 8, 8);
+        cipher.processBlock(block, 0, block, 0);
+        System.arraycopy(block, 8, rgbKey, 8 * (i - 1), 8);
+      }
+    }
+    boolean valid = MessageDigest.isEqual(Arrays.copyOf(block, 8), IV);
+    Arrays.fill(block, (byte) 0);
+    release(engine);
+    if (!valid) {
+      Arrays.fill(rgbKey, (byte) 0);
+      throw new CoseException("Key Unwrap failure");
+    }
+    return rgbKey;
+  }
+
+  /**
+   * XOR the step counter t, big endian, into the first 8 bytes of a block.
+   */
+  private static void xorCounter(byte[] block, long t) {
+    for (int k = 7; k >= 0 && t != 0; k--) {
+      block[k] ^= (byte) t;
+      t >>>= 8;
+    }
+  }
+}
@@ -6,6 +6,7 @@
 package se.digg.cose;
 
 import com.upokecenter.cbor.CBORObject;
+import com.upokecenter.cbor.CBORType;
 
 /**
  *
@@ -60,6 +61,17 @@ public enum AlgorithmID {
   RSA_PSS_384(-38, 0, 0),
   RSA_PSS_512(-39, 0, 0);
 
+  private static final int MIN_VALUE = -39;
+
+  // Indexed by value - MIN_VALUE, as the algorithm is looked up for every message
+  private static final AlgorithmID[] BY_VALUE = new AlgorithmID[34 - MIN_VALUE];
+
+  static {
+    for (AlgorithmID alg : values()) {
+      BY_VALUE[alg.value.AsInt32Value() - MIN_VALUE] = alg;
+    }
+  }
+
   private final CBORObject value;
   private final int cbitKey;
   private final int cbitTag;
@@ -74,6 +86,13 @@ public enum AlgorithmID {
     if (obj == null) {
       throw new CoseException("No Algorithm Specified");
     }
+    if (obj.getType() == CBORType.Integer && !obj.isTagged() && obj.CanValueFitInInt32()) {
+      int i = obj.AsInt32Value() - MIN_VALUE;
+      if (i >= 0 && i < BY_VALUE.length && BY_VALUE[i] != null) {
+        return BY_VALUE[i];
+      }
+      throw new CoseException("Unknown Algorithm Specified");
+    }
     for (AlgorithmID alg : values()) {
       if (obj.equals(alg.value)) {
         return alg;
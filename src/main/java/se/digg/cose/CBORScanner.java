@@ -0,0 +1,241 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+/**
+ * Internal forward-only reader over encoded CBOR data. The scanner reads data item headers and
+ * skips complete items without building a CBORObject tree, which allows the structure of a COSE
+ * message to be located without copying its content.
+ */
+final class CBORScanner {
+
+  static final int MAJOR_UNSIGNED = 0;
+  static final int MAJOR_NEGATIVE = 1;
+  static final int MAJOR_BYTES = 2;
+  static final int MAJOR_TEXT = 3;
+  static final int MAJOR_ARRAY = 4;
+  static final int MAJOR_MAP = 5;
+  static final int MAJOR_TAG = 6;
+  static final int MAJOR_SIMPLE = 7;
+
+  /**
+   * Nesting level used when no explicit limit is given. Keeps recursion in skip() well away from
+   * the thread stack size.
+   */
+  static final int DEFAULT_MAX_DEPTH = 256;
+
+  private static final int INFO_INDEFINITE = 31;
+
+  private final byte[] data;
+  private final int limit;
+  private int pos;
+
+  private int majorType;
+  private long argument;
+  private boolean indefinite;
+
+  CBORScanner(byte[] data) {
+    this(data, 0, data.length);
+  }
+
+  CBORScanner(byte[] data, int offset, int length) {
+    this.data = data;
+    this.pos = offset;
+    this.limit = offset + length;
+  }
+
+  byte[] data() {
+    return data;
+  }
+
+  int position() {
+    return pos;
+  }
+
+  /**
+   * Move back to a position previously returned by {@link #position()}.
+   */
+  void seek(int position) {
+    pos = position;
+  }
+
+  boolean atEnd() {
+    return pos >= limit;
+  }
+
+  /**
+   * Read the header of the next data item. Afterwards the scanner is positioned on the content of a
+   * string, on the first member of an array or map, or on the item following a tag.
+   *
+   * @return the major type of the item
+   * @throws CoseException if the header is malformed or truncated
+   */
+  int readHeader() throws CoseException {
+    if (pos >= limit) {
+      throw new CoseException("Malformed CBOR - truncated data");
+    }
+    int initial = data[pos++] & 0xff;
+    majorType = initial >>> 5;
+    int info = initial & 0x1f;
+    indefinite = false;
+
+    if (info < 24) {
+      argument = info;
+    } else if (info <= 27) {
+      int count = 1 << (info - 24);
+      if (limit - pos < count) {
+        throw new CoseException("Malformed CBOR - truncated data");
+      }
+      long value = 0;
+      for (int i = 0; i < count; i++) {
+        value = (value << 8) | (data[pos++] & 0xff);
+      }
+      argument = value;
+    } else if (info == INFO_INDEFINITE && majorType != MAJOR_UNSIGNED
+        && majorType != MAJOR_NEGATIVE && majorType != MAJOR_TAG) {
+      argument = -1;
+      indefinite = true;
+    } else {
+      throw new CoseException("Malformed CBOR - reserved additional information");
+    }
+    return majorType;
+  }
+
+  /**
+   * The argument of the last header read: the value of an integer, the length of a string, the
+   * number of members of an array or map, or the number of a tag.
+   */
+  long argument() {
+    return argument;
+  }
+
+  /**
+   * Was the last header read an indefinite length string, array or map?
+   */
+  boolean isIndefinite() {
+    return indefinite;
+  }
+
+  /**
+   * Was the last header read a "break" stop code?
+   */
+  boolean isBreak() {
+    return majorType == MAJOR_SIMPLE && indefinite;
+  }
+
+  /**
+   * Read the header of a definite length string and return its length, checking that the content
+   * is present in the input.
+   *
+   * @param expectedMajor either {@link #MAJOR_BYTES} or {@link #MAJOR_TEXT}
+   * @return the length of the string content
+   * @throws CoseException if the next item is not a definite length string of the given type
+   */
+  int readStringHeader(int expectedMajor) throws CoseException {
+    if (readHeader() != expectedMajor || indefinite) {
+      throw new CoseException("Malformed CBOR - definite length string expected");
+    }
+    return checkedLength(argument);
+  }
+
+  /**
+   * Move over string content after {@link #readStringHeader(int)}.
+   */
+  void skipBytes(int count) {
+    pos += count;
+  }
+
+  /**
+   * Skip the next complete data item, including any tags and nested members.
+   *
+   * @throws CoseException if the item is malformed or nested too deeply
+   */
+  void skip() throws CoseException {
+    skip(DEFAULT_MAX_DEPTH);
+  }
+
+  /**
+   * Skip the next complete data item, including any tags and nested members.
+   *
+   * @param maxDepth maximum number of nested arrays, maps and tags permitted
+   * @throws CoseException if the item is malformed or nested too deeply
+   */
+  void skip(int maxDepth) throws CoseException {
+    skipItem(0, maxDepth);
+  }
+
+  private void skipItem(int depth, int maxDepth) throws CoseException {
+    int major = readHeader();
+    if (isBreak()) {
+      throw new CoseException("Malformed CBOR - unexpected break");
+    }
+    skipContent(major, depth, maxDepth);
+  }
+
+  private void skipContent(int major, int depth, int maxDepth) throws CoseException {
+    switch (major) {
+      case MAJOR_UNSIGNED:
+      case MAJOR_NEGATIVE:
+      case MAJOR_SIMPLE:
+        return;
+      case MAJOR_BYTES:
+      case MAJOR_TEXT:
+        if (indefinite) {
+          while (true) {
+            int chunk = readHeader();
+            if (isBreak()) {
+              return;
+            }
+            if (chunk != major || indefinite) {
+              throw new CoseException("Malformed CBOR - invalid string chunk");
+            }
+            skipBytes(checkedLength(argument));
+          }
+        }
+        skipBytes(checkedLength(argument));
+        return;
+      default:
+        break;
+    }
+
+    if (depth >= maxDepth) {
+      throw new CoseException("Malformed CBOR - nesting too deep");
+    }
+
+    if (major == MAJOR_TAG) {
+      skipItem(depth + 1, maxDepth);
+      return;
+    }
+
+    if (indefinite) {
+      while (true) {
+        int next = readHeader();
+        if (isBreak()) {
+          return;
+        }
+        skipContent(next, depth + 1, maxDepth);
+        if (major == MAJOR_MAP) {
+          skipItem(depth + 1, maxDepth);
+        }
+      }
+    }
+
+    long members = major == MAJOR_MAP ? argument * 2 : argument;
+    // Every member takes at least one byte; reject impossible counts before looping.
+    if (members < 0 || members > limit - pos) {
+      throw new CoseException("Malformed CBOR - truncated data");
+    }
+    for (long i = 0; i < members; i++) {
+      skipItem(depth + 1, maxDepth);
+    }
+  }
+
+  private int checkedLength(long length) throws CoseException {
+    if (length < 0 || length > limit - pos) {
+      throw new CoseException("Malformed CBOR - truncated data");
+    }
+    return (int) length;
+  }
+}
@@ -0,0 +1,430 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+import com.upokecenter.cbor.CBORType;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs the signing, MAC and encryption operations of the library on an executor and hands back a
+ * {@link CompletableFuture}. By default each operation runs on a virtual thread of its own.
+ * <p>
+ * A {@link CoseException} thrown by an operation completes the future exceptionally with that
+ * exception, so {@link CompletableFuture#get()} throws an ExecutionException and
+ * {@link CompletableFuture#join()} a CompletionException whose cause is the CoseException.
+ * <p>
+ * A message must not be used by the caller until its future has completed. To validate or decrypt
+ * one message from several operations at once, use an {@link ImmutableCOSEObject} view.
+ */
+public final class COSEAsync {
+
+  static final ExecutorService VIRTUAL_THREADS =
+      Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("cose-async-", 0).factory());
+
+  private final Executor executor;
+
+  /**
+   * Run the operations on virtual threads.
+   */
+  public COSEAsync() {
+    this(VIRTUAL_THREADS);
+  }
+
+  /**
+   * Run the operations on an executor.
+   *
+   * @param executor executor to run the operations on
+   */
+  public COSEAsync(Executor executor) {
+    if (executor == null) {
+      throw new NullPointerException("executor");
+    }
+    this.executor = executor;
+  }
+
+  /**
+   * @param msg message to sign
+   * @param key signing key
+   * @return future completed with the signed message
+   */
+  public CompletableFuture<Sign1COSEObject> signAsync(Sign1COSEObject msg, COSEKey key) {
+    return submit(() -> {
+      msg.sign(key);
+      return msg;
+    });
+  }
+
+  /**
+   * @param msg message to sign with all of its signers
+   * @return future completed with the signed message
+   */
+  public CompletableFuture<SignCOSEObject> signAsync(SignCOSEObject msg) {
+    return submit(() -> {
+      msg.sign();
+      return msg;
+    });
+  }
+
+  /**
+   * @param msg message to validate
+   * @param key validation key
+   * @return future completed with true if the signature validates
+   */
+  public CompletableFuture<Boolean> validateAsync(Sign1COSEObject msg, COSEKey key) {
+    return submit(() -> msg.validate(key));
+  }
+
+  /**
+   * Validate a message with the keys that a key source has for the key identifier of the message.
+   * Keys the message cannot be validated with, such as keys of another type that share the key
+   * identifier, are passed over.
+   *
+   * @param msg message to validate
+   * @param keys source to look up the validation key in
+   * @return future completed with true if the signature validates with one of the keys, and false
+   *         if it validates with none or the source has no key for the key identifier
+   */
+  public CompletableFuture<Boolean> validateAsync(Sign1COSEObject msg, KeySetSource keys) {
+    return submit(() -> {
+      for (COSEKey key : keys.getKeys(keyId(msg.findAttribute(HeaderKeys.KID)))) {
+        try {
+          if (msg.validate(key)) {
+            return true;
+          }
+        } catch (CoseException e) {
+          // Not a key this message can be validated with
+        }
+      }
+      return false;
+    });
+  }
+
+  /**
+   * @param msg view of the message to validate
+   * @param key validation key
+   * @return future completed with true if the signature validates
+   */
+  public CompletableFuture<Boolean> validateAsync(ImmutableSign1COSEObject msg, COSEKey key) {
+    return submit(() -> msg.validate(key));
+  }
+
+  /**
+   * Validate a message view with the keys that a key source has for the key identifier of the
+   * message, see {@link #validateAsync(Sign1COSEObject, KeySetSource)}.
+   *
+   * @param msg view of the message to validate
+   * @param keys source to look up the validation key in
+   * @return future completed with true if the signature validates with one of the keys
+   */
+  public CompletableFuture<Boolean> validateAsync(
+      ImmutableSign1COSEObject msg,
+      KeySetSource keys) {
+    return submit(() -> {
+      for (COSEKey key : keys.getKeys(keyId(msg.findAttribute(HeaderKeys.KID)))) {
+        try {
+          if (msg.validate(key)) {
+            return true;
+          }
+        } catch (CoseException e) {
+          // Not a key this message can be validated with
+        }
+      }
+      return false;
+    });
+  }
+
+  /**
+   * @param msg view of the message to validate
+   * @param signer index of the signer to validate
+   * @param key validation key of the signer
+   * @return future completed with true if the signature validates
+   */
+  public CompletableFuture<Boolean> validateAsync(
+      ImmutableSignCOSEObject msg,
+      int signer,
+      COSEKey key) {
+    return submit(() -> msg.validate(signer, key));
+  }
+
+  /**
+   * Validate a message view with the keys that a key source has for the key identifiers of its
+   * signers. Signers without a key identifier, and keys a signer cannot be validated with, are
+   * passed over.
+   *
+   * @param msg view of the message to validate
+   * @param keys source to look up the validation keys in
+   * @return future completed with true if the signature of one of the signers validates with one
+   *         of its keys, and false if none does
+   */
+  public CompletableFuture<Boolean> validateAsync(ImmutableSignCOSEObject msg, KeySetSource keys) {
+    return submit(() -> {
+      boolean hasKid = false;
+      for (int i = 0; i < msg.getSignerCount(); i++) {
+        byte[] kid = optionalKeyId(msg.findSignerAttribute(i, HeaderKeys.KID));
+        if (kid == null) {
+          continue;
+        }
+        hasKid = true;
+        for (COSEKey key : keys.getKeys(kid)) {
+          try {
+            if (msg.validate(i, key)) {
+              return true;
+            }
+          } catch (CoseException e) {
+            // Not a key this signer can be validated with
+          }
+        }
+      }
+      if (!hasKid) {
+        throw new CoseException("Message has no key identifier");
+      }
+      return false;
+    });
+  }
+
+  /**
+   * @param msg message to validate
+   * @param signer signer of the message to validate, with its key set
+   * @return future completed with true if the signature validates
+   */
+  public CompletableFuture<Boolean> validateAsync(SignCOSEObject msg, Signer signer) {
+    return submit(() -> msg.validate(signer));
+  }
+
+  /**
+   * @param msg message to compute the authentication tag of
+   * @param rgbKey MAC key
+   * @return future completed with the message
+   */
+  public CompletableFuture<MAC0COSEObject> computeAsync(MAC0COSEObject msg, byte[] rgbKey) {
+    return submit(() -> {
+      msg.Create(rgbKey);
+      return msg;
+    });
+  }
+
+  /**
+   * @param msg message to validate
+   * @param rgbKey MAC key
+   * @return future completed with true if the authentication tag validates
+   */
+  public CompletableFuture<Boolean> validateAsync(MAC0COSEObject msg, byte[] rgbKey) {
+    return submit(() -> msg.Validate(rgbKey));
+  }
+
+  /**
+   * @param msg view of the message to validate
+   * @param rgbKey MAC key
+   * @return future completed with true if the authentication tag validates
+   */
+  public CompletableFuture<Boolean> validateAsync(ImmutableMAC0COSEObject msg, byte[] rgbKey) {
+    return submit(() -> msg.validate(rgbKey));
+  }
+
+  /**
+   * @param msg message to compute the authentication tag of for all of its recipients
+   * @return future completed with the message
+   */
+  public CompletableFuture<MACCOSEObject> computeAsync(MACCOSEObject msg) {
+    return submit(() -> {
+      msg.Create();
+      return msg;
+    });
+  }
+
+  /**
+   * @param msg message to validate
+   * @param recipient recipient of the message to validate for, with its key set
+   * @return future completed with true if the authentication tag validates
+   */
+  public CompletableFuture<Boolean> validateAsync(MACCOSEObject msg, Recipient recipient) {
+    return submit(() -> msg.Validate(recipient));
+  }
+
+  /**
+   * @param msg view of the message to validate
+   * @param recipient index of the recipient to validate for
+   * @param key key of the recipient
+   * @return future completed with true if the authentication tag validates
+   */
+  public CompletableFuture<Boolean> validateAsync(
+      ImmutableMACCOSEObject msg,
+      int recipient,
+      COSEKey key) {
+    return submit(() -> msg.validate(recipient, key));
+  }
+
+  /**
+   * Validate a message view with the keys that a key source has for the key identifiers of its
+   * recipients. Recipients without a key identifier, and keys the MAC key cannot be recovered
+   * with, are passed over.
+   *
+   * @param msg view of the message to validate
+   * @param keys source to look up the recipient keys in
+   * @return future completed with true if the authentication tag validates with the MAC key of one
+   *         of the recipients, and false if it validates with none
+   */
+  public CompletableFuture<Boolean> validateAsync(ImmutableMACCOSEObject msg, KeySetSource keys) {
+    return submit(() -> {
+      boolean hasKid = false;
+      for (int i = 0; i < msg.getRecipientCount(); i++) {
+        byte[] kid = optionalKeyId(msg.findRecipientAttribute(i, HeaderKeys.KID));
+        if (kid == null) {
+          continue;
+        }
+        hasKid = true;
+        for (COSEKey key : keys.getKeys(kid)) {
+          try {
+            if (msg.validate(i, key)) {
+              return true;
+            }
+          } catch (CoseException e) {
+            // Not the key of this recipient
+          }
+        }
+      }
+      if (!hasKid) {
+        throw new CoseException("Message has no key identifier");
+      }
+      return false;
+    });
+  }
+
+  /**
+   * @param msg message to encrypt
+   * @param rgbKey content encryption key
+   * @return future completed with the encrypted message
+   */
+  public CompletableFuture<Encrypt0COSEObject> encryptAsync(
+      Encrypt0COSEObject msg,
+      byte[] rgbKey) {
+    return submit(() -> {
+      msg.encrypt(rgbKey);
+      return msg;
+    });
+  }
+
+  /**
+   * @param msg message to encrypt for all of its recipients
+   * @return future completed with the encrypted message
+   */
+  public CompletableFuture<EncryptCOSEObject> encryptAsync(EncryptCOSEObject msg) {
+    return submit(() -> {
+      msg.encrypt();
+      return msg;
+    });
+  }
+
+  /**
+   * @param msg message to decrypt
+   * @param rgbKey content encryption key
+   * @return future completed with the content
+   */
+  public CompletableFuture<byte[]> decryptAsync(Encrypt0COSEObject msg, byte[] rgbKey) {
+    return submit(() -> msg.decrypt(rgbKey));
+  }
+
+  /**
+   * @param msg view of the message to decrypt
+   * @param rgbKey content encryption key
+   * @return future completed with the content
+   */
+  public CompletableFuture<byte[]> decryptAsync(ImmutableEncrypt0COSEObject msg, byte[] rgbKey) {
+    return submit(() -> msg.decrypt(rgbKey));
+  }
+
+  /**
+   * @param msg message to decrypt
+   * @param recipient recipient of the message to decrypt for, with its key set
+   * @return future completed with the content
+   */
+  public CompletableFuture<byte[]> decryptAsync(EncryptCOSEObject msg, Recipient recipient) {
+    return submit(() -> msg.decrypt(recipient));
+  }
+
+  /**
+   * @param msg view of the message to decrypt
+   * @param recipient index of the recipient to decrypt for
+   * @param key key of the recipient
+   * @return future completed with the content
+   */
+  public CompletableFuture<byte[]> decryptAsync(
+      ImmutableEncryptCOSEObject msg,
+      int recipient,
+      COSEKey key) {
+    return submit(() -> msg.decrypt(recipient, key));
+  }
+
+  /**
+   * Decrypt a message view with the keys that a key source has for the key identifiers of its
+   * recipients. Recipients without a key identifier are passed over.
+   *
+   * @param msg view of the message to decrypt
+   * @param keys source to look up the recipient keys in
+   * @return future completed with the content, or completed exceptionally with the error of the
+   *         first key tried if it decrypts with none of the keys
+   */
+  public CompletableFuture<byte[]> decryptAsync(ImmutableEncryptCOSEObject msg, KeySetSource keys) {
+    return submit(() -> {
+      CoseException error = null;
+      boolean hasKid = false;
+      for (int i = 0; i < msg.getRecipientCount(); i++) {
+        byte[] kid = optionalKeyId(msg.findRecipientAttribute(i, HeaderKeys.KID));
+        if (kid == null) {
+          continue;
+        }
+        hasKid = true;
+        for (COSEKey key : keys.getKeys(kid)) {
+          try {
+            return msg.decrypt(i, key);
+          } catch (CoseException e) {
+            if (error == null) {
+              error = e;
+            }
+          }
+        }
+      }
+      if (error != null) {
+        throw error;
+      }
+      throw new CoseException(
+          hasKid ? "No key for the key identifier" : "Message has no key identifier");
+    });
+  }
+
+  private <T> CompletableFuture<T> submit(Callable<T> operation) {
+    CompletableFuture<T> future = new CompletableFuture<T>();
+    try {
+      executor.execute(() -> {
+        try {
+          future.complete(operation.call());
+        } catch (Throwable e) {
+          future.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
+    }
+    return future;
+  }
+
+  private static byte[] keyId(CBORObject kid) throws CoseException {
+    byte[] rgbKid = optionalKeyId(kid);
+    if (rgbKid == null) {
+      throw new CoseException("Message has no key identifier");
+    }
+    return rgbKid;
+  }
+
+  private static byte[] optionalKeyId(CBORObject kid) {
+    return kid == null || kid.getType() != CBORType.ByteString ? null : kid.GetByteString();
+  }
+}
@@ -0,0 +1,193 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Internal writer used to serialize COSE messages without building a CBORObject tree. The message
+ * structure is first recorded as a list of parts: data item headers, and references to byte arrays
+ * which are not copied. The exact size of the output is therefore known before any output buffer
+ * is allocated, and the content and signature bytes are copied only once, into the final output.
+ * <p>
+ * Heads are written in the shortest form, which is the form produced by CBORObject.EncodeToBytes,
+ * so the output is identical to that of the tree based encoder.
+ */
+final class COSEEncoder {
+
+  private static final byte NULL = (byte) 0xf6;
+
+  private byte[] heads = new byte[32];
+  private int headsLength;
+
+  // A part with a null array refers to a range of the heads buffer
+  private byte[][] arrays = new byte[16][];
+  private int[] offsets = new int[16];
+  private int[] lengths = new int[16];
+  private int count;
+
+  private long size;
+
+  /**
+   * Write a tag header.
+   */
+  void writeTag(long tag) {
+    writeHead(CBORScanner.MAJOR_TAG, tag);
+  }
+
+  /**
+   * Write the header of a definite length array; the members are written after it.
+   */
+  void writeArrayHeader(int members) {
+    writeHead(CBORScanner.MAJOR_ARRAY, members);
+  }
+
+  /**
+   * Write a byte string, or nil if the value is null. The array is referenced, not copied, so it
+   * must not be changed before the output is produced.
+   */
+  void writeByteString(byte[] value) {
+    if (value == null) {
+      writeNull();
+    } else {
+      writeByteString(value, 0, value.length);
+    }
+  }
+
+  /**
+   * Write a byte string taken from a range of an array, which is referenced, not copied.
+   */
+  void writeByteString(byte[] value, int offset, int length) {
+    writeHead(CBORScanner.MAJOR_BYTES, length);
+    addPart(value, offset, length);
+  }
+
+  void writeNull() {
+    int start = reserveHead(1);
+    heads[start] = NULL;
+    addPart(null, start, 1);
+  }
+
+  /**
+   * Write a complete, already encoded data item.
+   */
+  void writeEncoded(byte[] encoded) {
+    addPart(encoded, 0, encoded.length);
+  }
+
+  /**
+   * @return the exact number of bytes that will be produced
+   */
+  long size() {
+    return size;
+  }
+
+  byte[] toByteArray() throws CoseException {
+    if (size > Integer.MAX_VALUE - 8) {
+      throw new CoseException("Encoded message is too large");
+    }
+    byte[] out = new byte[(int) size];
+    int pos = 0;
+    for (int i = 0; i < count; i++) {
+      System.arraycopy(source(i), offsets[i], out, pos, lengths[i]);
+      pos += lengths[i];
+    }
+    return out;
+  }
+
+  void writeTo(OutputStream out) throws IOException {
+    for (int i = 0; i < count; i++) {
+      out.write(source(i), offsets[i], lengths[i]);
+    }
+  }
+
+  /**
+   * Write the output to a buffer. Nothing is written if the buffer does not have enough space.
+   *
+   * @throws BufferOverflowException if fewer than {@link #size()} bytes remain in the buffer
+   */
+  void writeTo(ByteBuffer buffer) {
+    if (buffer.remaining() < size) {
+      throw new BufferOverflowException();
+    }
+    for (int i = 0; i < count; i++) {
+      buffer.put(source(i), offsets[i], lengths[i]);
+    }
+  }
+
+  private byte[] source(int part) {
+    return arrays[part] == null ? heads : arrays[part];
+  }
+
+  private void writeHead(int major, long argument) {
+    int initial = major << 5;
+    int start;
+    if (argument < 24) {
+      start = reserveHead(1);
+      heads[start] = (byte) (initial | (int) argument);
+      addPart(null, start, 1);
+      return;
+    }
+
+    int width;
+    if (argument <= 0xffL) {
+      width = 1;
+      initial |= 24;
+    } else if (argument <= 0xffffL) {
+      width = 2;
+      initial |= 25;
+    } else if (argument <= 0xffffffffL) {
+      width = 4;
+      initial |= 26;
+    } else {
+      width = 8;
+      initial |= 27;
+    }
+
+    start = reserveHead(1 + width);
+    heads[start] = (byte) initial;
+    for (int i = width; i > 0; i--) {
+      heads[start + i] = (byte) argument;
+      argument >>>= 8;
+    }
+    addPart(null, start, 1 + width);
+  }
+
+  private int reserveHead(int length) {
+    if (headsLength + length > heads.length) {
+      heads = Arrays.copyOf(heads, heads.length * 2);
+    }
+    int start = headsLength;
+    headsLength += length;
+    return start;
+  }
+
+  private void addPart(byte[] array, int offset, int length) {
+    if (length == 0) {
+      return;
+    }
+    // Consecutive heads are merged so a run of headers is copied in one go
+    if (array == null && count > 0 && arrays[count - 1] == null
+        && offsets[count - 1] + lengths[count - 1] == offset) {
+      lengths[count - 1] += length;
+      size += length;
+      return;
+    }
+    if (count == arrays.length) {
+      arrays = Arrays.copyOf(arrays, count * 2);
+      offsets = Arrays.copyOf(offsets, count * 2);
+      lengths = Arrays.copyOf(lengths, count * 2);
+    }
+    arrays[count] = array;
+    offsets[count] = offset;
+    lengths[count] = length;
+    count++;
+    size += length;
+  }
+}
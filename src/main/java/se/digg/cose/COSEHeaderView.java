@@ -0,0 +1,354 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORException;
+import com.upokecenter.cbor.CBORObject;
+import com.upokecenter.cbor.CBORType;
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+/**
+ * The COSEHeaderView class provides a read only view of the header parameters of an encoded COSE
+ * message. It is intended for routing decisions where only the message type, algorithm, key
+ * identifier and content type are needed.
+ * <p>
+ * The view is created by walking the encoded structure with {@link #scan(byte[])}. Only the
+ * protected and unprotected header maps are decoded; the payload and the signature or
+ * authentication tag are located but not copied. Their positions in the input buffer are available
+ * through {@link #getPayloadOffset()} and {@link #getSignatureOffset()}. No cryptographic
+ * verification is done and no countersignatures are parsed; use
+ * {@link COSEObject#DecodeFromBytes(byte[], COSEObjectTag)} for that.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+public final class COSEHeaderView {
+
+  private final COSEObjectTag coseObjectTag;
+  private final CBORObject objProtected;
+  private final CBORObject objUnprotected;
+  private final int payloadOffset;
+  private final int payloadLength;
+  private final int signatureOffset;
+  private final int signatureLength;
+
+  private COSEHeaderView(
+      COSEObjectTag coseObjectTag,
+      CBORObject objProtected,
+      CBORObject objUnprotected,
+      int payloadOffset,
+      int payloadLength,
+      int signatureOffset,
+      int signatureLength) {
+    this.coseObjectTag = coseObjectTag;
+    this.objProtected = objProtected;
+    this.objUnprotected = objUnprotected;
+    this.payloadOffset = payloadOffset;
+    this.payloadLength = payloadLength;
+    this.signatureOffset = signatureOffset;
+    this.signatureLength = signatureLength;
+  }
+
+  /**
+   * Scan a tagged COSE message.
+   *
+   * @param rgbData encoded message
+   * @return header view of the message
+   * @throws CoseException if the message is not a well formed COSE message
+   */
+  public static COSEHeaderView scan(byte[] rgbData) throws CoseException {
+    return scan(rgbData, COSEObjectTag.Unknown);
+  }
+
+  /**
+   * Scan a COSE message. Use a value of {@code COSEObjectTag.Unknown} to require a leading tag, or
+   * a specific value if the tagging is absent. The same rules as for
+   * {@link COSEObject#DecodeFromBytes(byte[], COSEObjectTag)} apply, and no data may follow the
+   * message.
+   *
+   * @param rgbData encoded message
+   * @param defaultTag assumed message type to be scanned
+   * @return header view of the message
+   * @throws CoseException if the message is not a well formed COSE message
+   */
+  public static COSEHeaderView scan(byte[] rgbData, COSEObjectTag defaultTag)
+      throws CoseException {
+    CBORScanner scanner = new CBORScanner(rgbData);
+
+    int major = scanner.readHeader();
+    if (major == CBORScanner.MAJOR_TAG) {
+      COSEObjectTag tag = COSEObjectTag.FromInt(tagNumber(scanner.argument()));
+      if (defaultTag == COSEObjectTag.Unknown) {
+        defaultTag = tag;
+      } else if (defaultTag != tag) {
+        throw new CoseException("Passed in tag does not match actual tag");
+      }
+      major = scanner.readHeader();
+      if (major == CBORScanner.MAJOR_TAG) {
+        throw new CoseException("Malformed message - too many tags");
+      }
+    }
+
+    if (major != CBORScanner.MAJOR_ARRAY || scanner.isIndefinite()) {
+      throw new CoseException("COSEObject is not a COSE security COSEObject");
+    }
+    if (defaultTag == COSEObjectTag.Unknown) {
+      throw new CoseException(
+          "COSEObject was not tagged and no default tagging option given");
+    }
+    if (scanner.argument() != expectedSize(defaultTag)) {
+      throw new CoseException("Invalid " + defaultTag + " structure");
+    }
+
+    // protected headers - a byte string wrapping a map
+    int protectedLength = readByteString(scanner, defaultTag);
+    CBORObject objProtected;
+    if (protectedLength == 0) {
+      objProtected = CBORObject.NewMap();
+    } else {
+      objProtected = decodeMap(rgbData, scanner.position(), protectedLength, defaultTag);
+    }
+    scanner.skipBytes(protectedLength);
+
+    // unprotected headers - a map
+    int unprotectedStart = scanner.position();
+    scanner.skip();
+    CBORObject objUnprotected = decodeMap(
+        rgbData,
+        unprotectedStart,
+        scanner.position() - unprotectedStart,
+        defaultTag);
+
+    // payload or ciphertext - a byte string, possibly tagged, or nil
+    int payloadOffset = -1;
+    int payloadLength = -1;
+    int itemStart = scanner.position();
+    major = scanner.readHeader();
+    if (major == CBORScanner.MAJOR_BYTES && !scanner.isIndefinite()) {
+      if (scanner.argument() > rgbData.length - scanner.position()) {
+        throw new CoseException("Malformed CBOR - truncated data");
+      }
+      payloadLength = (int) scanner.argument();
+      payloadOffset = scanner.position();
+      scanner.skipBytes(payloadLength);
+    } else if (major == CBORScanner.MAJOR_TAG && defaultTag == COSEObjectTag.Sign1) {
+      // A tagged payload is signed in its encoded form, so report the whole item
+      scanner.skip();
+      payloadOffset = itemStart;
+      payloadLength = scanner.position() - itemStart;
+    } else if (!isNull(major, scanner.argument())) {
+      throw new CoseException("Invalid " + defaultTag + " structure");
+    }
+
+    // signature or tag - only present as a byte string for Sign1, MAC and MAC0
+    int signatureOffset = -1;
+    int signatureLength = -1;
+    if (defaultTag == COSEObjectTag.Sign1
+        || defaultTag == COSEObjectTag.MAC
+        || defaultTag == COSEObjectTag.MAC0) {
+      signatureLength = readByteString(scanner, defaultTag);
+      signatureOffset = scanner.position();
+      scanner.skipBytes(signatureLength);
+    }
+
+    // signers or recipients are not looked at, but must still be well formed
+    int remaining = expectedSize(defaultTag) - (signatureOffset < 0 ? 3 : 4);
+    for (int i = 0; i < remaining; i++) {
+      scanner.skip();
+    }
+    if (scanner.position() != rgbData.length) {
+      throw new CoseException("Malformed CBOR - extra data");
+    }
+
+    return new COSEHeaderView(
+        defaultTag,
+        objProtected,
+        objUnprotected,
+        payloadOffset,
+        payloadLength,
+        signatureOffset,
+        signatureLength);
+  }
+
+  private static int expectedSize(COSEObjectTag tag) throws CoseException {
+    switch (tag) {
+      case Encrypt0:
+        return 3;
+      case Encrypt:
+      case Sign:
+      case Sign1:
+      case MAC0:
+        return 4;
+      case MAC:
+        return 5;
+      default:
+        throw new CoseException(
+            "COSEObject is not recognized as a COSE security Object");
+    }
+  }
+
+  private static int tagNumber(long value) throws CoseException {
+    if (value > Integer.MAX_VALUE) {
+      throw new CoseException("Not a COSEObject tag number");
+    }
+    return (int) value;
+  }
+
+  private static boolean isNull(int major, long argument) {
+    return major == CBORScanner.MAJOR_SIMPLE && argument == 22;
+  }
+
+  private static int readByteString(CBORScanner scanner, COSEObjectTag tag)
+      throws CoseException {
+    if (scanner.readHeader() != CBORScanner.MAJOR_BYTES || scanner.isIndefinite()) {
+      throw new CoseException("Invalid " + tag + " structure");
+    }
+    long length = scanner.argument();
+    if (length > scanner.data().length - scanner.position()) {
+      throw new CoseException("Malformed CBOR - truncated data");
+    }
+    return (int) length;
+  }
+
+  private static CBORObject decodeMap(
+      byte[] rgbData,
+      int offset,
+      int length,
+      COSEObjectTag tag) throws CoseException {
+    ByteArrayInputStream in = new ByteArrayInputStream(rgbData, offset, length);
+    CBORObject map;
+    try {
+      map = CBORObject.Read(in);
+    } catch (CBORException ex) {
+      throw new CoseException("Invalid " + tag + " structure", ex);
+    }
+    // the map must fill the protected byte string exactly
+    if (map.getType() != CBORType.Map || in.available() != 0) {
+      throw new CoseException("Invalid " + tag + " structure");
+    }
+    return map;
+  }
+
+  /**
+   * Return the message type.
+   *
+   * @return the message tag, either from the encoded tag or the default passed to the scan
+   */
+  public COSEObjectTag getCOSEObjectTag() {
+    return coseObjectTag;
+  }
+
+  /**
+   * Locate a header parameter. The protected map is searched before the unprotected map.
+   *
+   * @param label header label to search for
+   * @return a copy of the value if found; otherwise null
+   */
+  public CBORObject findAttribute(HeaderKeys label) {
+    return findAttribute(label.AsCBOR());
+  }
+
+  /**
+   * Locate a header parameter. The protected map is searched before the unprotected map.
+   *
+   * @param label header label to search for
+   * @return a copy of the value if found; otherwise null
+   */
+  public CBORObject findAttribute(CBORObject label) {
+    CBORObject value = objProtected.get(label);
+    if (value == null) {
+      value = objUnprotected.get(label);
+    }
+    if (value == null) {
+      return null;
+    }
+    return CBORObject.DecodeFromBytes(value.EncodeToBytes());
+  }
+
+  /**
+   * Return the algorithm header parameter.
+   *
+   * @return the algorithm, or null if absent
+   * @throws CoseException if the value is not a known algorithm
+   */
+  public AlgorithmID getAlgorithm() throws CoseException {
+    CBORObject alg = findAttribute(HeaderKeys.Algorithm);
+    return alg == null ? null : AlgorithmID.FromCBOR(alg);
+  }
+
+  /**
+   * Return the key identifier header parameter.
+   *
+   * @return a copy of the key identifier, or null if absent or not a byte string
+   */
+  public byte[] getKeyId() {
+    CBORObject kid = findAttribute(HeaderKeys.KID);
+    if (kid == null || kid.getType() != CBORType.ByteString) {
+      return null;
+    }
+    return kid.GetByteString();
+  }
+
+  /**
+   * Return the content type header parameter.
+   *
+   * @return the content type, either an integer or a text string, or null if absent
+   */
+  public CBORObject getContentType() {
+    return findAttribute(HeaderKeys.CONTENT_TYPE);
+  }
+
+  /**
+   * Return the offset of the payload, or for encrypted messages the ciphertext, in the scanned
+   * buffer. For a Sign1 message carrying a tagged payload the range covers the complete encoded
+   * item, as that is what the signature is computed over.
+   *
+   * @return offset of the payload, or -1 if the content is detached
+   */
+  public int getPayloadOffset() {
+    return payloadOffset;
+  }
+
+  /**
+   * Return the length of the payload in the scanned buffer.
+   *
+   * @return length of the payload, or -1 if the content is detached
+   */
+  public int getPayloadLength() {
+    return payloadLength;
+  }
+
+  /**
+   * Return the offset of the signature of a Sign1 message, or of the authentication tag of a MAC or
+   * MAC0 message, in the scanned buffer.
+   *
+   * @return offset of the signature or tag, or -1 for other message types
+   */
+  public int getSignatureOffset() {
+    return signatureOffset;
+  }
+
+  /**
+   * Return the length of the signature or authentication tag in the scanned buffer.
+   *
+   * @return length of the signature or tag, or -1 for other message types
+   */
+  public int getSignatureLength() {
+    return signatureLength;
+  }
+
+  /**
+   * Return the payload bytes. This copies the payload out of the scanned buffer.
+   *
+   * @param rgbData the buffer that was scanned
+   * @return a copy of the payload, or null if the content is detached
+   */
+  public byte[] getPayload(byte[] rgbData) {
+    if (payloadOffset < 0) {
+      return null;
+    }
+    return Arrays.copyOfRange(rgbData, payloadOffset, payloadOffset + payloadLength);
+  }
+}
@@ -8,6 +8,7 @@ package se.digg.cose;
 import com.upokecenter.cbor.CBORObject;
 import com.upokecenter.cbor.CBORType;
 import java.math.BigInteger;
+import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.KeyFactory;
@@ -18,13 +19,28 @@ import java.security.NoSuchProviderException;
 import java.security.PrivateKey;
 import java.security.Provider;
 import java.security.PublicKey;
+import java.security.Key;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.EdECKey;
+import java.security.interfaces.EdECPrivateKey;
+import java.security.interfaces.EdECPublicKey;
 import java.security.interfaces.RSAPrivateCrtKey;
+import java.security.interfaces.XECKey;
+import java.security.interfaces.XECPrivateKey;
+import java.security.interfaces.XECPublicKey;
+import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
 import java.security.spec.ECPoint;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.security.spec.EdECPoint;
+import java.security.spec.EdECPrivateKeySpec;
+import java.security.spec.EdECPublicKeySpec;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.KeySpec;
+import java.security.spec.NamedParameterSpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.RSAMultiPrimePrivateCrtKeySpec;
 import java.security.spec.RSAOtherPrimeInfo;
@@ -32,11 +48,17 @@ import java.security.spec.RSAPrivateCrtKeySpec;
 import java.security.spec.RSAPrivateKeySpec;
 import java.security.spec.RSAPublicKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.security.spec.XECPrivateKeySpec;
+import java.security.spec.XECPublicKeySpec;
 import java.util.ArrayList;
 import java.util.Arrays;
+import javax.security.auth.DestroyFailedException;
 import net.i2p.crypto.eddsa.EdDSAPrivateKey;
 import net.i2p.crypto.eddsa.EdDSAPublicKey;
 import net.i2p.crypto.eddsa.spec.EdDSAGenParameterSpec;
+import net.i2p.crypto.eddsa.spec.EdDSANamedCurveTable;
+import net.i2p.crypto.eddsa.spec.EdDSAPrivateKeySpec;
+import net.i2p.crypto.eddsa.spec.EdDSAPublicKeySpec;
 
 /**
  *
@@ -48,6 +70,9 @@ public class COSEKey {
   private PrivateKey privateKey;
   private PublicKey publicKey;
   private CryptoContext cryptoContext = new CryptoContext(null);
+  private volatile byte[] thumbprint;
+  private volatile boolean hot;
+  private volatile HotKeyVerifier hotKeyVerifier;
 
   public COSEKey() {
     keyMap = CBORObject.NewMap();
@@ -61,12 +86,43 @@ public class COSEKey {
   }
 
   public COSEKey(CBORObject keyData) throws CoseException {
+    this(keyData, null);
+  }
+
+  /**
+   * Create a COSEKey object from a COSE_Key, building the JCA keys with the providers and the
+   * {@link EdDSABackend} of a context.
+   *
+   * @param keyData COSE_Key map
+   * @param context context to take the providers from, or null for the defaults
+   * @throws CoseException if the key is malformed or not supported
+   */
+  public COSEKey(CBORObject keyData, CryptoContext context) throws CoseException {
+    if (context != null) {
+      cryptoContext.copyProvidersFrom(context);
+    }
     if (keyData.getType() != CBORType.Map) {
       throw new CoseException(
           "Key data is malformed");
     }
     keyMap = keyData;
-    CheckKeyState();
+
+    CoseMetrics metrics = cryptoContext.getMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    CoseEvents.KeyImportEvent event = new CoseEvents.KeyImportEvent();
+    event.begin();
+    long start = System.nanoTime();
+    try {
+      CheckKeyState();
+      outcome = CoseMetrics.Outcome.SUCCESS;
+    } finally {
+      if (metrics != CoseMetrics.NONE || event.shouldCommit()) {
+        AlgorithmID alg = CryptoContext.reportedAlgorithm(get(KeyKeys.Algorithm));
+        CryptoContext.record(
+            metrics, CoseMetrics.Operation.KEY_IMPORT, alg, COSEObjectTag.Unknown, start, outcome);
+        event.complete(alg, COSEObjectTag.Unknown, 0, 0, outcome);
+      }
+    }
   }
 
   /**
@@ -80,210 +136,324 @@ public class COSEKey {
     keyMap = CBORObject.NewMap();
 
     if (pubKey != null) {
-      ArrayList<ASN1.TagValue> spki = ASN1.DecodeSubjectPublicKeyInfo(
-          pubKey.getEncoded());
-      ArrayList<ASN1.TagValue> alg = spki.get(0).list;
-      if (Arrays.equals(alg.get(0).value, ASN1.oid_ecPublicKey)) {
-        byte[] oid = (byte[]) alg.get(1).value;
-        if (oid == null) {
-          throw new CoseException("Invalid SPKI structure");
-        }
-        // EC2 Key
-        keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2);
-        if (Arrays.equals(oid, ASN1.Oid_secp256r1)) {
-          keyMap.Add(
-              KeyKeys.EC2_Curve.AsCBOR(),
-              KeyKeys.EC2_P256);
-        } else if (Arrays.equals(oid, ASN1.Oid_secp384r1)) {
-          keyMap.Add(
-              KeyKeys.EC2_Curve.AsCBOR(),
-              KeyKeys.EC2_P384);
-        } else if (Arrays.equals(oid, ASN1.Oid_secp521r1)) {
-          keyMap.Add(
-              KeyKeys.EC2_Curve.AsCBOR(),
-              KeyKeys.EC2_P521);
-        } else {
-          throw new CoseException("Unsupported curve");
-        }
+      // Take the fields from the key directly where the key type allows it, otherwise decode the
+      // SPKI encoding
+      if (!addPublicKeyFields(pubKey)) {
+        ArrayList<ASN1.TagValue> spki = ASN1.DecodeSubjectPublicKeyInfo(
+            pubKey.getEncoded());
+        ArrayList<ASN1.TagValue> alg = spki.get(0).list;
+        if (Arrays.equals(alg.get(0).value, ASN1.oid_ecPublicKey)) {
+          byte[] oid = (byte[]) alg.get(1).value;
+          if (oid == null) {
+            throw new CoseException("Invalid SPKI structure");
+          }
+          // EC2 Key
+          keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2);
+          if (Arrays.equals(oid, ASN1.Oid_secp256r1)) {
+            keyMap.Add(
+                KeyKeys.EC2_Curve.AsCBOR(),
+                KeyKeys.EC2_P256);
+          } else if (Arrays.equals(oid, ASN1.Oid_secp384r1)) {
+            keyMap.Add(
+                KeyKeys.EC2_Curve.AsCBOR(),
+                KeyKeys.EC2_P384);
+          } else if (Arrays.equals(oid, ASN1.Oid_secp521r1)) {
+            keyMap.Add(
+                KeyKeys.EC2_Curve.AsCBOR(),
+                KeyKeys.EC2_P521);
+          } else {
+            throw new CoseException("Unsupported curve");
+          }
 
-        byte[] keyData = (byte[]) spki.get(1).value;
-        if (keyData[1] == 2 || keyData[1] == 3) {
-          keyMap.Add(
-              KeyKeys.EC2_X.AsCBOR(),
-              Arrays.copyOfRange(keyData, 2, keyData.length));
-          keyMap.Add(KeyKeys.EC2_Y.AsCBOR(), keyData[1] != 2);
-        } else if (keyData[1] == 4) {
-          int keyLength = (keyData.length - 2) / 2;
-          keyMap.Add(
-              KeyKeys.EC2_X.AsCBOR(),
-              Arrays.copyOfRange(keyData, 2, 2 + keyLength));
-          keyMap.Add(
-              KeyKeys.EC2_Y.AsCBOR(),
-              Arrays.copyOfRange(keyData, 2 + keyLength, keyData.length));
-        } else {
-          throw new CoseException("Invalid key data");
-        }
-      } else if (Arrays.equals(alg.get(0).value, ASN1.Oid_rsaEncryption)) {
-        ASN1.TagValue compound = ASN1.DecodeCompound(1, spki.get(1).value);
-        if (compound.list == null || compound.list.size() != 2) {
-          throw new CoseException("Invalid SPKI structure");
-        }
+          byte[] keyData = (byte[]) spki.get(1).value;
+          if (keyData[1] == 2 || keyData[1] == 3) {
+            keyMap.Add(
+                KeyKeys.EC2_X.AsCBOR(),
+                Arrays.copyOfRange(keyData, 2, keyData.length));
+            keyMap.Add(KeyKeys.EC2_Y.AsCBOR(), keyData[1] != 2);
+          } else if (keyData[1] == 4) {
+            int keyLength = (keyData.length - 2) / 2;
+            keyMap.Add(
+                KeyKeys.EC2_X.AsCBOR(),
+                Arrays.copyOfRange(keyData, 2, 2 + keyLength));
+            keyMap.Add(
+                KeyKeys.EC2_Y.AsCBOR(),
+                Arrays.copyOfRange(keyData, 2 + keyLength, keyData.length));
+          } else {
+            throw new CoseException("Invalid key data");
+          }
+        } else if (Arrays.equals(alg.get(0).value, ASN1.Oid_rsaEncryption)) {
+          ASN1.TagValue compound = ASN1.DecodeCompound(1, spki.get(1).value);
+          if (compound.list == null || compound.list.size() != 2) {
+            throw new CoseException("Invalid SPKI structure");
+          }
 
-        ASN1.TagValue n = compound.list.get(0);
-        ASN1.TagValue e = compound.list.get(1);
+          ASN1.TagValue n = compound.list.get(0);
+          ASN1.TagValue e = compound.list.get(1);
 
-        if (n.tag != 2 || e.tag != 2) {
-          throw new CoseException("Invalid SPKI structure");
-        }
+          if (n.tag != 2 || e.tag != 2) {
+            throw new CoseException("Invalid SPKI structure");
+          }
 
-        keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_RSA);
-        keyMap.Add(KeyKeys.RSA_N.AsCBOR(), n.value);
-        keyMap.Add(KeyKeys.RSA_E.AsCBOR(), e.value);
-      } else if (ASN1.isEdXOid(alg.get(0).value)) {
-        byte[] oid = (byte[]) alg.get(0).value;
-        if (oid == null) {
-          throw new CoseException("Invalid SPKI structure");
-        }
+          keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_RSA);
+          keyMap.Add(KeyKeys.RSA_N.AsCBOR(), n.value);
+          keyMap.Add(KeyKeys.RSA_E.AsCBOR(), e.value);
+        } else if (ASN1.isEdXOid(alg.get(0).value)) {
+          byte[] oid = (byte[]) alg.get(0).value;
+          if (oid == null) {
+            throw new CoseException("Invalid SPKI structure");
+          }
 
-        // OKP Key
-        keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_OKP);
-        keyMap.Add(KeyKeys.Algorithm.AsCBOR(), AlgorithmID.EDDSA.AsCBOR());
-        if (Arrays.equals(oid, ASN1.Oid_X25519)) {
-          keyMap.Add(
-              KeyKeys.OKP_Curve.AsCBOR(),
-              KeyKeys.OKP_X25519);
-        } else if (Arrays.equals(oid, ASN1.Oid_X448)) {
-          keyMap.Add(
-              KeyKeys.OKP_Curve.AsCBOR(),
-              KeyKeys.OKP_X448);
-        } else if (Arrays.equals(oid, ASN1.Oid_Ed25519)) {
-          keyMap.Add(
-              KeyKeys.OKP_Curve.AsCBOR(),
-              KeyKeys.OKP_Ed25519);
-        } else if (Arrays.equals(oid, ASN1.Oid_Ed448)) {
-          keyMap.Add(
-              KeyKeys.OKP_Curve.AsCBOR(),
-              KeyKeys.OKP_Ed448);
-        } else {
-          throw new CoseException("Unsupported curve");
-        }
+          // OKP Key
+          keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_OKP);
+          if (isEdDSAOid(oid)) {
+            keyMap.Add(KeyKeys.Algorithm.AsCBOR(), AlgorithmID.EDDSA.AsCBOR());
+          }
+          if (Arrays.equals(oid, ASN1.Oid_X25519)) {
+            keyMap.Add(
+                KeyKeys.OKP_Curve.AsCBOR(),
+                KeyKeys.OKP_X25519);
+          } else if (Arrays.equals(oid, ASN1.Oid_X448)) {
+            keyMap.Add(
+                KeyKeys.OKP_Curve.AsCBOR(),
+                KeyKeys.OKP_X448);
+          } else if (Arrays.equals(oid, ASN1.Oid_Ed25519)) {
+            keyMap.Add(
+                KeyKeys.OKP_Curve.AsCBOR(),
+                KeyKeys.OKP_Ed25519);
+          } else if (Arrays.equals(oid, ASN1.Oid_Ed448)) {
+            keyMap.Add(
+                KeyKeys.OKP_Curve.AsCBOR(),
+                KeyKeys.OKP_Ed448);
+          } else {
+            throw new CoseException("Unsupported curve");
+          }
 
-        byte[] keyData = (byte[]) spki.get(1).value;
-        if (keyData[0] == 0) {
-          keyMap.Add(
-              KeyKeys.OKP_X.AsCBOR(),
-              Arrays.copyOfRange(keyData, 1, keyData.length));
+          byte[] keyData = (byte[]) spki.get(1).value;
+          if (keyData[0] == 0) {
+            keyMap.Add(
+                KeyKeys.OKP_X.AsCBOR(),
+                Arrays.copyOfRange(keyData, 1, keyData.length));
+          } else {
+            throw new CoseException("Invalid key data");
+          }
         } else {
-          throw new CoseException("Invalid key data");
+          throw new CoseException("Unsupported Algorithm");
         }
-      } else {
-        throw new CoseException("Unsupported Algorithm");
       }
 
       this.publicKey = pubKey;
     }
 
     if (privKey != null) {
-      ArrayList<ASN1.TagValue> pkl = ASN1.DecodePKCS8Structure(
-          privKey.getEncoded());
-      if (pkl.get(0).tag != 2) {
-        throw new CoseException(
-            "Invalid PKCS8 structure");
-      }
-      ArrayList<ASN1.TagValue> alg = pkl.get(1).list;
-
-      if (Arrays.equals(alg.get(0).value, ASN1.oid_ecPublicKey)) {
-        byte[] oid = (byte[]) alg.get(1).value;
-        if (oid == null) {
-          throw new CoseException("Invalid PKCS8 structure");
+      if (!addPrivateKeyFields(privKey)) {
+        ArrayList<ASN1.TagValue> pkl = ASN1.DecodePKCS8Structure(
+            privKey.getEncoded());
+        if (pkl.get(0).tag != 2) {
+          throw new CoseException(
+              "Invalid PKCS8 structure");
         }
-        // EC2 Key
-        if (!keyMap.ContainsKey(KeyKeys.KeyType.AsCBOR())) {
-          keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2);
-          if (Arrays.equals(oid, ASN1.Oid_secp256r1)) {
-            keyMap.Add(KeyKeys.EC2_Curve.AsCBOR(), KeyKeys.EC2_P256);
-          } else if (Arrays.equals(oid, ASN1.Oid_secp384r1)) {
-            keyMap.Add(KeyKeys.EC2_Curve.AsCBOR(), KeyKeys.EC2_P384);
-          } else if (Arrays.equals(oid, ASN1.Oid_secp521r1)) {
-            keyMap.Add(KeyKeys.EC2_Curve.AsCBOR(), KeyKeys.EC2_P521);
-          } else {
-            throw new CoseException("Unsupported curve");
+        ArrayList<ASN1.TagValue> alg = pkl.get(1).list;
+
+        if (Arrays.equals(alg.get(0).value, ASN1.oid_ecPublicKey)) {
+          byte[] oid = (byte[]) alg.get(1).value;
+          if (oid == null) {
+            throw new CoseException("Invalid PKCS8 structure");
           }
-        } else {
-          if (!this.get(KeyKeys.KeyType).equals(KeyKeys.KeyType_EC2)) {
-            throw new CoseException("Public/Private key don't match");
+          // EC2 Key
+          if (!keyMap.ContainsKey(KeyKeys.KeyType.AsCBOR())) {
+            keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2);
+            if (Arrays.equals(oid, ASN1.Oid_secp256r1)) {
+              keyMap.Add(KeyKeys.EC2_Curve.AsCBOR(), KeyKeys.EC2_P256);
+            } else if (Arrays.equals(oid, ASN1.Oid_secp384r1)) {
+              keyMap.Add(KeyKeys.EC2_Curve.AsCBOR(), KeyKeys.EC2_P384);
+            } else if (Arrays.equals(oid, ASN1.Oid_secp521r1)) {
+              keyMap.Add(KeyKeys.EC2_Curve.AsCBOR(), KeyKeys.EC2_P521);
+            } else {
+              throw new CoseException("Unsupported curve");
+            }
+          } else {
+            if (!this.get(KeyKeys.KeyType).equals(KeyKeys.KeyType_EC2)) {
+              throw new CoseException("Public/Private key don't match");
+            }
           }
-        }
 
-        ArrayList<ASN1.TagValue> pkdl = ASN1.DecodePKCS8EC(pkl);
-        if (pkdl.get(1).tag != 4) {
-          throw new CoseException(
-              "Invalid PKCS8 structure");
-        }
-        byte[] keyData = pkdl.get(1).value;
-        keyMap.Add(KeyKeys.EC2_D.AsCBOR(), keyData);
-      } else if (Arrays.equals(alg.get(0).value, ASN1.Oid_rsaEncryption)) {
-        ArrayList<ASN1.TagValue> pkdl = ASN1.DecodePKCS8RSA(pkl);
+          ArrayList<ASN1.TagValue> pkdl = ASN1.DecodePKCS8EC(pkl);
+          if (pkdl.get(1).tag != 4) {
+            throw new CoseException(
+                "Invalid PKCS8 structure");
+          }
+          byte[] keyData = pkdl.get(1).value;
+          keyMap.Add(KeyKeys.EC2_D.AsCBOR(), keyData);
+        } else if (Arrays.equals(alg.get(0).value, ASN1.Oid_rsaEncryption)) {
+          ArrayList<ASN1.TagValue> pkdl = ASN1.DecodePKCS8RSA(pkl);
 
-        if (!keyMap.ContainsKey(KeyKeys.RSA_N.AsCBOR())) {
-          keyMap.Add(KeyKeys.RSA_N.AsCBOR(), pkdl.get(1).value);
-        }
+          if (!keyMap.ContainsKey(KeyKeys.RSA_N.AsCBOR())) {
+            keyMap.Add(KeyKeys.RSA_N.AsCBOR(), pkdl.get(1).value);
+          }
 
-        if (!keyMap.ContainsKey(KeyKeys.RSA_E.AsCBOR())) {
-          keyMap.Add(KeyKeys.RSA_E.AsCBOR(), pkdl.get(2).value);
-        }
+          if (!keyMap.ContainsKey(KeyKeys.RSA_E.AsCBOR())) {
+            keyMap.Add(KeyKeys.RSA_E.AsCBOR(), pkdl.get(2).value);
+          }
 
-        keyMap.Add(KeyKeys.RSA_D.AsCBOR(), pkdl.get(3).value);
-        keyMap.Add(KeyKeys.RSA_P.AsCBOR(), pkdl.get(4).value);
-        keyMap.Add(KeyKeys.RSA_Q.AsCBOR(), pkdl.get(5).value);
-        keyMap.Add(KeyKeys.RSA_DP.AsCBOR(), pkdl.get(6).value);
-        keyMap.Add(KeyKeys.RSA_DQ.AsCBOR(), pkdl.get(7).value);
-        keyMap.Add(KeyKeys.RSA_QI.AsCBOR(), pkdl.get(8).value);
-        // todo multi prime keys
-      } else if (ASN1.isEdXOid(alg.get(0).value)) {
-        byte[] oid = (byte[]) alg.get(0).value;
-        if (oid == null)
-          throw new CoseException("Invalid PKCS8 structure");
-        // OKP Key
-        if (!keyMap.ContainsKey(KeyKeys.KeyType.AsCBOR())) {
-          keyMap.Add(KeyKeys.Algorithm.AsCBOR(), AlgorithmID.EDDSA.AsCBOR());
-          if (Arrays.equals(oid, ASN1.Oid_X25519)) {
-            keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_X25519);
-          } else if (Arrays.equals(oid, ASN1.Oid_X448)) {
-            keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_X448);
-          } else if (Arrays.equals(oid, ASN1.Oid_Ed25519)) {
-            keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_Ed25519);
-          } else if (Arrays.equals(oid, ASN1.Oid_Ed448)) {
-            keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_Ed448);
+          keyMap.Add(KeyKeys.RSA_D.AsCBOR(), pkdl.get(3).value);
+          keyMap.Add(KeyKeys.RSA_P.AsCBOR(), pkdl.get(4).value);
+          keyMap.Add(KeyKeys.RSA_Q.AsCBOR(), pkdl.get(5).value);
+          keyMap.Add(KeyKeys.RSA_DP.AsCBOR(), pkdl.get(6).value);
+          keyMap.Add(KeyKeys.RSA_DQ.AsCBOR(), pkdl.get(7).value);
+          keyMap.Add(KeyKeys.RSA_QI.AsCBOR(), pkdl.get(8).value);
+          // todo multi prime keys
+        } else if (ASN1.isEdXOid(alg.get(0).value)) {
+          byte[] oid = (byte[]) alg.get(0).value;
+          if (oid == null)
+            throw new CoseException("Invalid PKCS8 structure");
+          // OKP Key
+          if (!keyMap.ContainsKey(KeyKeys.KeyType.AsCBOR())) {
+            if (isEdDSAOid(oid)) {
+              keyMap.Add(KeyKeys.Algorithm.AsCBOR(), AlgorithmID.EDDSA.AsCBOR());
+            }
+            if (Arrays.equals(oid, ASN1.Oid_X25519)) {
+              keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_X25519);
+            } else if (Arrays.equals(oid, ASN1.Oid_X448)) {
+              keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_X448);
+            } else if (Arrays.equals(oid, ASN1.Oid_Ed25519)) {
+              keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_Ed25519);
+            } else if (Arrays.equals(oid, ASN1.Oid_Ed448)) {
+              keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_Ed448);
+            } else {
+              throw new CoseException("Unsupported curve");
+            }
           } else {
-            throw new CoseException("Unsupported curve");
+            if (!this.get(KeyKeys.KeyType).equals(KeyKeys.KeyType_OKP)) {
+              throw new CoseException("Public/Private key don't match");
+            }
           }
+
+          ArrayList<ASN1.TagValue> pkdl = ASN1.DecodePKCS8EC(pkl);
+          if (pkdl.get(0).tag != 4)
+            throw new CoseException(
+                "Invalid PKCS8 structure");
+          byte[] keyData = (byte[]) pkdl.get(0).value;
+          keyMap.Add(KeyKeys.OKP_D.AsCBOR(), keyData);
         } else {
-          if (!this.get(KeyKeys.KeyType).equals(KeyKeys.KeyType_OKP)) {
-            throw new CoseException("Public/Private key don't match");
-          }
+          throw new CoseException("Unsupported Algorithm");
         }
-
-        ArrayList<ASN1.TagValue> pkdl = ASN1.DecodePKCS8EC(pkl);
-        if (pkdl.get(0).tag != 4)
-          throw new CoseException(
-              "Invalid PKCS8 structure");
-        byte[] keyData = (byte[]) pkdl.get(0).value;
-        keyMap.Add(KeyKeys.OKP_D.AsCBOR(), keyData);
-      } else {
-        throw new CoseException("Unsupported Algorithm");
       }
 
       this.privateKey = privKey;
     }
   }
 
+  /**
+   * Fill in the key map from the getters of an EC, Edwards or Montgomery public key.
+   *
+   * @return false if the key type is not handled here
+   */
+  private boolean addPublicKeyFields(PublicKey pubKey) {
+    if (pubKey instanceof ECPublicKey) {
+      ECPublicKey ecKey = (ECPublicKey) pubKey;
+      CBORObject curve = EC2Curves.fromParameterSpec(ecKey.getParams());
+      if (curve == null) {
+        return false;
+      }
+      int size = (ecKey.getParams().getCurve().getField().getFieldSize() + 7) / 8;
+      keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2);
+      keyMap.Add(KeyKeys.EC2_Curve.AsCBOR(), curve);
+      keyMap.Add(
+          KeyKeys.EC2_X.AsCBOR(),
+          EC2Curves.toFixedBytes(ecKey.getW().getAffineX(), size));
+      keyMap.Add(
+          KeyKeys.EC2_Y.AsCBOR(),
+          EC2Curves.toFixedBytes(ecKey.getW().getAffineY(), size));
+      return true;
+    }
+    if (pubKey instanceof EdDSAPublicKey
+        && EdDSANamedCurveTable.ED_25519_CURVE_SPEC.equals(
+            ((EdDSAPublicKey) pubKey).getParams())) {
+      keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_OKP);
+      keyMap.Add(KeyKeys.Algorithm.AsCBOR(), AlgorithmID.EDDSA.AsCBOR());
+      keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_Ed25519);
+      keyMap.Add(KeyKeys.OKP_X.AsCBOR(), ((EdDSAPublicKey) pubKey).getAbyte());
+      return true;
+    }
+    CBORObject curve = okpCurve(pubKey);
+    byte[] rgbX = okpEncodedPoint(pubKey);
+    if (curve != null && rgbX != null) {
+      keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_OKP);
+      if (pubKey instanceof EdECKey) {
+        keyMap.Add(KeyKeys.Algorithm.AsCBOR(), AlgorithmID.EDDSA.AsCBOR());
+      }
+      keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), curve);
+      keyMap.Add(KeyKeys.OKP_X.AsCBOR(), rgbX);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Fill in the key map from the getters of an EC, Edwards or Montgomery private key.
+   *
+   * @return false if the key type is not handled here
+   * @throws CoseException if the private key does not match the public key
+   */
+  private boolean addPrivateKeyFields(PrivateKey privKey) throws CoseException {
+    if (privKey instanceof ECPrivateKey) {
+      ECPrivateKey ecKey = (ECPrivateKey) privKey;
+      CBORObject curve = EC2Curves.fromParameterSpec(ecKey.getParams());
+      if (curve == null) {
+        return false;
+      }
+      if (!keyMap.ContainsKey(KeyKeys.KeyType.AsCBOR())) {
+        keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2);
+        keyMap.Add(KeyKeys.EC2_Curve.AsCBOR(), curve);
+      } else if (!this.get(KeyKeys.KeyType).equals(KeyKeys.KeyType_EC2)) {
+        throw new CoseException("Public/Private key don't match");
+      }
+      int size = (ecKey.getParams().getCurve().getField().getFieldSize() + 7) / 8;
+      keyMap.Add(KeyKeys.EC2_D.AsCBOR(), EC2Curves.toFixedBytes(ecKey.getS(), size));
+      return true;
+    }
+    if (privKey instanceof EdDSAPrivateKey
+        && EdDSANamedCurveTable.ED_25519_CURVE_SPEC.equals(
+            ((EdDSAPrivateKey) privKey).getParams())) {
+      if (!keyMap.ContainsKey(KeyKeys.KeyType.AsCBOR())) {
+        keyMap.Add(KeyKeys.Algorithm.AsCBOR(), AlgorithmID.EDDSA.AsCBOR());
+        keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), KeyKeys.OKP_Ed25519);
+      } else if (!this.get(KeyKeys.KeyType).equals(KeyKeys.KeyType_OKP)) {
+        throw new CoseException("Public/Private key don't match");
+      }
+      keyMap.Add(KeyKeys.OKP_D.AsCBOR(), ((EdDSAPrivateKey) privKey).getSeed());
+      return true;
+    }
+    CBORObject curve = okpCurve(privKey);
+    byte[] rgbD = okpPrivateValue(privKey);
+    if (curve != null && rgbD != null) {
+      if (!keyMap.ContainsKey(KeyKeys.KeyType.AsCBOR())) {
+        keyMap.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_OKP);
+        if (privKey instanceof EdECKey) {
+          keyMap.Add(KeyKeys.Algorithm.AsCBOR(), AlgorithmID.EDDSA.AsCBOR());
+        }
+        keyMap.Add(KeyKeys.OKP_Curve.AsCBOR(), curve);
+      } else if (!this.get(KeyKeys.KeyType).equals(KeyKeys.KeyType_OKP)
+          || !curve.equals(this.get(KeyKeys.OKP_Curve))) {
+        throw new CoseException("Public/Private key don't match");
+      }
+      keyMap.Add(KeyKeys.OKP_D.AsCBOR(), rgbD);
+      return true;
+    }
+    return false;
+  }
+
   public void add(KeyKeys keyValue, CBORObject value) {
     keyMap.Add(keyValue.AsCBOR(), value);
+    thumbprint = null;
+    hotKeyVerifier = null;
   }
 
   public void add(CBORObject keyValue, CBORObject value) {
     keyMap.Add(keyValue, value);
+    thumbprint = null;
+    hotKeyVerifier = null;
   }
 
   public CBORObject get(KeyKeys keyValue) {
@@ -447,21 +617,26 @@ public class COSEKey {
               "Malformed key structure");
         }
         try {
-          byte[] privateBytes = ASN1.EncodeEcPrivateKey(
-              oid,
-              val.GetByteString(),
-              null);
-          byte[] pkcs8 = ASN1.EncodePKCS8(
-              ASN1.AlgorithmIdentifier(ASN1.oid_ecPublicKey, oid),
-              privateBytes,
-              null);
-
-          KeyFactory fact = cryptoContext.getProvider() != null
-              ? KeyFactory.getInstance("EC", cryptoContext.getProvider())
-              : KeyFactory.getInstance("EC");
-          KeySpec keyspec = new PKCS8EncodedKeySpec(pkcs8);
-
-          privateKey = fact.generatePrivate(keyspec);
+          KeyFactory fact = cryptoContext.getKeyFactory("EC");
+
+          // Build the key from the scalar directly, the PKCS#8 encoding is only a fallback
+          try {
+            privateKey = fact.generatePrivate(new ECPrivateKeySpec(
+                new BigInteger(1, val.GetByteString()),
+                EC2Curves.getParameterSpec(cn)));
+          } catch (InvalidKeySpecException | CoseException e) {
+            byte[] privateBytes = ASN1.EncodeEcPrivateKey(
+                oid,
+                val.GetByteString(),
+                null);
+            byte[] pkcs8 = ASN1.EncodePKCS8(
+                ASN1.AlgorithmIdentifier(ASN1.oid_ecPublicKey, oid),
+                privateBytes,
+                null);
+            KeySpec keyspec = new PKCS8EncodedKeySpec(pkcs8);
+
+            privateKey = fact.generatePrivate(keyspec);
+          }
         } catch (NoSuchAlgorithmException e) {
           throw new CoseException("Unsupported Algorithm", e);
         } catch (InvalidKeySpecException e) {
@@ -498,6 +673,35 @@ public class COSEKey {
         // todo: calculate (and populate) public from private
       }
 
+      KeyFactory fact = cryptoContext.getKeyFactory("EC");
+
+      // Build the key from the coordinates directly, the SPKI encoding is only a fallback
+      ECParameterSpec params = null;
+      try {
+        params = EC2Curves.getParameterSpec(cn);
+      } catch (CoseException e) {
+        // curve parameters not available from the installed providers
+      }
+      if (params != null) {
+        ECPoint w;
+        if (this.get(KeyKeys.EC2_Y).getType() == CBORType.Boolean) {
+          w = EC2Curves.decompress(
+              cn,
+              this.get(KeyKeys.EC2_X).GetByteString(),
+              this.get(KeyKeys.EC2_Y).AsBoolean());
+        } else {
+          w = new ECPoint(
+              new BigInteger(1, this.get(KeyKeys.EC2_X).GetByteString()),
+              new BigInteger(1, this.get(KeyKeys.EC2_Y).GetByteString()));
+        }
+        try {
+          publicKey = fact.generatePublic(new ECPublicKeySpec(w, params));
+          return;
+        } catch (InvalidKeySpecException e) {
+          // fall back to the SPKI encoding
+        }
+      }
+
       byte[] spki = null;
 
       if (spki == null) {
@@ -522,9 +726,6 @@ public class COSEKey {
             rgbKey);
       }
 
-      KeyFactory fact = cryptoContext.getProvider() != null
-          ? KeyFactory.getInstance("EC", cryptoContext.getProvider())
-          : KeyFactory.getInstance("EC");
       KeySpec keyspec = new X509EncodedKeySpec(spki);
       publicKey = fact.generatePublic(keyspec);
     } catch (NoSuchAlgorithmException e) {
@@ -712,9 +913,7 @@ public class COSEKey {
       }
 
       ECGenParameterSpec paramSpec = new ECGenParameterSpec(curveName);
-      KeyPairGenerator gen = provider != null
-          ? KeyPairGenerator.getInstance("EC", provider)
-          : KeyPairGenerator.getInstance("EC");
+      KeyPairGenerator gen = CryptoContext.getKeyPairGenerator("EC", provider);
       gen.initialize(paramSpec);
 
       KeyPair keyPair = gen.genKeyPair();
@@ -783,9 +982,7 @@ public class COSEKey {
       }
 
       ECGenParameterSpec paramSpec = new ECGenParameterSpec(curveName);
-      KeyPairGenerator gen = provider != null
-          ? KeyPairGenerator.getInstance("EC", provider)
-          : KeyPairGenerator.getInstance("EC");
+      KeyPairGenerator gen = CryptoContext.getKeyPairGenerator("EC", provider);
       gen.initialize(paramSpec);
 
       KeyPair keyPair = gen.genKeyPair();
@@ -859,6 +1056,164 @@ public class COSEKey {
     return newKey;
   }
 
+  /**
+   * Remove the private part of the key, overwriting the private key bytes in the key map. Used for
+   * ephemeral keys once the key agreement is done. The JCA private key is destroyed too where the
+   * provider supports it.
+   */
+  void destroyPrivateKey() {
+    COSEKey publicPart = PublicKey();
+    for (CBORObject label : new ArrayList<CBORObject>(keyMap.getKeys())) {
+      if (publicPart != null && publicPart.keyMap.ContainsKey(label)) {
+        continue;
+      }
+      CBORObject value = keyMap.get(label);
+      if (value.getType() == CBORType.ByteString) {
+        Arrays.fill(value.GetByteString(), (byte) 0);
+      }
+      keyMap.Remove(label);
+    }
+    if (privateKey != null) {
+      try {
+        privateKey.destroy();
+      } catch (DestroyFailedException ignored) {
+        // Most providers do not implement destroy; dropping the reference is all we can do
+      }
+      privateKey = null;
+    }
+  }
+
+  /**
+   * Mark the key as hot, one that verifies many signatures. The public key of a hot key is decoded
+   * once into the form the BouncyCastle signature engines work with, together with the table of
+   * multiples of the point that ECDSA verification uses, and kept with the key. Signatures with
+   * ECDSA on P-256, P-384 and P-521 and with EdDSA are then verified with the kept key, unless a
+   * provider is set for the algorithm in the {@link CryptoContext} of the key. Other algorithms
+   * are verified as usual. Changes made to the key with {@link #add(CBORObject, CBORObject)} cause
+   * the key to be decoded again.
+   * <p>
+   * This only helps when verification would otherwise go to the SunEC provider of the JDK, which
+   * decodes the key again for every signature. With BouncyCastle installed ahead of it the JCA keys
+   * already keep the same state, and marking a key hot gains nothing.
+   *
+   * @param hot true to keep the decoded public key
+   */
+  public void setHot(boolean hot) {
+    this.hot = hot;
+    if (!hot) {
+      hotKeyVerifier = null;
+    }
+  }
+
+  /**
+   * @return true if the key is marked hot
+   */
+  public boolean isHot() {
+    return hot;
+  }
+
+  /**
+   * @return the verifier kept with a hot key, or null if the key is not hot or its type is not
+   *         handled
+   */
+  HotKeyVerifier getHotKeyVerifier() throws CoseException {
+    if (!hot) {
+      return null;
+    }
+    HotKeyVerifier verifier = hotKeyVerifier;
+    if (verifier == null) {
+      verifier = HotKeyVerifier.create(this);
+      hotKeyVerifier = verifier;
+    }
+    return verifier;
+  }
+
+  /**
+   * Compute the COSE Key Thumbprint of the key with SHA-256, as defined in RFC 9679. The
+   * thumbprint identifies the key by its public part, so it can stand in for a missing key
+   * identifier. It is computed once and kept with the key; changes made to the key with
+   * {@link #add(CBORObject, CBORObject)} cause it to be computed again, changes made directly to
+   * the map returned by {@link #AsCBOR()} do not.
+   *
+   * @return the thumbprint
+   * @throws CoseException if the key type is not supported or a required member is missing
+   */
+  public byte[] getThumbprint() throws CoseException {
+    byte[] rgb = thumbprint;
+    if (rgb == null) {
+      rgb = computeThumbprint(keyMap, "SHA-256");
+      thumbprint = rgb;
+    }
+    return rgb.clone();
+  }
+
+  /**
+   * Compute the COSE Key Thumbprint of the key with another hash function, as defined in RFC 9679.
+   *
+   * @param digestAlgorithm JCA name of the hash function, for example "SHA-512"
+   * @return the thumbprint
+   * @throws CoseException if the key type or hash function is not supported or a required member
+   *         is missing
+   */
+  public byte[] getThumbprint(String digestAlgorithm) throws CoseException {
+    return computeThumbprint(keyMap, digestAlgorithm);
+  }
+
+  /**
+   * Compute the thumbprint of an encoded key without building a COSEKey from it.
+   *
+   * @param keyData COSE_Key map
+   * @param digestAlgorithm JCA name of the hash function
+   * @return the thumbprint
+   * @throws CoseException if the key type or hash function is not supported or a required member
+   *         is missing
+   */
+  static byte[] computeThumbprint(CBORObject keyData, String digestAlgorithm)
+      throws CoseException {
+    try {
+      return CryptoContext.getMessageDigest(digestAlgorithm).digest(thumbprintInput(keyData));
+    } catch (NoSuchAlgorithmException e) {
+      throw new CoseException("Unsupported hash algorithm " + digestAlgorithm, e);
+    }
+  }
+
+  /**
+   * Build the deterministically encoded map of the required members of a key that the thumbprint
+   * is computed over. The labels of these members are all small integers, so sorting them by their
+   * encoding gives kty, then -1, -2, -3.
+   */
+  static byte[] thumbprintInput(CBORObject keyData) throws CoseException {
+    CBORObject kty = keyData.get(KeyKeys.KeyType.AsCBOR());
+    KeyKeys[] members;
+    if (kty == null) {
+      throw new CoseException("Key is missing a required member for a thumbprint");
+    } else if (kty.equals(KeyKeys.KeyType_EC2)) {
+      members = new KeyKeys[] {KeyKeys.EC2_Curve, KeyKeys.EC2_X, KeyKeys.EC2_Y};
+    } else if (kty.equals(KeyKeys.KeyType_OKP)) {
+      members = new KeyKeys[] {KeyKeys.OKP_Curve, KeyKeys.OKP_X};
+    } else if (kty.equals(KeyKeys.KeyType_RSA)) {
+      members = new KeyKeys[] {KeyKeys.RSA_N, KeyKeys.RSA_E};
+    } else if (kty.equals(KeyKeys.KeyType_Octet)) {
+      members = new KeyKeys[] {KeyKeys.Octet_K};
+    } else {
+      throw new CoseException("Unsupported key type for a thumbprint");
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+    out.write(0xa0 + members.length + 1);
+    out.writeBytes(KeyKeys.KeyType.AsCBOR().EncodeToBytes());
+    out.writeBytes(kty.EncodeToBytes());
+    for (KeyKeys member : members) {
+      CBORObject value = keyData.get(member.AsCBOR());
+      if (value == null) {
+        throw new CoseException("Key is missing a required member for a thumbprint");
+      }
+      out.writeBytes(member.AsCBOR().EncodeToBytes());
+      out.writeBytes(value.EncodeToBytes());
+    }
+    return out.toByteArray();
+  }
+
   /**
    * Encode to a byte string
    *
@@ -927,24 +1282,33 @@ public class COSEKey {
     boolean needPublic = false;
     CBORObject val;
     String algName;
+    String providerName;
+    EdDSABackend backend = null;
 
     byte[] oid;
     CBORObject cn = this.get(KeyKeys.OKP_Curve);
-    if (cn == KeyKeys.OKP_Ed25519) {
-      oid = ASN1.Oid_Ed25519;
-      algName = "EdDSA";
-    } else if (cn == KeyKeys.OKP_Ed448) {
-      oid = ASN1.Oid_Ed448;
-      algName = "EdDSA";
+    if (cn == KeyKeys.OKP_Ed25519 || cn == KeyKeys.OKP_Ed448) {
+      oid = cn == KeyKeys.OKP_Ed25519 ? ASN1.Oid_Ed25519 : ASN1.Oid_Ed448;
+      backend = cryptoContext.getEdDSABackend(cn);
+      if (!backend.supports(cn)) {
+        throw new CoseException("Curve not supported by the " + backend + " EdDSA backend");
+      }
+      algName = backend.getKeyAlgorithm(cn);
+      providerName = backend.getProviderName();
     } else if (cn == KeyKeys.OKP_X25519) {
+      // Key agreement keys come from the provider the JCA selects
       oid = ASN1.Oid_X25519;
-      algName = "EdDH";
+      algName = "X25519";
+      providerName = null;
     } else if (cn == KeyKeys.OKP_X448) {
       oid = ASN1.Oid_X448;
-      algName = "ECDH";
+      algName = "X448";
+      providerName = null;
     } else {
       throw new CoseException("Key has an unknown curve");
     }
+    // The i2p keys can be built from the raw values without going through an encoding
+    boolean direct = backend == EdDSABackend.I2P && cryptoContext.getProvider() == null;
 
     try {
       val = this.get(KeyKeys.OKP_D);
@@ -952,23 +1316,39 @@ public class COSEKey {
         if (val.getType() != CBORType.ByteString)
           throw new CoseException(
               "Malformed key structure");
-        try {
-          byte[] privateKeyBytes = ASN1.EncodeOctetString(val.GetByteString());
-          byte[] pkcs8 = ASN1.EncodePKCS8(
-              ASN1.AlgorithmIdentifier(oid, null),
-              privateKeyBytes,
-              null);
-
-          KeyFactory fact = cryptoContext.getProvider() != null
-              ? KeyFactory.getInstance(algName, cryptoContext.getProvider())
-              : KeyFactory.getInstance(algName, "EdDSA");
-          KeySpec keyspec = new PKCS8EncodedKeySpec(pkcs8);
-
-          privateKey = fact.generatePrivate(keyspec);
-        } catch (NoSuchAlgorithmException e) {
-          throw new CoseException("Unsupported Algorithm", e);
-        } catch (InvalidKeySpecException e) {
-          throw new CoseException("Invalid Private Key", e);
+        if (direct) {
+          // Build the key from the seed directly, the PKCS#8 encoding is only a fallback
+          privateKey = ed25519PrivateKey(val.GetByteString());
+        }
+        if (privateKey == null) {
+          try {
+            KeyFactory fact = okpKeyFactory(algName, providerName);
+
+            // Build the key from the raw value with the JDK key spec, the PKCS#8 encoding is only
+            // a fallback for providers that do not take the spec
+            KeySpec spec = backend == EdDSABackend.I2P
+                ? null
+                : okpPrivateKeySpec(cn, val.GetByteString());
+            if (spec != null) {
+              try {
+                privateKey = fact.generatePrivate(spec);
+              } catch (InvalidKeySpecException e) {
+                privateKey = null;
+              }
+            }
+            if (privateKey == null) {
+              byte[] privateKeyBytes = ASN1.EncodeOctetString(val.GetByteString());
+              byte[] pkcs8 = ASN1.EncodePKCS8(
+                  ASN1.AlgorithmIdentifier(oid, null),
+                  privateKeyBytes,
+                  null);
+              privateKey = fact.generatePrivate(new PKCS8EncodedKeySpec(pkcs8));
+            }
+          } catch (NoSuchAlgorithmException e) {
+            throw new CoseException("Unsupported Algorithm", e);
+          } catch (InvalidKeySpecException e) {
+            throw new CoseException("Invalid Private Key", e);
+          }
         }
       }
 
@@ -988,21 +1368,37 @@ public class COSEKey {
         // todo: calculate (and populate) public from private
       }
 
-      byte[] spki = null;
+      if (direct) {
+        // Build the key from the encoded point directly, the SPKI encoding is only a fallback
+        try {
+          publicKey = new EdDSAPublicKey(new EdDSAPublicKeySpec(
+              this.get(KeyKeys.OKP_X).GetByteString(),
+              EdDSANamedCurveTable.ED_25519_CURVE_SPEC));
+          return;
+        } catch (IllegalArgumentException e) {
+          // fall back to the SPKI encoding
+        }
+      }
 
-      if (spki == null) {
-        byte[] rgbKey = this.get(KeyKeys.OKP_X).GetByteString();
+      byte[] rgbKey = this.get(KeyKeys.OKP_X).GetByteString();
+      KeyFactory fact = okpKeyFactory(algName, providerName);
 
-        spki = ASN1.EncodeSubjectPublicKeyInfo(
-            ASN1.AlgorithmIdentifier(oid, null),
-            rgbKey);
+      // Build the key from the encoded point with the JDK key spec, the SPKI encoding is only a
+      // fallback for providers that do not take the spec
+      KeySpec spec = backend == EdDSABackend.I2P ? null : okpPublicKeySpec(cn, rgbKey);
+      if (spec != null) {
+        try {
+          publicKey = fact.generatePublic(spec);
+          return;
+        } catch (InvalidKeySpecException e) {
+          // fall back to the SPKI encoding
+        }
       }
 
-      KeyFactory fact = cryptoContext.getProvider() != null
-          ? KeyFactory.getInstance("EdDSA", cryptoContext.getProvider())
-          : KeyFactory.getInstance("EdDSA", "EdDSA");
-      KeySpec keyspec = new X509EncodedKeySpec(spki);
-      publicKey = fact.generatePublic(keyspec);
+      byte[] spki = ASN1.EncodeSubjectPublicKeyInfo(
+          ASN1.AlgorithmIdentifier(oid, null),
+          rgbKey);
+      publicKey = fact.generatePublic(new X509EncodedKeySpec(spki));
     } catch (NoSuchAlgorithmException | NoSuchProviderException e) {
       throw new CoseException("Algorithm unsupported", e);
     } catch (InvalidKeySpecException e) {
@@ -1010,6 +1406,173 @@ public class COSEKey {
     }
   }
 
+  private KeyFactory okpKeyFactory(String algName, String providerName)
+      throws NoSuchAlgorithmException, NoSuchProviderException {
+    return providerName != null
+        ? cryptoContext.getKeyFactory(algName, providerName)
+        : cryptoContext.getKeyFactory(algName);
+  }
+
+  private static boolean isEdDSAOid(byte[] oid) {
+    return Arrays.equals(oid, ASN1.Oid_Ed25519) || Arrays.equals(oid, ASN1.Oid_Ed448);
+  }
+
+  /**
+   * @return the JDK name of an OKP curve, or null if the curve is not an OKP curve
+   */
+  private static NamedParameterSpec okpParameterSpec(CBORObject curve) {
+    if (KeyKeys.OKP_Ed25519.equals(curve)) {
+      return NamedParameterSpec.ED25519;
+    } else if (KeyKeys.OKP_Ed448.equals(curve)) {
+      return NamedParameterSpec.ED448;
+    } else if (KeyKeys.OKP_X25519.equals(curve)) {
+      return NamedParameterSpec.X25519;
+    } else if (KeyKeys.OKP_X448.equals(curve)) {
+      return NamedParameterSpec.X448;
+    }
+    return null;
+  }
+
+  /**
+   * @return the COSE curve of a JDK curve name, or null if it is not an OKP curve
+   */
+  private static CBORObject okpCurve(AlgorithmParameterSpec params) {
+    if (!(params instanceof NamedParameterSpec)) {
+      return null;
+    }
+    switch (((NamedParameterSpec) params).getName()) {
+      case "Ed25519":
+        return KeyKeys.OKP_Ed25519;
+      case "Ed448":
+        return KeyKeys.OKP_Ed448;
+      case "X25519":
+        return KeyKeys.OKP_X25519;
+      case "X448":
+        return KeyKeys.OKP_X448;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * @return length of the encoded point and of the private value on an OKP curve
+   */
+  private static int okpKeyLength(CBORObject curve) {
+    if (KeyKeys.OKP_Ed448.equals(curve)) {
+      return 57;
+    }
+    return KeyKeys.OKP_X448.equals(curve) ? 56 : 32;
+  }
+
+  /**
+   * Build the JDK key spec of an OKP public key from its encoded point, RFC 8032 section 5.1.2 for
+   * the Edwards curves and RFC 7748 section 5 for the Montgomery curves.
+   *
+   * @return the key spec, or null if the curve or the length of the point is not handled
+   */
+  private static KeySpec okpPublicKeySpec(CBORObject curve, byte[] rgbX) {
+    NamedParameterSpec params = okpParameterSpec(curve);
+    if (params == null || rgbX.length != okpKeyLength(curve)) {
+      return null;
+    }
+    byte[] rgb = reverse(rgbX);
+    if (KeyKeys.OKP_X25519.equals(curve) || KeyKeys.OKP_X448.equals(curve)) {
+      return new XECPublicKeySpec(params, new BigInteger(1, rgb));
+    }
+    // The top bit of the last byte is the sign of x, the rest is y in little endian
+    boolean xOdd = (rgb[0] & 0x80) != 0;
+    rgb[0] &= 0x7f;
+    return new EdECPublicKeySpec(params, new EdECPoint(xOdd, new BigInteger(1, rgb)));
+  }
+
+  /**
+   * @return the JDK key spec of an OKP private key, or null if the curve or the length of the
+   *         value is not handled
+   */
+  private static KeySpec okpPrivateKeySpec(CBORObject curve, byte[] rgbD) {
+    NamedParameterSpec params = okpParameterSpec(curve);
+    if (params == null || rgbD.length != okpKeyLength(curve)) {
+      return null;
+    }
+    if (KeyKeys.OKP_X25519.equals(curve) || KeyKeys.OKP_X448.equals(curve)) {
+      return new XECPrivateKeySpec(params, rgbD);
+    }
+    return new EdECPrivateKeySpec(params, rgbD);
+  }
+
+  /**
+   * @return the encoded point of a JDK Edwards or Montgomery public key, or null if the key is of
+   *         another type
+   */
+  private static byte[] okpEncodedPoint(PublicKey key) {
+    if (key instanceof EdECPublicKey) {
+      EdECPublicKey edKey = (EdECPublicKey) key;
+      CBORObject curve = okpCurve(edKey.getParams());
+      if (curve == null) {
+        return null;
+      }
+      byte[] rgb = reverse(EC2Curves.toFixedBytes(edKey.getPoint().getY(), okpKeyLength(curve)));
+      if (edKey.getPoint().isXOdd()) {
+        rgb[rgb.length - 1] |= (byte) 0x80;
+      }
+      return rgb;
+    }
+    if (key instanceof XECPublicKey) {
+      XECPublicKey xKey = (XECPublicKey) key;
+      CBORObject curve = okpCurve(xKey.getParams());
+      if (curve == null) {
+        return null;
+      }
+      return reverse(EC2Curves.toFixedBytes(xKey.getU(), okpKeyLength(curve)));
+    }
+    return null;
+  }
+
+  /**
+   * @return the private value of a JDK Edwards or Montgomery private key, or null if the key is of
+   *         another type or does not give out its value
+   */
+  private static byte[] okpPrivateValue(PrivateKey key) {
+    if (key instanceof EdECPrivateKey && okpCurve(((EdECPrivateKey) key).getParams()) != null) {
+      return ((EdECPrivateKey) key).getBytes().orElse(null);
+    }
+    if (key instanceof XECPrivateKey && okpCurve(((XECPrivateKey) key).getParams()) != null) {
+      return ((XECPrivateKey) key).getScalar().orElse(null);
+    }
+    return null;
+  }
+
+  /**
+   * @return the COSE curve of a JDK Edwards or Montgomery key, or null if the key is of another
+   *         type
+   */
+  private static CBORObject okpCurve(Key key) {
+    if (key instanceof EdECKey) {
+      return okpCurve(((EdECKey) key).getParams());
+    }
+    if (key instanceof XECKey) {
+      return okpCurve(((XECKey) key).getParams());
+    }
+    return null;
+  }
+
+  private static byte[] reverse(byte[] rgb) {
+    byte[] out = new byte[rgb.length];
+    for (int i = 0; i < rgb.length; i++) {
+      out[i] = rgb[rgb.length - 1 - i];
+    }
+    return out;
+  }
+
+  private static PrivateKey ed25519PrivateKey(byte[] seed) {
+    try {
+      return new EdDSAPrivateKey(
+          new EdDSAPrivateKeySpec(seed, EdDSANamedCurveTable.ED_25519_CURVE_SPEC));
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
   private static COSEKey generateOkpKey(
       String curveName,
       CBORObject curve,
@@ -1017,25 +1580,36 @@ public class COSEKey {
     try {
       switch (curveName) {
         case "Ed25519":
-          break;
         case "Ed448":
-        case "X22519":
+          break;
+        case "X25519":
         case "X448":
-          throw new CoseException("Algorithm not supported.");
+          return generateXdhKey(curveName, curve, provider);
         default:
           throw new CoseException("Internal Error");
       }
 
-      EdDSAGenParameterSpec paramSpec = new EdDSAGenParameterSpec(curveName);
-      KeyPairGenerator gen = provider != null
-          ? KeyPairGenerator.getInstance("EdDSA", provider)
-          : KeyPairGenerator.getInstance("EdDSA", "EdDSA");
-      gen.initialize(paramSpec);
+      EdDSABackend backend = provider != null
+          ? EdDSABackend.forProvider(provider)
+          : CryptoContext.getDefaultEdDSABackend(curve);
+      if (backend == null) {
+        // Another provider, which is expected to use the standard names
+        backend = EdDSABackend.JDK;
+      }
+      if (!backend.supports(curve)) {
+        throw new CoseException("Algorithm not supported.");
+      }
+
+      KeyPairGenerator gen = CryptoContext.getKeyPairGenerator(
+          backend.getKeyAlgorithm(curve), provider, backend.getProviderName());
+      if (backend == EdDSABackend.I2P) {
+        gen.initialize(new EdDSAGenParameterSpec(curveName));
+      }
 
       KeyPair keyPair = gen.genKeyPair();
 
-      byte[] rgbX = ((EdDSAPublicKey) keyPair.getPublic()).getAbyte();
-      byte[] rgbD = ((EdDSAPrivateKey) keyPair.getPrivate()).getSeed();
+      byte[] rgbX = okpPublicBytes(keyPair.getPublic());
+      byte[] rgbD = okpPrivateBytes(keyPair.getPrivate());
 
       COSEKey key = new COSEKey();
 
@@ -1054,6 +1628,65 @@ public class COSEKey {
     }
   }
 
+  private static COSEKey generateXdhKey(
+      String curveName,
+      CBORObject curve,
+      Provider provider) throws CoseException, NoSuchAlgorithmException {
+    KeyPairGenerator gen = CryptoContext.getKeyPairGenerator(curveName, provider);
+    KeyPair keyPair = gen.genKeyPair();
+
+    COSEKey key = new COSEKey();
+
+    key.add(KeyKeys.KeyType, KeyKeys.KeyType_OKP);
+    key.add(KeyKeys.OKP_Curve, curve);
+    key.add(KeyKeys.OKP_X, CBORObject.FromByteArray(okpPublicBytes(keyPair.getPublic())));
+    key.add(KeyKeys.OKP_D, CBORObject.FromByteArray(okpPrivateBytes(keyPair.getPrivate())));
+    key.publicKey = keyPair.getPublic();
+    key.privateKey = keyPair.getPrivate();
+
+    return key;
+  }
+
+  /**
+   * @return the encoded point of an OKP public key, from the SPKI encoding for keys that neither
+   *         are i2p keys nor implement the JDK EdECKey or XECKey interfaces
+   */
+  private static byte[] okpPublicBytes(PublicKey key) throws CoseException {
+    if (key instanceof EdDSAPublicKey) {
+      return ((EdDSAPublicKey) key).getAbyte();
+    }
+    byte[] rgb = okpEncodedPoint(key);
+    if (rgb != null) {
+      return rgb;
+    }
+    ArrayList<ASN1.TagValue> spki = ASN1.DecodeSubjectPublicKeyInfo(key.getEncoded());
+    byte[] keyData = (byte[]) spki.get(1).value;
+    if (keyData[0] != 0) {
+      throw new CoseException("Invalid key data");
+    }
+    return Arrays.copyOfRange(keyData, 1, keyData.length);
+  }
+
+  /**
+   * @return the private value of an OKP private key, from the PKCS#8 encoding for keys that neither
+   *         are i2p keys nor give out their value through the JDK EdECKey or XECKey interfaces
+   */
+  private static byte[] okpPrivateBytes(PrivateKey key) throws CoseException {
+    if (key instanceof EdDSAPrivateKey) {
+      return ((EdDSAPrivateKey) key).getSeed();
+    }
+    byte[] rgb = okpPrivateValue(key);
+    if (rgb != null) {
+      return rgb;
+    }
+    ArrayList<ASN1.TagValue> pkdl =
+        ASN1.DecodePKCS8EC(ASN1.DecodePKCS8Structure(key.getEncoded()));
+    if (pkdl.get(0).tag != 4) {
+      throw new CoseException("Invalid PKCS8 structure");
+    }
+    return (byte[]) pkdl.get(0).value;
+  }
+
   private void CheckRsaKey() throws CoseException {
     CBORObject n = this.get(KeyKeys.RSA_N); // modulus, positive int
     CBORObject e = this.get(KeyKeys.RSA_E); // public exponent, positive int
@@ -1077,9 +1710,7 @@ public class COSEKey {
           new BigInteger(1, e.GetByteString()));
 
       try {
-        KeyFactory factory = cryptoContext.getProvider() != null
-            ? KeyFactory.getInstance("RSA", cryptoContext.getProvider())
-            : KeyFactory.getInstance("RSA");
+        KeyFactory factory = cryptoContext.getKeyFactory("RSA");
         publicKey = factory.generatePublic(spec);
       } catch (NoSuchAlgorithmException ex) {
         throw new CoseException("No provider for algorithm", ex);
@@ -1168,9 +1799,7 @@ public class COSEKey {
       }
 
       try {
-        KeyFactory factory = cryptoContext.getProvider() != null
-            ? KeyFactory.getInstance("RSA", cryptoContext.getProvider())
-            : KeyFactory.getInstance("RSA");
+        KeyFactory factory = cryptoContext.getKeyFactory("RSA");
         privateKey = factory.generatePrivate(privateKeySpec);
       } catch (NoSuchAlgorithmException ex) {
         throw new CoseException("No provider for algorithm", ex);
@@ -1183,9 +1812,7 @@ public class COSEKey {
   private static COSEKey generateRSAKey(int keySize, Provider provider)
       throws CoseException {
     try {
-      KeyPairGenerator gen = provider != null
-          ? KeyPairGenerator.getInstance("RSA", provider)
-          : KeyPairGenerator.getInstance("RSA");
+      KeyPairGenerator gen = CryptoContext.getKeyPairGenerator("RSA", provider);
       gen.initialize(keySize);
 
       KeyPair keyPair = gen.genKeyPair();
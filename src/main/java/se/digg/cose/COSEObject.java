@@ -5,8 +5,12 @@
 
 package se.digg.cose;
 
+import com.upokecenter.cbor.CBORException;
 import com.upokecenter.cbor.CBORObject;
 import com.upokecenter.cbor.CBORType;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -67,6 +71,57 @@ public abstract class COSEObject extends Attribute {
   public static COSEObject DecodeFromBytes(
       byte[] rgbData,
       COSEObjectTag defaultTag) throws CoseException {
+    return DecodeFromBytes(rgbData, defaultTag, null);
+  }
+
+  /**
+   * Decode a COSE message object from untrusted input. The input is checked against the limits in
+   * {@code options} before any of it is decoded. Otherwise this behaves as
+   * {@link #DecodeFromBytes(byte[], COSEObjectTag)}.
+   *
+   * @param rgbData byte stream to be decoded
+   * @param defaultTag assumed message type to be decoded
+   * @param options limits to enforce, or null for none
+   * @return the decoded message object
+   * @throws CoseException on a decode failure or if a limit is exceeded
+   */
+  public static COSEObject DecodeFromBytes(
+      byte[] rgbData,
+      COSEObjectTag defaultTag,
+      DecodeOptions options) throws CoseException {
+    CoseMetrics metrics = CryptoContext.getDefaultMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    COSEObject msg = null;
+    CoseEvents.DecodeEvent event = new CoseEvents.DecodeEvent();
+    event.begin();
+    long start = System.nanoTime();
+    try {
+      msg = decode(rgbData, defaultTag, options);
+      outcome = CoseMetrics.Outcome.SUCCESS;
+      return msg;
+    } finally {
+      if (metrics != CoseMetrics.NONE || event.shouldCommit()) {
+        AlgorithmID alg = msg != null
+            ? CryptoContext.reportedAlgorithm(msg.findAttribute(HeaderKeys.Algorithm))
+            : null;
+        COSEObjectTag tag = msg != null ? msg.coseObjectTag : defaultTag;
+        CryptoContext.record(metrics, CoseMetrics.Operation.DECODE, alg, tag, start, outcome);
+        if (event.shouldCommit()) {
+          event.complete(
+              alg, tag, rgbData.length, msg != null ? msg.recipientCount() : 0, outcome);
+        }
+      }
+    }
+  }
+
+  private static COSEObject decode(
+      byte[] rgbData,
+      COSEObjectTag defaultTag,
+      DecodeOptions options) throws CoseException {
+    if (options != null) {
+      options.enforce(rgbData);
+    }
+
     CBORObject messageObject = CBORObject.DecodeFromBytes(rgbData);
 
     if (messageObject.getType() != CBORType.Array) {
@@ -118,7 +173,7 @@ public abstract class COSEObject extends Attribute {
             "COSEObject is not recognized as a COSE security Object");
     }
 
-    msg.DecodeFromCBORObject(messageObject);
+    msg.DecodeFromCBORObject(messageObject, rgbData);
 
     CBORObject countersignature = msg.findAttribute(
         HeaderKeys.CounterSignature,
@@ -129,19 +184,20 @@ public abstract class COSEObject extends Attribute {
         throw new CoseException("Invalid countersignature attribute");
       }
 
+      boolean eager = options != null && options.isEagerCountersignatures();
       if (countersignature.get(0).getType() == CBORType.Array) {
         for (CBORObject obj : countersignature.getValues()) {
           if (obj.getType() != CBORType.Array) {
             throw new CoseException("Invalid countersignature attribute");
           }
-
-          CounterSign cs = new CounterSign(obj);
-          msg.addCountersignature(cs);
+          if (!eager) {
+            checkCountersignature(obj);
+          }
         }
-      } else {
-        CounterSign cs = new CounterSign(countersignature);
-        msg.addCountersignature(cs);
+      } else if (!eager) {
+        checkCountersignature(countersignature);
       }
+      msg.pendingCounterSign = countersignature;
     }
 
     countersignature = msg.findAttribute(
@@ -151,9 +207,11 @@ public abstract class COSEObject extends Attribute {
       if (countersignature.getType() != CBORType.ByteString) {
         throw new CoseException("Invalid Countersignature0 attribute");
       }
+      msg.pendingCounterSign1 = countersignature;
+    }
 
-      CounterSign1 cs = new CounterSign1(countersignature.GetByteString());
-      msg.counterSign1 = cs;
+    if (options != null && options.isEagerCountersignatures()) {
+      msg.parseCountersignatures();
     }
     return msg;
   }
@@ -166,7 +224,77 @@ public abstract class COSEObject extends Attribute {
    * @throws CoseException Internal COSE Exception
    */
   public byte[] EncodeToBytes() throws CoseException {
-    return EncodeToCBORObject().EncodeToBytes();
+    return EncodeToEncoder().toByteArray();
+  }
+
+  /**
+   * Encode the message and write it to a stream. This function will force cryptographic operations
+   * to be executed as needed.
+   *
+   * @param out stream to write the encoded object to
+   * @throws CoseException Internal COSE Exception
+   * @throws IOException if writing to the stream fails
+   */
+  public void EncodeToStream(OutputStream out) throws CoseException, IOException {
+    EncodeToEncoder().writeTo(out);
+  }
+
+  /**
+   * Encode the message and write it to a buffer at its current position. This function will force
+   * cryptographic operations to be executed as needed. Nothing is written if the encoded object
+   * does not fit in the remaining space of the buffer.
+   *
+   * @param buffer buffer to write the encoded object to
+   * @throws CoseException Internal COSE Exception
+   * @throws java.nio.BufferOverflowException if the buffer does not have enough space remaining
+   */
+  public void EncodeToByteBuffer(ByteBuffer buffer) throws CoseException {
+    EncodeToEncoder().writeTo(buffer);
+  }
+
+  private COSEEncoder EncodeToEncoder() throws CoseException {
+    CoseMetrics metrics = CryptoContext.getDefaultMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    COSEEncoder encoder = new COSEEncoder();
+    CoseEvents.EncodeEvent event = new CoseEvents.EncodeEvent();
+    event.begin();
+    long start = System.nanoTime();
+    try {
+      if (emitTag) {
+        encoder.writeTag(coseObjectTag.value);
+      }
+      EncodeDirect(encoder);
+      outcome = CoseMetrics.Outcome.SUCCESS;
+      return encoder;
+    } finally {
+      if (metrics != CoseMetrics.NONE || event.shouldCommit()) {
+        AlgorithmID alg = CryptoContext.reportedAlgorithm(findAttribute(HeaderKeys.Algorithm));
+        CryptoContext.record(
+            metrics, CoseMetrics.Operation.ENCODE, alg, coseObjectTag, start, outcome);
+        if (event.shouldCommit()) {
+          event.complete(alg, coseObjectTag, encoder.size(), recipientCount(), outcome);
+        }
+      }
+    }
+  }
+
+  /**
+   * Write the message, without the leading tag, to the direct encoder. The output must be identical
+   * to encoding the result of {@link #EncodeCBORObject()}, which is what this default does;
+   * the message classes of this package override it to avoid building the CBORObject tree.
+   *
+   * @param encoder encoder to write to
+   * @throws CoseException Internal COSE Exception
+   */
+  void EncodeDirect(COSEEncoder encoder) throws CoseException {
+    encoder.writeEncoded(EncodeCBORObject().EncodeToBytes());
+  }
+
+  /**
+   * @return number of recipients of the message, 0 for message types without recipients
+   */
+  int recipientCount() {
+    return 0;
   }
 
   /**
@@ -180,6 +308,19 @@ public abstract class COSEObject extends Attribute {
   protected abstract void DecodeFromCBORObject(CBORObject messageObject)
       throws CoseException;
 
+  /**
+   * Parse the message from a CBOR tree which was decoded from {@code rgbData}. Messages that need
+   * the exact encoded bytes of one of their members override this; by default the encoding is
+   * ignored.
+   *
+   * @param messageObject CBORObject to be converted to a message.
+   * @param rgbData encoded message the tree was decoded from
+   * @throws CoseException Internal COSE Exception
+   */
+  void DecodeFromCBORObject(CBORObject messageObject, byte[] rgbData) throws CoseException {
+    DecodeFromCBORObject(messageObject);
+  }
+
   /**
    * Encode the COSE message object to a CBORObject tree. This function call will force
    * cryptographic operations to be executed as needed. This is an internal function, as such it
@@ -250,23 +391,98 @@ public abstract class COSEObject extends Attribute {
   List<CounterSign> counterSignList = new ArrayList<CounterSign>();
   CounterSign1 counterSign1;
 
+  /**
+   * Countersignature attributes of a decoded message that have not been parsed yet. Parsing is left
+   * until the countersignatures are first asked for, as most callers never look at them.
+   */
+  private CBORObject pendingCounterSign;
+  private CBORObject pendingCounterSign1;
+
   public void addCountersignature(CounterSign countersignature) {
+    ensureCountersignatures();
     counterSignList.add(countersignature);
   }
 
+  /**
+   * Get the countersignatures on the message. For a decoded message they are parsed on the first
+   * call.
+   *
+   * @return the list of countersignatures
+   * @throws IllegalStateException if the protected attributes of a decoded countersignature are
+   *         malformed, the rest of its structure is checked by the decoder
+   */
   public List<CounterSign> getCountersignerList() {
+    ensureCountersignatures();
     return counterSignList;
   }
 
+  /**
+   * Get the Countersignature0 of the message. For a decoded message it is parsed on the first
+   * call.
+   *
+   * @return the countersignature, or null if there is none
+   * @throws IllegalStateException if the protected attributes of a decoded countersignature are
+   *         malformed, the rest of its structure is checked by the decoder
+   */
   public CounterSign1 getCountersign1() {
+    ensureCountersignatures();
     return counterSign1;
   }
 
   public void setCountersign1(CounterSign1 value) {
+    pendingCounterSign1 = null;
     counterSign1 = value;
   }
 
+  /**
+   * Parse any countersignatures left unparsed by the decoder. The pending attributes are only
+   * cleared once they have been parsed successfully.
+   *
+   * @throws CoseException if a countersignature is malformed
+   */
+  void parseCountersignatures() throws CoseException {
+    if (pendingCounterSign != null) {
+      List<CounterSign> list = new ArrayList<CounterSign>();
+      if (pendingCounterSign.get(0).getType() == CBORType.Array) {
+        for (CBORObject obj : pendingCounterSign.getValues()) {
+          list.add(new CounterSign(obj));
+        }
+      } else {
+        list.add(new CounterSign(pendingCounterSign));
+      }
+      counterSignList.addAll(0, list);
+      pendingCounterSign = null;
+    }
+
+    if (pendingCounterSign1 != null) {
+      counterSign1 = new CounterSign1(pendingCounterSign1.GetByteString());
+      pendingCounterSign1 = null;
+    }
+  }
+
+  /**
+   * Check the shape of a COSE_Countersignature left for lazy parsing, so that a malformed one is
+   * reported by the decoder rather than by the first getter.
+   */
+  private static void checkCountersignature(CBORObject obj) throws CoseException {
+    if (obj.size() != 3
+        || obj.get(0).getType() != CBORType.ByteString
+        || obj.get(1).getType() != CBORType.Map
+        || (obj.get(2).getType() != CBORType.ByteString && !obj.get(2).isNull())) {
+      throw new CoseException("Invalid countersignature attribute");
+    }
+  }
+
+  private void ensureCountersignatures() {
+    try {
+      parseCountersignatures();
+    } catch (CoseException | CBORException e) {
+      throw new IllegalStateException("Invalid countersignature attribute", e);
+    }
+  }
+
   protected void ProcessCounterSignatures() throws CoseException {
+    parseCountersignatures();
     if (!counterSignList.isEmpty()) {
       if (counterSignList.size() == 1) {
         counterSignList.get(0).sign(rgbProtected, rgbContent);
@@ -0,0 +1,36 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+/**
+ * Implementations of the AES-GCM content encryption algorithms, AES_GCM_128, AES_GCM_192 and
+ * AES_GCM_256, and of the AES key wrap of the AES_KW_* and ECDH_*_AES_KW_* recipients, selected
+ * with {@link CryptoContext#setCipherBackend(CipherBackend)}. Messages are the same whatever the
+ * backend, so a message encrypted with one decrypts with the other.
+ * <p>
+ * {@link #JCA} is the default. The SunJCE provider of the JDK uses the AES and carry-less multiply
+ * instructions of the processor and is the fastest choice when the JCA selects it. When another
+ * provider is installed ahead of it, such as BouncyCastle, {@link #BOUNCY_CASTLE} saves the key
+ * setup of every message, which is most of the cost for content of a few hundred bytes.
+ */
+public enum CipherBackend {
+  /**
+   * A JCA Cipher, "AES/GCM/NoPadding" or "AESWrap", from the provider of the
+   * {@link CryptoContext}. The key is expanded again for every message.
+   */
+  JCA,
+  /**
+   * The GCM mode cipher of the BouncyCastle lightweight API, which does not need the BouncyCastle
+   * provider to be installed. Each platform thread keeps the cipher of the last key it used, with
+   * a copy of the key, the expanded AES key and the GHASH tables, so that messages with the same
+   * key only set a new nonce. The copy stays in memory until the thread uses another key, ends,
+   * or calls {@link CryptoContext#clearCipherCache()}. Virtual threads keep nothing, as they would
+   * not reuse it, and so save no key setup either. Key wrap runs the RFC 3394 rounds over the AES
+   * block cipher of the lightweight API, which each platform thread likewise keeps, with a copy of
+   * the key, for the last key encryption key it used until it is cleared the same way. The
+   * provider of the {@link CryptoContext} is not used.
+   */
+  BOUNCY_CASTLE
+}
@@ -0,0 +1,139 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events for the operations of the library. The events are recorded under
+ * the names {@code se.digg.cose.Decode}, {@code se.digg.cose.Sign} and so on, in the COSE category,
+ * and each can be enabled and given a threshold on its own in a recording configuration, for
+ * example {@code jfr configure se.digg.cose.Verify#enabled=true}.
+ * <p>
+ * An event is created and begun before each operation. While no recording has it enabled that is
+ * all that happens, and the JIT removes the allocation; the values of the event are only worked
+ * out once {@code shouldCommit()} says it will be committed.
+ */
+final class CoseEvents {
+
+  private CoseEvents() {}
+
+  @Category("COSE")
+  @StackTrace(false)
+  abstract static class CoseEvent extends Event {
+
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Message Type")
+    String messageType;
+
+    @Label("Payload Length")
+    @Description("Length of the data the operation works on")
+    @DataAmount
+    long payloadLength;
+
+    @Label("Recipient Count")
+    int recipientCount;
+
+    @Label("Outcome")
+    String outcome;
+
+    /**
+     * Commit the event if it is enabled and over its threshold. The arguments are evaluated either
+     * way, so callers that compute them, such as looking up the algorithm attribute, check
+     * {@link #shouldCommit()} first.
+     */
+    void complete(
+        AlgorithmID alg,
+        COSEObjectTag tag,
+        long payloadLength,
+        int recipientCount,
+        CoseMetrics.Outcome outcome) {
+      if (shouldCommit()) {
+        this.algorithm = alg != null ? alg.name() : null;
+        this.messageType = tag.name();
+        this.payloadLength = payloadLength;
+        this.recipientCount = recipientCount;
+        this.outcome = outcome.name();
+        commit();
+      }
+    }
+  }
+
+  @Name("se.digg.cose.Decode")
+  @Label("COSE Decode")
+  @Description("Decoding of a COSE message")
+  static final class DecodeEvent extends CoseEvent {
+  }
+
+  @Name("se.digg.cose.Encode")
+  @Label("COSE Encode")
+  @Description("Encoding of a COSE message")
+  static final class EncodeEvent extends CoseEvent {
+  }
+
+  @Name("se.digg.cose.Sign")
+  @Label("COSE Sign")
+  @Description("Signature computed over a Sig_structure")
+  static final class SignEvent extends CoseEvent {
+  }
+
+  @Name("se.digg.cose.Verify")
+  @Label("COSE Verify")
+  @Description("Signature verified over a Sig_structure")
+  static final class VerifyEvent extends CoseEvent {
+  }
+
+  @Name("se.digg.cose.Encrypt")
+  @Label("COSE Encrypt")
+  @Description("Content encryption")
+  static final class EncryptEvent extends CoseEvent {
+  }
+
+  @Name("se.digg.cose.Decrypt")
+  @Label("COSE Decrypt")
+  @Description("Content decryption")
+  static final class DecryptEvent extends CoseEvent {
+  }
+
+  @Name("se.digg.cose.MacCreate")
+  @Label("COSE MAC Create")
+  @Description("Authentication tag computed over a MAC_structure")
+  static final class MacCreateEvent extends CoseEvent {
+  }
+
+  @Name("se.digg.cose.MacValidate")
+  @Label("COSE MAC Validate")
+  @Description("Authentication tag checked over a MAC_structure")
+  static final class MacValidateEvent extends CoseEvent {
+  }
+
+  @Name("se.digg.cose.KeyDerivation")
+  @Label("COSE Recipient Key Derivation")
+  @Description("Key agreement or HKDF done for a recipient")
+  static final class KeyDerivationEvent extends CoseEvent {
+
+    @Label("Method")
+    @Description("ECDH, XDH for X25519 and X448, or HKDF")
+    String method;
+
+    KeyDerivationEvent(String method) {
+      this.method = method;
+    }
+  }
+
+  @Name("se.digg.cose.KeyImport")
+  @Label("COSE Key Import")
+  @Description("COSE_Key turned into JCA keys")
+  static final class KeyImportEvent extends CoseEvent {
+  }
+}
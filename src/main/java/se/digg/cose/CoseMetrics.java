@@ -0,0 +1,65 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+/**
+ * Listener for timings and outcomes of the operations of the library. A listener is set for all
+ * operations with {@link CryptoContext#setDefaultMetrics(CoseMetrics)}, or for the operations of
+ * one message or key with {@link CryptoContext#setMetrics(CoseMetrics)}. Without one nothing is
+ * recorded, and each operation only reads the clock once; the algorithm of the operation is not
+ * looked up.
+ * <p>
+ * The timings of the cryptographic operations cover the work of the JCA engine only; turning the
+ * COSE_Key into a JCA key is reported separately as {@link Operation#KEY_IMPORT}. Decoding and
+ * encoding always report to the default listener, since they are not tied to a context.
+ * <p>
+ * {@link #record} is called on the thread doing the operation, so it must be thread safe and
+ * should return quickly. {@link HistogramMetrics} is a ready made implementation. With a listener
+ * each operation also reads the clock a second time, which alone is a few percent of a MAC or
+ * AES-GCM message of a few microseconds.
+ */
+public interface CoseMetrics {
+
+  /**
+   * Operations reported to the listener.
+   */
+  enum Operation {
+    DECODE, ENCODE, SIGN, VERIFY, ENCRYPT, DECRYPT, MAC, KEY_AGREEMENT, HKDF, KEY_IMPORT
+  }
+
+  /**
+   * How an operation ended.
+   */
+  enum Outcome {
+    /** The operation completed, and a signature or tag validated. */
+    SUCCESS,
+    /** The operation completed, but the signature or authentication tag did not validate. */
+    REJECTED,
+    /** The operation threw an exception. */
+    ERROR
+  }
+
+  /**
+   * Listener that records nothing.
+   */
+  CoseMetrics NONE = (operation, algorithm, tag, nanos, outcome) -> {
+  };
+
+  /**
+   * @param operation operation that ended
+   * @param algorithm algorithm of the operation, or null if not known; for a key import the
+   *        algorithm of the key, and for a key agreement or HKDF that of the recipient
+   * @param tag type of the message, or {@link COSEObjectTag#Unknown} for operations of recipients,
+   *        countersignatures and keys
+   * @param nanos time taken in nanoseconds
+   * @param outcome how the operation ended
+   */
+  void record(
+      Operation operation,
+      AlgorithmID algorithm,
+      COSEObjectTag tag,
+      long nanos,
+      Outcome outcome);
+}
@@ -0,0 +1,221 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Runs each algorithm through its code paths once with throw away keys, so that the first real
+ * operation does not pay for loading the JCA providers and the classes of the library and its
+ * dependencies, or for the first provider lookups. Call it during start up, before traffic is
+ * accepted. The warm up takes about as long as the first operations would otherwise have taken
+ * more, so it moves that time to start up rather than saving it.
+ * <p>
+ * For every algorithm a key is generated and a message is created, encoded, decoded and checked:
+ * a COSE_Sign1 for signature algorithms, a COSE_Encrypt0 for content encryption, a COSE_Mac0 for
+ * MAC algorithms and a COSE_Encrypt with one recipient, using AES-GCM for the content, for
+ * recipient algorithms. More iterations also bring the code closer to being compiled by the JIT.
+ */
+public final class CoseWarmup {
+
+  private static final byte[] CONTENT = "warm-up".getBytes();
+
+  private static final Set<AlgorithmID> SIGNATURE = EnumSet.of(
+      AlgorithmID.ECDSA_256,
+      AlgorithmID.ECDSA_384,
+      AlgorithmID.ECDSA_512,
+      AlgorithmID.EDDSA,
+      AlgorithmID.RSA_PSS_256,
+      AlgorithmID.RSA_PSS_384,
+      AlgorithmID.RSA_PSS_512);
+
+  private static final Set<AlgorithmID> CONTENT_ENCRYPTION = EnumSet.of(
+      AlgorithmID.AES_GCM_128,
+      AlgorithmID.AES_GCM_192,
+      AlgorithmID.AES_GCM_256,
+      AlgorithmID.AES_CCM_16_64_128,
+      AlgorithmID.AES_CCM_16_64_256,
+      AlgorithmID.AES_CCM_64_64_128,
+      AlgorithmID.AES_CCM_64_64_256,
+      AlgorithmID.AES_CCM_16_128_128,
+      AlgorithmID.AES_CCM_16_128_256,
+      AlgorithmID.AES_CCM_64_128_128,
+      AlgorithmID.AES_CCM_64_128_256);
+
+  private static final Set<AlgorithmID> MAC = EnumSet.of(
+      AlgorithmID.HMAC_SHA_256_64,
+      AlgorithmID.HMAC_SHA_256,
+      AlgorithmID.HMAC_SHA_384,
+      AlgorithmID.HMAC_SHA_512,
+      AlgorithmID.AES_CBC_MAC_128_64,
+      AlgorithmID.AES_CBC_MAC_256_64,
+      AlgorithmID.AES_CBC_MAC_128_128,
+      AlgorithmID.AES_CBC_MAC_256_128);
+
+  private static final Set<AlgorithmID> RECIPIENT = EnumSet.of(
+      AlgorithmID.Direct,
+      AlgorithmID.AES_KW_128,
+      AlgorithmID.AES_KW_192,
+      AlgorithmID.AES_KW_256,
+      AlgorithmID.HKDF_HMAC_SHA_256,
+      AlgorithmID.HKDF_HMAC_SHA_512,
+      AlgorithmID.ECDH_ES_HKDF_256,
+      AlgorithmID.ECDH_ES_HKDF_512,
+      AlgorithmID.ECDH_SS_HKDF_256,
+      AlgorithmID.ECDH_SS_HKDF_512,
+      AlgorithmID.ECDH_ES_HKDF_256_AES_KW_128,
+      AlgorithmID.ECDH_ES_HKDF_256_AES_KW_192,
+      AlgorithmID.ECDH_ES_HKDF_256_AES_KW_256,
+      AlgorithmID.ECDH_SS_HKDF_256_AES_KW_128,
+      AlgorithmID.ECDH_SS_HKDF_256_AES_KW_192,
+      AlgorithmID.ECDH_SS_HKDF_256_AES_KW_256);
+
+  private static final SecureRandom RANDOM = new SecureRandom();
+
+  private CoseWarmup() {}
+
+  /**
+   * @return the algorithms that can be warmed up
+   */
+  public static Set<AlgorithmID> supportedAlgorithms() {
+    Set<AlgorithmID> all = EnumSet.noneOf(AlgorithmID.class);
+    all.addAll(SIGNATURE);
+    all.addAll(CONTENT_ENCRYPTION);
+    all.addAll(MAC);
+    all.addAll(RECIPIENT);
+    return Collections.unmodifiableSet(all);
+  }
+
+  /**
+   * Warm up algorithms with one pass each.
+   *
+   * @param algorithms algorithms to warm up
+   * @throws CoseException if an algorithm is not supported or an operation fails
+   */
+  public static void run(Set<AlgorithmID> algorithms) throws CoseException {
+    run(algorithms, 1);
+  }
+
+  /**
+   * Warm up algorithms.
+   *
+   * @param algorithms algorithms to warm up
+   * @param iterations number of passes for each algorithm, each with a new key
+   * @throws CoseException if an algorithm is not supported or an operation fails
+   */
+  public static void run(Set<AlgorithmID> algorithms, int iterations) throws CoseException {
+    for (AlgorithmID alg : algorithms) {
+      if (!supportedAlgorithms().contains(alg)) {
+        throw new CoseException("Warm-up not supported for " + alg);
+      }
+    }
+    for (int i = 0; i < iterations; i++) {
+      for (AlgorithmID alg : algorithms) {
+        if (SIGNATURE.contains(alg)) {
+          sign(alg);
+        } else if (CONTENT_ENCRYPTION.contains(alg)) {
+          encrypt(alg);
+        } else if (MAC.contains(alg)) {
+          mac(alg);
+        } else {
+          recipient(alg);
+        }
+      }
+    }
+  }
+
+  private static void sign(AlgorithmID alg) throws CoseException {
+    COSEKey key = COSEKey.generateKey(alg);
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(CONTENT);
+    msg.sign(key);
+
+    Sign1COSEObject msg2 = (Sign1COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    check(msg2.validate(new COSEKey(key.PublicKey().AsCBOR())), alg);
+  }
+
+  private static void encrypt(AlgorithmID alg) throws CoseException {
+    byte[] rgbKey = randomBytes(alg.getKeySize() / 8);
+    Encrypt0COSEObject msg = new Encrypt0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(CONTENT);
+    msg.encrypt(rgbKey);
+
+    Encrypt0COSEObject msg2 =
+        (Encrypt0COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    check(Arrays.equals(CONTENT, msg2.decrypt(rgbKey)), alg);
+  }
+
+  private static void mac(AlgorithmID alg) throws CoseException {
+    byte[] rgbKey = randomBytes(alg.getKeySize() / 8);
+    MAC0COSEObject msg = new MAC0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(CONTENT);
+    msg.Create(rgbKey);
+
+    MAC0COSEObject msg2 = (MAC0COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    check(msg2.Validate(rgbKey), alg);
+  }
+
+  private static void recipient(AlgorithmID alg) throws CoseException {
+    boolean ecdh = alg.name().startsWith("ECDH_");
+    COSEKey key;
+    if (ecdh) {
+      key = COSEKey.generateKey(KeyKeys.EC2_P256);
+    } else {
+      int length = alg == AlgorithmID.Direct ? 16 : Math.max(alg.getKeySize() / 8, 16);
+      CBORObject octet = CBORObject.NewMap();
+      octet.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_Octet);
+      octet.Add(KeyKeys.Octet_K.AsCBOR(), randomBytes(length));
+      key = new COSEKey(octet);
+    }
+
+    EncryptCOSEObject msg = new EncryptCOSEObject();
+    msg.addAttribute(
+        HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(CONTENT);
+    Recipient recipient = new Recipient();
+    recipient.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.UNPROTECTED);
+    recipient.SetKey(ecdh ? key.PublicKey() : key);
+    if (alg.name().startsWith("ECDH_SS_")) {
+      COSEKey senderKey = COSEKey.generateKey(KeyKeys.EC2_P256);
+      recipient.SetSenderKey(senderKey);
+      recipient.addAttribute(
+          HeaderKeys.ECDH_SPK, senderKey.PublicKey().AsCBOR(), Attribute.UNPROTECTED);
+    }
+    msg.addRecipient(recipient);
+    try {
+      msg.encrypt();
+    } catch (CoseException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new CoseException("Warm-up failed for " + alg, e);
+    }
+
+    EncryptCOSEObject msg2 =
+        (EncryptCOSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    Recipient recipient2 = msg2.getRecipient(0);
+    recipient2.SetKey(key);
+    check(Arrays.equals(CONTENT, msg2.decrypt(recipient2)), alg);
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] rgb = new byte[length];
+    RANDOM.nextBytes(rgb);
+    return rgb;
+  }
+
+  private static void check(boolean ok, AlgorithmID alg) throws CoseException {
+    if (!ok) {
+      throw new CoseException("Warm-up round trip failed for " + alg);
+    }
+  }
+}
@@ -23,6 +23,11 @@ public class CounterSign extends Signer {
     contextString = "CounterSignature";
   }
 
+  @Override
+  COSEObjectTag messageTag() {
+    return COSEObjectTag.Unknown;
+  }
+
   public void DecodeFromBytes(byte[] rgb) throws CoseException {
     CBORObject obj = CBORObject.DecodeFromBytes(rgb);
 
@@ -35,6 +35,11 @@ public class CounterSign1 extends Signer {
     cnKey = key;
   }
 
+  @Override
+  COSEObjectTag messageTag() {
+    return COSEObjectTag.Unknown;
+  }
+
   @Override
   public void DecodeFromCBORObject(CBORObject cbor) throws CoseException {
     if (cbor.getType() != CBORType.ByteString) {
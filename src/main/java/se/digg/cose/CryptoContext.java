@@ -5,14 +5,61 @@
 
 package se.digg.cose;
 
+import com.upokecenter.cbor.CBORObject;
+import java.security.AlgorithmParameters;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.Key;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
 import java.security.Provider;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
 
 /**
- * Specify which JCA Provider to use for signing and verifying messages.
+ * Specify which JCA Provider to use for signing and verifying messages, and optionally pools of
+ * pre-generated ephemeral keys for ECDH-ES.
+ * <p>
+ * A provider can be set for all algorithms, and be overridden for single algorithms with
+ * {@link #setProvider(String, Provider)}, for example to use one provider for AES/GCM and another
+ * for AES/CCM. All cryptographic engines of the library are created through the context.
+ * <p>
+ * When no provider is set for an algorithm, the provider the JCA selects for it is remembered for
+ * the rest of the run, so that the list of installed providers is only searched once per engine
+ * type and algorithm. Call {@link #clearProviderCache()} after changing the installed providers.
+ * <p>
+ * The context also holds the {@link CoseMetrics} listener that the operations done with it are
+ * reported to, the {@link EdDSABackend} that Ed25519 and Ed448 keys are built with and the
+ * {@link CipherBackend} that AES-GCM content is encrypted and keys are wrapped with.
  */
 public class CryptoContext {
 
+  private static final Map<String, Provider> RESOLVED = new ConcurrentHashMap<String, Provider>();
+  private static volatile CoseMetrics defaultMetrics = CoseMetrics.NONE;
+  private static volatile EdDSABackend defaultEdDSABackend;
+  private static volatile CipherBackend defaultCipherBackend = CipherBackend.JCA;
+
   private Provider provider;
+  private final Map<String, Provider> algorithmProviders =
+      new ConcurrentHashMap<String, Provider>();
+  private final Map<CBORObject, EphemeralKeyPool> ephemeralKeyPools =
+      new ConcurrentHashMap<CBORObject, EphemeralKeyPool>();
+  private volatile CoseMetrics metrics;
+  private volatile EdDSABackend edDSABackend;
+  private volatile boolean deterministicEcdsa;
+  private volatile CipherBackend cipherBackend;
 
   public CryptoContext(Provider provider) {
     this.provider = provider;
@@ -25,4 +72,500 @@ public class CryptoContext {
   public void setProvider(Provider provider) {
     this.provider = provider;
   }
+
+  /**
+   * Use a provider for one algorithm only, in place of the provider set for all algorithms.
+   *
+   * @param algorithm JCA algorithm name or cipher transformation, for example "AES/GCM/NoPadding"
+   * @param provider provider to use, or null to remove the override
+   */
+  public void setProvider(String algorithm, Provider provider) {
+    if (provider == null) {
+      algorithmProviders.remove(algorithm);
+    } else {
+      algorithmProviders.put(algorithm, provider);
+    }
+  }
+
+  /**
+   * @param algorithm JCA algorithm name or cipher transformation
+   * @return the provider to use for the algorithm, or null if the JCA is to select one
+   */
+  public Provider getProvider(String algorithm) {
+    Provider p = algorithmProviders.get(algorithm);
+    return p != null ? p : provider;
+  }
+
+  /**
+   * Forget the providers selected by the JCA so far. Needed only when providers are installed or
+   * removed while the library is in use.
+   */
+  public static void clearProviderCache() {
+    RESOLVED.clear();
+    EdDSABackend.clearSelection();
+  }
+
+  /**
+   * Wipe and drop the keys that {@link CipherBackend#BOUNCY_CASTLE} keeps for the calling thread.
+   * A thread of a pool can call this when it is done with a key; keys kept by other threads stay
+   * until those threads use another key or end.
+   */
+  public static void clearCipherCache() {
+    AesGcmEngine.clear();
+    AesKeyWrapEngine.clear();
+  }
+
+  /**
+   * Use a pool of pre-generated keys for ECDH-ES ephemeral keys on the curve of the pool. A pool
+   * already registered for the same curve is replaced.
+   *
+   * @param pool pool to take ephemeral keys from
+   */
+  public void addEphemeralKeyPool(EphemeralKeyPool pool) {
+    ephemeralKeyPools.put(pool.getCurve(), pool);
+  }
+
+  /**
+   * @param curve curve of the ephemeral key
+   * @return the pool registered for the curve, or null if keys are to be generated when needed
+   */
+  public EphemeralKeyPool getEphemeralKeyPool(CBORObject curve) {
+    return ephemeralKeyPools.get(curve);
+  }
+
+  /**
+   * Report the operations done with this context to a listener, in place of the default listener.
+   *
+   * @param metrics listener, or null to report to the default listener
+   */
+  public void setMetrics(CoseMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @return the listener the operations done with this context are reported to
+   */
+  public CoseMetrics getMetrics() {
+    CoseMetrics m = metrics;
+    return m != null ? m : defaultMetrics;
+  }
+
+  /**
+   * Report all operations to a listener, unless a context has a listener of its own.
+   *
+   * @param metrics listener, or null to stop reporting
+   */
+  public static void setDefaultMetrics(CoseMetrics metrics) {
+    defaultMetrics = metrics != null ? metrics : CoseMetrics.NONE;
+  }
+
+  /**
+   * @return the listener operations are reported to by default, {@link CoseMetrics#NONE} if none
+   */
+  public static CoseMetrics getDefaultMetrics() {
+    return defaultMetrics;
+  }
+
+  /**
+   * Build the Ed25519 and Ed448 keys of this context with a backend, in place of the default.
+   *
+   * @param backend backend to use, or null to use the default
+   */
+  public void setEdDSABackend(EdDSABackend backend) {
+    this.edDSABackend = backend;
+  }
+
+  /**
+   * @param curve COSE curve of the key
+   * @return the backend keys on the curve are built with in this context
+   * @throws CoseException if no backend is set and none is installed for the curve
+   */
+  public EdDSABackend getEdDSABackend(CBORObject curve) throws CoseException {
+    EdDSABackend backend = edDSABackend;
+    return backend != null ? backend : getDefaultEdDSABackend(curve);
+  }
+
+  /**
+   * Build Ed25519 and Ed448 keys with a backend, unless a context has a backend of its own.
+   *
+   * @param backend backend to use, or null to use the fastest installed one
+   */
+  public static void setDefaultEdDSABackend(EdDSABackend backend) {
+    defaultEdDSABackend = backend;
+  }
+
+  /**
+   * @param curve COSE curve of the key
+   * @return the backend keys on the curve are built with by default
+   * @throws CoseException if no backend is set and none is installed for the curve
+   */
+  public static EdDSABackend getDefaultEdDSABackend(CBORObject curve) throws CoseException {
+    EdDSABackend backend = defaultEdDSABackend;
+    return backend != null ? backend : EdDSABackend.select(curve);
+  }
+
+  /**
+   * Sign with deterministic ECDSA (RFC 6979) in this context, which derives the nonce from the
+   * private key and the message in place of drawing it from a SecureRandom. The same key and
+   * content then always give the same signature. Signatures made either way verify the same.
+   * Deterministic signing is done by the BouncyCastle provider, which must be installed unless a
+   * provider is set for the algorithm, for example "SHA256withECDDSA".
+   * <p>
+   * Set it on the context of a {@link COSEKey} to sign deterministically with that key.
+   *
+   * @param deterministic true to use RFC 6979 nonces for ECDSA_256, ECDSA_384 and ECDSA_512
+   */
+  public void setDeterministicEcdsa(boolean deterministic) {
+    this.deterministicEcdsa = deterministic;
+  }
+
+  /**
+   * @return true if ECDSA signatures made in this context are deterministic
+   */
+  public boolean isDeterministicEcdsa() {
+    return deterministicEcdsa;
+  }
+
+  /**
+   * Encrypt AES-GCM content and wrap keys in this context with a backend, in place of the default.
+   *
+   * @param backend backend to use, or null to use the default
+   */
+  public void setCipherBackend(CipherBackend backend) {
+    this.cipherBackend = backend;
+  }
+
+  /**
+   * @return the backend AES-GCM content is encrypted and keys are wrapped with in this context
+   */
+  public CipherBackend getCipherBackend() {
+    CipherBackend backend = cipherBackend;
+    return backend != null ? backend : defaultCipherBackend;
+  }
+
+  /**
+   * Encrypt AES-GCM content and wrap keys with a backend, unless a context has a backend of its
+   * own.
+   *
+   * @param backend backend to use, or null to use {@link CipherBackend#JCA}
+   */
+  public static void setDefaultCipherBackend(CipherBackend backend) {
+    defaultCipherBackend = backend != null ? backend : CipherBackend.JCA;
+  }
+
+  /**
+   * @return the backend AES-GCM content is encrypted and keys are wrapped with by default
+   */
+  public static CipherBackend getDefaultCipherBackend() {
+    return defaultCipherBackend;
+  }
+
+  /**
+   * Take over the provider, the per algorithm providers, the metrics listener, the EdDSA backend,
+   * the ECDSA signing mode and the cipher backend of another context.
+   */
+  void copyProvidersFrom(CryptoContext other) {
+    provider = other.provider;
+    algorithmProviders.clear();
+    algorithmProviders.putAll(other.algorithmProviders);
+    metrics = other.metrics;
+    edDSABackend = other.edDSABackend;
+    deterministicEcdsa = other.deterministicEcdsa;
+    cipherBackend = other.cipherBackend;
+  }
+
+  /**
+   * Report an operation started at {@code start}, as given by {@link System#nanoTime()}.
+   */
+  static void record(
+      CoseMetrics metrics,
+      CoseMetrics.Operation operation,
+      AlgorithmID algorithm,
+      COSEObjectTag tag,
+      long start,
+      CoseMetrics.Outcome outcome) {
+    if (metrics != CoseMetrics.NONE) {
+      metrics.record(operation, algorithm, tag, System.nanoTime() - start, outcome);
+    }
+  }
+
+  /**
+   * Look up an algorithm attribute for a report. Callers only do this when there is a listener or
+   * an enabled event, so the lookup costs nothing otherwise.
+   *
+   * @return the algorithm, or null if it is missing or unknown
+   */
+  static AlgorithmID reportedAlgorithm(CBORObject algorithm) {
+    if (algorithm == null) {
+      return null;
+    }
+    try {
+      return AlgorithmID.FromCBOR(algorithm);
+    } catch (CoseException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Create a cipher initialized with a key, see {@link #initSign}. The provider the JCA selects is
+   * only remembered once the cipher is initialized, as the key takes part in selecting it.
+   *
+   * @param params algorithm parameters, or null if there are none
+   */
+  Cipher initCipher(String transformation, int mode, Key key, AlgorithmParameterSpec params)
+      throws NoSuchAlgorithmException, NoSuchPaddingException, InvalidKeyException,
+      InvalidAlgorithmParameterException {
+    Provider p = getProvider(transformation);
+    if (p != null) {
+      Cipher cipher = Cipher.getInstance(transformation, p);
+      cipher.init(mode, key, params);
+      return cipher;
+    }
+    p = RESOLVED.get("Cipher." + transformation);
+    if (p != null) {
+      try {
+        Cipher cipher = Cipher.getInstance(transformation, p);
+        cipher.init(mode, key, params);
+        return cipher;
+      } catch (InvalidKeyException e) {
+        // Key from another provider, let the JCA select
+      }
+    }
+    Cipher cipher = Cipher.getInstance(transformation);
+    cipher.init(mode, key, params);
+    resolved("Cipher", transformation, cipher.getProvider());
+    return cipher;
+  }
+
+  /**
+   * Create a MAC engine initialized with a key, see {@link #initCipher}.
+   */
+  Mac initMac(String algorithm, Key key) throws NoSuchAlgorithmException, InvalidKeyException {
+    Provider p = getProvider(algorithm);
+    if (p != null) {
+      Mac mac = Mac.getInstance(algorithm, p);
+      mac.init(key);
+      return mac;
+    }
+    p = RESOLVED.get("Mac." + algorithm);
+    if (p != null) {
+      try {
+        Mac mac = Mac.getInstance(algorithm, p);
+        mac.init(key);
+        return mac;
+      } catch (InvalidKeyException e) {
+        // Key from another provider, let the JCA select
+      }
+    }
+    Mac mac = Mac.getInstance(algorithm);
+    mac.init(key);
+    resolved("Mac", algorithm, mac.getProvider());
+    return mac;
+  }
+
+  /**
+   * Get an algorithm parameters engine for use outside of a context, from the provider the JCA
+   * selects.
+   */
+  static AlgorithmParameters getAlgorithmParameters(String algorithm)
+      throws NoSuchAlgorithmException {
+    Provider p = RESOLVED.get("AlgorithmParameters." + algorithm);
+    if (p != null) {
+      return AlgorithmParameters.getInstance(algorithm, p);
+    }
+    AlgorithmParameters parameters = AlgorithmParameters.getInstance(algorithm);
+    resolved("AlgorithmParameters", algorithm, parameters.getProvider());
+    return parameters;
+  }
+
+  KeyFactory getKeyFactory(String algorithm) throws NoSuchAlgorithmException {
+    Provider p = providerFor("KeyFactory", algorithm);
+    if (p != null) {
+      return KeyFactory.getInstance(algorithm, p);
+    }
+    KeyFactory factory = KeyFactory.getInstance(algorithm);
+    resolved("KeyFactory", algorithm, factory.getProvider());
+    return factory;
+  }
+
+  /**
+   * Get a key factory, from a named provider unless another provider is set.
+   */
+  KeyFactory getKeyFactory(String algorithm, String defaultProvider)
+      throws NoSuchAlgorithmException, NoSuchProviderException {
+    Provider p = getProvider(algorithm);
+    return KeyFactory.getInstance(algorithm, p != null ? p : namedProvider(defaultProvider));
+  }
+
+  /**
+   * Create a signature engine initialized for signing. The key takes part in selecting the
+   * provider, so if the remembered provider does not accept the key the JCA selects one again.
+   */
+  Signature initSign(String algorithm, PrivateKey key)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+    Provider p = getProvider(algorithm);
+    if (p != null) {
+      Signature sig = Signature.getInstance(algorithm, p);
+      sig.initSign(key);
+      return sig;
+    }
+    p = RESOLVED.get("Signature." + algorithm);
+    if (p != null) {
+      try {
+        Signature sig = Signature.getInstance(algorithm, p);
+        sig.initSign(key);
+        return sig;
+      } catch (InvalidKeyException e) {
+        // Key from another provider, let the JCA select
+      }
+    }
+    Signature sig = Signature.getInstance(algorithm);
+    sig.initSign(key);
+    resolved("Signature", algorithm, sig.getProvider());
+    return sig;
+  }
+
+  /**
+   * Create a signature engine initialized for signing, from a named provider unless another
+   * provider is set. Without a named provider it is the same as {@link #initSign(String,
+   * PrivateKey)}.
+   */
+  Signature initSign(String algorithm, PrivateKey key, String defaultProvider)
+      throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException {
+    if (defaultProvider == null || getProvider(algorithm) != null) {
+      return initSign(algorithm, key);
+    }
+    Signature sig = Signature.getInstance(algorithm, namedProvider(defaultProvider));
+    sig.initSign(key);
+    return sig;
+  }
+
+  /**
+   * Create a signature engine initialized for verifying, see {@link #initSign}.
+   */
+  Signature initVerify(String algorithm, PublicKey key)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+    Provider p = getProvider(algorithm);
+    if (p != null) {
+      Signature sig = Signature.getInstance(algorithm, p);
+      sig.initVerify(key);
+      return sig;
+    }
+    p = RESOLVED.get("Signature." + algorithm);
+    if (p != null) {
+      try {
+        Signature sig = Signature.getInstance(algorithm, p);
+        sig.initVerify(key);
+        return sig;
+      } catch (InvalidKeyException e) {
+        // Key from another provider, let the JCA select
+      }
+    }
+    Signature sig = Signature.getInstance(algorithm);
+    sig.initVerify(key);
+    resolved("Signature", algorithm, sig.getProvider());
+    return sig;
+  }
+
+  /**
+   * Create a signature engine initialized for verifying, see {@link #initSign(String, PrivateKey,
+   * String)}.
+   */
+  Signature initVerify(String algorithm, PublicKey key, String defaultProvider)
+      throws NoSuchAlgorithmException, NoSuchProviderException, InvalidKeyException {
+    if (defaultProvider == null || getProvider(algorithm) != null) {
+      return initVerify(algorithm, key);
+    }
+    Signature sig = Signature.getInstance(algorithm, namedProvider(defaultProvider));
+    sig.initVerify(key);
+    return sig;
+  }
+
+  /**
+   * Create a key agreement engine initialized with a private key, see {@link #initSign}.
+   */
+  KeyAgreement initKeyAgreement(String algorithm, PrivateKey key)
+      throws NoSuchAlgorithmException, InvalidKeyException {
+    Provider p = getProvider(algorithm);
+    if (p != null) {
+      KeyAgreement agreement = KeyAgreement.getInstance(algorithm, p);
+      agreement.init(key);
+      return agreement;
+    }
+    p = RESOLVED.get("KeyAgreement." + algorithm);
+    if (p != null) {
+      try {
+        KeyAgreement agreement = KeyAgreement.getInstance(algorithm, p);
+        agreement.init(key);
+        return agreement;
+      } catch (InvalidKeyException e) {
+        // Key from another provider, let the JCA select
+      }
+    }
+    KeyAgreement agreement = KeyAgreement.getInstance(algorithm);
+    agreement.init(key);
+    resolved("KeyAgreement", algorithm, agreement.getProvider());
+    return agreement;
+  }
+
+  /**
+   * Get a key pair generator for key generation outside of a context.
+   *
+   * @param algorithm JCA algorithm name
+   * @param provider provider to use, or null to use the one the JCA selects
+   */
+  static KeyPairGenerator getKeyPairGenerator(String algorithm, Provider provider)
+      throws NoSuchAlgorithmException {
+    if (provider == null) {
+      provider = RESOLVED.get("KeyPairGenerator." + algorithm);
+    }
+    if (provider != null) {
+      return KeyPairGenerator.getInstance(algorithm, provider);
+    }
+    KeyPairGenerator gen = KeyPairGenerator.getInstance(algorithm);
+    resolved("KeyPairGenerator", algorithm, gen.getProvider());
+    return gen;
+  }
+
+  /**
+   * Get a key pair generator, from a named provider unless another provider is given.
+   */
+  static KeyPairGenerator getKeyPairGenerator(
+      String algorithm,
+      Provider provider,
+      String defaultProvider) throws NoSuchAlgorithmException, NoSuchProviderException {
+    return KeyPairGenerator.getInstance(
+        algorithm, provider != null ? provider : namedProvider(defaultProvider));
+  }
+
+  static MessageDigest getMessageDigest(String algorithm) throws NoSuchAlgorithmException {
+    Provider p = RESOLVED.get("MessageDigest." + algorithm);
+    if (p != null) {
+      return MessageDigest.getInstance(algorithm, p);
+    }
+    MessageDigest digest = MessageDigest.getInstance(algorithm);
+    resolved("MessageDigest", algorithm, digest.getProvider());
+    return digest;
+  }
+
+  private Provider providerFor(String type, String algorithm) {
+    Provider p = getProvider(algorithm);
+    return p != null ? p : RESOLVED.get(type + "." + algorithm);
+  }
+
+  private static void resolved(String type, String algorithm, Provider p) {
+    RESOLVED.putIfAbsent(type + "." + algorithm, p);
+  }
+
+  private static Provider namedProvider(String name) throws NoSuchProviderException {
+    Provider p = RESOLVED.get("Provider." + name);
+    if (p == null) {
+      p = Security.getProvider(name);
+      if (p == null) {
+        throw new NoSuchProviderException("no such provider: " + name);
+      }
+      RESOLVED.putIfAbsent("Provider." + name, p);
+    }
+    return p;
+  }
 }
@@ -0,0 +1,225 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+/**
+ * Limits applied when decoding a COSE message from untrusted input. The limits are checked by
+ * walking the encoded bytes before any CBORObject is built, so an oversized or deeply nested
+ * message is rejected without allocating memory for its content. The total size limit is checked
+ * before the input is read at all.
+ * <p>
+ * The nesting depth defaults to 256, which is well above that of any COSE message; the other
+ * limits default to unlimited.
+ */
+public class DecodeOptions {
+
+  private static final int COUNTERSIGNATURE = 7;
+  private static final int COUNTERSIGNATURE0 = 9;
+
+  private int maxTotalSize = Integer.MAX_VALUE;
+  private int maxPayloadSize = Integer.MAX_VALUE;
+  private int maxNestingDepth = CBORScanner.DEFAULT_MAX_DEPTH;
+  private int maxHeaderMapEntries = Integer.MAX_VALUE;
+  private int maxCountersignatures = Integer.MAX_VALUE;
+  private boolean eagerCountersignatures = false;
+
+  public DecodeOptions() {}
+
+  /**
+   * @return the maximum size in bytes of the encoded message
+   */
+  public int getMaxTotalSize() {
+    return maxTotalSize;
+  }
+
+  public void setMaxTotalSize(int maxTotalSize) {
+    this.maxTotalSize = maxTotalSize;
+  }
+
+  /**
+   * @return the maximum size in bytes of the content, or ciphertext, of the message
+   */
+  public int getMaxPayloadSize() {
+    return maxPayloadSize;
+  }
+
+  public void setMaxPayloadSize(int maxPayloadSize) {
+    this.maxPayloadSize = maxPayloadSize;
+  }
+
+  /**
+   * The maximum number of nested tags, arrays and maps. The message itself is at depth one, or two
+   * if it is tagged. The default is 256.
+   *
+   * @return the maximum nesting depth
+   */
+  public int getMaxNestingDepth() {
+    return maxNestingDepth;
+  }
+
+  public void setMaxNestingDepth(int maxNestingDepth) {
+    this.maxNestingDepth = maxNestingDepth;
+  }
+
+  /**
+   * @return the maximum number of entries in each of the protected and unprotected header maps of
+   *     the message
+   */
+  public int getMaxHeaderMapEntries() {
+    return maxHeaderMapEntries;
+  }
+
+  public void setMaxHeaderMapEntries(int maxHeaderMapEntries) {
+    this.maxHeaderMapEntries = maxHeaderMapEntries;
+  }
+
+  /**
+   * @return the maximum number of countersignatures attached to the message, counting both
+   *     Countersignature and Countersignature0 attributes
+   */
+  public int getMaxCountersignatures() {
+    return maxCountersignatures;
+  }
+
+  public void setMaxCountersignatures(int maxCountersignatures) {
+    this.maxCountersignatures = maxCountersignatures;
+  }
+
+  /**
+   * Countersignatures are normally parsed when they are first asked for. When this is set they are
+   * parsed during decoding instead, so that a malformed countersignature fails the decode as it
+   * did in earlier versions.
+   *
+   * @return true if countersignatures are parsed during decoding
+   */
+  public boolean isEagerCountersignatures() {
+    return eagerCountersignatures;
+  }
+
+  public void setEagerCountersignatures(boolean eagerCountersignatures) {
+    this.eagerCountersignatures = eagerCountersignatures;
+  }
+
+  /**
+   * Check the encoded message against the limits. Only the limits are enforced here; a message
+   * with an unexpected structure is left for the decoder to reject with its usual errors.
+   *
+   * @param rgbData encoded message
+   * @throws CoseException if a limit is exceeded or the CBOR encoding is malformed
+   */
+  void enforce(byte[] rgbData) throws CoseException {
+    if (rgbData.length > maxTotalSize) {
+      throw new CoseException("Message exceeds maximum size");
+    }
+
+    // Check well-formedness and nesting of the whole item before looking at any part of it
+    CBORScanner scanner = new CBORScanner(rgbData);
+    scanner.skip(maxNestingDepth);
+
+    scanner.seek(0);
+    int major = scanner.readHeader();
+    if (major == CBORScanner.MAJOR_TAG) {
+      major = scanner.readHeader();
+    }
+    if (major != CBORScanner.MAJOR_ARRAY || scanner.isIndefinite() || scanner.argument() < 3) {
+      return;
+    }
+
+    // protected headers
+    if (scanner.readHeader() != CBORScanner.MAJOR_BYTES || scanner.isIndefinite()) {
+      return;
+    }
+    int length = (int) scanner.argument();
+    if (length > 0) {
+      CBORScanner inner = new CBORScanner(rgbData, scanner.position(), length);
+      if (inner.readHeader() == CBORScanner.MAJOR_MAP) {
+        checkMapEntries(inner, false);
+      }
+    }
+    scanner.skipBytes(length);
+
+    // unprotected headers
+    if (scanner.readHeader() != CBORScanner.MAJOR_MAP) {
+      return;
+    }
+    checkMapEntries(scanner, true);
+
+    // content or ciphertext
+    int start = scanner.position();
+    major = scanner.readHeader();
+    if (major == CBORScanner.MAJOR_BYTES && !scanner.isIndefinite()) {
+      if (scanner.argument() > maxPayloadSize) {
+        throw new CoseException("Payload exceeds maximum size");
+      }
+    } else if (major != CBORScanner.MAJOR_SIMPLE) {
+      scanner.seek(start);
+      scanner.skip();
+      if (scanner.position() - start > maxPayloadSize) {
+        throw new CoseException("Payload exceeds maximum size");
+      }
+    }
+  }
+
+  /**
+   * Walk the members of a header map whose header has just been read, counting entries and, for
+   * the unprotected map, countersignatures.
+   */
+  private void checkMapEntries(CBORScanner scanner, boolean countCountersignatures)
+      throws CoseException {
+    boolean indefinite = scanner.isIndefinite();
+    long entries = scanner.argument();
+    if (!indefinite && entries > maxHeaderMapEntries) {
+      throw new CoseException("Header map exceeds maximum number of entries");
+    }
+
+    int countersignatures = 0;
+    for (long i = 0; indefinite || i < entries; i++) {
+      int keyStart = scanner.position();
+      int major = scanner.readHeader();
+      if (indefinite && scanner.isBreak()) {
+        return;
+      }
+      if (i >= maxHeaderMapEntries) {
+        throw new CoseException("Header map exceeds maximum number of entries");
+      }
+      long label = major == CBORScanner.MAJOR_UNSIGNED ? scanner.argument() : -1;
+      if (major != CBORScanner.MAJOR_UNSIGNED && major != CBORScanner.MAJOR_NEGATIVE) {
+        scanner.seek(keyStart);
+        scanner.skip();
+      }
+
+      if (countCountersignatures && label == COUNTERSIGNATURE) {
+        countersignatures += countCountersignatures(scanner);
+      } else {
+        if (countCountersignatures && label == COUNTERSIGNATURE0) {
+          countersignatures++;
+        }
+        scanner.skip();
+      }
+      if (countersignatures > maxCountersignatures) {
+        throw new CoseException("Message exceeds maximum number of countersignatures");
+      }
+    }
+  }
+
+  /**
+   * Count the countersignatures in a Countersignature attribute value: either a single
+   * COSE_Signature array, or an array of them.
+   */
+  private static int countCountersignatures(CBORScanner scanner) throws CoseException {
+    int start = scanner.position();
+    int count = 1;
+    if (scanner.readHeader() == CBORScanner.MAJOR_ARRAY && !scanner.isIndefinite()
+        && scanner.argument() > 0) {
+      long members = scanner.argument();
+      if (scanner.readHeader() == CBORScanner.MAJOR_ARRAY) {
+        count = (int) members;
+      }
+    }
+    scanner.seek(start);
+    scanner.skip();
+    return count;
+  }
+}
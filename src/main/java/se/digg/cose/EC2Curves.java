@@ -0,0 +1,216 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+import java.math.BigInteger;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.spec.ECFieldFp;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.EllipticCurve;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Domain parameters of the EC2 curves, looked up once per curve and shared. They let keys be built
+ * from and taken apart into their coordinates with the JCA key specs directly, without going
+ * through an ASN.1 encoding.
+ * <p>
+ * Compressed points are also decompressed here. Peers tend to reuse the same keys, so the most
+ * recently decompressed points are kept in a small cache.
+ */
+final class EC2Curves {
+
+  /**
+   * Maximum number of decompressed points kept.
+   */
+  static final int DECOMPRESSION_CACHE_SIZE = 256;
+
+  private static final Map<CBORObject, ECParameterSpec> SPECS =
+      new ConcurrentHashMap<CBORObject, ECParameterSpec>();
+
+  private static final Map<CompressedPoint, ECPoint> DECOMPRESSED = Collections.synchronizedMap(
+      new LinkedHashMap<CompressedPoint, ECPoint>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<CompressedPoint, ECPoint> eldest) {
+          return size() > DECOMPRESSION_CACHE_SIZE;
+        }
+      });
+
+  private EC2Curves() {}
+
+  /**
+   * @param curve COSE curve identifier
+   * @return the JCA name of the curve
+   * @throws CoseException if the curve is not an EC2 curve
+   */
+  static String jcaName(CBORObject curve) throws CoseException {
+    if (curve.equals(KeyKeys.EC2_P256)) {
+      return "secp256r1";
+    }
+    if (curve.equals(KeyKeys.EC2_P384)) {
+      return "secp384r1";
+    }
+    if (curve.equals(KeyKeys.EC2_P521)) {
+      return "secp521r1";
+    }
+    throw new CoseException("Unsupported curve " + curve);
+  }
+
+  /**
+   * @param curve COSE curve identifier
+   * @return the size in bytes of a coordinate or private scalar on the curve
+   * @throws CoseException if the curve is not an EC2 curve
+   */
+  static int coordinateSize(CBORObject curve) throws CoseException {
+    return (getParameterSpec(curve).getCurve().getField().getFieldSize() + 7) / 8;
+  }
+
+  /**
+   * @param curve COSE curve identifier
+   * @return the domain parameters of the curve
+   * @throws CoseException if the curve is not an EC2 curve or no provider supports it
+   */
+  static ECParameterSpec getParameterSpec(CBORObject curve) throws CoseException {
+    ECParameterSpec spec = SPECS.get(curve);
+    if (spec == null) {
+      try {
+        AlgorithmParameters parameters = CryptoContext.getAlgorithmParameters("EC");
+        parameters.init(new ECGenParameterSpec(jcaName(curve)));
+        spec = parameters.getParameterSpec(ECParameterSpec.class);
+      } catch (GeneralSecurityException e) {
+        throw new CoseException("The curve is not supported", e);
+      }
+      SPECS.put(curve, spec);
+    }
+    return spec;
+  }
+
+  /**
+   * Find the COSE curve that a set of JCA domain parameters describes.
+   *
+   * @param params domain parameters of a key
+   * @return the COSE curve identifier, or null if it is not a supported curve
+   */
+  static CBORObject fromParameterSpec(ECParameterSpec params) {
+    for (CBORObject curve : new CBORObject[] {
+        KeyKeys.EC2_P256, KeyKeys.EC2_P384, KeyKeys.EC2_P521}) {
+      try {
+        ECParameterSpec spec = getParameterSpec(curve);
+        if (spec.getOrder().equals(params.getOrder())
+            && spec.getGenerator().equals(params.getGenerator())
+            && spec.getCurve().equals(params.getCurve())) {
+          return curve;
+        }
+      } catch (CoseException e) {
+        // curve not available from the installed providers
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Recover the full point from its x coordinate and the parity of y. The square root is taken
+   * as rhs^((p + 1) / 4), which is valid since p = 3 mod 4 for all three NIST prime curves; the
+   * result is squared again to check that the point is on the curve.
+   *
+   * @param curve COSE curve identifier
+   * @param rgbX x coordinate
+   * @param yOdd true if y is odd
+   * @return the point
+   * @throws CoseException if there is no point on the curve with this x coordinate
+   */
+  static ECPoint decompress(CBORObject curve, byte[] rgbX, boolean yOdd) throws CoseException {
+    CompressedPoint key = new CompressedPoint(curve, rgbX, yOdd);
+    ECPoint point = DECOMPRESSED.get(key);
+    if (point != null) {
+      return point;
+    }
+
+    EllipticCurve ec = getParameterSpec(curve).getCurve();
+    BigInteger p = ((ECFieldFp) ec.getField()).getP();
+    BigInteger x = new BigInteger(1, rgbX);
+    if (rgbX.length != coordinateSize(curve) || x.compareTo(p) >= 0) {
+      throw new CoseException("Invalid compressed point");
+    }
+
+    BigInteger rhs = x.multiply(x).add(ec.getA()).multiply(x).add(ec.getB()).mod(p);
+    BigInteger y = rhs.modPow(p.add(BigInteger.ONE).shiftRight(2), p);
+    if (!y.multiply(y).mod(p).equals(rhs)) {
+      throw new CoseException("Point is not on the curve");
+    }
+    if (y.testBit(0) != yOdd) {
+      if (y.signum() == 0) {
+        throw new CoseException("Invalid compressed point");
+      }
+      y = p.subtract(y);
+    }
+
+    point = new ECPoint(x, y);
+    DECOMPRESSED.put(key, point);
+    return point;
+  }
+
+  /**
+   * @return the number of decompressed points currently cached
+   */
+  static int decompressionCacheSize() {
+    return DECOMPRESSED.size();
+  }
+
+  /**
+   * Encode a coordinate or private scalar as a fixed length unsigned big-endian byte string.
+   *
+   * @param value value to encode
+   * @param size length of the output in bytes
+   * @return the encoded value
+   */
+  static byte[] toFixedBytes(BigInteger value, int size) {
+    byte[] rgb = value.toByteArray();
+    if (rgb.length == size) {
+      return rgb;
+    }
+    byte[] out = new byte[size];
+    if (rgb.length > size) {
+      System.arraycopy(rgb, rgb.length - size, out, 0, size);
+    } else {
+      System.arraycopy(rgb, 0, out, size - rgb.length, rgb.length);
+    }
+    return out;
+  }
+
+  private static final class CompressedPoint {
+
+    private final CBORObject curve;
+    private final byte[] rgbX;
+    private final boolean yOdd;
+
+    CompressedPoint(CBORObject curve, byte[] rgbX, boolean yOdd) {
+      this.curve = curve;
+      this.rgbX = rgbX.clone();
+      this.yOdd = yOdd;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof CompressedPoint)) {
+        return false;
+      }
+      CompressedPoint other = (CompressedPoint) obj;
+      return yOdd == other.yOdd && curve.equals(other.curve) && Arrays.equals(rgbX, other.rgbX);
+    }
+
+    @Override
+    public int hashCode() {
+      return (curve.hashCode() * 31 + Arrays.hashCode(rgbX)) * 2 + (yOdd ? 1 : 0);
+    }
+  }
+}
@@ -112,6 +112,23 @@ public class Encrypt0COSEObject extends EncryptCommon {
     return obj;
   }
 
+  @Override
+  void EncodeDirect(COSEEncoder encoder) throws CoseException {
+    if (rgbEncrypt == null) {
+      throw new CoseException(
+          "Encrypt function not called");
+    }
+
+    encoder.writeArrayHeader(3);
+    if (objProtected.size() > 0) {
+      encoder.writeByteString(objProtected.EncodeToBytes());
+    } else {
+      encoder.writeByteString(new byte[0]);
+    }
+    encoder.writeEncoded(objUnprotected.EncodeToBytes());
+    encoder.writeByteString(emitContent ? rgbEncrypt : null);
+  }
+
   /**
    * Decrypt the message using the passed in key.
    *
@@ -44,6 +44,11 @@ public class EncryptCOSEObject extends EncryptCommon {
     return recipientList.size();
   }
 
+  @Override
+  int recipientCount() {
+    return recipientList.size();
+  }
+
   public byte[] decrypt(Recipient whom) throws CoseException {
     byte[] rgbKey = null;
     AlgorithmID alg = AlgorithmID.FromCBOR(findAttribute(HeaderKeys.Algorithm));
@@ -112,12 +117,12 @@ public class EncryptCOSEObject extends EncryptCommon {
       throw new CoseException("Invalid Encrypt structure");
 
     if (obj.get(0).getType() == CBORType.ByteString) {
-      if (obj.get(0).GetByteString().length == 0) {
+      rgbProtected = obj.get(0).GetByteString();
+      if (rgbProtected.length == 0) {
         objProtected =
             CBORObject.NewMap();
       } else {
-        objProtected = CBORObject.DecodeFromBytes(
-            obj.get(0).GetByteString());
+        objProtected = CBORObject.DecodeFromBytes(rgbProtected);
       }
     } else
       throw new CoseException("Invalid Encrypt structure");
@@ -169,4 +174,25 @@ public class EncryptCOSEObject extends EncryptCommon {
 
     return obj;
   }
+
+  @Override
+  void EncodeDirect(COSEEncoder encoder) throws CoseException {
+    if (rgbEncrypt == null)
+      throw new CoseException(
+          "Compute function not called");
+
+    encoder.writeArrayHeader(4);
+    if (objProtected.size() > 0) {
+      encoder.writeByteString(objProtected.EncodeToBytes());
+    } else {
+      encoder.writeByteString(new byte[0]);
+    }
+    encoder.writeEncoded(objUnprotected.EncodeToBytes());
+    encoder.writeByteString(rgbEncrypt);
+
+    encoder.writeArrayHeader(recipientList.size());
+    for (Recipient r : recipientList) {
+      r.EncodeDirect(encoder);
+    }
+  }
 }
@@ -11,6 +11,7 @@ import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import javax.crypto.AEADBadTagException;
 import javax.crypto.Cipher;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
@@ -23,14 +24,14 @@ public abstract class EncryptCommon extends COSEObject {
 
   protected CryptoContext cryptoContext = new CryptoContext(null);
 
-  private final String AES_SPEC = "AES";
+  private static final String AES_SPEC = "AES";
 
-  private final String AES_CCM_SPEC = AES_SPEC + "/CCM/NoPadding";
-  private final int AES_CCM_16_IV_LENGTH = 13;
-  private final int AES_CCM_64_IV_LENGTH = 7;
+  private static final String AES_CCM_SPEC = AES_SPEC + "/CCM/NoPadding";
+  private static final int AES_CCM_16_IV_LENGTH = 13;
+  private static final int AES_CCM_64_IV_LENGTH = 7;
 
-  private final String AES_GCM_SPEC = AES_SPEC + "/GCM/NoPadding";
-  private final int AES_GCM_IV_LENGTH = 96;
+  private static final String AES_GCM_SPEC = AES_SPEC + "/GCM/NoPadding";
+  private static final int AES_GCM_IV_LENGTH = 96;
 
   protected String context;
   protected byte[] rgbEncrypt;
@@ -45,12 +46,71 @@ public abstract class EncryptCommon extends COSEObject {
           "No Encrypted Content Specified");
     }
 
+    rgbContent = decrypt(
+        alg,
+        coseObjectTag,
+        rgbKey,
+        findAttribute(HeaderKeys.IV),
+        rgbEncrypt,
+        getAADBytes(),
+        cryptoContext);
+    return rgbContent;
+  }
+
+  /**
+   * Decrypt content without touching any message state. This is shared by the mutable message
+   * classes and the immutable views, which may call it from several threads at once.
+   *
+   * @param alg content encryption algorithm
+   * @param tag type of the message, for {@link CoseMetrics}
+   * @param rgbKey content encryption key
+   * @param iv the IV attribute of the message, or null if absent
+   * @param rgbEncrypt ciphertext including the authentication tag
+   * @param aad encoded Enc_structure
+   * @param cryptoContext provider selection
+   * @return the plain text
+   * @throws CoseException if the decryption fails
+   */
+  static byte[] decrypt(
+      AlgorithmID alg,
+      COSEObjectTag tag,
+      byte[] rgbKey,
+      CBORObject iv,
+      byte[] rgbEncrypt,
+      byte[] aad,
+      CryptoContext cryptoContext) throws CoseException {
+    CoseMetrics metrics = cryptoContext.getMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    CoseEvents.DecryptEvent event = new CoseEvents.DecryptEvent();
+    event.begin();
+    long start = System.nanoTime();
+    try {
+      byte[] rgbPlain = decryptContent(alg, rgbKey, iv, rgbEncrypt, aad, cryptoContext);
+      outcome = CoseMetrics.Outcome.SUCCESS;
+      return rgbPlain;
+    } catch (CoseException ex) {
+      if (ex.getCause() instanceof AEADBadTagException) {
+        outcome = CoseMetrics.Outcome.REJECTED;
+      }
+      throw ex;
+    } finally {
+      CryptoContext.record(metrics, CoseMetrics.Operation.DECRYPT, alg, tag, start, outcome);
+      event.complete(alg, tag, rgbEncrypt.length, 0, outcome);
+    }
+  }
+
+  private static byte[] decryptContent(
+      AlgorithmID alg,
+      byte[] rgbKey,
+      CBORObject iv,
+      byte[] rgbEncrypt,
+      byte[] aad,
+      CryptoContext cryptoContext) throws CoseException {
     switch (alg) {
       case AES_GCM_128:
       case AES_GCM_192:
       case AES_GCM_256:
-        AES_GCM_Decrypt(alg, rgbKey);
-        break;
+        return AES_GCM_Decrypt(alg, rgbKey, iv, rgbEncrypt, aad, cryptoContext);
       case AES_CCM_16_64_128:
       case AES_CCM_16_64_256:
       case AES_CCM_64_64_128:
@@ -59,13 +119,10 @@ public abstract class EncryptCommon extends COSEObject {
       case AES_CCM_16_128_256:
       case AES_CCM_64_128_128:
       case AES_CCM_64_128_256:
-        AES_CCM_Decrypt(alg, rgbKey);
-        break;
+        return AES_CCM_Decrypt(alg, rgbKey, iv, rgbEncrypt, aad, cryptoContext);
       default:
         throw new CoseException("Unsupported Algorithm Specified");
     }
-
-    return rgbContent;
   }
 
   void encryptWithKey(byte[] rgbKey)
@@ -77,30 +134,44 @@ public abstract class EncryptCommon extends COSEObject {
       throw new CoseException("No Content Specified");
     }
 
-    switch (alg) {
-      case AES_GCM_128:
-      case AES_GCM_192:
-      case AES_GCM_256:
-        AES_GCM_Encrypt(alg, rgbKey);
-        break;
-      case AES_CCM_16_64_128:
-      case AES_CCM_16_64_256:
-      case AES_CCM_64_64_128:
-      case AES_CCM_64_64_256:
-      case AES_CCM_16_128_128:
-      case AES_CCM_16_128_256:
-      case AES_CCM_64_128_128:
-      case AES_CCM_64_128_256:
-        AES_CCM_Encrypt(alg, rgbKey);
-        break;
-      default:
-        throw new CoseException("Unsupported Algorithm Specified");
+    CoseMetrics metrics = cryptoContext.getMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    CoseEvents.EncryptEvent event = new CoseEvents.EncryptEvent();
+    event.begin();
+    long start = System.nanoTime();
+    try {
+      switch (alg) {
+        case AES_GCM_128:
+        case AES_GCM_192:
+        case AES_GCM_256:
+          AES_GCM_Encrypt(alg, rgbKey);
+          break;
+        case AES_CCM_16_64_128:
+        case AES_CCM_16_64_256:
+        case AES_CCM_64_64_128:
+        case AES_CCM_64_64_256:
+        case AES_CCM_16_128_128:
+        case AES_CCM_16_128_256:
+        case AES_CCM_64_128_128:
+        case AES_CCM_64_128_256:
+          AES_CCM_Encrypt(alg, rgbKey);
+          break;
+        default:
+          throw new CoseException("Unsupported Algorithm Specified");
+      }
+      outcome = CoseMetrics.Outcome.SUCCESS;
+    } finally {
+      CryptoContext.record(
+          metrics, CoseMetrics.Operation.ENCRYPT, alg, coseObjectTag, start, outcome);
+      if (event.shouldCommit()) {
+        event.complete(alg, coseObjectTag, rgbContent.length, recipientCount(), outcome);
+      }
     }
 
     ProcessCounterSignatures();
   }
 
-  private int getAES_CCM_IVSize(AlgorithmID alg) throws CoseException {
+  private static int getAES_CCM_IVSize(AlgorithmID alg) throws CoseException {
     switch (alg) {
       case AES_CCM_16_64_128:
       case AES_CCM_16_64_256:
@@ -116,8 +187,13 @@ public abstract class EncryptCommon extends COSEObject {
     throw new CoseException("Unsupported algorithm: " + alg);
   }
 
-  private void AES_CCM_Decrypt(AlgorithmID alg, byte[] rgbKey)
-      throws CoseException, IllegalStateException {
+  private static byte[] AES_CCM_Decrypt(
+      AlgorithmID alg,
+      byte[] rgbKey,
+      CBORObject iv,
+      byte[] rgbEncrypt,
+      byte[] aad,
+      CryptoContext cryptoContext) throws CoseException, IllegalStateException {
     // validate key
     if (rgbKey.length != alg.getKeySize() / 8) {
       throw new CoseException("Key Size is incorrect");
@@ -125,7 +201,6 @@ public abstract class EncryptCommon extends COSEObject {
 
     // obtain and validate IV
     final int ivLen = getAES_CCM_IVSize(alg);
-    CBORObject iv = findAttribute(HeaderKeys.IV);
     if (iv == null) {
       throw new CoseException("Missing IV during decryption");
     }
@@ -137,19 +212,18 @@ public abstract class EncryptCommon extends COSEObject {
     }
 
     try {
-      Cipher cipher = cryptoContext.getProvider() != null
-          ? Cipher.getInstance(AES_CCM_SPEC, cryptoContext.getProvider())
-          : Cipher.getInstance(AES_CCM_SPEC);
-      cipher.init(
+      Cipher cipher = cryptoContext.initCipher(
+          AES_CCM_SPEC,
           Cipher.DECRYPT_MODE,
           new SecretKeySpec(rgbKey, AES_SPEC),
           new GCMParameterSpec(alg.getTagSize(), iv.GetByteString()));
-      cipher.updateAAD(getAADBytes());
+      cipher.updateAAD(aad);
 
-      rgbContent = new byte[cipher.getOutputSize(rgbEncrypt.length)];
+      byte[] rgbPlain = new byte[cipher.getOutputSize(rgbEncrypt.length)];
       ByteBuffer input = ByteBuffer.wrap(rgbEncrypt);
-      ByteBuffer output = ByteBuffer.wrap(rgbContent);
+      ByteBuffer output = ByteBuffer.wrap(rgbPlain);
       cipher.doFinal(input, output);
+      return rgbPlain;
     } catch (NoSuchAlgorithmException ex) {
       throw new CoseException("Algorithm not supported", ex);
     } catch (InvalidKeyException ex) {
@@ -187,13 +261,12 @@ public abstract class EncryptCommon extends COSEObject {
     }
 
     try {
-      Cipher cipher = cryptoContext.getProvider() != null
-          ? Cipher.getInstance(AES_CCM_SPEC, cryptoContext.getProvider())
-          : Cipher.getInstance(AES_CCM_SPEC);
-      cipher.init(
+      Cipher cipher = cryptoContext.initCipher(
+          AES_CCM_SPEC,
           Cipher.ENCRYPT_MODE,
           new SecretKeySpec(rgbKey, AES_SPEC),
           new GCMParameterSpec(alg.getTagSize(), iv.GetByteString()));
+      lockProtected();
       cipher.updateAAD(getAADBytes());
 
       rgbEncrypt = new byte[cipher.getOutputSize(rgbContent.length)];
@@ -207,10 +280,13 @@ public abstract class EncryptCommon extends COSEObject {
     }
   }
 
-  private void AES_GCM_Decrypt(AlgorithmID alg, byte[] rgbKey)
-      throws CoseException {
-    CBORObject iv = findAttribute(HeaderKeys.IV);
-
+  private static byte[] AES_GCM_Decrypt(
+      AlgorithmID alg,
+      byte[] rgbKey,
+      CBORObject iv,
+      byte[] rgbEncrypt,
+      byte[] aad,
+      CryptoContext cryptoContext) throws CoseException {
     // validate key
     if (rgbKey.length != alg.getKeySize() / 8) {
       throw new CoseException("Key Size is incorrect");
@@ -227,24 +303,28 @@ public abstract class EncryptCommon extends COSEObject {
       throw new CoseException("IV size is incorrect");
     }
 
+    if (cryptoContext.getCipherBackend() == CipherBackend.BOUNCY_CASTLE) {
+      return AesGcmEngine.decrypt(
+          rgbKey, alg.getTagSize(), iv.GetByteString(), aad, rgbEncrypt);
+    }
+
     try {
       // create and prepare cipher
-      Cipher cipher = cryptoContext.getProvider() != null
-          ? Cipher.getInstance(AES_GCM_SPEC, cryptoContext.getProvider())
-          : Cipher.getInstance(AES_GCM_SPEC);
-      cipher.init(
+      Cipher cipher = cryptoContext.initCipher(
+          AES_GCM_SPEC,
           Cipher.DECRYPT_MODE,
           new SecretKeySpec(rgbKey, "AES"),
           new GCMParameterSpec(alg.getTagSize(), iv.GetByteString()));
-      cipher.updateAAD(getAADBytes());
+      cipher.updateAAD(aad);
 
       // setup plaintext output
-      rgbContent = new byte[cipher.getOutputSize(rgbEncrypt.length)];
+      byte[] rgbPlain = new byte[cipher.getOutputSize(rgbEncrypt.length)];
 
       // decryptit!
       ByteBuffer input = ByteBuffer.wrap(rgbEncrypt);
-      ByteBuffer output = ByteBuffer.wrap(rgbContent);
+      ByteBuffer output = ByteBuffer.wrap(rgbPlain);
       cipher.doFinal(input, output);
+      return rgbPlain;
     } catch (NoSuchAlgorithmException ex) {
       throw new CoseException("Algorithm not supported", ex);
     } catch (InvalidKeyException ex) {
@@ -281,14 +361,20 @@ public abstract class EncryptCommon extends COSEObject {
       }
     }
 
+    if (cryptoContext.getCipherBackend() == CipherBackend.BOUNCY_CASTLE) {
+      lockProtected();
+      rgbEncrypt = AesGcmEngine.encrypt(
+          rgbKey, alg.getTagSize(), iv.GetByteString(), getAADBytes(), rgbContent);
+      return;
+    }
+
     try {
-      Cipher cipher = cryptoContext.getProvider() != null
-          ? Cipher.getInstance(AES_GCM_SPEC, cryptoContext.getProvider())
-          : Cipher.getInstance(AES_GCM_SPEC);
-      cipher.init(
+      Cipher cipher = cryptoContext.initCipher(
+          AES_GCM_SPEC,
           Cipher.ENCRYPT_MODE,
           new SecretKeySpec(rgbKey, AES_SPEC),
           new GCMParameterSpec(alg.getTagSize(), iv.GetByteString()));
+      lockProtected();
       cipher.updateAAD(getAADBytes());
 
       rgbEncrypt = new byte[cipher.getOutputSize(rgbContent.length)];
@@ -302,15 +388,33 @@ public abstract class EncryptCommon extends COSEObject {
     }
   }
 
+  /**
+   * Fix the encoding of the protected attributes before it is bound into the ciphertext. The
+   * protected attributes cannot be changed afterwards.
+   */
+  private void lockProtected() {
+    if (rgbProtected == null) {
+      rgbProtected = encodeProtected(objProtected);
+    }
+  }
+
+  /**
+   * Build the Enc_structure. An empty protected map is always bound as a zero length string, which
+   * is what the examples require for messages carrying an encoded empty map. Building it does not
+   * change the message.
+   */
   private byte[] getAADBytes() {
+    return buildAAD(context, encodeProtected(objProtected), externalData);
+  }
+
+  static byte[] encodeProtected(CBORObject objProtected) {
+    return objProtected.size() == 0 ? new byte[0] : objProtected.EncodeToBytes();
+  }
+
+  static byte[] buildAAD(String context, byte[] rgbProtected, byte[] externalData) {
     CBORObject obj = CBORObject.NewArray();
 
     obj.Add(context);
-    if (objProtected.size() == 0) {
-      rgbProtected = new byte[0];
-    } else {
-      rgbProtected = objProtected.EncodeToBytes();
-    }
     obj.Add(rgbProtected);
     obj.Add(CBORObject.FromByteArray(externalData));
     return obj.EncodeToBytes();
@@ -341,6 +445,7 @@ public abstract class EncryptCommon extends COSEObject {
   }
 
   protected void ProcessCounterSignatures() throws CoseException {
+    parseCountersignatures();
     if (!counterSignList.isEmpty()) {
       if (counterSignList.size() == 1) {
         counterSignList.get(0).sign(rgbProtected, rgbEncrypt);
@@ -0,0 +1,170 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+import java.security.Provider;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of pre-generated key pairs on one curve, for use as ECDH-ES ephemeral keys. A background
+ * thread keeps the pool filled up to its depth, so that generating the key pair is taken off the
+ * encryption path. When the pool is empty a key is generated on the calling thread instead.
+ * <p>
+ * Each key is handed out exactly once. The pool is opt-in: register it with
+ * {@link CryptoContext#addEphemeralKeyPool(EphemeralKeyPool)} on the CryptoContext of a
+ * {@link Recipient}. The recipient destroys the private part of the key as soon as the key
+ * agreement is done.
+ * <p>
+ * The pool must be closed when it is no longer needed; this stops the background thread and
+ * destroys the keys that were never handed out.
+ */
+public final class EphemeralKeyPool implements AutoCloseable {
+
+  private final CBORObject curve;
+  private final Provider provider;
+  private final BlockingQueue<COSEKey> keys;
+  private final Thread refillThread;
+
+  private final AtomicLong generatedCount = new AtomicLong();
+  private final AtomicLong pooledCount = new AtomicLong();
+  private final AtomicLong fallbackCount = new AtomicLong();
+
+  private volatile boolean closed;
+
+  /**
+   * Create a pool and start filling it.
+   *
+   * @param curve curve of the keys, for example {@link KeyKeys#EC2_P256}
+   * @param depth number of keys to keep ready
+   * @throws CoseException if the curve is not supported or the depth is not positive
+   */
+  public EphemeralKeyPool(CBORObject curve, int depth) throws CoseException {
+    this(curve, depth, null);
+  }
+
+  /**
+   * Create a pool and start filling it.
+   *
+   * @param curve curve of the keys, for example {@link KeyKeys#EC2_P256}
+   * @param depth number of keys to keep ready
+   * @param provider JCA provider used to generate the keys, or null for the default
+   * @throws CoseException if the curve is not supported or the depth is not positive
+   */
+  public EphemeralKeyPool(CBORObject curve, int depth, Provider provider)
+      throws CoseException {
+    if (depth < 1) {
+      throw new CoseException("Pool depth must be positive");
+    }
+    this.curve = curve;
+    this.provider = provider;
+    this.keys = new ArrayBlockingQueue<COSEKey>(depth);
+
+    // Fail here rather than on the background thread if the curve is not supported
+    keys.add(COSEKey.generateKey(curve, provider));
+    generatedCount.incrementAndGet();
+
+    refillThread = new Thread(this::refill, "cose-ephemeral-keys-" + curve);
+    refillThread.setDaemon(true);
+    refillThread.start();
+  }
+
+  /**
+   * @return the curve of the keys in this pool
+   */
+  public CBORObject getCurve() {
+    return curve;
+  }
+
+  /**
+   * @return the number of keys the pool keeps ready
+   */
+  public int getDepth() {
+    return keys.size() + keys.remainingCapacity();
+  }
+
+  /**
+   * @return the number of keys ready right now
+   */
+  public int getAvailable() {
+    return keys.size();
+  }
+
+  /**
+   * @return the number of keys generated by the pool to refill it
+   */
+  public long getGeneratedCount() {
+    return generatedCount.get();
+  }
+
+  /**
+   * @return the number of keys handed out from the pool
+   */
+  public long getPooledCount() {
+    return pooledCount.get();
+  }
+
+  /**
+   * @return the number of keys generated on the calling thread because the pool was empty
+   */
+  public long getFallbackCount() {
+    return fallbackCount.get();
+  }
+
+  /**
+   * Take a key out of the pool, or generate one if the pool is empty or closed. The key is never
+   * handed out again; the caller should destroy its private part once it has been used.
+   *
+   * @return a fresh key pair on the curve of the pool
+   * @throws CoseException if a key has to be generated and that fails
+   */
+  public COSEKey take() throws CoseException {
+    COSEKey key = keys.poll();
+    if (key != null) {
+      pooledCount.incrementAndGet();
+      return key;
+    }
+    fallbackCount.incrementAndGet();
+    return COSEKey.generateKey(curve, provider);
+  }
+
+  /**
+   * Stop refilling the pool and destroy the keys that were not handed out.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    refillThread.interrupt();
+    try {
+      refillThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    COSEKey key;
+    while ((key = keys.poll()) != null) {
+      key.destroyPrivateKey();
+    }
+  }
+
+  private void refill() {
+    try {
+      while (!closed) {
+        COSEKey key = COSEKey.generateKey(curve, provider);
+        generatedCount.incrementAndGet();
+        try {
+          keys.put(key);
+        } catch (InterruptedException e) {
+          // Closed while waiting for room
+          key.destroyPrivateKey();
+          return;
+        }
+      }
+    } catch (CoseException e) {
+      // Stop refilling; take() falls back to generating keys on the calling thread
+    }
+  }
+}
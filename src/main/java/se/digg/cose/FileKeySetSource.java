@@ -0,0 +1,349 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORException;
+import com.upokecenter.cbor.CBORObject;
+import com.upokecenter.cbor.CBORType;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A key set loaded from a file, or from all files in a directory. Each file holds either a
+ * COSE_Key or a COSE_KeySet.
+ * <p>
+ * The file or directory is watched for changes, and a new version is loaded in the background
+ * whenever it changes and at the latest when the time to live has passed. A new version replaces
+ * the old one with a single reference swap, so lookups take no locks and never wait for a reload.
+ * If a new version cannot be loaded, for example because a file is only half written, the old
+ * version stays in use and the error is available from {@link #getLastError()}.
+ * <p>
+ * Keys without a key identifier are found by their RFC 9679 thumbprint instead, see
+ * {@link COSEKey#getThumbprint()}.
+ * <p>
+ * Looking up a key identifier that is not in the key set also asks for a reload, since the key
+ * may just have been added. Such identifiers are then remembered as unknown for a while, so that
+ * repeated lookups of them do not cause a reload each, and lookups of any number of different
+ * unknown identifiers cause at most one reload per that while.
+ */
+public final class FileKeySetSource implements KeySetSource {
+
+  /**
+   * Time after which the key set is reloaded even if no change was seen, unless another is given.
+   */
+  public static final Duration DEFAULT_TTL = Duration.ofMinutes(5);
+
+  /**
+   * Time an unknown key identifier is remembered, unless another is given.
+   */
+  public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofSeconds(30);
+
+  /**
+   * Maximum number of unknown key identifiers remembered, the oldest are forgotten first.
+   */
+  static final int NEGATIVE_CACHE_SIZE = 10000;
+
+  private final Path path;
+  private final long negativeTtlNanos;
+  private final ScheduledExecutorService executor;
+  private final WatchService watchService;
+  private final Thread watchThread;
+
+  private final AtomicBoolean reloadPending = new AtomicBoolean();
+  private final AtomicLong loadCount = new AtomicLong();
+  private final Map<ByteBuffer, Long> unknownKids = new ConcurrentHashMap<ByteBuffer, Long>();
+  private final Queue<ByteBuffer> unknownOrder = new ConcurrentLinkedQueue<ByteBuffer>();
+  private final AtomicLong lastMissRefresh;
+
+  private volatile Snapshot snapshot;
+  private volatile Exception lastError;
+
+  /**
+   * Load the key set and start watching for changes, with the default time to live.
+   *
+   * @param path a file, or a directory of files, holding a COSE_Key or COSE_KeySet each
+   * @throws IOException if the key set cannot be read
+   * @throws CoseException if the key set is malformed
+   */
+  public FileKeySetSource(Path path) throws IOException, CoseException {
+    this(path, DEFAULT_TTL, DEFAULT_NEGATIVE_TTL);
+  }
+
+  /**
+   * Load the key set and start watching for changes.
+   *
+   * @param path a file, or a directory of files, holding a COSE_Key or COSE_KeySet each
+   * @param ttl time after which the key set is reloaded even if no change was seen
+   * @param negativeTtl time an unknown key identifier is remembered
+   * @throws IOException if the key set cannot be read
+   * @throws CoseException if the key set is malformed or a time is not positive
+   */
+  public FileKeySetSource(Path path, Duration ttl, Duration negativeTtl)
+      throws IOException, CoseException {
+    if (ttl.isNegative() || ttl.isZero() || negativeTtl.isNegative() || negativeTtl.isZero()) {
+      throw new CoseException("Time to live must be positive");
+    }
+    this.path = path;
+    this.negativeTtlNanos = negativeTtl.toNanos();
+    this.lastMissRefresh = new AtomicLong(System.nanoTime() - negativeTtlNanos);
+
+    // The first version is loaded on the calling thread so that errors are reported here
+    reload();
+
+    executor = Executors.newSingleThreadScheduledExecutor(r -> {
+      Thread thread = new Thread(r, "cose-keyset-reload-" + path.getFileName());
+      thread.setDaemon(true);
+      return thread;
+    });
+    executor.scheduleWithFixedDelay(
+        this::refresh, ttl.toNanos(), ttl.toNanos(), TimeUnit.NANOSECONDS);
+
+    Path dir = Files.isDirectory(path) ? path : path.toAbsolutePath().getParent();
+    WatchService watcher = null;
+    try {
+      watcher = dir.getFileSystem().newWatchService();
+      dir.register(
+          watcher,
+          StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+    } catch (IOException e) {
+      executor.shutdownNow();
+      if (watcher != null) {
+        watcher.close();
+      }
+      throw e;
+    }
+    watchService = watcher;
+    watchThread = new Thread(this::watch, "cose-keyset-watch-" + path.getFileName());
+    watchThread.setDaemon(true);
+    watchThread.start();
+  }
+
+  @Override
+  public KeySet getKeySet() {
+    return snapshot.keySet;
+  }
+
+  @Override
+  public List<COSEKey> getKeys(byte[] kid) {
+    List<COSEKey> keys = snapshot.index.get(ByteBuffer.wrap(kid));
+    if (keys != null) {
+      return keys;
+    }
+
+    ByteBuffer unknown = ByteBuffer.wrap(kid.clone());
+    long now = System.nanoTime();
+    Long expires = unknownKids.get(unknown);
+    if (expires == null || now - expires > 0) {
+      if (unknownKids.put(unknown, now + negativeTtlNanos) == null) {
+        unknownOrder.add(unknown);
+        while (unknownKids.size() > NEGATIVE_CACHE_SIZE) {
+          ByteBuffer oldest = unknownOrder.poll();
+          if (oldest == null) {
+            break;
+          }
+          unknownKids.remove(oldest);
+        }
+      }
+      // A new unknown identifier only reloads if no other one did within the negative TTL
+      long last = lastMissRefresh.get();
+      if (now - last >= negativeTtlNanos && lastMissRefresh.compareAndSet(last, now)) {
+        refresh();
+      }
+    }
+    return Collections.emptyList();
+  }
+
+  /**
+   * @return the number of unknown key identifiers remembered
+   */
+  int getUnknownKidCount() {
+    return unknownKids.size();
+  }
+
+  /**
+   * Ask for the key set to be reloaded in the background. Requests made while a reload is
+   * waiting to run are merged into it.
+   */
+  public void refresh() {
+    if (executor != null && reloadPending.compareAndSet(false, true)) {
+      try {
+        executor.execute(() -> {
+          reloadPending.set(false);
+          try {
+            reload();
+          } catch (IOException | CoseException e) {
+            // Keep serving the old version
+          }
+        });
+      } catch (RuntimeException e) {
+        // Closed
+        reloadPending.set(false);
+      }
+    }
+  }
+
+  /**
+   * Reload the key set on the calling thread. Lookups keep using the old version until the new
+   * one has been loaded.
+   *
+   * @throws IOException if the key set cannot be read
+   * @throws CoseException if the key set is malformed
+   */
+  public synchronized void reload() throws IOException, CoseException {
+    try {
+      snapshot = new Snapshot(load());
+      lastError = null;
+      loadCount.incrementAndGet();
+    } catch (IOException | CoseException e) {
+      lastError = e;
+      throw e;
+    }
+  }
+
+  /**
+   * @return the number of versions of the key set loaded so far
+   */
+  public long getLoadCount() {
+    return loadCount.get();
+  }
+
+  /**
+   * @return the error of the last failed reload, or null if the last reload succeeded
+   */
+  public Exception getLastError() {
+    return lastError;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      // Nothing more to release
+    }
+    try {
+      watchThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private KeySet load() throws IOException, CoseException {
+    KeySet keySet = new KeySet();
+    if (Files.isDirectory(path)) {
+      List<Path> files = new ArrayList<Path>();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+        for (Path file : entries) {
+          if (Files.isRegularFile(file) && !file.getFileName().toString().startsWith(".")) {
+            files.add(file);
+          }
+        }
+      }
+      Collections.sort(files);
+      for (Path file : files) {
+        loadFile(file, keySet);
+      }
+    } else {
+      loadFile(path, keySet);
+    }
+    return keySet;
+  }
+
+  private static void loadFile(Path file, KeySet keySet) throws IOException, CoseException {
+    CBORObject obj;
+    try {
+      obj = CBORObject.DecodeFromBytes(Files.readAllBytes(file));
+    } catch (CBORException e) {
+      throw new CoseException("Invalid key file " + file.getFileName(), e);
+    }
+    if (obj.getType() == CBORType.Map) {
+      keySet.add(new COSEKey(obj));
+    } else if (obj.getType() == CBORType.Array) {
+      for (int i = 0; i < obj.size(); i++) {
+        keySet.add(new COSEKey(obj.get(i)));
+      }
+    } else {
+      throw new CoseException("Invalid key file " + file.getFileName());
+    }
+  }
+
+  private void watch() {
+    Path fileName = Files.isDirectory(path) ? null : path.getFileName();
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          changed |= fileName == null
+              || event.kind() == StandardWatchEventKinds.OVERFLOW
+              || fileName.equals(event.context());
+        }
+        if (changed) {
+          refresh();
+        }
+        if (!key.reset()) {
+          return;
+        }
+      }
+    } catch (ClosedWatchServiceException | InterruptedException e) {
+      // Closed
+    }
+  }
+
+  private static final class Snapshot {
+
+    final KeySet keySet;
+    final Map<ByteBuffer, List<COSEKey>> index;
+
+    Snapshot(KeySet keySet) {
+      this.keySet = keySet;
+      Map<ByteBuffer, List<COSEKey>> byKid = new HashMap<ByteBuffer, List<COSEKey>>();
+      for (COSEKey key : keySet.getList()) {
+        CBORObject kid = key.get(KeyKeys.KeyId);
+        byte[] rgbKid;
+        if (kid != null && kid.getType() == CBORType.ByteString) {
+          rgbKid = kid.GetByteString();
+        } else {
+          try {
+            rgbKid = key.getThumbprint();
+          } catch (CoseException e) {
+            // Neither a kid nor a thumbprint to find the key by
+            continue;
+          }
+        }
+        byKid.computeIfAbsent(ByteBuffer.wrap(rgbKid), k -> new ArrayList<COSEKey>(1)).add(key);
+      }
+      for (Map.Entry<ByteBuffer, List<COSEKey>> entry : byKid.entrySet()) {
+        entry.setValue(Collections.unmodifiableList(entry.getValue()));
+      }
+      this.index = byKid;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link CoseMetrics} listener that keeps counters and a timing histogram for every combination
+ * of operation, algorithm and message type seen. Recording takes no lock and, once a combination
+ * has been seen, allocates nothing; a successful operation is two atomic adds to the histogram and
+ * the total time, and a check of the maximum.
+ * <p>
+ * The histogram has one bucket per power of two nanoseconds, so percentiles are reported as the
+ * upper bound of their bucket and may be up to twice the actual time.
+ */
+public final class HistogramMetrics implements CoseMetrics {
+
+  private static final Operation[] OPERATIONS = Operation.values();
+  private static final AlgorithmID[] ALGORITHMS = AlgorithmID.values();
+  private static final COSEObjectTag[] TAGS = COSEObjectTag.values();
+  private static final int BUCKETS = 64;
+
+  // Indexed by operation, then algorithm (with a slot for no algorithm), then tag
+  private final AtomicReferenceArray<Stats> stats =
+      new AtomicReferenceArray<Stats>(OPERATIONS.length * (ALGORITHMS.length + 1) * TAGS.length);
+
+  /**
+   * Counters and timings of one operation, algorithm and message type.
+   */
+  public static final class Stats {
+
+    private final Operation operation;
+    private final AlgorithmID algorithm;
+    private final COSEObjectTag tag;
+    private final LongAdder[] outcomes = new LongAdder[Outcome.values().length];
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    Stats(Operation operation, AlgorithmID algorithm, COSEObjectTag tag) {
+      this.operation = operation;
+      this.algorithm = algorithm;
+      this.tag = tag;
+      for (int i = 0; i < outcomes.length; i++) {
+        outcomes[i] = new LongAdder();
+      }
+      for (int i = 0; i < BUCKETS; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void add(long nanos, Outcome outcome) {
+      if (nanos < 0) {
+        nanos = 0;
+      }
+      // Successes are counted by the histogram alone, as most operations succeed
+      if (outcome != Outcome.SUCCESS) {
+        outcomes[outcome.ordinal()].increment();
+      }
+      totalNanos.add(nanos);
+      maxNanos.accumulate(nanos);
+      buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+    }
+
+    public Operation getOperation() {
+      return operation;
+    }
+
+    /**
+     * @return the algorithm, or null for operations without a known algorithm
+     */
+    public AlgorithmID getAlgorithm() {
+      return algorithm;
+    }
+
+    public COSEObjectTag getTag() {
+      return tag;
+    }
+
+    /**
+     * @return number of operations recorded
+     */
+    public long getCount() {
+      long count = 0;
+      for (LongAdder bucket : buckets) {
+        count += bucket.sum();
+      }
+      return count;
+    }
+
+    /**
+     * @param outcome outcome to count
+     * @return number of operations recorded with the outcome
+     */
+    public long getCount(Outcome outcome) {
+      if (outcome != Outcome.SUCCESS) {
+        return outcomes[outcome.ordinal()].sum();
+      }
+      long others = getCount(Outcome.REJECTED) + getCount(Outcome.ERROR);
+      return Math.max(0, getCount() - others);
+    }
+
+    public long getTotalNanos() {
+      return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+      return maxNanos.get();
+    }
+
+    /**
+     * @return mean time in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getMeanNanos() {
+      long count = getCount();
+      return count == 0 ? 0 : getTotalNanos() / count;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return upper bound in nanoseconds of the histogram bucket holding the percentile, or 0 if
+     *         nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+      long[] counts = new long[BUCKETS];
+      long total = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = buckets[i].sum();
+        total += counts[i];
+      }
+      if (total == 0) {
+        return 0;
+      }
+      long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+        }
+      }
+      return Long.MAX_VALUE;
+    }
+  }
+
+  @Override
+  public void record(
+      Operation operation,
+      AlgorithmID algorithm,
+      COSEObjectTag tag,
+      long nanos,
+      Outcome outcome) {
+    int i = index(operation, algorithm, tag);
+    Stats s = stats.get(i);
+    if (s == null) {
+      Stats created = new Stats(operation, algorithm, tag);
+      s = stats.compareAndExchange(i, null, created);
+      if (s == null) {
+        s = created;
+      }
+    }
+    s.add(nanos, outcome);
+  }
+
+  /**
+   * @param operation operation
+   * @param algorithm algorithm, or null
+   * @param tag message type
+   * @return the statistics of the combination, or null if it has not been recorded
+   */
+  public Stats get(Operation operation, AlgorithmID algorithm, COSEObjectTag tag) {
+    return stats.get(index(operation, algorithm, tag));
+  }
+
+  /**
+   * @return the statistics of every combination recorded so far
+   */
+  public List<Stats> getAll() {
+    List<Stats> all = new ArrayList<Stats>();
+    for (int i = 0; i < stats.length(); i++) {
+      Stats s = stats.get(i);
+      if (s != null) {
+        all.add(s);
+      }
+    }
+    return all;
+  }
+
+  /**
+   * Forget everything recorded so far. Operations recorded while resetting may be lost.
+   */
+  public void reset() {
+    for (int i = 0; i < stats.length(); i++) {
+      stats.set(i, null);
+    }
+  }
+
+  private static int index(Operation operation, AlgorithmID algorithm, COSEObjectTag tag) {
+    int alg = algorithm == null ? 0 : algorithm.ordinal() + 1;
+    return (operation.ordinal() * (ALGORITHMS.length + 1) + alg) * TAGS.length + tag.ordinal();
+  }
+}
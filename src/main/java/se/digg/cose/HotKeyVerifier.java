@@ -0,0 +1,183 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+import java.math.BigInteger;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.util.Arrays;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA384Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.params.Ed25519PublicKeyParameters;
+import org.bouncycastle.crypto.params.Ed448PublicKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.rfc8032.Ed25519;
+import org.bouncycastle.math.ec.rfc8032.Ed448;
+
+/**
+ * Verifies signatures made with one public key through the lightweight BouncyCastle engines,
+ * keeping the decoded key between calls. For ECDSA the public point is kept with the table of its
+ * multiples that BouncyCastle builds on the first verification, on a curve with the optimized
+ * field arithmetic; for EdDSA the decoded point is kept. Only the first verification pays for
+ * decoding the key and building the table.
+ * <p>
+ * Created by a {@link COSEKey} that is marked hot. An instance is safe for concurrent use.
+ */
+final class HotKeyVerifier {
+
+  private static final byte[] NO_CONTEXT = new byte[0];
+
+  private final ECPublicKeyParameters ecKey;
+  private final int fieldLength;
+  private final Ed25519PublicKeyParameters ed25519Key;
+  private final Ed448PublicKeyParameters ed448Key;
+
+  private HotKeyVerifier(
+      ECPublicKeyParameters ecKey,
+      int fieldLength,
+      Ed25519PublicKeyParameters ed25519Key,
+      Ed448PublicKeyParameters ed448Key) {
+    this.ecKey = ecKey;
+    this.fieldLength = fieldLength;
+    this.ed25519Key = ed25519Key;
+    this.ed448Key = ed448Key;
+  }
+
+  /**
+   * @return a verifier for the public part of a key, or null if the key type is not handled
+   */
+  static HotKeyVerifier create(COSEKey key) throws CoseException {
+    if (key.HasKeyType(KeyKeys.KeyType_EC2)) {
+      String curveName = curveName(key.get(KeyKeys.EC2_Curve));
+      PublicKey publicKey = key.AsPublicKey();
+      if (curveName == null || !(publicKey instanceof ECPublicKey)) {
+        return null;
+      }
+      X9ECParameters x9 = CustomNamedCurves.getByName(curveName);
+      ECPublicKey ecPublicKey = (ECPublicKey) publicKey;
+      ECPoint q = x9.getCurve().createPoint(
+          ecPublicKey.getW().getAffineX(), ecPublicKey.getW().getAffineY());
+      try {
+        return new HotKeyVerifier(
+            new ECPublicKeyParameters(q, new ECDomainParameters(x9)),
+            (x9.getCurve().getFieldSize() + 7) / 8,
+            null,
+            null);
+      } catch (IllegalArgumentException e) {
+        throw new CoseException("Invalid public key", e);
+      }
+    }
+    if (key.HasKeyType(KeyKeys.KeyType_OKP) && key.get(KeyKeys.OKP_X) != null) {
+      byte[] rgbX = key.get(KeyKeys.OKP_X).GetByteString();
+      try {
+        if (KeyKeys.OKP_Ed25519.equals(key.get(KeyKeys.OKP_Curve))) {
+          return new HotKeyVerifier(null, 0, new Ed25519PublicKeyParameters(rgbX), null);
+        }
+        if (KeyKeys.OKP_Ed448.equals(key.get(KeyKeys.OKP_Curve))) {
+          return new HotKeyVerifier(null, 0, null, new Ed448PublicKeyParameters(rgbX));
+        }
+      } catch (IllegalArgumentException e) {
+        throw new CoseException("Invalid public key", e);
+      }
+    }
+    return null;
+  }
+
+  private static String curveName(CBORObject curve) {
+    if (KeyKeys.EC2_P256.equals(curve)) {
+      return "secp256r1";
+    }
+    if (KeyKeys.EC2_P384.equals(curve)) {
+      return "secp384r1";
+    }
+    if (KeyKeys.EC2_P521.equals(curve)) {
+      return "secp521r1";
+    }
+    return null;
+  }
+
+  /**
+   * @return true if signatures of the algorithm can be verified with this key
+   */
+  boolean supports(AlgorithmID alg) {
+    switch (alg) {
+      case ECDSA_256:
+      case ECDSA_384:
+      case ECDSA_512:
+        return ecKey != null;
+      case EDDSA:
+        return ed25519Key != null || ed448Key != null;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Verify a signature of an algorithm this verifier {@link #supports}.
+   *
+   * @param alg signature algorithm
+   * @param rgbToBeSigned signed data
+   * @param rgbSignature signature in the COSE encoding
+   * @return true if the signature is valid
+   */
+  boolean verify(AlgorithmID alg, byte[] rgbToBeSigned, byte[] rgbSignature) {
+    if (ed25519Key != null) {
+      return rgbSignature.length == Ed25519.SIGNATURE_SIZE
+          && ed25519Key.verify(
+              Ed25519.Algorithm.Ed25519,
+              null,
+              rgbToBeSigned,
+              0,
+              rgbToBeSigned.length,
+              rgbSignature,
+              0);
+    }
+    if (ed448Key != null) {
+      return rgbSignature.length == Ed448.SIGNATURE_SIZE
+          && ed448Key.verify(
+              Ed448.Algorithm.Ed448,
+              NO_CONTEXT,
+              rgbToBeSigned,
+              0,
+              rgbToBeSigned.length,
+              rgbSignature,
+              0);
+    }
+
+    if (rgbSignature.length != fieldLength * 2) {
+      return false;
+    }
+    Digest digest;
+    switch (alg) {
+      case ECDSA_256:
+        digest = new SHA256Digest();
+        break;
+      case ECDSA_384:
+        digest = new SHA384Digest();
+        break;
+      default:
+        digest = new SHA512Digest();
+        break;
+    }
+    byte[] hash = new byte[digest.getDigestSize()];
+    digest.update(rgbToBeSigned, 0, rgbToBeSigned.length);
+    digest.doFinal(hash, 0);
+
+    BigInteger r = new BigInteger(1, Arrays.copyOfRange(rgbSignature, 0, fieldLength));
+    BigInteger s =
+        new BigInteger(1, Arrays.copyOfRange(rgbSignature, fieldLength, fieldLength * 2));
+    ECDSASigner signer = new ECDSASigner();
+    signer.init(false, ecKey);
+    return signer.verifySignature(hash, r, s);
+  }
+}
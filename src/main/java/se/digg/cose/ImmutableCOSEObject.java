@@ -0,0 +1,230 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+import java.util.List;
+
+/**
+ * The ImmutableCOSEObject class is the common base of the read only views of decoded COSE
+ * messages. A view takes a private copy of everything it needs when it is created and never
+ * changes afterwards, so a single view can be validated or decrypted from several threads at once,
+ * for example to try several candidate keys in parallel.
+ * <p>
+ * All values returned by a view are copies. The validate and decrypt methods of the subclasses
+ * have no side effects.
+ */
+public abstract class ImmutableCOSEObject {
+
+  private final COSEObjectTag coseObjectTag;
+  private final CBORObject objProtected;
+  private final CBORObject objUnprotected;
+
+  /**
+   * Private copy of the CryptoContext of the message; it is never handed out.
+   */
+  final CryptoContext cryptoContext;
+
+  final byte[] rgbContent;
+
+  ImmutableCOSEObject(COSEObject msg, CryptoContext cryptoContext) {
+    this.coseObjectTag = msg.coseObjectTag;
+    this.objProtected = copy(msg.objProtected);
+    this.objUnprotected = copy(msg.objUnprotected);
+    this.cryptoContext = new CryptoContext(null);
+    if (cryptoContext != null) {
+      this.cryptoContext.copyProvidersFrom(cryptoContext);
+    }
+    this.rgbContent = copy(msg.rgbContent);
+  }
+
+  /**
+   * Decode a COSE message into a read only view. The message must have a leading CBOR tag.
+   *
+   * @param rgbData byte stream to be decoded
+   * @return view of the decoded message
+   * @throws CoseException on a decode failure
+   */
+  public static ImmutableCOSEObject DecodeFromBytes(byte[] rgbData) throws CoseException {
+    return DecodeFromBytes(rgbData, COSEObjectTag.Unknown, null);
+  }
+
+  /**
+   * Decode a COSE message into a read only view.
+   *
+   * @param rgbData byte stream to be decoded
+   * @param defaultTag assumed message type to be decoded
+   * @return view of the decoded message
+   * @throws CoseException on a decode failure
+   * @see COSEObject#DecodeFromBytes(byte[], COSEObjectTag)
+   */
+  public static ImmutableCOSEObject DecodeFromBytes(
+      byte[] rgbData,
+      COSEObjectTag defaultTag) throws CoseException {
+    return DecodeFromBytes(rgbData, defaultTag, null);
+  }
+
+  /**
+   * Decode a COSE message from untrusted input into a read only view.
+   *
+   * @param rgbData byte stream to be decoded
+   * @param defaultTag assumed message type to be decoded
+   * @param options limits to enforce, or null for none
+   * @return view of the decoded message
+   * @throws CoseException on a decode failure or if a limit is exceeded
+   * @see COSEObject#DecodeFromBytes(byte[], COSEObjectTag, DecodeOptions)
+   */
+  public static ImmutableCOSEObject DecodeFromBytes(
+      byte[] rgbData,
+      COSEObjectTag defaultTag,
+      DecodeOptions options) throws CoseException {
+    return from(COSEObject.DecodeFromBytes(rgbData, defaultTag, options));
+  }
+
+  /**
+   * Take a read only snapshot of a message. The message must be complete: signed, MACed or
+   * encrypted. Later changes to the message are not seen by the view.
+   *
+   * @param msg message to take the snapshot of
+   * @return view of the message
+   * @throws CoseException if the message is not complete
+   */
+  public static ImmutableCOSEObject from(COSEObject msg) throws CoseException {
+    if (msg instanceof Sign1COSEObject) {
+      return new ImmutableSign1COSEObject((Sign1COSEObject) msg);
+    }
+    if (msg instanceof SignCOSEObject) {
+      return new ImmutableSignCOSEObject((SignCOSEObject) msg);
+    }
+    if (msg instanceof MAC0COSEObject) {
+      return new ImmutableMAC0COSEObject((MAC0COSEObject) msg);
+    }
+    if (msg instanceof MACCOSEObject) {
+      return new ImmutableMACCOSEObject((MACCOSEObject) msg);
+    }
+    if (msg instanceof Encrypt0COSEObject) {
+      return new ImmutableEncrypt0COSEObject((Encrypt0COSEObject) msg);
+    }
+    if (msg instanceof EncryptCOSEObject) {
+      return new ImmutableEncryptCOSEObject((EncryptCOSEObject) msg);
+    }
+    throw new CoseException("COSEObject is not recognized as a COSE security Object");
+  }
+
+  /**
+   * @return the message type
+   */
+  public COSEObjectTag getCOSEObjectTag() {
+    return coseObjectTag;
+  }
+
+  /**
+   * Locate an attribute in the protected or unprotected attribute maps, in that order.
+   *
+   * @param label label of the attribute to look for
+   * @return a copy of the value, or null if not found
+   */
+  public CBORObject findAttribute(HeaderKeys label) {
+    return findAttribute(label.AsCBOR());
+  }
+
+  /**
+   * Locate an attribute in the protected or unprotected attribute maps, in that order.
+   *
+   * @param label label of the attribute to look for
+   * @return a copy of the value, or null if not found
+   */
+  public CBORObject findAttribute(CBORObject label) {
+    return findAttribute(objProtected, objUnprotected, label);
+  }
+
+  /**
+   * Locate an attribute in one of the attribute maps.
+   *
+   * @param label label of the attribute to look for
+   * @param where {@link Attribute#PROTECTED} or {@link Attribute#UNPROTECTED}
+   * @return a copy of the value, or null if not found
+   * @throws CoseException if the location is not valid
+   */
+  public CBORObject findAttribute(CBORObject label, int where) throws CoseException {
+    switch (where) {
+      case Attribute.PROTECTED:
+        return copy(objProtected.get(label));
+      case Attribute.UNPROTECTED:
+        return copy(objUnprotected.get(label));
+      default:
+        throw new CoseException("Invalid attribute location given");
+    }
+  }
+
+  /**
+   * @return true if the message carries content
+   */
+  public boolean HasContent() {
+    return rgbContent != null;
+  }
+
+  /**
+   * @return a copy of the content of the message, or null if it is not present
+   */
+  public byte[] GetContent() {
+    return copy(rgbContent);
+  }
+
+  AlgorithmID getAlgorithm() throws CoseException {
+    return AlgorithmID.FromCBOR(findAttribute(HeaderKeys.Algorithm));
+  }
+
+  static CBORObject findAttribute(
+      CBORObject objProtected,
+      CBORObject objUnprotected,
+      CBORObject label) {
+    CBORObject value = objProtected.get(label);
+    if (value == null) {
+      value = objUnprotected.get(label);
+    }
+    return copy(value);
+  }
+
+  static byte[][] encodeRecipients(List<Recipient> recipients) throws CoseException {
+    byte[][] encoded = new byte[recipients.size()][];
+    for (int i = 0; i < encoded.length; i++) {
+      encoded[i] = recipients.get(i).EncodeCBORObject().EncodeToBytes();
+    }
+    return encoded;
+  }
+
+  /**
+   * Recover the content key from a recipient. A fresh Recipient is decoded for every call so that
+   * nothing is shared between threads.
+   */
+  byte[] recipientKey(byte[] encodedRecipient, AlgorithmID alg, COSEKey key)
+      throws CoseException {
+    Recipient recipient = new Recipient();
+    recipient.DecodeFromCBORObject(CBORObject.DecodeFromBytes(encodedRecipient));
+    recipient.getCryptoContext().copyProvidersFrom(cryptoContext);
+    recipient.SetKey(key);
+    byte[] rgbKey = recipient.decrypt(alg, recipient);
+    if (rgbKey == null) {
+      throw new CoseException("Recipient key not found");
+    }
+    return rgbKey;
+  }
+
+  static CBORObject findRecipientAttribute(byte[] encodedRecipient, HeaderKeys label)
+      throws CoseException {
+    Recipient recipient = new Recipient();
+    recipient.DecodeFromCBORObject(CBORObject.DecodeFromBytes(encodedRecipient));
+    return recipient.findAttribute(label);
+  }
+
+  static CBORObject copy(CBORObject value) {
+    return value == null ? null : CBORObject.DecodeFromBytes(value.EncodeToBytes());
+  }
+
+  static byte[] copy(byte[] value) {
+    return value == null ? null : value.clone();
+  }
+}
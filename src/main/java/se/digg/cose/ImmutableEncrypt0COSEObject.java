@@ -0,0 +1,63 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+/**
+ * Read only view of a COSE_Encrypt0 message. Decrypting returns the plain text without storing it
+ * in the view, so the view can be decrypted from several threads at once.
+ *
+ * @see ImmutableCOSEObject
+ */
+public final class ImmutableEncrypt0COSEObject extends ImmutableCOSEObject {
+
+  private final byte[] rgbProtected;
+  private final byte[] rgbEncrypt;
+
+  ImmutableEncrypt0COSEObject(Encrypt0COSEObject msg) throws CoseException {
+    super(msg, msg.cryptoContext);
+    if (msg.rgbEncrypt == null) {
+      throw new CoseException("No Encrypted Content Specified");
+    }
+    this.rgbProtected = EncryptCommon.encodeProtected(msg.objProtected);
+    this.rgbEncrypt = msg.rgbEncrypt.clone();
+  }
+
+  /**
+   * Decrypt the message.
+   *
+   * @param rgbKey content encryption key
+   * @return the plain text
+   * @throws CoseException if the decryption fails
+   */
+  public byte[] decrypt(byte[] rgbKey) throws CoseException {
+    return decrypt(rgbKey, new byte[0]);
+  }
+
+  /**
+   * Decrypt the message with external authenticated data.
+   *
+   * @param rgbKey content encryption key
+   * @param externalData external data that was authenticated with the message
+   * @return the plain text
+   * @throws CoseException if the decryption fails
+   */
+  public byte[] decrypt(byte[] rgbKey, byte[] externalData) throws CoseException {
+    return EncryptCommon.decrypt(
+        getAlgorithm(),
+        COSEObjectTag.Encrypt0,
+        rgbKey,
+        findAttribute(HeaderKeys.IV),
+        rgbEncrypt,
+        EncryptCommon.buildAAD("Encrypt0", rgbProtected, externalData),
+        cryptoContext);
+  }
+
+  /**
+   * @return a copy of the cipher text
+   */
+  public byte[] getEncryptedContent() {
+    return rgbEncrypt.clone();
+  }
+}
@@ -0,0 +1,94 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+
+/**
+ * Read only view of a COSE_Encrypt message. The content key is recovered from one of the
+ * recipients, which are identified by their index in the message. Decrypting returns the plain text
+ * without storing it in the view, so the view can be decrypted from several threads at once.
+ *
+ * @see ImmutableCOSEObject
+ */
+public final class ImmutableEncryptCOSEObject extends ImmutableCOSEObject {
+
+  private final byte[] rgbProtected;
+  private final byte[] rgbEncrypt;
+  private final byte[][] recipients;
+
+  ImmutableEncryptCOSEObject(EncryptCOSEObject msg) throws CoseException {
+    super(msg, msg.cryptoContext);
+    if (msg.rgbEncrypt == null) {
+      throw new CoseException("No Encrypted Content Specified");
+    }
+    this.rgbProtected = EncryptCommon.encodeProtected(msg.objProtected);
+    this.rgbEncrypt = msg.rgbEncrypt.clone();
+    this.recipients = encodeRecipients(msg.recipientList);
+  }
+
+  /**
+   * @return the number of recipients of the message
+   */
+  public int getRecipientCount() {
+    return recipients.length;
+  }
+
+  /**
+   * Locate an attribute in the protected or unprotected attribute maps of a recipient.
+   *
+   * @param recipient index of the recipient
+   * @param label label of the attribute to look for
+   * @return a copy of the value, or null if not found
+   * @throws CoseException if the recipient cannot be decoded
+   */
+  public CBORObject findRecipientAttribute(int recipient, HeaderKeys label)
+      throws CoseException {
+    return findRecipientAttribute(recipients[recipient], label);
+  }
+
+  /**
+   * Decrypt the message using the key of one recipient.
+   *
+   * @param recipient index of the recipient
+   * @param key key of the recipient
+   * @return the plain text
+   * @throws CoseException if the decryption fails
+   */
+  public byte[] decrypt(int recipient, COSEKey key) throws CoseException {
+    return decrypt(recipient, key, new byte[0]);
+  }
+
+  /**
+   * Decrypt the message with external authenticated data, using the key of one recipient.
+   *
+   * @param recipient index of the recipient
+   * @param key key of the recipient
+   * @param externalData external data that was authenticated with the message
+   * @return the plain text
+   * @throws CoseException if the decryption fails
+   */
+  public byte[] decrypt(int recipient, COSEKey key, byte[] externalData)
+      throws CoseException {
+    AlgorithmID alg = getAlgorithm();
+    byte[] rgbKey = recipientKey(recipients[recipient], alg, key);
+
+    return EncryptCommon.decrypt(
+        alg,
+        COSEObjectTag.Encrypt,
+        rgbKey,
+        findAttribute(HeaderKeys.IV),
+        rgbEncrypt,
+        EncryptCommon.buildAAD("Encrypt", rgbProtected, externalData),
+        cryptoContext);
+  }
+
+  /**
+   * @return a copy of the cipher text
+   */
+  public byte[] getEncryptedContent() {
+    return rgbEncrypt.clone();
+  }
+}
@@ -0,0 +1,63 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+/**
+ * Read only view of a COSE_Mac0 message. The view can be validated from several threads at once.
+ *
+ * @see ImmutableCOSEObject
+ */
+public final class ImmutableMAC0COSEObject extends ImmutableCOSEObject {
+
+  private final byte[] rgbProtected;
+  private final byte[] rgbTag;
+
+  ImmutableMAC0COSEObject(MAC0COSEObject msg) throws CoseException {
+    super(msg, msg.cryptoContext);
+    if (msg.rgbTag == null) {
+      throw new CoseException("Compute function not called");
+    }
+    this.rgbProtected = msg.rgbProtected != null
+        ? msg.rgbProtected.clone()
+        : EncryptCommon.encodeProtected(msg.objProtected);
+    this.rgbTag = msg.rgbTag.clone();
+  }
+
+  /**
+   * Validate the authentication tag of the message.
+   *
+   * @param rgbKey MAC key
+   * @return true if the tag validates
+   * @throws CoseException Errors generated by the COSE module
+   */
+  public boolean validate(byte[] rgbKey) throws CoseException {
+    return validate(rgbKey, new byte[0]);
+  }
+
+  /**
+   * Validate the authentication tag of the message with external authenticated data.
+   *
+   * @param rgbKey MAC key
+   * @param externalData external data that was authenticated with the message
+   * @return true if the tag validates
+   * @throws CoseException Errors generated by the COSE module
+   */
+  public boolean validate(byte[] rgbKey, byte[] externalData) throws CoseException {
+    return MacCommon.validateTag(
+        getAlgorithm(),
+        COSEObjectTag.MAC0,
+        rgbKey,
+        MacCommon.buildToBeMaced("MAC0", rgbProtected, externalData, rgbContent),
+        rgbTag,
+        cryptoContext);
+  }
+
+  /**
+   * @return a copy of the authentication tag
+   */
+  public byte[] getTag() {
+    return rgbTag.clone();
+  }
+}
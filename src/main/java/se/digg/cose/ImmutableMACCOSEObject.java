@@ -0,0 +1,96 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+
+/**
+ * Read only view of a COSE_Mac message. The MAC key is recovered from one of the recipients, which
+ * are identified by their index in the message. The view can be validated from several threads at
+ * once.
+ *
+ * @see ImmutableCOSEObject
+ */
+public final class ImmutableMACCOSEObject extends ImmutableCOSEObject {
+
+  private final byte[] rgbProtected;
+  private final byte[] rgbTag;
+  private final byte[][] recipients;
+
+  ImmutableMACCOSEObject(MACCOSEObject msg) throws CoseException {
+    super(msg, msg.cryptoContext);
+    if (msg.rgbTag == null) {
+      throw new CoseException("Compute function not called");
+    }
+    this.rgbProtected = msg.rgbProtected != null
+        ? msg.rgbProtected.clone()
+        : EncryptCommon.encodeProtected(msg.objProtected);
+    this.rgbTag = msg.rgbTag.clone();
+    this.recipients = encodeRecipients(msg.recipientList);
+  }
+
+  /**
+   * @return the number of recipients of the message
+   */
+  public int getRecipientCount() {
+    return recipients.length;
+  }
+
+  /**
+   * Locate an attribute in the protected or unprotected attribute maps of a recipient.
+   *
+   * @param recipient index of the recipient
+   * @param label label of the attribute to look for
+   * @return a copy of the value, or null if not found
+   * @throws CoseException if the recipient cannot be decoded
+   */
+  public CBORObject findRecipientAttribute(int recipient, HeaderKeys label)
+      throws CoseException {
+    return findRecipientAttribute(recipients[recipient], label);
+  }
+
+  /**
+   * Validate the authentication tag of the message using the key of one recipient.
+   *
+   * @param recipient index of the recipient
+   * @param key key of the recipient
+   * @return true if the tag validates
+   * @throws CoseException if the MAC key cannot be recovered
+   */
+  public boolean validate(int recipient, COSEKey key) throws CoseException {
+    return validate(recipient, key, new byte[0]);
+  }
+
+  /**
+   * Validate the authentication tag of the message with external authenticated data, using the key
+   * of one recipient.
+   *
+   * @param recipient index of the recipient
+   * @param key key of the recipient
+   * @param externalData external data that was authenticated with the message
+   * @return true if the tag validates
+   * @throws CoseException if the MAC key cannot be recovered
+   */
+  public boolean validate(int recipient, COSEKey key, byte[] externalData)
+      throws CoseException {
+    AlgorithmID alg = getAlgorithm();
+    byte[] rgbKey = recipientKey(recipients[recipient], alg, key);
+
+    return MacCommon.validateTag(
+        alg,
+        COSEObjectTag.MAC,
+        rgbKey,
+        MacCommon.buildToBeMaced("MAC", rgbProtected, externalData, rgbContent),
+        rgbTag,
+        cryptoContext);
+  }
+
+  /**
+   * @return a copy of the authentication tag
+   */
+  public byte[] getTag() {
+    return rgbTag.clone();
+  }
+}
@@ -0,0 +1,72 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+
+/**
+ * Read only view of a COSE_Sign1 message. The view can be validated from several threads at once.
+ *
+ * @see ImmutableCOSEObject
+ */
+public final class ImmutableSign1COSEObject extends ImmutableCOSEObject {
+
+  private final byte[] rgbProtected;
+  private final byte[] rgbSignature;
+
+  ImmutableSign1COSEObject(Sign1COSEObject msg) throws CoseException {
+    super(msg, null);
+    if (msg.rgbSignature == null) {
+      throw new CoseException("sign function not called");
+    }
+    // Same rule as Sign1COSEObject.validate: an empty map is always signed as an empty string
+    this.rgbProtected = msg.objProtected.size() > 0 ? msg.rgbProtected.clone() : new byte[0];
+    this.rgbSignature = msg.rgbSignature.clone();
+  }
+
+  /**
+   * Validate the signature on the message.
+   *
+   * @param cnKey key to use for validation
+   * @return true if the signature validates
+   * @throws CoseException Errors generated by the COSE module
+   */
+  public boolean validate(COSEKey cnKey) throws CoseException {
+    return validate(cnKey, new byte[0]);
+  }
+
+  /**
+   * Validate the signature on the message with external authenticated data.
+   *
+   * @param cnKey key to use for validation
+   * @param externalData external data that was authenticated with the message
+   * @return true if the signature validates
+   * @throws CoseException Errors generated by the COSE module
+   */
+  public boolean validate(COSEKey cnKey, byte[] externalData) throws CoseException {
+    if (rgbContent == null) {
+      throw new CoseException("No Content Specified");
+    }
+    CBORObject obj = CBORObject.NewArray();
+    obj.Add("Signature1");
+    obj.Add(rgbProtected);
+    obj.Add(externalData != null ? externalData : new byte[0]);
+    obj.Add(rgbContent);
+
+    return SignCommon.validateSignature(
+        getAlgorithm(),
+        COSEObjectTag.Sign1,
+        obj.EncodeToBytes(),
+        rgbSignature,
+        cnKey);
+  }
+
+  /**
+   * @return a copy of the signature
+   */
+  public byte[] getSignature() {
+    return rgbSignature.clone();
+  }
+}
@@ -0,0 +1,107 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+
+/**
+ * Read only view of a COSE_Sign message. Each signature is identified by the index of its signer
+ * in the message. The view can be validated from several threads at once.
+ *
+ * @see ImmutableCOSEObject
+ */
+public final class ImmutableSignCOSEObject extends ImmutableCOSEObject {
+
+  private final byte[] rgbProtected;
+  private final SignerSnapshot[] signers;
+
+  ImmutableSignCOSEObject(SignCOSEObject msg) throws CoseException {
+    super(msg, null);
+    if (msg.rgbProtected == null) {
+      throw new CoseException("sign function not called");
+    }
+    this.rgbProtected = msg.rgbProtected.clone();
+    this.signers = new SignerSnapshot[msg.getSignerCount()];
+    for (int i = 0; i < signers.length; i++) {
+      signers[i] = new SignerSnapshot(msg.getSigner(i));
+    }
+  }
+
+  /**
+   * @return the number of signers on the message
+   */
+  public int getSignerCount() {
+    return signers.length;
+  }
+
+  /**
+   * Locate an attribute in the protected or unprotected attribute maps of a signer.
+   *
+   * @param signer index of the signer
+   * @param label label of the attribute to look for
+   * @return a copy of the value, or null if not found
+   */
+  public CBORObject findSignerAttribute(int signer, HeaderKeys label) {
+    SignerSnapshot s = signers[signer];
+    return findAttribute(s.objProtected, s.objUnprotected, label.AsCBOR());
+  }
+
+  /**
+   * Validate the signature of one signer.
+   *
+   * @param signer index of the signer
+   * @param cnKey key to use for validation
+   * @return true if the signature validates
+   * @throws CoseException Errors generated by the COSE module
+   */
+  public boolean validate(int signer, COSEKey cnKey) throws CoseException {
+    return validate(signer, cnKey, new byte[0]);
+  }
+
+  /**
+   * Validate the signature of one signer with external authenticated data.
+   *
+   * @param signer index of the signer
+   * @param cnKey key to use for validation
+   * @param externalData external data that was authenticated with the message
+   * @return true if the signature validates
+   * @throws CoseException Errors generated by the COSE module
+   */
+  public boolean validate(int signer, COSEKey cnKey, byte[] externalData)
+      throws CoseException {
+    SignerSnapshot s = signers[signer];
+
+    CBORObject obj = CBORObject.NewArray();
+    obj.Add("Signature");
+    obj.Add(rgbProtected);
+    obj.Add(s.rgbProtected);
+    obj.Add(externalData != null ? externalData : new byte[0]);
+    obj.Add(rgbContent);
+
+    AlgorithmID alg = AlgorithmID.FromCBOR(
+        findAttribute(s.objProtected, s.objUnprotected, HeaderKeys.Algorithm.AsCBOR()));
+
+    return SignCommon.validateSignature(
+        alg, COSEObjectTag.Sign, obj.EncodeToBytes(), s.rgbSignature, cnKey);
+  }
+
+  private static final class SignerSnapshot {
+
+    final CBORObject objProtected;
+    final CBORObject objUnprotected;
+    final byte[] rgbProtected;
+    final byte[] rgbSignature;
+
+    SignerSnapshot(Signer signer) throws CoseException {
+      if (signer.rgbSignature == null || signer.rgbProtected == null) {
+        throw new CoseException("COSEObject not yet signed");
+      }
+      objProtected = copy(signer.objProtected);
+      objUnprotected = copy(signer.objUnprotected);
+      rgbProtected = signer.rgbProtected.clone();
+      rgbSignature = signer.rgbSignature.clone();
+    }
+  }
+}
@@ -0,0 +1,35 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import java.util.List;
+
+/**
+ * A source of keys whose content may change over time, for example as keys are rotated.
+ * Implementations publish each version of the key set as a whole, so a caller always sees one
+ * consistent version, and lookups never wait for a new version to be loaded.
+ */
+public interface KeySetSource extends AutoCloseable {
+
+  /**
+   * @return the current version of the key set
+   */
+  KeySet getKeySet();
+
+  /**
+   * Look up keys by key identifier in the current version of the key set. Keys without a key
+   * identifier are looked up by their thumbprint, see {@link COSEKey#getThumbprint()}.
+   *
+   * @param kid key identifier, or thumbprint of a key without one
+   * @return the keys with this identifier in key set order, empty if there are none
+   */
+  List<COSEKey> getKeys(byte[] kid);
+
+  /**
+   * Stop watching for changes. The last version of the key set stays available.
+   */
+  @Override
+  default void close() {}
+}
@@ -83,6 +83,23 @@ public class MAC0COSEObject extends MacCommon {
     return obj;
   }
 
+  @Override
+  void EncodeDirect(COSEEncoder encoder) throws CoseException {
+    if (rgbTag == null) {
+      throw new CoseException("Compute function not called");
+    }
+
+    encoder.writeArrayHeader(4);
+    if (objProtected.size() > 0) {
+      encoder.writeByteString(objProtected.EncodeToBytes());
+    } else {
+      encoder.writeByteString(new byte[0]);
+    }
+    encoder.writeEncoded(objUnprotected.EncodeToBytes());
+    encoder.writeByteString(rgbContent);
+    encoder.writeByteString(rgbTag);
+  }
+
   public void Create(byte[] rgbKey) throws CoseException {
     super.CreateWithKey(rgbKey);
   }
@@ -39,6 +39,11 @@ public class MACCOSEObject extends MacCommon {
     return recipientList.size();
   }
 
+  @Override
+  int recipientCount() {
+    return recipientList.size();
+  }
+
   public List<Recipient> getRecipientList() {
     return recipientList;
   }
@@ -114,6 +119,27 @@ public class MACCOSEObject extends MacCommon {
     return obj;
   }
 
+  @Override
+  void EncodeDirect(COSEEncoder encoder) throws CoseException {
+    if (rgbTag == null)
+      throw new CoseException("Compute function not called");
+
+    encoder.writeArrayHeader(5);
+    if (objProtected.size() > 0) {
+      encoder.writeByteString(objProtected.EncodeToBytes());
+    } else {
+      encoder.writeByteString(new byte[0]);
+    }
+    encoder.writeEncoded(objUnprotected.EncodeToBytes());
+    encoder.writeByteString(rgbContent);
+    encoder.writeByteString(rgbTag);
+
+    encoder.writeArrayHeader(recipientList.size());
+    for (Recipient r : recipientList) {
+      r.EncodeDirect(encoder);
+    }
+  }
+
   public boolean Validate(Recipient recipientToUse)
       throws CoseException, Exception {
     byte[] rgbKey = null;
@@ -41,59 +41,102 @@ public abstract class MacCommon extends COSEObject {
       throw new CoseException("No Content Specified");
     }
 
-    switch (alg) {
-      case HMAC_SHA_256_64:
-      case HMAC_SHA_256:
-      case HMAC_SHA_384:
-      case HMAC_SHA_512:
-        rgbTag = HMAC(alg, rgbKey);
-        break;
-      case AES_CBC_MAC_128_64:
-      case AES_CBC_MAC_256_64:
-      case AES_CBC_MAC_128_128:
-      case AES_CBC_MAC_256_128:
-        rgbTag = AES_CBC_MAC(alg, rgbKey);
-        break;
-      default:
-        throw new CoseException("Unsupported MAC Algorithm");
-    }
+    rgbTag = computeTag(alg, coseObjectTag, rgbKey, BuildContentBytes(), cryptoContext);
 
     ProcessCounterSignatures();
   }
 
   protected boolean Validate(byte[] rgbKey) throws CoseException {
-    boolean f;
-    int i;
-    byte[] rgbTest;
-
     CBORObject algX = findAttribute(CBORObject.FromInt32(1)); // HeaderKeys.Algorithm);
     AlgorithmID alg = AlgorithmID.FromCBOR(algX);
 
+    return validateTag(alg, coseObjectTag, rgbKey, BuildContentBytes(), rgbTag, cryptoContext);
+  }
+
+  /**
+   * Compute the authentication tag over an encoded MAC_structure. This does not touch any message
+   * state, so it is shared by the mutable message classes and the immutable views.
+   *
+   * @param alg MAC algorithm
+   * @param tag type of the message, for {@link CoseMetrics}
+   * @param rgbKey MAC key
+   * @param toBeMaced encoded MAC_structure
+   * @param cryptoContext provider selection
+   * @return the authentication tag
+   * @throws CoseException if the algorithm is not supported or the key is wrong
+   */
+  static byte[] computeTag(
+      AlgorithmID alg,
+      COSEObjectTag tag,
+      byte[] rgbKey,
+      byte[] toBeMaced,
+      CryptoContext cryptoContext) throws CoseException {
+    CoseMetrics metrics = cryptoContext.getMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    CoseEvents.MacCreateEvent event = new CoseEvents.MacCreateEvent();
+    event.begin();
+    long start = System.nanoTime();
+    try {
+      byte[] rgbTag = computeTag(alg, rgbKey, toBeMaced, cryptoContext);
+      outcome = CoseMetrics.Outcome.SUCCESS;
+      return rgbTag;
+    } finally {
+      CryptoContext.record(metrics, CoseMetrics.Operation.MAC, alg, tag, start, outcome);
+      event.complete(alg, tag, toBeMaced.length, 0, outcome);
+    }
+  }
+
+  private static byte[] computeTag(
+      AlgorithmID alg,
+      byte[] rgbKey,
+      byte[] toBeMaced,
+      CryptoContext cryptoContext) throws CoseException {
     switch (alg) {
       case HMAC_SHA_256_64:
       case HMAC_SHA_256:
       case HMAC_SHA_384:
       case HMAC_SHA_512:
-        rgbTest = HMAC(alg, rgbKey);
-        break;
+        return HMAC(alg, rgbKey, toBeMaced, cryptoContext);
       case AES_CBC_MAC_128_64:
       case AES_CBC_MAC_256_64:
       case AES_CBC_MAC_128_128:
       case AES_CBC_MAC_256_128:
-        rgbTest = AES_CBC_MAC(alg, rgbKey);
-        break;
+        return AES_CBC_MAC(alg, rgbKey, toBeMaced, cryptoContext);
       default:
         throw new CoseException("Unsupported MAC Algorithm");
     }
+  }
 
-    if (rgbTest.length != rgbTag.length) {
-      return false;
-    }
-    f = true;
-    for (i = 0; i < rgbTest.length; i++) {
-      f &= (rgbTest[i] == rgbTag[i]);
+  /**
+   * Check an authentication tag in constant time.
+   */
+  static boolean validateTag(
+      AlgorithmID alg,
+      COSEObjectTag tag,
+      byte[] rgbKey,
+      byte[] toBeMaced,
+      byte[] rgbTag,
+      CryptoContext cryptoContext) throws CoseException {
+    CoseMetrics metrics = cryptoContext.getMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    CoseEvents.MacValidateEvent event = new CoseEvents.MacValidateEvent();
+    event.begin();
+    long start = System.nanoTime();
+    try {
+      byte[] rgbTest = computeTag(alg, rgbKey, toBeMaced, cryptoContext);
+
+      boolean f = rgbTest.length == rgbTag.length;
+      if (f) {
+        for (int i = 0; i < rgbTest.length; i++) {
+          f &= (rgbTest[i] == rgbTag[i]);
+        }
+      }
+      outcome = f ? CoseMetrics.Outcome.SUCCESS : CoseMetrics.Outcome.REJECTED;
+      return f;
+    } finally {
+      CryptoContext.record(metrics, CoseMetrics.Operation.MAC, alg, tag, start, outcome);
+      event.complete(alg, tag, toBeMaced.length, 0, outcome);
     }
-    return f;
   }
 
   private byte[] BuildContentBytes() {
@@ -107,7 +150,17 @@ public abstract class MacCommon extends COSEObject {
       }
     }
 
-    obj.Add(strContext);
+    return buildToBeMaced(strContext, rgbProtected, externalData, rgbContent);
+  }
+
+  static byte[] buildToBeMaced(
+      String context,
+      byte[] rgbProtected,
+      byte[] externalData,
+      byte[] rgbContent) {
+    CBORObject obj = CBORObject.NewArray();
+
+    obj.Add(context);
     obj.Add(rgbProtected);
     if (externalData != null) {
       obj.Add(CBORObject.FromByteArray(externalData));
@@ -121,6 +174,14 @@ public abstract class MacCommon extends COSEObject {
 
   protected byte[] AES_CBC_MAC(AlgorithmID alg, byte[] rgbKey)
       throws CoseException {
+    return AES_CBC_MAC(alg, rgbKey, BuildContentBytes(), cryptoContext);
+  }
+
+  private static byte[] AES_CBC_MAC(
+      AlgorithmID alg,
+      byte[] rgbKey,
+      byte[] val,
+      CryptoContext cryptoContext) throws CoseException {
     if (rgbKey.length != alg.getKeySize() / 8) {
       throw new CoseException(
           "Key is incorrectly sized");
@@ -133,14 +194,11 @@ public abstract class MacCommon extends COSEObject {
     byte[] IV = new byte[128 / 8];
 
     try {
-      Cipher cbcmac = cryptoContext.getProvider() != null
-          ? Cipher.getInstance("AES/CBC/NoPadding", cryptoContext.getProvider())
-          : Cipher.getInstance("AES/CBC/NoPadding");
-      cbcmac.init(
+      Cipher cbcmac = cryptoContext.initCipher(
+          "AES/CBC/NoPadding",
           Cipher.ENCRYPT_MODE,
           new SecretKeySpec(rgbKey, "AES"),
           new IvParameterSpec(IV));
-      byte[] val = BuildContentBytes();
       int blockLen = cbcmac.getBlockSize();
 
       int dataLen = val.length, dataPad = 16 - (val.length % 16);
@@ -170,7 +228,11 @@ public abstract class MacCommon extends COSEObject {
     }
   }
 
-  private byte[] HMAC(AlgorithmID alg, byte[] rgbKey) throws CoseException {
+  private static byte[] HMAC(
+      AlgorithmID alg,
+      byte[] rgbKey,
+      byte[] toBeMaced,
+      CryptoContext cryptoContext) throws CoseException {
     String algStr;
 
     switch (alg) {
@@ -194,12 +256,8 @@ public abstract class MacCommon extends COSEObject {
     }
 
     try {
-      Mac hmac = cryptoContext.getProvider() != null
-          ? Mac.getInstance(algStr, cryptoContext.getProvider())
-          : Mac.getInstance(algStr);
-      hmac.init(new SecretKeySpec(rgbKey, algStr));
-      byte[] val = BuildContentBytes();
-      val = hmac.doFinal(val);
+      Mac hmac = cryptoContext.initMac(algStr, new SecretKeySpec(rgbKey, algStr));
+      byte[] val = hmac.doFinal(toBeMaced);
       val = Arrays.copyOfRange(val, 0, alg.getTagSize() / 8);
       return val;
     } catch (NoSuchAlgorithmException ex) {
@@ -0,0 +1,351 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORException;
+import com.upokecenter.cbor.CBORObject;
+import com.upokecenter.cbor.CBORType;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read only key set kept in a file and looked up by key identifier. The file is memory mapped
+ * when the store is opened and nothing else is read up front; a key is only decoded into a
+ * {@link COSEKey} when it is looked up. The most recently used keys are kept in a bounded cache.
+ * <p>
+ * A store file is written from a COSE_KeySet with {@link #write(CBORObject, Path)} or
+ * {@link #convert(Path, Path)}, or from the command line with
+ * {@code java se.digg.cose.MappedKeySetStore <keyset.cbor> <store>}. The file holds a header, an
+ * index of key identifiers sorted as unsigned bytes, and the encoded COSE_Key of each entry:
+ *
+ * <pre>
+ * header   magic (4) | version (4) | count (4)
+ * index    count * (kid offset (4) | kid length (4) | key offset (4) | key length (4))
+ * data     kid and COSE_Key bytes of each entry
+ * </pre>
+ *
+ * All integers are big-endian, and a file is at most 2 GiB. Several keys may share a key
+ * identifier; they keep their order from the key set. Keys without a key identifier are stored
+ * and looked up by their RFC 9679 thumbprint.
+ * <p>
+ * Lookups may be done from several threads at once. Keys handed out from the cache are shared,
+ * so callers must not change them.
+ */
+public final class MappedKeySetStore implements AutoCloseable {
+
+  /**
+   * Number of decoded key identifiers cached unless another size is given.
+   */
+  public static final int DEFAULT_CACHE_SIZE = 1024;
+
+  static final int MAGIC = 0x434b5331; // "CKS1"
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 12;
+  static final int INDEX_ENTRY_SIZE = 16;
+
+  private final int count;
+  private final int cacheSize;
+  private final Map<ByteBuffer, List<COSEKey>> cache;
+  private volatile MappedByteBuffer buffer;
+
+  /**
+   * Open a store file with the default cache size.
+   *
+   * @param file store file written by {@link #write(CBORObject, Path)}
+   * @throws IOException if the file cannot be read
+   * @throws CoseException if the file is not a key store
+   */
+  public MappedKeySetStore(Path file) throws IOException, CoseException {
+    this(file, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Open a store file.
+   *
+   * @param file store file written by {@link #write(CBORObject, Path)}
+   * @param cacheSize number of key identifiers whose decoded keys are cached, 0 to disable
+   * @throws IOException if the file cannot be read
+   * @throws CoseException if the file is not a key store or the cache size is negative
+   */
+  public MappedKeySetStore(Path file, int cacheSize) throws IOException, CoseException {
+    if (cacheSize < 0) {
+      throw new CoseException("Cache size must not be negative");
+    }
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new CoseException("Invalid key store file");
+      }
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (mapped.capacity() < HEADER_SIZE
+        || mapped.getInt(0) != MAGIC
+        || mapped.getInt(4) != VERSION) {
+      throw new CoseException("Invalid key store file");
+    }
+    count = mapped.getInt(8);
+    if (count < 0 || (long) count * INDEX_ENTRY_SIZE > mapped.capacity() - HEADER_SIZE) {
+      throw new CoseException("Invalid key store file");
+    }
+    this.buffer = mapped;
+    this.cacheSize = cacheSize;
+    this.cache = Collections.synchronizedMap(
+        new LinkedHashMap<ByteBuffer, List<COSEKey>>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<ByteBuffer, List<COSEKey>> eldest) {
+            return size() > MappedKeySetStore.this.cacheSize;
+          }
+        });
+  }
+
+  /**
+   * @return the number of keys in the store
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * @return the number of key identifiers whose decoded keys are cached at most
+   */
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  /**
+   * @return the number of key identifiers whose decoded keys are cached right now
+   */
+  public int getCachedCount() {
+    return cache.size();
+  }
+
+  /**
+   * Check whether the store has a key with a given identifier, without decoding it.
+   *
+   * @param kid key identifier
+   * @return true if there is at least one key with this identifier
+   * @throws CoseException if the store is closed or the file is corrupt
+   */
+  public boolean contains(byte[] kid) throws CoseException {
+    MappedByteBuffer mapped = mapped();
+    int i = lowerBound(mapped, kid);
+    return i < count && compareKid(mapped, i, kid) == 0;
+  }
+
+  /**
+   * Look up the first key with a given identifier.
+   *
+   * @param kid key identifier
+   * @return the key, or null if there is no key with this identifier
+   * @throws CoseException if the store is closed, the file is corrupt or the key is malformed
+   */
+  public COSEKey get(byte[] kid) throws CoseException {
+    List<COSEKey> keys = getAll(kid);
+    return keys.isEmpty() ? null : keys.get(0);
+  }
+
+  /**
+   * Look up all keys with a given identifier.
+   *
+   * @param kid key identifier
+   * @return the keys in key set order, empty if there is no key with this identifier
+   * @throws CoseException if the store is closed, the file is corrupt or a key is malformed
+   */
+  public List<COSEKey> getAll(byte[] kid) throws CoseException {
+    ByteBuffer cacheKey = ByteBuffer.wrap(kid.clone());
+    List<COSEKey> keys = cache.get(cacheKey);
+    if (keys != null) {
+      return keys;
+    }
+
+    MappedByteBuffer mapped = mapped();
+    keys = new ArrayList<COSEKey>(1);
+    for (int i = lowerBound(mapped, kid); i < count && compareKid(mapped, i, kid) == 0; i++) {
+      int entry = HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+      byte[] rgbKey = slice(mapped, mapped.getInt(entry + 8), mapped.getInt(entry + 12));
+      try {
+        keys.add(new COSEKey(CBORObject.DecodeFromBytes(rgbKey)));
+      } catch (CBORException e) {
+        throw new CoseException("Invalid key store file", e);
+      }
+    }
+    keys = Collections.unmodifiableList(keys);
+    if (cacheSize > 0 && !keys.isEmpty()) {
+      cache.put(cacheKey, keys);
+    }
+    return keys;
+  }
+
+  /**
+   * Close the store and drop the cache. The mapping itself is released once it has been garbage
+   * collected.
+   */
+  @Override
+  public void close() {
+    buffer = null;
+    cache.clear();
+  }
+
+  /**
+   * Write a key set to a store file. Every key must be a map. A key without a key identifier is
+   * stored under its thumbprint, see {@link COSEKey#getThumbprint()}. The keys are not decoded,
+   * so the key material itself is only checked when a key is looked up.
+   *
+   * @param keySet COSE_KeySet array
+   * @param file store file to write
+   * @throws IOException if the file cannot be written
+   * @throws CoseException if the key set is malformed or too large for one file
+   */
+  public static void write(CBORObject keySet, Path file) throws IOException, CoseException {
+    if (keySet.getType() != CBORType.Array) {
+      throw new CoseException("Key set must be an array");
+    }
+
+    int n = keySet.size();
+    byte[][] kids = new byte[n][];
+    byte[][] encodedKeys = new byte[n][];
+    long offset = HEADER_SIZE + (long) n * INDEX_ENTRY_SIZE;
+    for (int i = 0; i < n; i++) {
+      CBORObject key = keySet.get(i);
+      if (key.getType() != CBORType.Map) {
+        throw new CoseException("Key at index " + i + " is not a map");
+      }
+      CBORObject kid = key.get(KeyKeys.KeyId.AsCBOR());
+      if (kid != null && kid.getType() == CBORType.ByteString) {
+        kids[i] = kid.GetByteString();
+      } else {
+        try {
+          kids[i] = COSEKey.computeThumbprint(key, "SHA-256");
+        } catch (CoseException e) {
+          throw new CoseException("Key at index " + i + " has no key identifier", e);
+        }
+      }
+      encodedKeys[i] = key.EncodeToBytes();
+      offset += kids[i].length + encodedKeys[i].length;
+    }
+    if (offset > Integer.MAX_VALUE) {
+      throw new CoseException("Key set is too large for one store file");
+    }
+
+    // Stable sort, so keys sharing a kid keep their order
+    Integer[] order = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Arrays.compareUnsigned(kids[a], kids[b]));
+
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(n);
+      int data = HEADER_SIZE + n * INDEX_ENTRY_SIZE;
+      for (int i : order) {
+        out.writeInt(data);
+        out.writeInt(kids[i].length);
+        out.writeInt(data + kids[i].length);
+        out.writeInt(encodedKeys[i].length);
+        data += kids[i].length + encodedKeys[i].length;
+      }
+      for (int i : order) {
+        out.write(kids[i]);
+        out.write(encodedKeys[i]);
+      }
+    }
+  }
+
+  /**
+   * Convert a file holding an encoded COSE_KeySet to a store file.
+   *
+   * @param keySetFile file holding the encoded key set
+   * @param storeFile store file to write
+   * @throws IOException if a file cannot be read or written
+   * @throws CoseException if the key set is malformed or too large for one file
+   */
+  public static void convert(Path keySetFile, Path storeFile) throws IOException, CoseException {
+    write(CBORObject.DecodeFromBytes(Files.readAllBytes(keySetFile)), storeFile);
+  }
+
+  /**
+   * Convert a COSE_KeySet file to a store file from the command line.
+   *
+   * @param args the key set file and the store file
+   * @throws Exception if the conversion fails
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 2) {
+      System.err.println("Usage: java se.digg.cose.MappedKeySetStore <keyset.cbor> <store>");
+      System.exit(2);
+    }
+    convert(Paths.get(args[0]), Paths.get(args[1]));
+  }
+
+  private MappedByteBuffer mapped() throws CoseException {
+    MappedByteBuffer mapped = buffer;
+    if (mapped == null) {
+      throw new CoseException("Key store is closed");
+    }
+    return mapped;
+  }
+
+  private int lowerBound(MappedByteBuffer mapped, byte[] kid) throws CoseException {
+    int lo = 0;
+    int hi = count;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (compareKid(mapped, mid, kid) < 0) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private static int compareKid(MappedByteBuffer mapped, int i, byte[] kid)
+      throws CoseException {
+    int entry = HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+    int kidOffset = mapped.getInt(entry);
+    int kidLength = mapped.getInt(entry + 4);
+    checkBounds(mapped, kidOffset, kidLength);
+    int len = Math.min(kidLength, kid.length);
+    for (int j = 0; j < len; j++) {
+      int c = Byte.compareUnsigned(mapped.get(kidOffset + j), kid[j]);
+      if (c != 0) {
+        return c;
+      }
+    }
+    return kidLength - kid.length;
+  }
+
+  private static byte[] slice(MappedByteBuffer mapped, int offset, int length)
+      throws CoseException {
+    checkBounds(mapped, offset, length);
+    byte[] rgb = new byte[length];
+    mapped.get(offset, rgb);
+    return rgb;
+  }
+
+  private static void checkBounds(MappedByteBuffer mapped, int offset, int length)
+      throws CoseException {
+    if (offset < 0 || length < 0 || offset > mapped.capacity() - length) {
+      throw new CoseException("Invalid key store file");
+    }
+  }
+}
@@ -105,6 +105,30 @@ public class Recipient extends COSEObject {
     return obj;
   }
 
+  /**
+   * Write the recipient to the direct encoder, producing the same bytes as encoding the result of
+   * {@link #EncodeCBORObject()}.
+   *
+   * @param encoder encoder to write to
+   * @throws CoseException Internal COSE Exception
+   */
+  void EncodeDirect(COSEEncoder encoder) throws CoseException {
+    encoder.writeArrayHeader(recipientList != null ? 4 : 3);
+    if (objProtected.size() > 0) {
+      encoder.writeByteString(objProtected.EncodeToBytes());
+    } else {
+      encoder.writeByteString(new byte[0]);
+    }
+    encoder.writeEncoded(objUnprotected.EncodeToBytes());
+    encoder.writeByteString(rgbEncrypted);
+    if (recipientList != null) {
+      encoder.writeArrayHeader(recipientList.size());
+      for (Recipient r : recipientList) {
+        r.EncodeDirect(encoder);
+      }
+    }
+  }
+
   public byte[] decrypt(AlgorithmID algCEK, Recipient recip)
       throws CoseException {
     AlgorithmID alg = AlgorithmID.FromCBOR(findAttribute(HeaderKeys.Algorithm));
@@ -137,7 +161,7 @@ public class Recipient extends COSEObject {
             privateKey.get(KeyKeys.Octet_K.AsCBOR()).GetByteString(),
             algCEK.getKeySize(),
             algCEK,
-            "SHA256");
+            256);
       case HKDF_HMAC_SHA_512:
         if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_Octet)
           throw new CoseException("Needs to be an octet key");
@@ -145,7 +169,7 @@ public class Recipient extends COSEObject {
             privateKey.get(KeyKeys.Octet_K.AsCBOR()).GetByteString(),
             algCEK.getKeySize(),
             algCEK,
-            "SHA512");
+            512);
       case AES_KW_128:
       case AES_KW_192:
       case AES_KW_256:
@@ -159,36 +183,36 @@ public class Recipient extends COSEObject {
         return AES_KeyWrap_Decrypt(alg, rgbKey);
       case ECDH_ES_HKDF_256:
       case ECDH_SS_HKDF_256:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
         rgbKey = ECDH_GenSecret(privateKey);
-        return HKDF(rgbKey, algCEK.getKeySize(), algCEK, "SHA256");
+        return HKDF(rgbKey, algCEK.getKeySize(), algCEK, 256);
       case ECDH_ES_HKDF_512:
       case ECDH_SS_HKDF_512:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
         rgbKey = ECDH_GenSecret(privateKey);
-        return HKDF(rgbKey, algCEK.getKeySize(), algCEK, "SHA512");
+        return HKDF(rgbKey, algCEK.getKeySize(), algCEK, 512);
       case ECDH_ES_HKDF_256_AES_KW_128:
       case ECDH_SS_HKDF_256_AES_KW_128:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
         rgbKey = ECDH_GenSecret(privateKey);
-        rgbKey = HKDF(rgbKey, 128, AlgorithmID.AES_KW_128, "SHA256");
+        rgbKey = HKDF(rgbKey, 128, AlgorithmID.AES_KW_128, 256);
         return AES_KeyWrap_Decrypt(AlgorithmID.AES_KW_128, rgbKey);
       case ECDH_ES_HKDF_256_AES_KW_192:
       case ECDH_SS_HKDF_256_AES_KW_192:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
         rgbKey = ECDH_GenSecret(privateKey);
-        rgbKey = HKDF(rgbKey, 192, AlgorithmID.AES_KW_192, "SHA256");
+        rgbKey = HKDF(rgbKey, 192, AlgorithmID.AES_KW_192, 256);
         return AES_KeyWrap_Decrypt(AlgorithmID.AES_KW_192, rgbKey);
       case ECDH_ES_HKDF_256_AES_KW_256:
       case ECDH_SS_HKDF_256_AES_KW_256:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
         rgbKey = ECDH_GenSecret(privateKey);
-        rgbKey = HKDF(rgbKey, 256, AlgorithmID.AES_KW_256, "SHA256");
+        rgbKey = HKDF(rgbKey, 256, AlgorithmID.AES_KW_256, 256);
         return AES_KeyWrap_Decrypt(AlgorithmID.AES_KW_256, rgbKey);
       default:
         throw new CoseException("Unsupported Recipent Algorithm");
@@ -256,15 +280,14 @@ public class Recipient extends COSEObject {
         rgbEncrypted = new byte[0];
         break;
       case ECDH_ES_HKDF_256_AES_KW_128:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
-        ECDH_GenEphemeral();
-        rgbKey = ECDH_GenSecret(privateKey);
-        rgbKey = HKDF(rgbKey, 128, AlgorithmID.AES_KW_128, "SHA256");
+        rgbKey = ECDH_GenEphemeralSecret();
+        rgbKey = HKDF(rgbKey, 128, AlgorithmID.AES_KW_128, 256);
         rgbEncrypted = AES_KeyWrap_Encrypt(AlgorithmID.AES_KW_128, rgbKey);
         break;
       case ECDH_SS_HKDF_256_AES_KW_128:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
         if (findAttribute(HeaderKeys.HKDF_Context_PartyU_nonce.AsCBOR()) == null) {
           byte[] rgbAPU = new byte[256 / 8];
@@ -276,19 +299,18 @@ public class Recipient extends COSEObject {
               UNPROTECTED);
         }
         rgbKey = ECDH_GenSecret(privateKey);
-        rgbKey = HKDF(rgbKey, 128, AlgorithmID.AES_KW_128, "SHA256");
+        rgbKey = HKDF(rgbKey, 128, AlgorithmID.AES_KW_128, 256);
         rgbEncrypted = AES_KeyWrap_Encrypt(AlgorithmID.AES_KW_128, rgbKey);
         break;
       case ECDH_ES_HKDF_256_AES_KW_192:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
-        ECDH_GenEphemeral();
-        rgbKey = ECDH_GenSecret(privateKey);
-        rgbKey = HKDF(rgbKey, 192, AlgorithmID.AES_KW_192, "SHA256");
+        rgbKey = ECDH_GenEphemeralSecret();
+        rgbKey = HKDF(rgbKey, 192, AlgorithmID.AES_KW_192, 256);
         rgbEncrypted = AES_KeyWrap_Encrypt(AlgorithmID.AES_KW_192, rgbKey);
         break;
       case ECDH_SS_HKDF_256_AES_KW_192:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
         if (findAttribute(HeaderKeys.HKDF_Context_PartyU_nonce.AsCBOR()) == null) {
           byte[] rgbAPU = new byte[256 / 8];
@@ -300,19 +322,18 @@ public class Recipient extends COSEObject {
               UNPROTECTED);
         }
         rgbKey = ECDH_GenSecret(privateKey);
-        rgbKey = HKDF(rgbKey, 192, AlgorithmID.AES_KW_192, "SHA256");
+        rgbKey = HKDF(rgbKey, 192, AlgorithmID.AES_KW_192, 256);
         rgbEncrypted = AES_KeyWrap_Encrypt(AlgorithmID.AES_KW_192, rgbKey);
         break;
       case ECDH_ES_HKDF_256_AES_KW_256:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
-        ECDH_GenEphemeral();
-        rgbKey = ECDH_GenSecret(privateKey);
-        rgbKey = HKDF(rgbKey, 256, AlgorithmID.AES_KW_256, "SHA256");
+        rgbKey = ECDH_GenEphemeralSecret();
+        rgbKey = HKDF(rgbKey, 256, AlgorithmID.AES_KW_256, 256);
         rgbEncrypted = AES_KeyWrap_Encrypt(AlgorithmID.AES_KW_256, rgbKey);
         break;
       case ECDH_SS_HKDF_256_AES_KW_256:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
         if (findAttribute(HeaderKeys.HKDF_Context_PartyU_nonce.AsCBOR()) == null) {
           byte[] rgbAPU = new byte[256 / 8];
@@ -324,7 +345,7 @@ public class Recipient extends COSEObject {
               UNPROTECTED);
         }
         rgbKey = ECDH_GenSecret(privateKey);
-        rgbKey = HKDF(rgbKey, 256, AlgorithmID.AES_KW_256, "SHA256");
+        rgbKey = HKDF(rgbKey, 256, AlgorithmID.AES_KW_256, 256);
         rgbEncrypted = AES_KeyWrap_Encrypt(AlgorithmID.AES_KW_256, rgbKey);
         break;
       default:
@@ -395,19 +416,17 @@ public class Recipient extends COSEObject {
           throw new CoseException("Key and algorithm do not agree");
         return privateKey.get(KeyKeys.Octet_K).GetByteString();
       case ECDH_ES_HKDF_256:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
-        ECDH_GenEphemeral();
-        rgbSecret = ECDH_GenSecret(privateKey);
-        return HKDF(rgbSecret, algCEK.getKeySize(), algCEK, "SHA256");
+        rgbSecret = ECDH_GenEphemeralSecret();
+        return HKDF(rgbSecret, algCEK.getKeySize(), algCEK, 256);
       case ECDH_ES_HKDF_512:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
-        ECDH_GenEphemeral();
-        rgbSecret = ECDH_GenSecret(privateKey);
-        return HKDF(rgbSecret, algCEK.getKeySize(), algCEK, "SHA512");
+        rgbSecret = ECDH_GenEphemeralSecret();
+        return HKDF(rgbSecret, algCEK.getKeySize(), algCEK, 512);
       case ECDH_SS_HKDF_256:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
         if (findAttribute(HeaderKeys.HKDF_Context_PartyU_nonce.AsCBOR()) == null) {
           byte[] rgbAPU = new byte[256 / 8];
@@ -419,9 +438,9 @@ public class Recipient extends COSEObject {
               UNPROTECTED);
         }
         rgbSecret = ECDH_GenSecret(privateKey);
-        return HKDF(rgbSecret, algCEK.getKeySize(), algCEK, "SHA256");
+        return HKDF(rgbSecret, algCEK.getKeySize(), algCEK, 256);
       case ECDH_SS_HKDF_512:
-        if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2)
+        if (!isEcdhKey(privateKey))
           throw new CoseException("Key and algorithm do not agree");
         if (findAttribute(HeaderKeys.HKDF_Context_PartyU_nonce.AsCBOR()) == null) {
           byte[] rgbAPU = new byte[512 / 8];
@@ -433,7 +452,7 @@ public class Recipient extends COSEObject {
               UNPROTECTED);
         }
         rgbSecret = ECDH_GenSecret(privateKey);
-        return HKDF(rgbSecret, algCEK.getKeySize(), algCEK, "SHA512");
+        return HKDF(rgbSecret, algCEK.getKeySize(), algCEK, 512);
       case HKDF_HMAC_SHA_256:
         if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_Octet)
           throw new CoseException("Needs to be an octet key");
@@ -441,7 +460,7 @@ public class Recipient extends COSEObject {
             privateKey.get(KeyKeys.Octet_K.AsCBOR()).GetByteString(),
             algCEK.getKeySize(),
             algCEK,
-            "SHA256");
+            256);
       case HKDF_HMAC_SHA_512:
         if (privateKey.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_Octet)
           throw new CoseException("Needs to be an octet key");
@@ -449,7 +468,7 @@ public class Recipient extends COSEObject {
             privateKey.get(KeyKeys.Octet_K.AsCBOR()).GetByteString(),
             algCEK.getKeySize(),
             algCEK,
-            "SHA512");
+            512);
       default:
         throw new CoseException("Recipient Algorithm not supported");
     }
@@ -491,11 +510,13 @@ public class Recipient extends COSEObject {
       throw new CoseException(
           "Key is not the correct size");
 
+    if (cryptoContext.getCipherBackend() == CipherBackend.BOUNCY_CASTLE) {
+      return AesKeyWrapEngine.wrap(rgbKey, rgbContent);
+    }
+
     try {
-      Cipher cipher = cryptoContext.getProvider() != null
-          ? Cipher.getInstance("AESWrap", cryptoContext.getProvider())
-          : Cipher.getInstance("AESWrap");
-      cipher.init(Cipher.WRAP_MODE, new SecretKeySpec(rgbKey, "AESWrap"));
+      Cipher cipher = cryptoContext.initCipher(
+          "AESWrap", Cipher.WRAP_MODE, new SecretKeySpec(rgbKey, "AESWrap"), null);
       return cipher.wrap(new SecretKeySpec(rgbContent, "AES"));
     } catch (NoSuchAlgorithmException ex) {
       throw new CoseException("Algorithm not supported", ex);
@@ -510,11 +531,13 @@ public class Recipient extends COSEObject {
       throw new CoseException(
           "Key is not the correct size");
 
+    if (cryptoContext.getCipherBackend() == CipherBackend.BOUNCY_CASTLE) {
+      return AesKeyWrapEngine.unwrap(rgbKey, rgbEncrypted);
+    }
+
     try {
-      Cipher cipher = cryptoContext.getProvider() != null
-          ? Cipher.getInstance("AESWrap", cryptoContext.getProvider())
-          : Cipher.getInstance("AESWrap");
-      cipher.init(Cipher.UNWRAP_MODE, new SecretKeySpec(rgbKey, "AESWrap"));
+      Cipher cipher = cryptoContext.initCipher(
+          "AESWrap", Cipher.UNWRAP_MODE, new SecretKeySpec(rgbKey, "AESWrap"), null);
       return ((SecretKeySpec) cipher.unwrap(rgbEncrypted, "AES", Cipher.SECRET_KEY)).getEncoded();
     } catch (NoSuchAlgorithmException ex) {
       throw new CoseException("Algorithm not supported", ex);
@@ -528,15 +551,30 @@ public class Recipient extends COSEObject {
     }
   }
 
-  private void ECDH_GenEphemeral() throws CoseException {
-    COSEKey secretKey = COSEKey.generateKey(privateKey.get(KeyKeys.EC2_Curve));
+  /**
+   * Generate an ephemeral key, publish it in the EPK header and agree a secret with the recipient
+   * key. The ephemeral key is taken from the pool for its curve when one is registered, and its
+   * private part is destroyed as soon as the secret has been computed.
+   */
+  private byte[] ECDH_GenEphemeralSecret() throws CoseException {
+    // EC2 and OKP keys have the curve under the same label
+    CBORObject curve = privateKey.get(KeyKeys.EC2_Curve);
+    EphemeralKeyPool pool = cryptoContext.getEphemeralKeyPool(curve);
+    COSEKey secretKey = pool != null ? pool.take() : COSEKey.generateKey(curve);
 
     // pack into EPK header
     CBORObject epk = secretKey.PublicKey().AsCBOR();
     addAttribute(HeaderKeys.ECDH_EPK, epk, UNPROTECTED);
 
-    // apply as senderKey
+    // use as sender key for this agreement only
+    COSEKey savedSenderKey = senderKey;
     senderKey = secretKey;
+    try {
+      return ECDH_GenSecret(privateKey);
+    } finally {
+      senderKey = savedSenderKey;
+      secretKey.destroyPrivateKey();
+    }
   }
 
   private byte[] ECDH_GenSecret(COSEKey key) throws CoseException {
@@ -555,47 +593,73 @@ public class Recipient extends COSEObject {
       epk = new COSEKey(cn);
     }
 
-    if (key.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2) {
-      throw new CoseException("Not an EC2 Key");
+    if (!isEcdhKey(key) || !isEcdhKey(epk)) {
+      throw new CoseException("Not an EC2 or X25519/X448 Key");
     }
-    if (epk.get(KeyKeys.KeyType.AsCBOR()) != KeyKeys.KeyType_EC2) {
-      throw new CoseException("Not an EC2 Key");
-    }
-    if (epk.get(KeyKeys.EC2_Curve.AsCBOR()) != key.get(KeyKeys.EC2_Curve.AsCBOR())) {
+    if (!epk.get(KeyKeys.KeyType).equals(key.get(KeyKeys.KeyType))
+        || !epk.get(KeyKeys.EC2_Curve).equals(key.get(KeyKeys.EC2_Curve))) {
       throw new CoseException("Curves are not the same");
     }
-
+    // X25519 and X448 take the curve from the keys
+    String agreement = key.HasKeyType(KeyKeys.KeyType_OKP) ? "XDH" : "ECDH";
+
+    CoseMetrics metrics = cryptoContext.getMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    CoseEvents.KeyDerivationEvent event = new CoseEvents.KeyDerivationEvent(agreement);
+    event.begin();
+    long start = System.nanoTime();
     try {
       PublicKey pubKey = epk.AsPublicKey();
       PrivateKey privKey = key.AsPrivateKey();
-      KeyAgreement ecdh = cryptoContext.getProvider() != null
-          ? KeyAgreement.getInstance("ECDH", cryptoContext.getProvider())
-          : KeyAgreement.getInstance("ECDH");
-      ecdh.init(privKey);
+      KeyAgreement ecdh = cryptoContext.initKeyAgreement(agreement, privKey);
       ecdh.doPhase(pubKey, true);
-      return ecdh.generateSecret();
+      byte[] secret = ecdh.generateSecret();
+      outcome = CoseMetrics.Outcome.SUCCESS;
+      return secret;
     } catch (NoSuchAlgorithmException ex) {
       throw new CoseException("Algorithm not supported", ex);
     } catch (Exception ex) {
       throw new CoseException("Key agreement failure", ex);
+    } finally {
+      if (metrics != CoseMetrics.NONE || event.shouldCommit()) {
+        AlgorithmID alg = CryptoContext.reportedAlgorithm(findAttribute(HeaderKeys.Algorithm));
+        CryptoContext.record(
+            metrics, CoseMetrics.Operation.KEY_AGREEMENT, alg, COSEObjectTag.Unknown, start,
+            outcome);
+        event.complete(alg, COSEObjectTag.Unknown, 0, 0, outcome);
+      }
+    }
+  }
+
+  /**
+   * @return true if the key can be used for ECDH: an EC2 key, or an OKP key on X25519 or X448
+   */
+  private static boolean isEcdhKey(COSEKey key) {
+    if (key.HasKeyType(KeyKeys.KeyType_EC2)) {
+      return true;
     }
+    CBORObject curve = key.get(KeyKeys.OKP_Curve);
+    return key.HasKeyType(KeyKeys.KeyType_OKP)
+        && (KeyKeys.OKP_X25519.equals(curve) || KeyKeys.OKP_X448.equals(curve));
   }
 
   private byte[] HKDF(
       byte[] secret,
       int cbitKey,
       AlgorithmID alg,
-      String digest) throws CoseException {
-    final String HMAC_ALG_NAME = "Hmac" + digest;
+      int cbitHash) throws CoseException {
+    final String HMAC_ALG_NAME = "HmacSHA" + cbitHash;
+    // Given by the recipient algorithm, as the default salt is sized before the MAC exists
+    int hashLen = cbitHash / 8;
 
     byte[] rgbContext = GetKDFInput(cbitKey, alg);
 
+    CoseMetrics metrics = cryptoContext.getMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    CoseEvents.KeyDerivationEvent event = new CoseEvents.KeyDerivationEvent("HKDF");
+    event.begin();
+    long start = System.nanoTime();
     try {
-      Mac hmac = cryptoContext.getProvider() != null
-          ? Mac.getInstance(HMAC_ALG_NAME, cryptoContext.getProvider())
-          : Mac.getInstance(HMAC_ALG_NAME);
-      int hashLen = hmac.getMacLength();
-
       CBORObject cnSalt = findAttribute(HeaderKeys.HKDF_Salt.AsCBOR());
       byte[] K;
       if (cnSalt == null) {
@@ -605,7 +669,7 @@ public class Recipient extends COSEObject {
       }
 
       // Perform extract
-      hmac.init(new SecretKeySpec(K, HMAC_ALG_NAME));
+      Mac hmac = cryptoContext.initMac(HMAC_ALG_NAME, new SecretKeySpec(K, HMAC_ALG_NAME));
       byte[] rgbExtract = hmac.doFinal(secret);
 
       // Perform expand
@@ -623,11 +687,20 @@ public class Recipient extends COSEObject {
         System.arraycopy(last, 0, T, i * hashLen, hashLen);
       }
       System.arraycopy(T, 0, rgbOut, 0, cbitKey / 8);
+      outcome = CoseMetrics.Outcome.SUCCESS;
       return rgbOut;
     } catch (NoSuchAlgorithmException ex) {
       throw new CoseException("Algorithm not supported", ex);
     } catch (Exception ex) {
       throw new CoseException("Derivation failure", ex);
+    } finally {
+      if (metrics != CoseMetrics.NONE || event.shouldCommit()) {
+        AlgorithmID reported =
+            CryptoContext.reportedAlgorithm(findAttribute(HeaderKeys.Algorithm));
+        CryptoContext.record(
+            metrics, CoseMetrics.Operation.HKDF, reported, COSEObjectTag.Unknown, start, outcome);
+        event.complete(reported, COSEObjectTag.Unknown, secret.length, 0, outcome);
+      }
     }
   }
 
@@ -8,6 +8,7 @@ package se.digg.cose;
 import com.upokecenter.cbor.CBORObject;
 import com.upokecenter.cbor.CBORType;
 import com.upokecenter.numbers.EInteger;
+import java.util.Arrays;
 
 /**
  * The Sign1COSEObject class implements the COSE_Sign1 object. This provides for a single signature
@@ -25,6 +26,8 @@ import com.upokecenter.numbers.EInteger;
  */
 public class Sign1COSEObject extends SignCommon {
 
+  private static final EInteger EMBEDDED_CBOR_TAG = EInteger.FromInt32(24);
+
   byte[] rgbSignature;
 
   /**
@@ -81,13 +84,7 @@ public class Sign1COSEObject extends SignCommon {
       }
     }
 
-    CBORObject obj = CBORObject.NewArray();
-    obj.Add(contextString);
-    obj.Add(rgbProtected);
-    obj.Add(externalData);
-    obj.Add(rgbContent);
-
-    rgbSignature = computeSignature(obj.EncodeToBytes(), key);
+    rgbSignature = computeSignature(toBeSigned(rgbProtected), key);
 
     ProcessCounterSignatures();
   }
@@ -101,16 +98,22 @@ public class Sign1COSEObject extends SignCommon {
    */
 
   public boolean validate(COSEKey cnKey) throws CoseException {
-    CBORObject obj = CBORObject.NewArray();
-    obj.Add(contextString);
-    if (objProtected.size() > 0) {
-      obj.Add(rgbProtected);
-    } else {
-      obj.Add(CBORObject.FromByteArray(new byte[0]));
-    }
-    obj.Add(externalData);
-    obj.Add(rgbContent);
-    return validateSignature(obj.EncodeToBytes(), rgbSignature, cnKey);
+    byte[] rgbBodyProtected = objProtected.size() > 0 ? rgbProtected : new byte[0];
+    return validateSignature(toBeSigned(rgbBodyProtected), rgbSignature, cnKey);
+  }
+
+  /**
+   * Build the Sig_structure. The content is copied straight into the output rather than through a
+   * CBORObject, which matters for large payloads.
+   */
+  private byte[] toBeSigned(byte[] rgbBodyProtected) throws CoseException {
+    COSEEncoder encoder = new COSEEncoder();
+    encoder.writeArrayHeader(4);
+    encoder.writeEncoded(CBORObject.FromString(contextString).EncodeToBytes());
+    encoder.writeByteString(rgbBodyProtected);
+    encoder.writeByteString(externalData);
+    encoder.writeByteString(rgbContent);
+    return encoder.toByteArray();
   }
 
   /**
@@ -122,6 +125,15 @@ public class Sign1COSEObject extends SignCommon {
   @Override
   protected void DecodeFromCBORObject(CBORObject messageObject)
       throws CoseException {
+    decode(messageObject, null);
+  }
+
+  @Override
+  void DecodeFromCBORObject(CBORObject messageObject, byte[] rgbData) throws CoseException {
+    decode(messageObject, rgbData);
+  }
+
+  private void decode(CBORObject messageObject, byte[] rgbData) throws CoseException {
     if (messageObject.size() != 4) {
       throw new CoseException(
           "Invalid Sign1 structure");
@@ -149,9 +161,12 @@ public class Sign1COSEObject extends SignCommon {
     }
 
     // Experimental attempt to detect CBOR Tagged data, and in such case, preserve the CBOR tags in
-    // the signed data.
-    if (messageObject.get(2).HasTag(EInteger.FromInt32(24))) {
-      rgbContent = messageObject.get(2).EncodeToBytes();
+    // the signed data. When the encoded message is at hand its exact bytes are used, since
+    // re-encoding the tree is slow for large payloads and changes any non-preferred encoding.
+    if (messageObject.get(2).HasTag(EMBEDDED_CBOR_TAG)) {
+      rgbContent = rgbData != null
+          ? encodedPayload(rgbData)
+          : messageObject.get(2).EncodeToBytes();
     } else {
       if (messageObject.get(2).getType() == CBORType.ByteString) {
         rgbContent =
@@ -170,6 +185,21 @@ public class Sign1COSEObject extends SignCommon {
     }
   }
 
+  /**
+   * Locate the payload member of an encoded COSE_Sign1 message and return its bytes, tags included.
+   */
+  private static byte[] encodedPayload(byte[] rgbData) throws CoseException {
+    CBORScanner scanner = new CBORScanner(rgbData);
+    if (scanner.readHeader() == CBORScanner.MAJOR_TAG) {
+      scanner.readHeader();
+    }
+    scanner.skip();
+    scanner.skip();
+    int start = scanner.position();
+    scanner.skip();
+    return Arrays.copyOfRange(rgbData, start, scanner.position());
+  }
+
   /**
    * Internal function used to create a serialization of a COSE_Sign1 message
    *
@@ -198,4 +228,21 @@ public class Sign1COSEObject extends SignCommon {
 
     return obj;
   }
+
+  @Override
+  void EncodeDirect(COSEEncoder encoder) throws CoseException {
+    if (rgbSignature == null) {
+      throw new CoseException(
+          "sign function not called");
+    }
+    if (rgbProtected == null) {
+      throw new CoseException("Internal Error");
+    }
+
+    encoder.writeArrayHeader(4);
+    encoder.writeByteString(rgbProtected);
+    encoder.writeEncoded(objUnprotected.EncodeToBytes());
+    encoder.writeByteString(emitContent ? rgbContent : null);
+    encoder.writeByteString(rgbSignature);
+  }
 }
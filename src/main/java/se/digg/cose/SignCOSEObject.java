@@ -136,6 +136,21 @@ public class SignCOSEObject extends COSEObject {
     return obj;
   }
 
+  @Override
+  void EncodeDirect(COSEEncoder encoder) throws CoseException {
+    sign();
+
+    encoder.writeArrayHeader(4);
+    encoder.writeByteString(rgbProtected);
+    encoder.writeEncoded(objUnprotected.EncodeToBytes());
+    encoder.writeByteString(emitContent ? rgbContent : null);
+
+    encoder.writeArrayHeader(signerList.size());
+    for (Signer r : signerList) {
+      r.EncodeDirect(encoder);
+    }
+  }
+
   /**
    * Add a new signer to the message. The details of the signer are provided by the Signer object
    * being added.
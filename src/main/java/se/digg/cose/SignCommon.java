@@ -5,9 +5,9 @@
 
 package se.digg.cose;
 
+import com.upokecenter.cbor.CBORObject;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
-import java.security.Provider;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.util.Arrays;
@@ -24,11 +24,12 @@ public abstract class SignCommon extends COSEObject {
   byte[] computeSignature(byte[] rgbToBeSigned, COSEKey cnKey)
       throws CoseException {
     AlgorithmID alg = AlgorithmID.FromCBOR(findAttribute(HeaderKeys.Algorithm));
-    return computeSignature(alg, rgbToBeSigned, cnKey);
+    return computeSignature(alg, coseObjectTag, rgbToBeSigned, cnKey);
   }
 
   static byte[] computeSignature(
       AlgorithmID alg,
+      COSEObjectTag tag,
       byte[] rgbToBeSigned,
       COSEKey cnKey) throws CoseException {
     String algName = null;
@@ -48,7 +49,7 @@ public abstract class SignCommon extends COSEObject {
         sigLen = 66;
         break;
       case EDDSA:
-        algName = "NonewithEdDSA";
+        // Named after the backend of the key below
         break;
       case RSA_PSS_256:
         algName = "SHA256withRSA/PSS";
@@ -71,28 +72,52 @@ public abstract class SignCommon extends COSEObject {
     if (privKey == null) {
       throw new CoseException("Private key required to sign");
     }
+    String providerName = null;
+    if (alg == AlgorithmID.EDDSA) {
+      EdDSABackend backend = EdDSABackend.forKey(privKey);
+      algName = eddsaAlgorithm(backend, cnKey);
+      providerName = backend != null ? backend.getProviderName() : null;
+    } else if (sigLen > 0 && cnKey.getCryptoContext().isDeterministicEcdsa()) {
+      // RFC 6979 nonces, BouncyCastle names the algorithms SHA256withECDDSA and so on
+      algName = algName.replace("ECDSA", "ECDDSA");
+      providerName = "BC";
+    }
 
     byte[] result = null;
-    Provider provider = cnKey.getCryptoContext().getProvider();
+    CoseMetrics metrics = cnKey.getCryptoContext().getMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    CoseEvents.SignEvent event = new CoseEvents.SignEvent();
+    event.begin();
+    long start = System.nanoTime();
     try {
-      Signature sig = provider == null
-          ? Signature.getInstance(algName)
-          : Signature.getInstance(algName, provider);
-      sig.initSign(privKey);
+      Signature sig = cnKey.getCryptoContext().initSign(algName, privKey, providerName);
       sig.update(rgbToBeSigned);
       result = sig.sign();
       if (sigLen > 0) {
         result = convertDerToConcat(result, sigLen);
       }
+      outcome = CoseMetrics.Outcome.SUCCESS;
     } catch (NoSuchAlgorithmException ex) {
       throw new CoseException("Algorithm not supported", ex);
     } catch (Exception ex) {
       throw new CoseException("Signature failure", ex);
+    } finally {
+      CryptoContext.record(metrics, CoseMetrics.Operation.SIGN, alg, tag, start, outcome);
+      event.complete(alg, tag, rgbToBeSigned.length, 0, outcome);
     }
 
     return result;
   }
 
+  /**
+   * JCA name of the EdDSA signature algorithm for a key. Keys that are not from one of the
+   * {@link EdDSABackend}s are given the standard name.
+   */
+  private static String eddsaAlgorithm(EdDSABackend backend, COSEKey cnKey) {
+    CBORObject curve = cnKey.get(KeyKeys.OKP_Curve);
+    return (backend != null ? backend : EdDSABackend.JDK).getSignatureAlgorithm(curve);
+  }
+
   private static byte[] convertDerToConcat(byte[] der, int len)
       throws CoseException {
     // this is far too naive
@@ -142,11 +167,12 @@ public abstract class SignCommon extends COSEObject {
       byte[] rgbSignature,
       COSEKey cnKey) throws CoseException {
     AlgorithmID alg = AlgorithmID.FromCBOR(findAttribute(HeaderKeys.Algorithm));
-    return validateSignature(alg, rgbToBeSigned, rgbSignature, cnKey);
+    return validateSignature(alg, coseObjectTag, rgbToBeSigned, rgbSignature, cnKey);
   }
 
   static boolean validateSignature(
       AlgorithmID alg,
+      COSEObjectTag tag,
       byte[] rgbToBeSigned,
       byte[] rgbSignature,
       COSEKey cnKey) throws CoseException {
@@ -167,7 +193,7 @@ public abstract class SignCommon extends COSEObject {
         convert = true;
         break;
       case EDDSA:
-        algName = "NonewithEdDSA";
+        // Named after the backend of the key below
         break;
       case RSA_PSS_256:
         algName = "SHA256withRSA/PSS";
@@ -190,24 +216,41 @@ public abstract class SignCommon extends COSEObject {
     if (pubKey == null) {
       throw new CoseException("Public key required to verify");
     }
-    Provider provider = cnKey.getCryptoContext().getProvider();
-
+    String providerName = null;
+    if (alg == AlgorithmID.EDDSA) {
+      EdDSABackend backend = EdDSABackend.forKey(pubKey);
+      algName = eddsaAlgorithm(backend, cnKey);
+      providerName = backend != null ? backend.getProviderName() : null;
+    }
     boolean result = false;
+    CoseMetrics metrics = cnKey.getCryptoContext().getMetrics();
+    CoseMetrics.Outcome outcome = CoseMetrics.Outcome.ERROR;
+    CoseEvents.VerifyEvent event = new CoseEvents.VerifyEvent();
+    event.begin();
+    long start = System.nanoTime();
     try {
-      Signature sig = provider == null
-          ? Signature.getInstance(algName)
-          : Signature.getInstance(algName, provider);
-      sig.initVerify(pubKey);
-      sig.update(rgbToBeSigned);
+      HotKeyVerifier hotKeyVerifier = cnKey.getHotKeyVerifier();
+      if (hotKeyVerifier != null
+          && hotKeyVerifier.supports(alg)
+          && cnKey.getCryptoContext().getProvider(algName) == null) {
+        result = hotKeyVerifier.verify(alg, rgbToBeSigned, rgbSignature);
+      } else {
+        Signature sig = cnKey.getCryptoContext().initVerify(algName, pubKey, providerName);
+        sig.update(rgbToBeSigned);
 
-      if (convert) {
-        rgbSignature = convertConcatToDer(rgbSignature);
+        if (convert) {
+          rgbSignature = convertConcatToDer(rgbSignature);
+        }
+        result = sig.verify(rgbSignature);
       }
-      result = sig.verify(rgbSignature);
+      outcome = result ? CoseMetrics.Outcome.SUCCESS : CoseMetrics.Outcome.REJECTED;
     } catch (NoSuchAlgorithmException ex) {
       throw new CoseException("Algorithm not supported", ex);
     } catch (Exception ex) {
       throw new CoseException("Signature verification failure", ex);
+    } finally {
+      CryptoContext.record(metrics, CoseMetrics.Operation.VERIFY, alg, tag, start, outcome);
+      event.complete(alg, tag, rgbToBeSigned.length, 0, outcome);
     }
 
     return result;
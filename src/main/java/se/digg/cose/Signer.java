@@ -207,6 +207,28 @@ public class Signer extends Attribute {
     return obj;
   }
 
+  /**
+   * Write the signer to the direct encoder, producing the same bytes as encoding the result of
+   * {@link #EncodeToCBORObject()}.
+   *
+   * @param encoder encoder to write to
+   * @throws CoseException Errors generated by the COSE module
+   */
+  void EncodeDirect(COSEEncoder encoder) throws CoseException {
+    if (rgbSignature == null) {
+      throw new CoseException(
+          "COSEObject not yet signed");
+    }
+    if (rgbProtected == null) {
+      throw new CoseException("Internal Error");
+    }
+
+    encoder.writeArrayHeader(3);
+    encoder.writeByteString(rgbProtected);
+    encoder.writeEncoded(objUnprotected.EncodeToBytes());
+    encoder.writeByteString(rgbSignature);
+  }
+
   public void sign(byte[] rgbBodyProtected, byte[] rgbContent)
       throws CoseException {
     if (rgbProtected == null) {
@@ -226,7 +248,7 @@ public class Signer extends Attribute {
 
     AlgorithmID alg = AlgorithmID.FromCBOR(findAttribute(HeaderKeys.Algorithm));
 
-    rgbSignature = SignCommon.computeSignature(alg, obj.EncodeToBytes(), cnKey);
+    rgbSignature = SignCommon.computeSignature(alg, messageTag(), obj.EncodeToBytes(), cnKey);
 
     ProcessCounterSignatures();
   }
@@ -244,11 +266,20 @@ public class Signer extends Attribute {
 
     return SignCommon.validateSignature(
         alg,
+        messageTag(),
         obj.EncodeToBytes(),
         rgbSignature,
         cnKey);
   }
 
+  /**
+   * @return the message type the signatures of this signer are reported under to
+   *         {@link CoseMetrics}
+   */
+  COSEObjectTag messageTag() {
+    return COSEObjectTag.Sign;
+  }
+
   List<CounterSign> counterSignList = new ArrayList<CounterSign>();
   CounterSign1 counterSign1;
 
@@ -0,0 +1,386 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import com.upokecenter.cbor.CBORObject;
+import com.upokecenter.cbor.CBORType;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * A {@link Flow.Processor} stage that decodes and verifies a stream of encoded COSE_Sign1 and
+ * COSE_Sign messages. The keys are looked up by the key identifiers in the messages.
+ * <p>
+ * Up to the configured parallelism, messages are verified at the same time on the executor. The
+ * results are emitted either in input order or as soon as each one is ready. At most the
+ * configured buffer size of messages is requested from upstream without its result having been
+ * taken by the subscriber, so a slow subscriber slows down the upstream publisher rather than
+ * filling memory.
+ * <p>
+ * Every message produces one {@link VerificationResult}; messages that cannot be decoded or
+ * verified are reported through {@link VerificationResult#getError()} and do not end the stream.
+ * A COSE_Sign message is valid if at least one of its signers validates.
+ * <p>
+ * The stage is meant for one subscriber. Messages are only requested from upstream once that
+ * subscriber has subscribed.
+ */
+public final class VerificationProcessor implements Flow.Processor<byte[], VerificationResult> {
+
+  /**
+   * Number of messages verified at the same time unless another is given.
+   */
+  public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Number of messages requested ahead from upstream unless another is given.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = Flow.defaultBufferSize();
+
+  private final KeySetSource keys;
+  private final int parallelism;
+  private final int bufferSize;
+  private final boolean ordered;
+  private final Executor executor;
+  private final SubmissionPublisher<VerificationResult> publisher;
+
+  private final Object lock = new Object();
+  private final ArrayDeque<Item> pending = new ArrayDeque<Item>();
+  private Flow.Subscription upstream;
+  private boolean downstreamSubscribed;
+  private boolean started;
+  private int running;
+  private long received;
+  private boolean upstreamDone;
+  private Throwable upstreamError;
+
+  private boolean closed;
+
+  private final Object emitLock = new Object();
+  private final Map<Long, VerificationResult> reorder = new HashMap<Long, VerificationResult>();
+  private final ArrayDeque<VerificationResult> ready = new ArrayDeque<VerificationResult>();
+  private boolean draining;
+  private long nextToEmit;
+  private long emitted;
+
+  /**
+   * Create a stage that verifies messages in order, on virtual threads, with the default
+   * parallelism and buffer size.
+   *
+   * @param keys source of the validation keys
+   */
+  public VerificationProcessor(KeySetSource keys) {
+    this(keys, DEFAULT_PARALLELISM, DEFAULT_BUFFER_SIZE, true, COSEAsync.VIRTUAL_THREADS);
+  }
+
+  /**
+   * Create a stage.
+   *
+   * @param keys source of the validation keys
+   * @param parallelism number of messages verified at the same time
+   * @param bufferSize number of messages requested ahead from upstream, at least the parallelism
+   * @param ordered true to emit the results in input order, false to emit each as it is ready
+   * @param executor executor the messages are verified on
+   */
+  public VerificationProcessor(
+      KeySetSource keys,
+      int parallelism,
+      int bufferSize,
+      boolean ordered,
+      Executor executor) {
+    if (parallelism < 1 || bufferSize < parallelism) {
+      throw new IllegalArgumentException("Parallelism must be positive and at most buffer size");
+    }
+    this.keys = keys;
+    this.parallelism = parallelism;
+    this.bufferSize = bufferSize;
+    this.ordered = ordered;
+    this.executor = executor;
+    this.publisher = new SubmissionPublisher<VerificationResult>(
+        COSEAsync.VIRTUAL_THREADS, bufferSize);
+  }
+
+  @Override
+  public void subscribe(Flow.Subscriber<? super VerificationResult> subscriber) {
+    publisher.subscribe(subscriber);
+    synchronized (lock) {
+      downstreamSubscribed = true;
+    }
+    start();
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    synchronized (lock) {
+      if (upstream != null) {
+        subscription.cancel();
+        return;
+      }
+      upstream = subscription;
+    }
+    start();
+  }
+
+  @Override
+  public void onNext(byte[] item) {
+    synchronized (lock) {
+      pending.add(new Item(received++, item));
+    }
+    dispatch();
+  }
+
+  /**
+   * Messages not yet started are dropped. The messages being verified are finished and their
+   * results handed over before the error is passed on.
+   */
+  @Override
+  public void onError(Throwable throwable) {
+    synchronized (lock) {
+      upstreamDone = true;
+      upstreamError = throwable;
+      pending.clear();
+    }
+    closeIfDone();
+  }
+
+  @Override
+  public void onComplete() {
+    synchronized (lock) {
+      upstreamDone = true;
+    }
+    closeIfDone();
+  }
+
+  /**
+   * Verify one encoded message on the calling thread.
+   *
+   * @param index position of the message in the stream
+   * @param rgbData encoded message
+   * @return the result
+   */
+  VerificationResult verify(long index, byte[] rgbData) {
+    COSEObject msg = null;
+    try {
+      msg = COSEObject.DecodeFromBytes(rgbData);
+      boolean valid;
+      if (msg instanceof Sign1COSEObject) {
+        Sign1COSEObject sign1 = (Sign1COSEObject) msg;
+        valid = validateWithAny(keysFor(msg.findAttribute(HeaderKeys.KID)), sign1::validate);
+      } else if (msg instanceof SignCOSEObject) {
+        SignCOSEObject sign = (SignCOSEObject) msg;
+        valid = false;
+        boolean checked = false;
+        CoseException signerError = null;
+        for (Signer signer : sign.getSignerList()) {
+          try {
+            valid = validateWithAny(keysFor(signer.findAttribute(HeaderKeys.KID)), key -> {
+              signer.setKey(key);
+              return sign.validate(signer);
+            });
+          } catch (CoseException e) {
+            // Another signer may still be checked
+            if (signerError == null) {
+              signerError = e;
+            }
+            continue;
+          }
+          checked = true;
+          if (valid) {
+            break;
+          }
+        }
+        if (!checked) {
+          throw signerError != null ? signerError : new CoseException("Message has no signers");
+        }
+      } else {
+        throw new CoseException("Not a signed message");
+      }
+      return new VerificationResult(index, msg, valid, null);
+    } catch (Exception e) {
+      return new VerificationResult(index, msg, false, e);
+    }
+  }
+
+  private interface KeyCheck {
+    boolean validate(COSEKey key) throws CoseException;
+  }
+
+  /**
+   * Try the keys in turn. A key that fails with an exception, such as a key of another type that
+   * shares the key identifier, does not stop the keys after it from being tried.
+   *
+   * @return true if one of the keys validates
+   * @throws CoseException the exception of the first key, if every key failed with one
+   */
+  private static boolean validateWithAny(List<COSEKey> keys, KeyCheck check)
+      throws CoseException {
+    CoseException keyError = null;
+    boolean checked = false;
+    for (COSEKey key : keys) {
+      try {
+        if (check.validate(key)) {
+          return true;
+        }
+        checked = true;
+      } catch (CoseException e) {
+        if (keyError == null) {
+          keyError = e;
+        }
+      }
+    }
+    if (!checked && keyError != null) {
+      throw keyError;
+    }
+    return false;
+  }
+
+  private List<COSEKey> keysFor(CBORObject kid) throws CoseException {
+    if (kid == null || kid.getType() != CBORType.ByteString) {
+      throw new CoseException("Message has no key identifier");
+    }
+    List<COSEKey> found = keys.getKeys(kid.GetByteString());
+    if (found.isEmpty()) {
+      throw new CoseException("No key for the key identifier");
+    }
+    return found;
+  }
+
+  private void start() {
+    Flow.Subscription subscription;
+    synchronized (lock) {
+      if (started || upstream == null || !downstreamSubscribed) {
+        return;
+      }
+      started = true;
+      subscription = upstream;
+    }
+    subscription.request(bufferSize);
+  }
+
+  private void dispatch() {
+    while (true) {
+      Item item;
+      synchronized (lock) {
+        if (running >= parallelism || pending.isEmpty()) {
+          return;
+        }
+        item = pending.poll();
+        running++;
+      }
+      try {
+        executor.execute(() -> process(item));
+      } catch (RuntimeException e) {
+        // Executor refused the work; report it on the item instead of losing it
+        synchronized (lock) {
+          running--;
+        }
+        emit(new VerificationResult(item.index, null, false, e));
+      }
+    }
+  }
+
+  private void process(Item item) {
+    try {
+      emit(verify(item.index, item.rgbData));
+    } finally {
+      synchronized (lock) {
+        running--;
+      }
+      dispatch();
+      closeIfDone();
+    }
+  }
+
+  /**
+   * Hand a result to the subscriber, waiting while its buffer is full. Each result handed over
+   * makes room for one more message from upstream. Results are queued under the emit lock and
+   * handed over by one thread at a time outside it, so a full subscriber buffer only holds up the
+   * thread handing over, not the other verifications.
+   */
+  private void emit(VerificationResult result) {
+    synchronized (emitLock) {
+      if (ordered) {
+        reorder.put(result.getIndex(), result);
+        VerificationResult next;
+        while ((next = reorder.remove(nextToEmit)) != null) {
+          ready.add(next);
+          nextToEmit++;
+        }
+      } else {
+        ready.add(result);
+      }
+      if (draining || ready.isEmpty()) {
+        return;
+      }
+      draining = true;
+    }
+
+    while (true) {
+      VerificationResult next;
+      synchronized (emitLock) {
+        next = ready.poll();
+        if (next == null) {
+          draining = false;
+          break;
+        }
+      }
+      publisher.submit(next);
+      synchronized (emitLock) {
+        emitted++;
+      }
+
+      Flow.Subscription subscription;
+      synchronized (lock) {
+        subscription = upstream;
+      }
+      if (!publisher.hasSubscribers()) {
+        subscription.cancel();
+      } else {
+        subscription.request(1);
+      }
+    }
+    closeIfDone();
+  }
+
+  /**
+   * Close the publisher once upstream is done and every result that will be handed over has been.
+   * After an upstream error that is when no verification is running any more.
+   */
+  private void closeIfDone() {
+    Throwable error;
+    synchronized (lock) {
+      if (closed || !upstreamDone) {
+        return;
+      }
+      error = upstreamError;
+      synchronized (emitLock) {
+        if (error != null ? running > 0 || draining || !ready.isEmpty() : emitted != received) {
+          return;
+        }
+      }
+      closed = true;
+    }
+    if (error != null) {
+      publisher.closeExceptionally(error);
+    } else {
+      publisher.close();
+    }
+  }
+
+  private static final class Item {
+
+    final long index;
+    final byte[] rgbData;
+
+    Item(long index, byte[] rgbData) {
+      this.index = index;
+      this.rgbData = rgbData;
+    }
+  }
+}
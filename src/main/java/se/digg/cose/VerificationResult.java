@@ -0,0 +1,54 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+/**
+ * Outcome of verifying one message in a {@link VerificationProcessor}. A message that could not be
+ * decoded, or whose key could not be found, is reported with the error rather than failing the
+ * whole stream.
+ */
+public final class VerificationResult {
+
+  private final long index;
+  private final COSEObject message;
+  private final boolean valid;
+  private final Exception error;
+
+  VerificationResult(long index, COSEObject message, boolean valid, Exception error) {
+    this.index = index;
+    this.message = message;
+    this.valid = valid;
+    this.error = error;
+  }
+
+  /**
+   * @return position of the message in the input stream, counting from 0
+   */
+  public long getIndex() {
+    return index;
+  }
+
+  /**
+   * @return the decoded message, or null if it could not be decoded
+   */
+  public COSEObject getMessage() {
+    return message;
+  }
+
+  /**
+   * @return true if the signature validates
+   */
+  public boolean isValid() {
+    return valid;
+  }
+
+  /**
+   * @return the reason the message could not be verified, or null if it was verified; a message
+   *         with a signature that simply does not validate has no error
+   */
+  public Exception getError() {
+    return error;
+  }
+}
@@ -0,0 +1,172 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.upokecenter.cbor.CBORObject;
+import java.util.HexFormat;
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.Test;
+
+public class AesKeyWrapEngineTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+
+  static final String KEK_128 = "000102030405060708090A0B0C0D0E0F";
+  static final String KEK_192 = KEK_128 + "1011121314151617";
+  static final String KEK_256 = KEK_192 + "18191A1B1C1D1E1F";
+  static final String KEY_128 = "00112233445566778899AABBCCDDEEFF";
+  static final String KEY_192 = KEY_128 + "0001020304050607";
+  static final String KEY_256 = KEY_128 + "000102030405060708090A0B0C0D0E0F";
+
+  // RFC 3394 sections 4.1 to 4.6
+  static final String[][] VECTORS = {
+      {KEK_128, KEY_128, "1FA68B0A8112B447AEF34BD8FB5A7B829D3E862371D2CFE5"},
+      {KEK_192, KEY_128, "96778B25AE6CA435F92B5B97C050AED2468AB8A17AD84E5D"},
+      {KEK_256, KEY_128, "64E8C3F9CE0F5BA263E9777905818A2A93C8191E7D6E8AE7"},
+      {KEK_192, KEY_192, "031D33264E15D33268F24EC260743EDCE1C6C7DDEE725A936BA814915C6762D2"},
+      {KEK_256, KEY_192, "A8F9BC1612C68B3FF6E6F4FBE30E71E4769C8B80A32CB8958CD5D17D6B254DA1"},
+      {KEK_256, KEY_256, "28C9F404C4B810F4CBCCB35CFB87F8263F5786E2D80ED326CBC7F0E71A99F43B"
+          + "FB988B9B7A02DD21"},
+  };
+
+  static byte[] hex(String s) {
+    return HexFormat.of().parseHex(s.toLowerCase());
+  }
+
+  @Test
+  public void rfc3394Vectors() throws Exception {
+    for (String[] vector : VECTORS) {
+      assertArrayEquals(hex(vector[2]), AesKeyWrapEngine.wrap(hex(vector[0]), hex(vector[1])));
+      assertArrayEquals(hex(vector[1]), AesKeyWrapEngine.unwrap(hex(vector[0]), hex(vector[2])));
+    }
+  }
+
+  @Test
+  public void sameAsJca() throws Exception {
+    byte[] rgbKek = hex(KEK_256);
+    for (int size = 16; size <= 64; size += 8) {
+      byte[] rgbKey = new byte[size];
+      for (int i = 0; i < size; i++) {
+        rgbKey[i] = (byte) (i * 7);
+      }
+      Cipher cipher = Cipher.getInstance("AESWrap", "SunJCE");
+      cipher.init(Cipher.WRAP_MODE, new SecretKeySpec(rgbKek, "AES"));
+      assertArrayEquals(
+          cipher.wrap(new SecretKeySpec(rgbKey, "AES")), AesKeyWrapEngine.wrap(rgbKek, rgbKey));
+    }
+  }
+
+  @Test
+  public void cacheCleared() throws Exception {
+    AesKeyWrapEngine.wrap(hex(KEK_128), hex(KEY_128));
+    assertNotNull(AesKeyWrapEngine.ENGINES.get());
+    CryptoContext.clearCipherCache();
+    assertNull(AesKeyWrapEngine.ENGINES.get());
+    assertArrayEquals(hex(KEY_128), AesKeyWrapEngine.unwrap(hex(KEK_128), hex(VECTORS[0][2])));
+
+    Object[] result = new Object[2];
+    Thread thread = Thread.ofVirtual().start(() -> {
+      try {
+        result[0] = AesKeyWrapEngine.wrap(hex(KEK_128), hex(KEY_128));
+        result[1] = AesKeyWrapEngine.ENGINES.get();
+      } catch (CoseException e) {
+        result[1] = e;
+      }
+    });
+    thread.join();
+    assertArrayEquals(hex(VECTORS[0][2]), (byte[]) result[0]);
+    assertNull(result[1]);
+  }
+
+  @Test
+  public void integrityChecked() throws Exception {
+    byte[] rgbWrapped = hex(VECTORS[0][2]);
+    for (int i = 0; i < rgbWrapped.length; i += 7) {
+      rgbWrapped[i] ^= 1;
+      try {
+        AesKeyWrapEngine.unwrap(hex(KEK_128), rgbWrapped);
+        fail("tampered key unwrapped");
+      } catch (CoseException e) {
+        assertEquals("Key Unwrap failure", e.getMessage());
+      }
+      rgbWrapped[i] ^= 1;
+    }
+    try {
+      AesKeyWrapEngine.unwrap(hex(KEK_192), rgbWrapped);
+      fail("unwrapped with another key");
+    } catch (CoseException e) {
+      assertEquals("Key Unwrap failure", e.getMessage());
+    }
+    try {
+      AesKeyWrapEngine.unwrap(hex(KEK_128), new byte[16]);
+      fail("short key unwrapped");
+    } catch (CoseException e) {
+      assertEquals("Key Unwrap failure", e.getMessage());
+    }
+    try {
+      AesKeyWrapEngine.wrap(hex(KEK_128), new byte[20]);
+      fail("partial block wrapped");
+    } catch (CoseException e) {
+      assertEquals("Key Wrap failure", e.getMessage());
+    }
+  }
+
+  static byte[] encrypt(AlgorithmID alg, COSEKey key, CipherBackend backend) throws Exception {
+    EncryptCOSEObject msg = new EncryptCOSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    Recipient recipient = new Recipient();
+    recipient.getCryptoContext().setCipherBackend(backend);
+    recipient.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.UNPROTECTED);
+    recipient.SetKey(key.HasKeyType(KeyKeys.KeyType_Octet) ? key : key.PublicKey());
+    msg.addRecipient(recipient);
+    msg.encrypt();
+    return msg.EncodeToBytes();
+  }
+
+  static byte[] decrypt(byte[] rgbMsg, COSEKey key, CipherBackend backend) throws Exception {
+    EncryptCOSEObject msg = (EncryptCOSEObject) COSEObject.DecodeFromBytes(rgbMsg);
+    Recipient recipient = msg.getRecipient(0);
+    recipient.getCryptoContext().setCipherBackend(backend);
+    recipient.SetKey(key);
+    return msg.decrypt(recipient);
+  }
+
+  static COSEKey symmetricKey(int bits) throws CoseException {
+    CBORObject key = CBORObject.NewMap();
+    key.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_Octet);
+    key.Add(KeyKeys.Octet_K.AsCBOR(), hex(KEK_256.substring(0, bits / 4)));
+    return new COSEKey(key);
+  }
+
+  @Test
+  public void recipients() throws Exception {
+    Object[][] cases = {
+        {AlgorithmID.AES_KW_128, symmetricKey(128)},
+        {AlgorithmID.AES_KW_192, symmetricKey(192)},
+        {AlgorithmID.AES_KW_256, symmetricKey(256)},
+        {AlgorithmID.ECDH_ES_HKDF_256_AES_KW_128, COSEKey.generateKey(AlgorithmID.ECDSA_256)},
+        {AlgorithmID.ECDH_ES_HKDF_256_AES_KW_256, COSEKey.generateKey(KeyKeys.OKP_X25519)},
+    };
+    for (Object[] c : cases) {
+      AlgorithmID alg = (AlgorithmID) c[0];
+      COSEKey key = (COSEKey) c[1];
+      for (CipherBackend sender : CipherBackend.values()) {
+        byte[] rgbMsg = encrypt(alg, key, sender);
+        for (CipherBackend receiver : CipherBackend.values()) {
+          assertArrayEquals(alg + " " + sender + " to " + receiver,
+              rgbContent, decrypt(rgbMsg, key, receiver));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,323 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.upokecenter.cbor.CBORObject;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Runs a round trip of each operation in a loop, with each algorithm the library supports for it,
+ * and checks the bytes allocated per round trip against the budget in
+ * src/test/resources/allocation-budget.properties. MAC and Encrypt are run with each recipient
+ * algorithm.
+ * <p>
+ * After a change that is meant to allocate more, or less, rewrite the budget with
+ * {@code mvn test -Dtest=AllocationBudgetTest -Dcose.updateAllocationBudget=true} and commit the
+ * file. The budget written is the measured value with a quarter added for JIT variation.
+ */
+@RunWith(Parameterized.class)
+public class AllocationBudgetTest extends TestBase {
+
+  static final Path BUDGET_FILE = Paths.get("src/test/resources/allocation-budget.properties");
+  static final boolean UPDATE = Boolean.getBoolean("cose.updateAllocationBudget");
+  static final int WARMUP = 200;
+  static final int ITERATIONS = 200;
+  static final byte[] rgbContent = "This is some content".getBytes();
+
+  static final Map<String, Long> measured = new ConcurrentHashMap<String, Long>();
+  static Properties budget;
+  static COSEKey ecKey;
+  static COSEKey edKey;
+  static COSEKey ecdhKey;
+  static COSEKey ecdhSenderKey;
+  static COSEKey xdhKey;
+  static COSEKey xdhSenderKey;
+
+  interface Operation {
+    void run() throws Exception;
+  }
+
+  static final AlgorithmID[] SIGNATURES = {
+      AlgorithmID.ECDSA_256, AlgorithmID.ECDSA_384, AlgorithmID.ECDSA_512, AlgorithmID.EDDSA,
+      AlgorithmID.RSA_PSS_256, AlgorithmID.RSA_PSS_384, AlgorithmID.RSA_PSS_512};
+  static final AlgorithmID[] MACS = {
+      AlgorithmID.HMAC_SHA_256_64, AlgorithmID.HMAC_SHA_256, AlgorithmID.HMAC_SHA_384,
+      AlgorithmID.HMAC_SHA_512, AlgorithmID.AES_CBC_MAC_128_64, AlgorithmID.AES_CBC_MAC_256_64,
+      AlgorithmID.AES_CBC_MAC_128_128, AlgorithmID.AES_CBC_MAC_256_128};
+  static final AlgorithmID[] CIPHERS = {
+      AlgorithmID.AES_GCM_128, AlgorithmID.AES_GCM_192, AlgorithmID.AES_GCM_256,
+      AlgorithmID.AES_CCM_16_64_128, AlgorithmID.AES_CCM_16_64_256,
+      AlgorithmID.AES_CCM_64_64_128, AlgorithmID.AES_CCM_64_64_256,
+      AlgorithmID.AES_CCM_16_128_128, AlgorithmID.AES_CCM_16_128_256,
+      AlgorithmID.AES_CCM_64_128_128, AlgorithmID.AES_CCM_64_128_256};
+  static final AlgorithmID[] RECIPIENTS = {
+      AlgorithmID.Direct, AlgorithmID.HKDF_HMAC_SHA_256, AlgorithmID.HKDF_HMAC_SHA_512,
+      AlgorithmID.AES_KW_128, AlgorithmID.AES_KW_192, AlgorithmID.AES_KW_256,
+      AlgorithmID.ECDH_ES_HKDF_256, AlgorithmID.ECDH_ES_HKDF_512,
+      AlgorithmID.ECDH_SS_HKDF_256, AlgorithmID.ECDH_SS_HKDF_512,
+      AlgorithmID.ECDH_ES_HKDF_256_AES_KW_128, AlgorithmID.ECDH_ES_HKDF_256_AES_KW_192,
+      AlgorithmID.ECDH_ES_HKDF_256_AES_KW_256, AlgorithmID.ECDH_SS_HKDF_256_AES_KW_128,
+      AlgorithmID.ECDH_SS_HKDF_256_AES_KW_192, AlgorithmID.ECDH_SS_HKDF_256_AES_KW_256};
+
+  @Parameters(name = "{0}")
+  public static Collection<Object> data() {
+    List<Object> names = new ArrayList<Object>();
+    for (AlgorithmID alg : SIGNATURES) {
+      names.add("Sign1." + alg);
+      names.add("Sign." + alg);
+    }
+    for (AlgorithmID alg : MACS) {
+      names.add("MAC0." + alg);
+    }
+    for (AlgorithmID alg : CIPHERS) {
+      names.add("Encrypt0." + alg);
+    }
+    for (AlgorithmID alg : RECIPIENTS) {
+      names.add("MAC." + alg);
+      names.add("Encrypt." + alg);
+    }
+    names.add("Encrypt.ECDH_ES_HKDF_256.X25519");
+    names.add("Encrypt.ECDH_SS_HKDF_256.X25519");
+    return names;
+  }
+
+  @Parameter
+  public String name;
+
+  @BeforeClass
+  public static void setUp() throws Exception {
+    budget = new Properties();
+    if (Files.exists(BUDGET_FILE)) {
+      try (Reader reader = Files.newBufferedReader(BUDGET_FILE, StandardCharsets.UTF_8)) {
+        budget.load(reader);
+      }
+    }
+    ecKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    edKey = COSEKey.generateKey(AlgorithmID.EDDSA);
+    ecdhKey = COSEKey.generateKey(KeyKeys.EC2_P256);
+    ecdhSenderKey = COSEKey.generateKey(KeyKeys.EC2_P256);
+    xdhKey = COSEKey.generateKey(KeyKeys.OKP_X25519);
+    xdhSenderKey = COSEKey.generateKey(KeyKeys.OKP_X25519);
+  }
+
+  @AfterClass
+  public static void writeBudget() throws IOException {
+    if (!UPDATE || measured.isEmpty()) {
+      return;
+    }
+    Map<String, Long> sorted = new TreeMap<String, Long>();
+    for (Map.Entry<String, Long> e : measured.entrySet()) {
+      // Round up to a multiple of 256 bytes after adding a quarter
+      sorted.put(e.getKey(), (e.getValue() * 5 / 4 + 255) / 256 * 256);
+    }
+    try (Writer writer = Files.newBufferedWriter(BUDGET_FILE, StandardCharsets.UTF_8)) {
+      writer.write("# SPDX-FileCopyrightText: 2025 diggsweden/cose-lib\n");
+      writer.write("#\n");
+      writer.write("# SPDX-License-Identifier: BSD-3-Clause\n");
+      writer.write("\n");
+      writer.write("# Bytes allocated per round trip, checked by AllocationBudgetTest\n");
+      for (Map.Entry<String, Long> e : sorted.entrySet()) {
+        writer.write(e.getKey() + "=" + e.getValue() + "\n");
+      }
+    }
+  }
+
+  @Test
+  public void withinBudget() throws Exception {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    Operation operation = operation(name);
+    for (int i = 0; i < WARMUP; i++) {
+      operation.run();
+    }
+    long threadId = Thread.currentThread().getId();
+    long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ITERATIONS; i++) {
+      operation.run();
+    }
+    long perOperation = (threads.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+    measured.put(name, perOperation);
+
+    if (!UPDATE) {
+      String limit = budget.getProperty(name);
+      assertNotNull("No allocation budget for " + name, limit);
+      assertTrue(
+          name + " allocated " + perOperation + " bytes, budget is " + limit,
+          perOperation <= Long.parseLong(limit));
+    }
+  }
+
+  static Operation operation(String name) throws Exception {
+    // Type.ALGORITHM, with .X25519 appended for ECDH on that curve in place of P-256
+    String[] parts = name.split("\\.");
+    String type = parts[0];
+    AlgorithmID alg = AlgorithmID.valueOf(parts[1]);
+    COSEKey agreementKey = parts.length > 2 ? xdhKey : ecdhKey;
+    COSEKey senderKey = parts.length > 2 ? xdhSenderKey : ecdhSenderKey;
+    switch (type) {
+      case "Sign1":
+        COSEKey sign1Key = signingKey(alg);
+        return () -> sign1(alg, sign1Key);
+      case "Sign":
+        COSEKey signKey = signingKey(alg);
+        return () -> sign(alg, signKey);
+      case "MAC0":
+        byte[] macKey = new byte[alg.getKeySize() / 8];
+        return () -> mac0(alg, macKey);
+      case "MAC":
+        return () -> mac(alg, agreementKey, senderKey);
+      case "Encrypt0":
+        byte[] cek = new byte[alg.getKeySize() / 8];
+        return () -> encrypt0(alg, cek);
+      case "Encrypt":
+        return () -> encrypt(alg, agreementKey, senderKey);
+      default:
+        throw new IllegalArgumentException(name);
+    }
+  }
+
+  static COSEKey signingKey(AlgorithmID alg) throws CoseException {
+    if (alg == AlgorithmID.EDDSA) {
+      return edKey;
+    }
+    return alg == AlgorithmID.ECDSA_256 ? ecKey : COSEKey.generateKey(alg);
+  }
+
+  static void sign1(AlgorithmID alg, COSEKey key) throws Exception {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(key);
+    Sign1COSEObject msg2 = (Sign1COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    assertTrue(msg2.validate(key));
+  }
+
+  static void sign(AlgorithmID alg, COSEKey key) throws Exception {
+    SignCOSEObject msg = new SignCOSEObject();
+    msg.SetContent(rgbContent);
+    Signer signer = new Signer();
+    signer.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.PROTECTED);
+    signer.setKey(key);
+    msg.AddSigner(signer);
+    msg.sign();
+    SignCOSEObject msg2 = (SignCOSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    Signer signer2 = msg2.getSigner(0);
+    signer2.setKey(key);
+    assertTrue(msg2.validate(signer2));
+  }
+
+  static void mac0(AlgorithmID alg, byte[] rgbKey) throws Exception {
+    MAC0COSEObject msg = new MAC0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.Create(rgbKey);
+    MAC0COSEObject msg2 = (MAC0COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    assertTrue(msg2.Validate(rgbKey));
+  }
+
+  static void mac(AlgorithmID recipientAlg, COSEKey agreementKey, COSEKey senderKey)
+      throws Exception {
+    COSEKey key = recipientKey(recipientAlg, agreementKey, 32);
+    MACCOSEObject msg = new MACCOSEObject();
+    msg.addAttribute(
+        HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.addRecipient(recipient(recipientAlg, key, senderKey));
+    msg.Create();
+    MACCOSEObject msg2 = (MACCOSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    Recipient recipient2 = msg2.getRecipient(0);
+    recipient2.SetKey(key);
+    assertTrue(msg2.Validate(recipient2));
+  }
+
+  static void encrypt0(AlgorithmID alg, byte[] rgbKey) throws Exception {
+    Encrypt0COSEObject msg = new Encrypt0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.encrypt(rgbKey);
+    Encrypt0COSEObject msg2 =
+        (Encrypt0COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    assertTrue(Arrays.equals(rgbContent, msg2.decrypt(rgbKey)));
+  }
+
+  static void encrypt(AlgorithmID recipientAlg, COSEKey agreementKey, COSEKey senderKey)
+      throws Exception {
+    COSEKey key = recipientKey(recipientAlg, agreementKey, 16);
+    EncryptCOSEObject msg = new EncryptCOSEObject();
+    msg.addAttribute(
+        HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.addRecipient(recipient(recipientAlg, key, senderKey));
+    msg.encrypt();
+    EncryptCOSEObject msg2 =
+        (EncryptCOSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    Recipient recipient2 = msg2.getRecipient(0);
+    recipient2.SetKey(key);
+    assertTrue(Arrays.equals(rgbContent, msg2.decrypt(recipient2)));
+  }
+
+  /**
+   * @return the key the recipient decrypts with, an octet key of the content key length for
+   *     direct use
+   */
+  static COSEKey recipientKey(AlgorithmID recipientAlg, COSEKey agreementKey, int directLength)
+      throws CoseException {
+    if (recipientAlg.name().startsWith("ECDH_")) {
+      return agreementKey;
+    }
+    return octetKey(recipientAlg == AlgorithmID.Direct ? directLength
+        : recipientAlg.getKeySize() / 8);
+  }
+
+  static Recipient recipient(AlgorithmID recipientAlg, COSEKey key, COSEKey senderKey)
+      throws CoseException {
+    Recipient recipient = new Recipient();
+    recipient.addAttribute(HeaderKeys.Algorithm, recipientAlg.AsCBOR(), Attribute.UNPROTECTED);
+    recipient.SetKey(recipientAlg.name().startsWith("ECDH_") ? key.PublicKey() : key);
+    if (recipientAlg.name().startsWith("ECDH_SS_")) {
+      recipient.SetSenderKey(senderKey);
+      recipient.addAttribute(
+          HeaderKeys.ECDH_SPK, senderKey.PublicKey().AsCBOR(), Attribute.UNPROTECTED);
+    }
+    return recipient;
+  }
+
+  static COSEKey octetKey(int length) throws CoseException {
+    CBORObject key = CBORObject.NewMap();
+    key.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_Octet);
+    key.Add(KeyKeys.Octet_K.AsCBOR(), new byte[length]);
+    return new COSEKey(key);
+  }
+}
@@ -0,0 +1,349 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.upokecenter.cbor.CBORObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class COSEAsyncTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+  static final byte[] rgbKey128 = new byte[16];
+  static final byte[] rgbKey256 = new byte[32];
+
+  @Test
+  public void signAndValidate() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    COSEAsync async = new COSEAsync();
+
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    assertSame(msg, async.signAsync(msg, key).get());
+
+    Sign1COSEObject msg2 = (Sign1COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    assertTrue(async.validateAsync(msg2, key.PublicKey()).get());
+    assertFalse(async.validateAsync(
+        msg2, COSEKey.generateKey(AlgorithmID.ECDSA_256).PublicKey()).get());
+  }
+
+  @Test
+  public void exceptionalCompletion() throws Exception {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    CompletableFuture<Sign1COSEObject> future =
+        new COSEAsync().signAsync(msg, COSEKey.generateKey(AlgorithmID.ECDSA_256));
+
+    try {
+      future.get();
+      fail("sign without content");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CoseException);
+      assertEquals("No Content Specified", e.getCause().getMessage());
+    }
+    assertTrue(future.isCompletedExceptionally());
+  }
+
+  @Test
+  public void customExecutor() throws Exception {
+    AtomicInteger runs = new AtomicInteger();
+    COSEAsync async = new COSEAsync(task -> {
+      runs.incrementAndGet();
+      task.run();
+    });
+
+    MAC0COSEObject msg = new MAC0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    async.computeAsync(msg, rgbKey256).get();
+
+    MAC0COSEObject msg2 = (MAC0COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    assertTrue(async.validateAsync(msg2, rgbKey256).get());
+    assertEquals(2, runs.get());
+  }
+
+  @Test
+  public void rejected() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    executor.shutdown();
+    CompletableFuture<byte[]> future =
+        new COSEAsync(executor).decryptAsync(new Encrypt0COSEObject(), rgbKey128);
+    assertTrue(future.isCompletedExceptionally());
+  }
+
+  @Test
+  public void encryptAndDecrypt() throws Exception {
+    COSEAsync async = new COSEAsync();
+
+    Encrypt0COSEObject msg = new Encrypt0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    async.encryptAsync(msg, rgbKey128).get();
+
+    Encrypt0COSEObject msg2 =
+        (Encrypt0COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    assertArrayEquals(rgbContent, async.decryptAsync(msg2, rgbKey128).get());
+  }
+
+  @Test
+  public void validateWithKeySource() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    byte[] kid = "key-1".getBytes();
+    KeySetSource source = new KeySetSource() {
+      @Override
+      public KeySet getKeySet() {
+        KeySet keySet = new KeySet();
+        keySet.add(key.PublicKey());
+        return keySet;
+      }
+
+      @Override
+      public List<COSEKey> getKeys(byte[] id) {
+        return Arrays.equals(kid, id)
+            ? Collections.singletonList(key.PublicKey())
+            : Collections.<COSEKey>emptyList();
+      }
+    };
+    COSEAsync async = new COSEAsync();
+
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(HeaderKeys.KID, CBORObject.FromByteArray(kid), Attribute.UNPROTECTED);
+    msg.SetContent(rgbContent);
+    async.signAsync(msg, key).get();
+    assertTrue(async.validateAsync(msg, source).get());
+
+    Sign1COSEObject other = new Sign1COSEObject();
+    other.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    other.addAttribute(
+        HeaderKeys.KID, CBORObject.FromByteArray("key-2".getBytes()), Attribute.UNPROTECTED);
+    other.SetContent(rgbContent);
+    async.signAsync(other, key).get();
+    assertFalse(async.validateAsync(other, source).get());
+  }
+
+  @Test
+  public void otherKeysWithSameIdentifierSkipped() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    CBORObject cborOctet = CBORObject.NewMap();
+    cborOctet.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_Octet);
+    cborOctet.Add(KeyKeys.Octet_K.AsCBOR(), rgbKey256);
+    COSEKey octetKey = new COSEKey(cborOctet);
+    KeySetSource source = new KeySetSource() {
+      @Override
+      public KeySet getKeySet() {
+        KeySet keySet = new KeySet();
+        keySet.add(octetKey);
+        keySet.add(key.PublicKey());
+        return keySet;
+      }
+
+      @Override
+      public List<COSEKey> getKeys(byte[] id) {
+        return Arrays.asList(octetKey, key.PublicKey());
+      }
+    };
+    COSEAsync async = new COSEAsync();
+
+    Sign1COSEObject sign1 = new Sign1COSEObject();
+    sign1.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    sign1.addAttribute(
+        HeaderKeys.KID, CBORObject.FromByteArray("key-1".getBytes()), Attribute.UNPROTECTED);
+    sign1.SetContent(rgbContent);
+    sign1.sign(key);
+    assertTrue(async.validateAsync(sign1, source).get());
+    assertTrue(async.validateAsync(
+        (ImmutableSign1COSEObject) ImmutableCOSEObject.from(sign1), source).get());
+
+    SignCOSEObject sign = new SignCOSEObject();
+    sign.SetContent(rgbContent);
+    Signer signer = new Signer();
+    signer.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    signer.addAttribute(
+        HeaderKeys.KID, CBORObject.FromByteArray("key-1".getBytes()), Attribute.UNPROTECTED);
+    signer.setKey(key);
+    sign.AddSigner(signer);
+    sign.sign();
+    assertTrue(async.validateAsync(
+        (ImmutableSignCOSEObject) ImmutableCOSEObject.from(sign), source).get());
+  }
+
+  static KeySetSource keySource(Map<String, COSEKey> keys) {
+    return new KeySetSource() {
+      @Override
+      public KeySet getKeySet() {
+        KeySet keySet = new KeySet();
+        for (COSEKey key : keys.values()) {
+          keySet.add(key);
+        }
+        return keySet;
+      }
+
+      @Override
+      public List<COSEKey> getKeys(byte[] id) {
+        COSEKey key = keys.get(new String(id));
+        return key != null ? Collections.singletonList(key) : Collections.<COSEKey>emptyList();
+      }
+    };
+  }
+
+  static Recipient keyWrapRecipient(COSEKey kek, String kid) throws CoseException {
+    Recipient recipient = new Recipient();
+    recipient.addAttribute(
+        HeaderKeys.Algorithm, AlgorithmID.AES_KW_128.AsCBOR(), Attribute.UNPROTECTED);
+    recipient.addAttribute(
+        HeaderKeys.KID, CBORObject.FromByteArray(kid.getBytes()), Attribute.UNPROTECTED);
+    recipient.SetKey(kek);
+    return recipient;
+  }
+
+  @Test
+  public void viewsWithKeySource() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    COSEKey otherKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    CBORObject cborKek = CBORObject.NewMap();
+    cborKek.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_Octet);
+    cborKek.Add(KeyKeys.Octet_K.AsCBOR(), rgbKey128);
+    COSEKey kek = new COSEKey(cborKek);
+    Map<String, COSEKey> keys = new HashMap<String, COSEKey>();
+    keys.put("key-1", key.PublicKey());
+    keys.put("kek-1", kek);
+    KeySetSource source = keySource(keys);
+    COSEAsync async = new COSEAsync();
+
+    Sign1COSEObject sign1 = new Sign1COSEObject();
+    sign1.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    sign1.addAttribute(
+        HeaderKeys.KID, CBORObject.FromByteArray("key-1".getBytes()), Attribute.UNPROTECTED);
+    sign1.SetContent(rgbContent);
+    sign1.sign(key);
+    assertTrue(async.validateAsync(
+        (ImmutableSign1COSEObject) ImmutableCOSEObject.from(sign1), source).get());
+
+    // The signer without a key identifier is passed over
+    SignCOSEObject sign = new SignCOSEObject();
+    sign.SetContent(rgbContent);
+    for (COSEKey signingKey : new COSEKey[] {otherKey, key}) {
+      Signer signer = new Signer();
+      signer.addAttribute(
+          HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+      if (signingKey == key) {
+        signer.addAttribute(
+            HeaderKeys.KID, CBORObject.FromByteArray("key-1".getBytes()), Attribute.UNPROTECTED);
+      }
+      signer.setKey(signingKey);
+      sign.AddSigner(signer);
+    }
+    sign.sign();
+    ImmutableSignCOSEObject signView = (ImmutableSignCOSEObject) ImmutableCOSEObject.from(sign);
+    assertTrue(async.validateAsync(signView, source).get());
+    assertTrue(async.validateAsync(signView, 0, otherKey.PublicKey()).get());
+    assertFalse(async.validateAsync(signView, 1, otherKey.PublicKey()).get());
+
+    MACCOSEObject mac = new MACCOSEObject();
+    mac.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    mac.SetContent(rgbContent);
+    mac.addRecipient(keyWrapRecipient(kek, "kek-1"));
+    assertSame(mac, async.computeAsync(mac).get());
+    MACCOSEObject mac2 = (MACCOSEObject) COSEObject.DecodeFromBytes(mac.EncodeToBytes());
+    mac2.getRecipient(0).SetKey(kek);
+    assertTrue(async.validateAsync(mac2, mac2.getRecipient(0)).get());
+    ImmutableMACCOSEObject macView = (ImmutableMACCOSEObject) ImmutableCOSEObject.from(mac2);
+    assertTrue(async.validateAsync(macView, source).get());
+    assertTrue(async.validateAsync(macView, 0, kek).get());
+
+    MAC0COSEObject mac0 = new MAC0COSEObject();
+    mac0.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    mac0.SetContent(rgbContent);
+    mac0.Create(rgbKey256);
+    assertTrue(async.validateAsync(
+        (ImmutableMAC0COSEObject) ImmutableCOSEObject.from(mac0), rgbKey256).get());
+
+    EncryptCOSEObject encrypt = new EncryptCOSEObject();
+    encrypt.addAttribute(
+        HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    encrypt.SetContent(rgbContent);
+    encrypt.addRecipient(keyWrapRecipient(kek, "kek-1"));
+    async.encryptAsync(encrypt).get();
+    ImmutableEncryptCOSEObject encryptView = (ImmutableEncryptCOSEObject) ImmutableCOSEObject
+        .DecodeFromBytes(encrypt.EncodeToBytes());
+    assertArrayEquals(rgbContent, async.decryptAsync(encryptView, source).get());
+    assertArrayEquals(rgbContent, async.decryptAsync(encryptView, 0, kek).get());
+
+    // No key for the recipient
+    keys.remove("kek-1");
+    try {
+      async.decryptAsync(encryptView, source).get();
+      fail("decrypted without a key");
+    } catch (ExecutionException e) {
+      assertEquals("No key for the key identifier", e.getCause().getMessage());
+    }
+    assertFalse(async.validateAsync(macView, source).get());
+  }
+
+  @Test
+  public void viewWithoutKeyIdentifier() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    SignCOSEObject sign = new SignCOSEObject();
+    sign.SetContent(rgbContent);
+    Signer signer = new Signer();
+    signer.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    signer.setKey(key);
+    sign.AddSigner(signer);
+    sign.sign();
+    try {
+      new COSEAsync().validateAsync(
+          (ImmutableSignCOSEObject) ImmutableCOSEObject.from(sign),
+          keySource(new HashMap<String, COSEKey>())).get();
+      fail("validated without a key identifier");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof CoseException);
+      assertEquals("Message has no key identifier", e.getCause().getMessage());
+    }
+  }
+
+  /**
+   * Many validations in flight at once on the default virtual thread executor, all on one view of
+   * the message.
+   */
+  @Test
+  public void highConcurrency() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(key);
+    ImmutableSign1COSEObject view = (ImmutableSign1COSEObject) ImmutableCOSEObject.from(msg);
+    COSEKey publicKey = key.PublicKey();
+
+    COSEAsync async = new COSEAsync();
+    List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>();
+    for (int i = 0; i < 2000; i++) {
+      futures.add(async.validateAsync(view, publicKey));
+    }
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+    for (CompletableFuture<Boolean> future : futures) {
+      assertTrue(future.get());
+    }
+  }
+}
@@ -0,0 +1,256 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.upokecenter.cbor.CBORObject;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Checks that the direct encoder produces the same bytes as encoding the CBORObject tree.
+ */
+public class COSEEncoderTest extends TestBase {
+
+  static final int[] payloadSizes = {0, 1, 23, 24, 255, 256, 65535, 65536};
+  static final byte[] rgbKey128 = {
+      'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p'};
+  static final byte[] rgbKey256 = {
+      'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p',
+      'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p'};
+
+  static COSEKey signingKey;
+  static COSEKey eddsaKey;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @BeforeClass
+  public static void setUpClass() throws CoseException {
+    signingKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    eddsaKey = COSEKey.generateKey(AlgorithmID.EDDSA);
+  }
+
+  /**
+   * Decode every message in the example vectors and compare both encoders on it.
+   */
+  @Test
+  public void exampleVectors() throws Exception {
+    List<File> files = new ArrayList<>();
+    collect(new File("src/test/resources/Examples"), files);
+
+    int compared = 0;
+    for (File f : files) {
+      CBORObject control;
+      try (InputStream str = new FileInputStream(f)) {
+        control = CBORObject.ReadJSON(str);
+      }
+      CBORObject output = control.get("output");
+      if (output == null || output.get("cbor") == null) {
+        continue;
+      }
+      byte[] rgb = hexStringToByteArray(output.get("cbor").AsString());
+
+      COSEObject msg;
+      try {
+        msg = COSEObject.DecodeFromBytes(rgb);
+      } catch (CoseException e) {
+        // untagged or intentionally broken vectors
+        continue;
+      }
+
+      byte[] expected;
+      try {
+        expected = msg.EncodeToCBORObject().EncodeToBytes();
+      } catch (CoseException | RuntimeException e) {
+        // the tree encoder cannot produce this message either, e.g. a Sign message without keys
+        continue;
+      }
+      assertArrayEquals(f.getPath(), expected, msg.EncodeToBytes());
+      compared++;
+    }
+    assertTrue("Too few vectors compared: " + compared, compared > 100);
+  }
+
+  @Test
+  public void sign1PayloadSizes() throws CoseException {
+    for (int size : payloadSizes) {
+      for (boolean emitTag : new boolean[] {true, false}) {
+        Sign1COSEObject msg = new Sign1COSEObject(emitTag);
+        msg.addAttribute(
+            HeaderKeys.Algorithm,
+            AlgorithmID.ECDSA_256.AsCBOR(),
+            Attribute.PROTECTED);
+        msg.addAttribute(HeaderKeys.KID, new byte[] {1, 2, 3}, Attribute.UNPROTECTED);
+        msg.SetContent(payload(size));
+        msg.sign(signingKey);
+
+        assertEncodingsMatch(msg);
+      }
+    }
+  }
+
+  @Test
+  public void sign1Detached() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject(true, false);
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(payload(100));
+    msg.sign(signingKey);
+
+    assertEncodingsMatch(msg);
+  }
+
+  /**
+   * COSE_Sign messages are signed again on every encode, so a deterministic algorithm is needed to
+   * compare the two encoders.
+   */
+  @Test
+  public void signPayloadSizes() throws CoseException {
+    for (int size : payloadSizes) {
+      SignCOSEObject msg = new SignCOSEObject();
+      msg.SetContent(payload(size));
+      for (int i = 0; i < 2; i++) {
+        Signer signer = new Signer();
+        signer.addAttribute(
+            HeaderKeys.Algorithm,
+            AlgorithmID.EDDSA.AsCBOR(),
+            Attribute.PROTECTED);
+        signer.setKey(eddsaKey);
+        msg.AddSigner(signer);
+      }
+      msg.sign();
+
+      assertEncodingsMatch(msg);
+    }
+  }
+
+  @Test
+  public void encrypt0PayloadSizes() throws Exception {
+    for (int size : payloadSizes) {
+      Encrypt0COSEObject msg = new Encrypt0COSEObject();
+      msg.addAttribute(
+          HeaderKeys.Algorithm,
+          AlgorithmID.AES_GCM_128.AsCBOR(),
+          Attribute.PROTECTED);
+      msg.SetContent(payload(size));
+      msg.encrypt(rgbKey128);
+
+      assertEncodingsMatch(msg);
+    }
+  }
+
+  @Test
+  public void mac0PayloadSizes() throws Exception {
+    for (int size : payloadSizes) {
+      MAC0COSEObject msg = new MAC0COSEObject();
+      msg.addAttribute(
+          HeaderKeys.Algorithm,
+          AlgorithmID.HMAC_SHA_256.AsCBOR(),
+          Attribute.PROTECTED);
+      msg.SetContent(payload(size));
+      msg.Create(rgbKey256);
+
+      assertEncodingsMatch(msg);
+    }
+  }
+
+  @Test
+  public void streamAndBuffer() throws Exception {
+    MAC0COSEObject msg = new MAC0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(payload(300));
+    msg.Create(rgbKey256);
+    byte[] expected = msg.EncodeToBytes();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    msg.EncodeToStream(out);
+    assertArrayEquals(expected, out.toByteArray());
+
+    ByteBuffer buffer = ByteBuffer.allocate(expected.length + 10);
+    buffer.position(5);
+    msg.EncodeToByteBuffer(buffer);
+    assertEquals(5 + expected.length, buffer.position());
+    byte[] written = new byte[expected.length];
+    buffer.position(5);
+    buffer.get(written);
+    assertArrayEquals(expected, written);
+  }
+
+  @Test
+  public void bufferTooSmall() throws Exception {
+    MAC0COSEObject msg = new MAC0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(payload(300));
+    msg.Create(rgbKey256);
+
+    ByteBuffer buffer = ByteBuffer.allocate(100);
+    try {
+      msg.EncodeToByteBuffer(buffer);
+      org.junit.Assert.fail("Expected BufferOverflowException");
+    } catch (BufferOverflowException e) {
+      assertEquals(0, buffer.position());
+    }
+  }
+
+  @Test
+  public void notSigned() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(payload(10));
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("sign function not called");
+    msg.EncodeToBytes();
+  }
+
+  private static void assertEncodingsMatch(COSEObject msg) throws CoseException {
+    byte[] expected = msg.EncodeToCBORObject().EncodeToBytes();
+    assertArrayEquals(expected, msg.EncodeToBytes());
+  }
+
+  private static byte[] payload(int size) {
+    byte[] rgb = new byte[size];
+    new Random(size).nextBytes(rgb);
+    return rgb;
+  }
+
+  private static void collect(File directory, List<File> files) {
+    File[] contents = directory.listFiles();
+    if (contents == null) {
+      return;
+    }
+    for (File f : contents) {
+      if (f.isDirectory()) {
+        collect(f, files);
+      } else if (f.getName().endsWith(".json")) {
+        files.add(f);
+      }
+    }
+  }
+
+  private static byte[] hexStringToByteArray(String s) {
+    int len = s.length();
+    byte[] data = new byte[len / 2];
+    for (int i = 0; i < len; i += 2) {
+      data[i / 2] = (byte) ((Character.digit(s.charAt(i), 16) << 4) +
+          Character.digit(s.charAt(i + 1), 16));
+    }
+    return data;
+  }
+}
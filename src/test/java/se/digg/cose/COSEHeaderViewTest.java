@@ -0,0 +1,270 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.upokecenter.cbor.CBORObject;
+import java.util.Arrays;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class COSEHeaderViewTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+  static final byte[] rgbKid = {'k', 'i', 'd', '-', '1'};
+  static final byte[] rgbKey128 = {
+      'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p'};
+  static final byte[] rgbKey256 = {
+      'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p',
+      'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p'};
+
+  static COSEKey signingKey;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @BeforeClass
+  public static void setUpClass() throws CoseException {
+    signingKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+  }
+
+  @Test
+  public void sign1Headers() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(HeaderKeys.CONTENT_TYPE, CBORObject.FromInt32(60), Attribute.PROTECTED);
+    msg.addAttribute(HeaderKeys.KID, rgbKid, Attribute.UNPROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    COSEHeaderView view = COSEHeaderView.scan(rgbMsg);
+
+    assertEquals(COSEObjectTag.Sign1, view.getCOSEObjectTag());
+    assertEquals(AlgorithmID.ECDSA_256, view.getAlgorithm());
+    assertArrayEquals(rgbKid, view.getKeyId());
+    assertEquals(60, view.getContentType().AsInt32());
+
+    assertArrayEquals(rgbContent, view.getPayload(rgbMsg));
+    assertEquals(rgbContent.length, view.getPayloadLength());
+    byte[] rgbSignature = Arrays.copyOfRange(
+        rgbMsg,
+        view.getSignatureOffset(),
+        view.getSignatureOffset() + view.getSignatureLength());
+    assertArrayEquals(CBORObject.DecodeFromBytes(rgbMsg).get(3).GetByteString(), rgbSignature);
+    assertEquals(rgbMsg.length, view.getSignatureOffset() + view.getSignatureLength());
+  }
+
+  @Test
+  public void sign1Untagged() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject(false);
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    COSEHeaderView view = COSEHeaderView.scan(rgbMsg, COSEObjectTag.Sign1);
+
+    assertEquals(COSEObjectTag.Sign1, view.getCOSEObjectTag());
+    assertEquals(AlgorithmID.ECDSA_256, view.getAlgorithm());
+    assertNull(view.getKeyId());
+    assertNull(view.getContentType());
+  }
+
+  @Test
+  public void sign1Detached() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject(true, false);
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    COSEHeaderView view = COSEHeaderView.scan(rgbMsg);
+
+    assertEquals(-1, view.getPayloadOffset());
+    assertEquals(-1, view.getPayloadLength());
+    assertNull(view.getPayload(rgbMsg));
+  }
+
+  @Test
+  public void encrypt0Headers() throws Exception {
+    Encrypt0COSEObject msg = new Encrypt0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(
+        HeaderKeys.CONTENT_TYPE,
+        CBORObject.FromString("text/plain"),
+        Attribute.UNPROTECTED);
+    msg.SetContent(rgbContent);
+    msg.encrypt(rgbKey128);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    COSEHeaderView view = COSEHeaderView.scan(rgbMsg);
+
+    assertEquals(COSEObjectTag.Encrypt0, view.getCOSEObjectTag());
+    assertEquals(AlgorithmID.AES_GCM_128, view.getAlgorithm());
+    assertEquals("text/plain", view.getContentType().AsString());
+    assertArrayEquals(msg.getEncryptedContent(), view.getPayload(rgbMsg));
+    assertEquals(-1, view.getSignatureOffset());
+  }
+
+  @Test
+  public void mac0Headers() throws Exception {
+    MAC0COSEObject msg = new MAC0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(HeaderKeys.KID, rgbKid, Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.Create(rgbKey256);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    COSEHeaderView view = COSEHeaderView.scan(rgbMsg);
+
+    assertEquals(COSEObjectTag.MAC0, view.getCOSEObjectTag());
+    assertEquals(AlgorithmID.HMAC_SHA_256, view.getAlgorithm());
+    assertArrayEquals(rgbKid, view.getKeyId());
+    assertArrayEquals(rgbContent, view.getPayload(rgbMsg));
+    assertEquals(32, view.getSignatureLength());
+  }
+
+  @Test
+  public void protectedWins() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(
+        HeaderKeys.CONTENT_TYPE,
+        CBORObject.FromInt32(60),
+        Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+    CBORObject obj = msg.EncodeToCBORObject();
+    obj.get(1).Add(HeaderKeys.CONTENT_TYPE.AsCBOR(), CBORObject.FromInt32(61));
+
+    COSEHeaderView view = COSEHeaderView.scan(obj.EncodeToBytes());
+
+    assertEquals(60, view.getContentType().AsInt32());
+  }
+
+  @Test
+  public void attributeIsCopy() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(HeaderKeys.KID, rgbKid, Attribute.UNPROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+
+    COSEHeaderView view = COSEHeaderView.scan(msg.EncodeToBytes());
+    view.getKeyId()[0] = 0;
+
+    assertArrayEquals(rgbKid, view.getKeyId());
+  }
+
+  @Test
+  public void tagMismatch() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Passed in tag does not match actual tag");
+    COSEHeaderView.scan(msg.EncodeToBytes(), COSEObjectTag.MAC0);
+  }
+
+  @Test
+  public void noTagNoDefault() throws CoseException {
+    CBORObject obj = CBORObject.NewArray();
+    obj.Add(new byte[0]);
+    obj.Add(CBORObject.NewMap());
+    obj.Add(rgbContent);
+    obj.Add(new byte[0]);
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("COSEObject was not tagged and no default tagging option given");
+    COSEHeaderView.scan(obj.EncodeToBytes());
+  }
+
+  @Test
+  public void wrongSize() throws CoseException {
+    CBORObject obj = CBORObject.NewArray();
+    obj.Add(new byte[0]);
+    obj.Add(CBORObject.NewMap());
+    obj.Add(rgbContent);
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Invalid Sign1 structure");
+    COSEHeaderView.scan(obj.EncodeToBytes(), COSEObjectTag.Sign1);
+  }
+
+  @Test
+  public void truncated() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Malformed CBOR - truncated data");
+    COSEHeaderView.scan(Arrays.copyOf(rgbMsg, rgbMsg.length - 10));
+  }
+
+  @Test
+  public void notAnArray() throws CoseException {
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("COSEObject is not a COSE security COSEObject");
+    COSEHeaderView.scan(CBORObject.FromInt32(1).EncodeToBytes(), COSEObjectTag.Sign1);
+  }
+
+  @Test
+  public void extraData() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Malformed CBOR - extra data");
+    COSEHeaderView.scan(Arrays.copyOf(rgbMsg, rgbMsg.length + 1));
+  }
+
+  @Test
+  public void recipientsSkipped() throws CoseException {
+    CBORObject obj = CBORObject.NewArray();
+    obj.Add(new byte[0]);
+    obj.Add(CBORObject.NewMap());
+    obj.Add(rgbContent);
+    obj.Add(CBORObject.NewArray().Add(CBORObject.NewArray()
+        .Add(new byte[0]).Add(CBORObject.NewMap()).Add(new byte[0])));
+    byte[] rgbMsg = obj.EncodeToBytes();
+
+    COSEHeaderView view = COSEHeaderView.scan(rgbMsg, COSEObjectTag.Encrypt);
+    assertEquals(COSEObjectTag.Encrypt, view.getCOSEObjectTag());
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Malformed CBOR - extra data");
+    COSEHeaderView.scan(Arrays.copyOf(rgbMsg, rgbMsg.length + 1), COSEObjectTag.Encrypt);
+  }
+
+  @Test
+  public void protectedExtraData() throws CoseException {
+    CBORObject objProtected = CBORObject.NewMap();
+    objProtected.Add(HeaderKeys.Algorithm.AsCBOR(), AlgorithmID.ECDSA_256.AsCBOR());
+    byte[] rgbProtected = objProtected.EncodeToBytes();
+    CBORObject obj = CBORObject.NewArray();
+    obj.Add(Arrays.copyOf(rgbProtected, rgbProtected.length + 1));
+    obj.Add(CBORObject.NewMap());
+    obj.Add(rgbContent);
+    obj.Add(new byte[64]);
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Invalid Sign1 structure");
+    COSEHeaderView.scan(obj.EncodeToBytes(), COSEObjectTag.Sign1);
+  }
+}
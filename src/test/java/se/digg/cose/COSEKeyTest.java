@@ -19,10 +19,14 @@ import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
 import java.security.spec.ECGenParameterSpec;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
 import java.util.function.Consumer;
+import javax.crypto.KeyAgreement;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -378,6 +382,242 @@ public class COSEKeyTest extends TestBase {
     assertSameKey.accept(KeyKeys.RSA_E);
   }
 
+  @Test
+  public void testECKeySpecRoundTrip() throws Exception {
+    String[] names = {"secp256r1", "secp384r1", "secp521r1"};
+    CBORObject[] curves = {KeyKeys.EC2_P256, KeyKeys.EC2_P384, KeyKeys.EC2_P521};
+    int[] sizes = {32, 48, 66};
+
+    for (int i = 0; i < names.length; i++) {
+      KeyPairGenerator gen = KeyPairGenerator.getInstance("EC");
+      gen.initialize(new ECGenParameterSpec(names[i]));
+      // Several keys so that coordinates with leading zero bytes are likely to be seen
+      for (int j = 0; j < 8; j++) {
+        KeyPair keyPair = gen.genKeyPair();
+        COSEKey key = new COSEKey(keyPair.getPublic(), keyPair.getPrivate());
+
+        assertEquals(curves[i], key.get(KeyKeys.EC2_Curve));
+        assertEquals(sizes[i], key.get(KeyKeys.EC2_X).GetByteString().length);
+        assertEquals(sizes[i], key.get(KeyKeys.EC2_Y).GetByteString().length);
+        assertEquals(sizes[i], key.get(KeyKeys.EC2_D).GetByteString().length);
+
+        COSEKey decoded = new COSEKey(CBORObject.DecodeFromBytes(key.EncodeToBytes()));
+        assertArrayEquals(
+            keyPair.getPublic().getEncoded(),
+            decoded.AsPublicKey().getEncoded());
+        assertEquals(
+            ((ECPrivateKey) keyPair.getPrivate()).getS(),
+            ((ECPrivateKey) decoded.AsPrivateKey()).getS());
+      }
+    }
+  }
+
+  @Test
+  public void testEd25519KeySpecRoundTrip() throws CoseException {
+    COSEKey keyOne = COSEKey.generateKey(AlgorithmID.EDDSA);
+    COSEKey keyTwo = new COSEKey(keyOne.AsPublicKey(), keyOne.AsPrivateKey());
+
+    assertEquals(KeyKeys.OKP_Ed25519, keyTwo.get(KeyKeys.OKP_Curve));
+    assertEquals(keyOne.get(KeyKeys.OKP_X), keyTwo.get(KeyKeys.OKP_X));
+    assertEquals(keyOne.get(KeyKeys.OKP_D), keyTwo.get(KeyKeys.OKP_D));
+
+    COSEKey decoded = new COSEKey(CBORObject.DecodeFromBytes(keyOne.EncodeToBytes()));
+    assertEquals(keyOne.AsPublicKey(), decoded.AsPublicKey());
+    assertEquals(keyOne.AsPrivateKey(), decoded.AsPrivateKey());
+  }
+
+  @Test
+  public void testCompressedPoint() throws CoseException {
+    for (AlgorithmID alg : new AlgorithmID[] {
+        AlgorithmID.ECDSA_256, AlgorithmID.ECDSA_384, AlgorithmID.ECDSA_512}) {
+      for (int i = 0; i < 4; i++) {
+        COSEKey full = COSEKey.generateKey(alg);
+        COSEKey compressed = new COSEKey(compress(full));
+
+        assertArrayEquals(
+            full.AsPublicKey().getEncoded(),
+            compressed.AsPublicKey().getEncoded());
+      }
+    }
+  }
+
+  @Test
+  public void testCompressedPointCached() throws CoseException {
+    CBORObject cbor = compress(COSEKey.generateKey(AlgorithmID.ECDSA_256));
+    byte[] rgbX = cbor.get(KeyKeys.EC2_X.AsCBOR()).GetByteString();
+    boolean yOdd = cbor.get(KeyKeys.EC2_Y.AsCBOR()).AsBoolean();
+
+    Assert.assertSame(
+        EC2Curves.decompress(KeyKeys.EC2_P256, rgbX, yOdd),
+        EC2Curves.decompress(KeyKeys.EC2_P256, rgbX, yOdd));
+    Assert.assertTrue(
+        EC2Curves.decompressionCacheSize() <= EC2Curves.DECOMPRESSION_CACHE_SIZE);
+  }
+
+  @Test
+  public void testCompressedPointNotOnCurve() throws CoseException {
+    // Walk x until one is found with no point on the curve; about half of all values qualify
+    byte[] rgbX = new byte[32];
+    for (int i = 0; i < 64; i++) {
+      rgbX[31] = (byte) i;
+      CBORObject cbor = CBORObject.NewMap();
+      cbor.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2);
+      cbor.Add(KeyKeys.EC2_Curve.AsCBOR(), KeyKeys.EC2_P256);
+      cbor.Add(KeyKeys.EC2_X.AsCBOR(), rgbX);
+      cbor.Add(KeyKeys.EC2_Y.AsCBOR(), CBORObject.True);
+      try {
+        new COSEKey(cbor);
+      } catch (CoseException e) {
+        assertEquals("Point is not on the curve", e.getMessage());
+        return;
+      }
+    }
+    fail("no x coordinate off the curve found");
+  }
+
+  @Test
+  public void testCompressedEphemeralKey() throws Exception {
+    byte[] rgbContent = "This is some content".getBytes(StandardCharsets.UTF_8);
+    COSEKey recipientKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+
+    Recipient recipient = new Recipient();
+    recipient.addAttribute(
+        HeaderKeys.Algorithm,
+        AlgorithmID.ECDH_ES_HKDF_256_AES_KW_128.AsCBOR(),
+        Attribute.UNPROTECTED);
+    recipient.SetKey(recipientKey.PublicKey());
+
+    EncryptCOSEObject msg = new EncryptCOSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.addRecipient(recipient);
+    msg.encrypt();
+
+    msg = (EncryptCOSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    Recipient r = msg.getRecipient(0);
+    CBORObject epk = r.findAttribute(HeaderKeys.ECDH_EPK);
+    r.addAttribute(HeaderKeys.ECDH_EPK, compress(new COSEKey(epk)), Attribute.UNPROTECTED);
+    r.SetKey(recipientKey);
+
+    assertArrayEquals(rgbContent, msg.decrypt(r));
+  }
+
+  @Test
+  public void testThumbprint() throws CoseException {
+    // RFC 9679, section 6
+    COSEKey key = new COSEKey();
+    key.add(KeyKeys.KeyType, KeyKeys.KeyType_EC2);
+    key.add(KeyKeys.KeyId, CBORObject.FromByteArray(
+        "meriadoc.brandybuck@buckland.example".getBytes(StandardCharsets.UTF_8)));
+    key.add(KeyKeys.EC2_Curve, KeyKeys.EC2_P256);
+    key.add(KeyKeys.EC2_X, CBORObject.FromByteArray(hexStringToByteArray(
+        "65eda5a12577c2bae829437fe338701a10aaa375e1bb5b5de108de439c08551d")));
+    key.add(KeyKeys.EC2_Y, CBORObject.FromByteArray(hexStringToByteArray(
+        "1e52ed75701163f7f9e40ddf9f341b3dc9ba860af7e0ca7ca7e9eecd0084d19c")));
+    key.add(KeyKeys.EC2_D, CBORObject.FromByteArray(hexStringToByteArray(
+        "aff907c99f9ad3aae6c4cdf21122bce2bd68b5283e6907154ad911840fa208cf")));
+
+    assertEquals(
+        "496bd8afadf307e5b08c64b0421bf9dc01528a344a43bda88fadd1669da253ec",
+        byteArrayToHex(key.getThumbprint()));
+
+    // Only the required members count, and not their order in the key
+    COSEKey reordered = new COSEKey();
+    reordered.add(KeyKeys.EC2_Y, key.get(KeyKeys.EC2_Y));
+    reordered.add(KeyKeys.EC2_X, key.get(KeyKeys.EC2_X));
+    reordered.add(KeyKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR());
+    reordered.add(KeyKeys.EC2_Curve, KeyKeys.EC2_P256);
+    reordered.add(KeyKeys.KeyType, KeyKeys.KeyType_EC2);
+    assertArrayEquals(key.getThumbprint(), reordered.getThumbprint());
+    assertEquals(64, key.getThumbprint("SHA-512").length);
+  }
+
+  @Test
+  public void testThumbprintKeyTypes() throws CoseException {
+    COSEKey ec = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    COSEKey okp = COSEKey.generateKey(AlgorithmID.EDDSA);
+    COSEKey octet = new COSEKey();
+    octet.add(KeyKeys.KeyType, KeyKeys.KeyType_Octet);
+    octet.add(KeyKeys.Octet_K, CBORObject.FromByteArray(new byte[16]));
+
+    for (COSEKey key : new COSEKey[] {ec, okp, octet}) {
+      assertEquals(32, key.getThumbprint().length);
+    }
+    assertArrayEquals(ec.getThumbprint(), ec.PublicKey().getThumbprint());
+    assertArrayEquals(okp.getThumbprint(), okp.PublicKey().getThumbprint());
+  }
+
+  @Test
+  public void testThumbprintCached() throws CoseException {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    byte[] first = key.getThumbprint();
+    first[0] ^= 1;
+    assertArrayEquals(key.getThumbprint(), key.getThumbprint());
+    Assert.assertFalse(Arrays.equals(first, key.getThumbprint()));
+
+    // Other members do not change it
+    byte[] before = key.getThumbprint();
+    key.add(KeyKeys.KeyId, CBORObject.FromByteArray(new byte[] {1}));
+    assertArrayEquals(before, key.getThumbprint());
+  }
+
+  @Test(expected = CoseException.class)
+  public void testThumbprintMissingMember() throws CoseException {
+    COSEKey key = new COSEKey();
+    key.add(KeyKeys.KeyType, KeyKeys.KeyType_OKP);
+    key.add(KeyKeys.OKP_Curve, KeyKeys.OKP_Ed25519);
+    key.getThumbprint();
+  }
+
+  @Test
+  public void testOkpKeySpecs() throws Exception {
+    byte[] rgbContent = "This is some content".getBytes(StandardCharsets.UTF_8);
+    for (String provider : new String[] {"BC", "SunEC"}) {
+      for (String curve : new String[] {"Ed25519", "Ed448", "X25519", "X448"}) {
+        KeyPairGenerator gen = KeyPairGenerator.getInstance(curve, provider);
+        KeyPair keyPair = gen.generateKeyPair();
+        COSEKey key = new COSEKey(keyPair.getPublic(), keyPair.getPrivate());
+
+        // The point from the key getters is the one in the SPKI encoding
+        byte[] spki = keyPair.getPublic().getEncoded();
+        byte[] rgbX = key.get(KeyKeys.OKP_X).GetByteString();
+        assertArrayEquals(curve + " " + provider,
+            Arrays.copyOfRange(spki, spki.length - rgbX.length, spki.length), rgbX);
+
+        COSEKey rebuilt = new COSEKey(key.AsCBOR());
+        assertArrayEquals(curve + " " + provider, spki, rebuilt.AsPublicKey().getEncoded());
+        if (curve.startsWith("Ed")) {
+          Signature signer = Signature.getInstance(curve, provider);
+          signer.initSign(keyPair.getPrivate());
+          signer.update(rgbContent);
+          byte[] rgbSignature = signer.sign();
+          signer.initSign(rebuilt.AsPrivateKey());
+          signer.update(rgbContent);
+          assertArrayEquals(curve + " " + provider, rgbSignature, signer.sign());
+        } else {
+          KeyPair peer = gen.generateKeyPair();
+          KeyAgreement agreement = KeyAgreement.getInstance(curve, provider);
+          agreement.init(keyPair.getPrivate());
+          agreement.doPhase(peer.getPublic(), true);
+          byte[] rgbSecret = agreement.generateSecret();
+          agreement.init(rebuilt.AsPrivateKey());
+          agreement.doPhase(peer.getPublic(), true);
+          assertArrayEquals(curve + " " + provider, rgbSecret, agreement.generateSecret());
+        }
+      }
+    }
+  }
+
+  private static CBORObject compress(COSEKey key) {
+    byte[] rgbY = key.get(KeyKeys.EC2_Y).GetByteString();
+    CBORObject cbor = CBORObject.NewMap();
+    cbor.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2);
+    cbor.Add(KeyKeys.EC2_Curve.AsCBOR(), key.get(KeyKeys.EC2_Curve));
+    cbor.Add(KeyKeys.EC2_X.AsCBOR(), key.get(KeyKeys.EC2_X));
+    cbor.Add(KeyKeys.EC2_Y.AsCBOR(), (rgbY[rgbY.length - 1] & 1) == 1);
+    return cbor;
+  }
+
   static String byteArrayToHex(byte[] a) {
     StringBuilder sb = new StringBuilder(a.length * 2);
     for (byte b : a)
@@ -0,0 +1,167 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.upokecenter.cbor.CBORObject;
+import java.security.SecureRandom;
+import javax.crypto.AEADBadTagException;
+import org.junit.After;
+import org.junit.Test;
+
+public class CipherBackendTest extends TestBase {
+
+  static final AlgorithmID[] GCM = {
+      AlgorithmID.AES_GCM_128, AlgorithmID.AES_GCM_192, AlgorithmID.AES_GCM_256};
+  static final byte[] rgbContent = "This is some content".getBytes();
+  static final byte[] rgbIV = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12};
+
+  @After
+  public void resetDefault() {
+    CryptoContext.setDefaultCipherBackend(null);
+  }
+
+  static byte[] key(AlgorithmID alg) {
+    byte[] rgbKey = new byte[alg.getKeySize() / 8];
+    new SecureRandom().nextBytes(rgbKey);
+    return rgbKey;
+  }
+
+  static byte[] encrypt(CipherBackend backend, AlgorithmID alg, byte[] rgbKey, byte[] iv,
+      byte[] content) throws CoseException {
+    Encrypt0COSEObject msg = new Encrypt0COSEObject();
+    msg.getCryptoContext().setCipherBackend(backend);
+    msg.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.PROTECTED);
+    if (iv != null) {
+      msg.addAttribute(HeaderKeys.IV, CBORObject.FromByteArray(iv), Attribute.UNPROTECTED);
+    }
+    msg.SetContent(content);
+    msg.encrypt(rgbKey);
+    return msg.EncodeToBytes();
+  }
+
+  static byte[] decrypt(CipherBackend backend, byte[] rgbMsg, byte[] rgbKey)
+      throws CoseException {
+    Encrypt0COSEObject msg = (Encrypt0COSEObject) COSEObject.DecodeFromBytes(
+        rgbMsg, COSEObjectTag.Encrypt0);
+    msg.getCryptoContext().setCipherBackend(backend);
+    return msg.decrypt(rgbKey);
+  }
+
+  @Test
+  public void defaultIsJca() {
+    assertSame(CipherBackend.JCA, new CryptoContext(null).getCipherBackend());
+    CryptoContext.setDefaultCipherBackend(CipherBackend.BOUNCY_CASTLE);
+    assertSame(CipherBackend.BOUNCY_CASTLE, new CryptoContext(null).getCipherBackend());
+    CryptoContext context = new CryptoContext(null);
+    context.setCipherBackend(CipherBackend.JCA);
+    assertSame(CipherBackend.JCA, context.getCipherBackend());
+  }
+
+  @Test
+  public void sameMessages() throws Exception {
+    for (AlgorithmID alg : GCM) {
+      byte[] rgbKey = key(alg);
+      for (int size : new int[] {0, 1, 15, 16, 17, 1000}) {
+        byte[] content = new byte[size];
+        byte[] rgbMsg = encrypt(CipherBackend.JCA, alg, rgbKey, rgbIV, content);
+        assertArrayEquals(
+            rgbMsg, encrypt(CipherBackend.BOUNCY_CASTLE, alg, rgbKey, rgbIV, content));
+        for (CipherBackend backend : CipherBackend.values()) {
+          assertArrayEquals(content, decrypt(backend, rgbMsg, rgbKey));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void keysChangeOnThread() throws Exception {
+    byte[] rgbKey1 = key(AlgorithmID.AES_GCM_128);
+    byte[] rgbKey2 = key(AlgorithmID.AES_GCM_256);
+    for (int i = 0; i < 3; i++) {
+      byte[] rgbMsg1 = encrypt(
+          CipherBackend.BOUNCY_CASTLE, AlgorithmID.AES_GCM_128, rgbKey1, null, rgbContent);
+      byte[] rgbMsg2 = encrypt(
+          CipherBackend.BOUNCY_CASTLE, AlgorithmID.AES_GCM_256, rgbKey2, null, rgbContent);
+      assertArrayEquals(rgbContent, decrypt(CipherBackend.BOUNCY_CASTLE, rgbMsg1, rgbKey1));
+      assertArrayEquals(rgbContent, decrypt(CipherBackend.BOUNCY_CASTLE, rgbMsg2, rgbKey2));
+      assertArrayEquals(rgbContent, decrypt(CipherBackend.JCA, rgbMsg2, rgbKey2));
+    }
+  }
+
+  @Test
+  public void cacheCleared() throws Exception {
+    byte[] rgbKey = key(AlgorithmID.AES_GCM_128);
+    byte[] rgbMsg = encrypt(
+        CipherBackend.BOUNCY_CASTLE, AlgorithmID.AES_GCM_128, rgbKey, null, rgbContent);
+    assertNotNull(AesGcmEngine.ENGINES.get());
+    CryptoContext.clearCipherCache();
+    assertNull(AesGcmEngine.ENGINES.get());
+    assertArrayEquals(rgbContent, decrypt(CipherBackend.BOUNCY_CASTLE, rgbMsg, rgbKey));
+  }
+
+  @Test
+  public void nothingKeptOnVirtualThreads() throws Exception {
+    byte[] rgbKey = key(AlgorithmID.AES_GCM_128);
+    Object[] result = new Object[2];
+    Thread thread = Thread.ofVirtual().start(() -> {
+      try {
+        byte[] rgbMsg = encrypt(
+            CipherBackend.BOUNCY_CASTLE, AlgorithmID.AES_GCM_128, rgbKey, null, rgbContent);
+        result[0] = decrypt(CipherBackend.BOUNCY_CASTLE, rgbMsg, rgbKey);
+        result[1] = AesGcmEngine.ENGINES.get();
+      } catch (CoseException e) {
+        result[1] = e;
+      }
+    });
+    thread.join();
+    assertArrayEquals(rgbContent, (byte[]) result[0]);
+    assertNull(result[1]);
+  }
+
+  @Test
+  public void sameNonceTwice() throws Exception {
+    byte[] rgbKey = key(AlgorithmID.AES_GCM_128);
+    byte[] rgbMsg = encrypt(
+        CipherBackend.BOUNCY_CASTLE, AlgorithmID.AES_GCM_128, rgbKey, rgbIV, rgbContent);
+    assertArrayEquals(rgbMsg, encrypt(
+        CipherBackend.BOUNCY_CASTLE, AlgorithmID.AES_GCM_128, rgbKey, rgbIV, rgbContent));
+  }
+
+  @Test
+  public void tamperedRejected() throws Exception {
+    byte[] rgbKey = key(AlgorithmID.AES_GCM_256);
+    byte[] rgbMsg = encrypt(
+        CipherBackend.BOUNCY_CASTLE, AlgorithmID.AES_GCM_256, rgbKey, null, rgbContent);
+    rgbMsg[rgbMsg.length - 1] ^= 1;
+    try {
+      decrypt(CipherBackend.BOUNCY_CASTLE, rgbMsg, rgbKey);
+      fail("tampered message decrypted");
+    } catch (CoseException e) {
+      assertEquals("Decryption failure", e.getMessage());
+      assertTrue(e.getCause() instanceof AEADBadTagException);
+    }
+    rgbMsg[rgbMsg.length - 1] ^= 1;
+    assertArrayEquals(rgbContent, decrypt(CipherBackend.BOUNCY_CASTLE, rgbMsg, rgbKey));
+  }
+
+  @Test
+  public void keySizeChecked() throws Exception {
+    try {
+      encrypt(CipherBackend.BOUNCY_CASTLE, AlgorithmID.AES_GCM_256,
+          key(AlgorithmID.AES_GCM_128), null, rgbContent);
+      fail("wrong key size");
+    } catch (CoseException e) {
+      assertEquals("Key Size is incorrect", e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,140 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+public class CoseEventsTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+
+  static List<RecordedEvent> events(Recording recording, String name) throws Exception {
+    Path file = Files.createTempFile("cose", ".jfr");
+    try {
+      recording.dump(file);
+      List<RecordedEvent> found = new ArrayList<RecordedEvent>();
+      for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+        if (event.getEventType().getName().equals(name)) {
+          found.add(event);
+        }
+      }
+      return found;
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  @Test
+  public void recorded() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    try (Recording recording = new Recording()) {
+      recording.enable("se.digg.cose.Sign");
+      recording.enable("se.digg.cose.Verify");
+      recording.enable("se.digg.cose.Decode");
+      recording.disable("se.digg.cose.Encode");
+      recording.start();
+
+      Sign1COSEObject msg = new Sign1COSEObject();
+      msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+      msg.SetContent(rgbContent);
+      msg.sign(key);
+      byte[] rgbMsg = msg.EncodeToBytes();
+      Sign1COSEObject msg2 = (Sign1COSEObject) COSEObject.DecodeFromBytes(rgbMsg);
+      assertFalse(msg2.validate(COSEKey.generateKey(AlgorithmID.ECDSA_256)));
+      recording.stop();
+
+      List<RecordedEvent> sign = events(recording, "se.digg.cose.Sign");
+      assertEquals(1, sign.size());
+      assertEquals("ECDSA_256", sign.get(0).getString("algorithm"));
+      assertEquals("Sign1", sign.get(0).getString("messageType"));
+      assertEquals("SUCCESS", sign.get(0).getString("outcome"));
+      assertTrue(sign.get(0).getLong("payloadLength") > rgbContent.length);
+
+      List<RecordedEvent> verify = events(recording, "se.digg.cose.Verify");
+      assertEquals(1, verify.size());
+      assertEquals("REJECTED", verify.get(0).getString("outcome"));
+
+      List<RecordedEvent> decode = events(recording, "se.digg.cose.Decode");
+      assertEquals(1, decode.size());
+      assertEquals(rgbMsg.length, decode.get(0).getLong("payloadLength"));
+      assertEquals(0, decode.get(0).getInt("recipientCount"));
+
+      assertTrue(events(recording, "se.digg.cose.Encode").isEmpty());
+    }
+  }
+
+  @Test
+  public void recipients() throws Exception {
+    try (Recording recording = new Recording()) {
+      recording.enable("se.digg.cose.Encrypt");
+      recording.enable("se.digg.cose.KeyDerivation");
+      recording.start();
+
+      COSEKey recipientKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+      EncryptCOSEObject msg = new EncryptCOSEObject();
+      msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+      msg.SetContent(rgbContent);
+      Recipient recipient = new Recipient();
+      recipient.addAttribute(
+          HeaderKeys.Algorithm, AlgorithmID.ECDH_ES_HKDF_256.AsCBOR(), Attribute.UNPROTECTED);
+      recipient.SetKey(recipientKey.PublicKey());
+      msg.addRecipient(recipient);
+      msg.encrypt();
+      recording.stop();
+
+      List<RecordedEvent> encrypt = events(recording, "se.digg.cose.Encrypt");
+      assertEquals(1, encrypt.size());
+      assertEquals("Encrypt", encrypt.get(0).getString("messageType"));
+      assertEquals(1, encrypt.get(0).getInt("recipientCount"));
+      assertEquals(rgbContent.length, encrypt.get(0).getLong("payloadLength"));
+
+      List<String> methods = new ArrayList<String>();
+      for (RecordedEvent event : events(recording, "se.digg.cose.KeyDerivation")) {
+        assertEquals("ECDH_ES_HKDF_256", event.getString("algorithm"));
+        methods.add(event.getString("method"));
+      }
+      assertTrue(methods.contains("ECDH"));
+      assertTrue(methods.contains("HKDF"));
+    }
+  }
+
+  @Test
+  public void xdhRecipient() throws Exception {
+    try (Recording recording = new Recording()) {
+      recording.enable("se.digg.cose.KeyDerivation");
+      recording.start();
+
+      COSEKey recipientKey = COSEKey.generateKey(KeyKeys.OKP_X25519);
+      EncryptCOSEObject msg = new EncryptCOSEObject();
+      msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+      msg.SetContent(rgbContent);
+      Recipient recipient = new Recipient();
+      recipient.addAttribute(
+          HeaderKeys.Algorithm, AlgorithmID.ECDH_ES_HKDF_256.AsCBOR(), Attribute.UNPROTECTED);
+      recipient.SetKey(recipientKey.PublicKey());
+      msg.addRecipient(recipient);
+      msg.encrypt();
+      recording.stop();
+
+      List<String> methods = new ArrayList<String>();
+      for (RecordedEvent event : events(recording, "se.digg.cose.KeyDerivation")) {
+        methods.add(event.getString("method"));
+      }
+      assertTrue(methods.contains("XDH"));
+      assertFalse(methods.contains("ECDH"));
+    }
+  }
+}
@@ -0,0 +1,154 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import se.digg.cose.CoseMetrics.Operation;
+import se.digg.cose.CoseMetrics.Outcome;
+
+public class CoseMetricsTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+  static final byte[] rgbKey128 = new byte[16];
+  static final byte[] rgbKey256 = new byte[32];
+
+  @After
+  public void clearDefault() {
+    CryptoContext.setDefaultMetrics(null);
+  }
+
+  @Test
+  public void signAndVerify() throws Exception {
+    HistogramMetrics metrics = new HistogramMetrics();
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    key.getCryptoContext().setMetrics(metrics);
+
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(key);
+    assertTrue(msg.validate(key));
+
+    COSEKey otherKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    otherKey.getCryptoContext().setMetrics(metrics);
+    assertFalse(msg.validate(otherKey));
+
+    HistogramMetrics.Stats sign =
+        metrics.get(Operation.SIGN, AlgorithmID.ECDSA_256, COSEObjectTag.Sign1);
+    assertEquals(1, sign.getCount());
+    assertEquals(1, sign.getCount(Outcome.SUCCESS));
+    assertTrue(sign.getTotalNanos() > 0);
+
+    HistogramMetrics.Stats verify =
+        metrics.get(Operation.VERIFY, AlgorithmID.ECDSA_256, COSEObjectTag.Sign1);
+    assertEquals(2, verify.getCount());
+    assertEquals(1, verify.getCount(Outcome.SUCCESS));
+    assertEquals(1, verify.getCount(Outcome.REJECTED));
+    assertEquals(2, metrics.getAll().size());
+  }
+
+  @Test
+  public void defaultListener() throws Exception {
+    List<Operation> operations = new ArrayList<Operation>();
+    CryptoContext.setDefaultMetrics((operation, algorithm, tag, nanos, outcome) -> {
+      synchronized (operations) {
+        operations.add(operation);
+      }
+    });
+
+    MAC0COSEObject msg = new MAC0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.Create(rgbKey256);
+    byte[] rgbMsg = msg.EncodeToBytes();
+    COSEObject.DecodeFromBytes(rgbMsg);
+    new COSEKey(COSEKey.generateKey(AlgorithmID.ECDSA_256).AsCBOR());
+
+    assertTrue(operations.contains(Operation.MAC));
+    assertTrue(operations.contains(Operation.ENCODE));
+    assertTrue(operations.contains(Operation.DECODE));
+    assertTrue(operations.contains(Operation.KEY_IMPORT));
+
+    // A listener of the context takes the place of the default one
+    HistogramMetrics metrics = new HistogramMetrics();
+    MAC0COSEObject msg2 = (MAC0COSEObject) COSEObject.DecodeFromBytes(rgbMsg);
+    msg2.cryptoContext.setMetrics(metrics);
+    operations.clear();
+    assertTrue(msg2.Validate(rgbKey256));
+    assertFalse(operations.contains(Operation.MAC));
+    assertEquals(1, metrics.get(Operation.MAC, AlgorithmID.HMAC_SHA_256, COSEObjectTag.MAC0)
+        .getCount(Outcome.SUCCESS));
+  }
+
+  @Test
+  public void decryptOutcomes() throws Exception {
+    HistogramMetrics metrics = new HistogramMetrics();
+    Encrypt0COSEObject msg = new Encrypt0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.cryptoContext.setMetrics(metrics);
+    msg.encrypt(rgbKey128);
+
+    Encrypt0COSEObject msg2 =
+        (Encrypt0COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    msg2.cryptoContext.setMetrics(metrics);
+    ImmutableEncrypt0COSEObject view =
+        (ImmutableEncrypt0COSEObject) ImmutableCOSEObject.from(msg2);
+    view.decrypt(rgbKey128);
+    byte[] wrongKey = new byte[16];
+    wrongKey[0] = 1;
+    try {
+      view.decrypt(wrongKey);
+      fail("decrypt with wrong key");
+    } catch (CoseException e) {
+      // expected
+    }
+
+    assertEquals(1, metrics.get(Operation.ENCRYPT, AlgorithmID.AES_GCM_128,
+        COSEObjectTag.Encrypt0).getCount(Outcome.SUCCESS));
+    HistogramMetrics.Stats decrypt =
+        metrics.get(Operation.DECRYPT, AlgorithmID.AES_GCM_128, COSEObjectTag.Encrypt0);
+    assertEquals(1, decrypt.getCount(Outcome.SUCCESS));
+    assertEquals(1, decrypt.getCount(Outcome.REJECTED));
+  }
+
+  @Test
+  public void histogram() {
+    HistogramMetrics metrics = new HistogramMetrics();
+    assertNull(metrics.get(Operation.HKDF, null, COSEObjectTag.Unknown));
+    for (long nanos = 1; nanos <= 100; nanos++) {
+      metrics.record(Operation.HKDF, null, COSEObjectTag.Unknown, nanos * 1000, Outcome.SUCCESS);
+    }
+    metrics.record(Operation.HKDF, null, COSEObjectTag.Unknown, 1, Outcome.ERROR);
+
+    HistogramMetrics.Stats stats = metrics.get(Operation.HKDF, null, COSEObjectTag.Unknown);
+    assertNotNull(stats);
+    assertSame(Operation.HKDF, stats.getOperation());
+    assertNull(stats.getAlgorithm());
+    assertEquals(101, stats.getCount());
+    assertEquals(1, stats.getCount(Outcome.ERROR));
+    assertEquals(100000, stats.getMaxNanos());
+    assertEquals(50000, stats.getMeanNanos());
+
+    // Upper bounds of the power of two buckets
+    assertEquals(1, stats.getPercentileNanos(0));
+    assertEquals(65535, stats.getPercentileNanos(50));
+    assertEquals(131071, stats.getPercentileNanos(100));
+
+    metrics.reset();
+    assertTrue(metrics.getAll().isEmpty());
+  }
+}
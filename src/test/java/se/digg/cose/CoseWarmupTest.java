@@ -0,0 +1,53 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.EnumSet;
+import java.util.Set;
+import org.junit.Test;
+
+public class CoseWarmupTest extends TestBase {
+
+  @Test
+  public void allSupported() throws Exception {
+    Set<AlgorithmID> algorithms = EnumSet.copyOf(CoseWarmup.supportedAlgorithms());
+    // RSA key generation is slow and adds nothing over one RSA algorithm
+    algorithms.remove(AlgorithmID.RSA_PSS_384);
+    algorithms.remove(AlgorithmID.RSA_PSS_512);
+    CoseWarmup.run(algorithms);
+  }
+
+  @Test
+  public void recordsOperations() throws Exception {
+    HistogramMetrics metrics = new HistogramMetrics();
+    CryptoContext.setDefaultMetrics(metrics);
+    try {
+      CoseWarmup.run(EnumSet.of(AlgorithmID.ECDSA_256, AlgorithmID.AES_GCM_128), 3);
+    } finally {
+      CryptoContext.setDefaultMetrics(null);
+    }
+    assertEquals(3, metrics.get(CoseMetrics.Operation.SIGN, AlgorithmID.ECDSA_256,
+        COSEObjectTag.Sign1).getCount());
+    assertEquals(3, metrics.get(CoseMetrics.Operation.DECRYPT, AlgorithmID.AES_GCM_128,
+        COSEObjectTag.Encrypt0).getCount(CoseMetrics.Outcome.SUCCESS));
+  }
+
+  @Test
+  public void unsupported() throws Exception {
+    assertFalse(CoseWarmup.supportedAlgorithms().contains(AlgorithmID.HKDF_HMAC_AES_128));
+    assertTrue(CoseWarmup.supportedAlgorithms().contains(AlgorithmID.EDDSA));
+    try {
+      CoseWarmup.run(EnumSet.of(AlgorithmID.HKDF_HMAC_AES_128));
+      fail("unsupported algorithm");
+    } catch (CoseException e) {
+      assertEquals("Warm-up not supported for HKDF_HMAC_AES_128", e.getMessage());
+    }
+  }
+}
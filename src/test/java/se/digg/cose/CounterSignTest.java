@@ -5,7 +5,11 @@
 
 package se.digg.cose;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import com.upokecenter.cbor.CBORObject;
+import java.util.List;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -20,13 +24,17 @@ import org.junit.rules.ExpectedException;
  */
 public class CounterSignTest extends TestBase {
 
+  static COSEKey signingKey;
+
   public CounterSignTest() {}
 
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
   @BeforeClass
-  public static void setUpClass() {}
+  public static void setUpClass() throws CoseException {
+    signingKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+  }
 
   @AfterClass
   public static void tearDownClass() {}
@@ -121,4 +129,104 @@ public class CounterSignTest extends TestBase {
     CounterSign sig = new CounterSign();
     sig.DecodeFromBytes(rgb);
   }
+
+  @Test
+  public void lazyDecode() throws CoseException {
+    for (int count : new int[] {1, 5, 20}) {
+      byte[] rgbMsg = countersignedMessage(count);
+
+      COSEObject lazy = COSEObject.DecodeFromBytes(rgbMsg);
+      DecodeOptions options = new DecodeOptions();
+      options.setEagerCountersignatures(true);
+      COSEObject eager = COSEObject.DecodeFromBytes(rgbMsg, COSEObjectTag.Unknown, options);
+
+      List<CounterSign> lazyList = lazy.getCountersignerList();
+      List<CounterSign> eagerList = eager.getCountersignerList();
+      assertEquals(count, lazyList.size());
+      assertEquals(count, eagerList.size());
+      for (int i = 0; i < count; i++) {
+        assertEquals(
+            eagerList.get(i).EncodeToCBORObject(),
+            lazyList.get(i).EncodeToCBORObject());
+        lazyList.get(i).setKey(signingKey);
+        assertTrue(lazy.validate(lazyList.get(i)));
+      }
+      assertTrue(lazy.getCountersignerList() == lazyList);
+    }
+  }
+
+  @Test
+  public void lazyDecodeAddKeepsOrder() throws CoseException {
+    COSEObject msg = COSEObject.DecodeFromBytes(countersignedMessage(2));
+    CounterSign added = new CounterSign();
+    msg.addCountersignature(added);
+
+    List<CounterSign> list = msg.getCountersignerList();
+    assertEquals(3, list.size());
+    assertTrue(list.get(2) == added);
+  }
+
+  @Test
+  public void lazyDecodeMalformed() throws CoseException {
+    byte[] rgbMsg = malformedCountersignature();
+
+    // The shape is checked by the decoder, not left to the first getter
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Invalid countersignature attribute");
+    COSEObject.DecodeFromBytes(rgbMsg);
+  }
+
+  @Test
+  public void lazyDecodeMalformedProtected() throws CoseException {
+    // Only the content of the protected attributes is left to the first getter
+    CBORObject cs = CBORObject.NewArray();
+    cs.Add(new byte[] {(byte) 0xff});
+    cs.Add(CBORObject.NewMap());
+    cs.Add(new byte[0]);
+    CBORObject obj = CBORObject.DecodeFromBytes(countersignedMessage(0));
+    obj.get(1).set(HeaderKeys.CounterSignature.AsCBOR(), cs);
+    COSEObject msg = COSEObject.DecodeFromBytes(obj.EncodeToBytes());
+
+    thrown.expect(IllegalStateException.class);
+    thrown.expectMessage("Invalid countersignature attribute");
+    msg.getCountersignerList();
+  }
+
+  @Test
+  public void eagerDecodeMalformed() throws CoseException {
+    byte[] rgbMsg = malformedCountersignature();
+    DecodeOptions options = new DecodeOptions();
+    options.setEagerCountersignatures(true);
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Invalid Signer structure");
+    COSEObject.DecodeFromBytes(rgbMsg, COSEObjectTag.Unknown, options);
+  }
+
+  private static byte[] countersignedMessage(int count) throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent("This is some content");
+    for (int i = 0; i < count; i++) {
+      CounterSign cs = new CounterSign();
+      cs.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+      cs.addAttribute(HeaderKeys.KID, new byte[] {(byte) i}, Attribute.UNPROTECTED);
+      cs.setKey(signingKey);
+      msg.addCountersignature(cs);
+    }
+    msg.sign(signingKey);
+    return msg.EncodeToBytes();
+  }
+
+  private static byte[] malformedCountersignature() throws CoseException {
+    // A countersignature whose protected header is not a byte string
+    CBORObject cs = CBORObject.NewArray();
+    cs.Add(CBORObject.False);
+    cs.Add(CBORObject.NewMap());
+    cs.Add(new byte[0]);
+
+    CBORObject obj = CBORObject.DecodeFromBytes(countersignedMessage(0));
+    obj.get(1).set(HeaderKeys.CounterSignature.AsCBOR(), cs);
+    return obj.EncodeToBytes();
+  }
 }
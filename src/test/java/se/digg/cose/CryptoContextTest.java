@@ -0,0 +1,129 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.Provider;
+import java.security.Security;
+import java.security.Signature;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.junit.After;
+import org.junit.Test;
+
+public class CryptoContextTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+  static final byte[] rgbKey128 = new byte[16];
+
+  static Cipher gcm(CryptoContext context) throws Exception {
+    return context.initCipher("AES/GCM/NoPadding", Cipher.ENCRYPT_MODE,
+        new SecretKeySpec(rgbKey128, "AES"), new GCMParameterSpec(128, new byte[12]));
+  }
+
+  static Cipher ccm(CryptoContext context) throws Exception {
+    return context.initCipher("AES/CCM/NoPadding", Cipher.ENCRYPT_MODE,
+        new SecretKeySpec(rgbKey128, "AES"), new GCMParameterSpec(128, new byte[13]));
+  }
+
+  static Mac hmac(CryptoContext context) throws Exception {
+    return context.initMac("HmacSHA256", new SecretKeySpec(rgbKey128, "HmacSHA256"));
+  }
+
+  @After
+  public void clearCache() {
+    CryptoContext.clearProviderCache();
+  }
+
+  @Test
+  public void algorithmOverride() throws Exception {
+    Provider bc = Security.getProvider("BC");
+    Provider sunJce = Security.getProvider("SunJCE");
+
+    CryptoContext context = new CryptoContext(null);
+    context.setProvider("AES/GCM/NoPadding", sunJce);
+    context.setProvider("AES/CCM/NoPadding", bc);
+    assertSame(sunJce, gcm(context).getProvider());
+    assertSame(bc, ccm(context).getProvider());
+    assertNull(context.getProvider("HmacSHA256"));
+
+    // The override wins over the provider for all algorithms
+    context.setProvider(bc);
+    assertSame(sunJce, gcm(context).getProvider());
+    assertSame(bc, hmac(context).getProvider());
+
+    context.setProvider("AES/GCM/NoPadding", null);
+    assertSame(bc, gcm(context).getProvider());
+  }
+
+  @Test
+  public void resolvedOnce() throws Exception {
+    CryptoContext context = new CryptoContext(null);
+    Provider first = hmac(context).getProvider();
+    for (int i = 0; i < 10; i++) {
+      assertSame(first, hmac(new CryptoContext(null)).getProvider());
+    }
+  }
+
+  @Test
+  public void resolvedAfterInit() throws Exception {
+    // The provider is remembered for the engine the key was taken by, not the first one listed
+    Provider first = hmac(new CryptoContext(null)).getProvider();
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(rgbKey128, "HmacSHA256"));
+    assertSame(mac.getProvider(), first);
+
+  }
+
+  @Test
+  public void signatureFollowsKey() throws Exception {
+    COSEKey ecKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    COSEKey edKey = COSEKey.generateKey(AlgorithmID.EDDSA);
+    CryptoContext context = new CryptoContext(null);
+
+    for (int i = 0; i < 2; i++) {
+      Signature sig = context.initSign("SHA256withECDSA", ecKey.AsPrivateKey());
+      sig.update(rgbContent);
+      byte[] rgbSignature = sig.sign();
+      sig = context.initVerify("SHA256withECDSA", ecKey.AsPublicKey());
+      sig.update(rgbContent);
+      assertTrue(sig.verify(rgbSignature));
+
+      sig = context.initSign("Ed25519", edKey.AsPrivateKey());
+      sig.update(rgbContent);
+      rgbSignature = sig.sign();
+      sig = context.initVerify("Ed25519", edKey.AsPublicKey());
+      sig.update(rgbContent);
+      assertTrue(sig.verify(rgbSignature));
+    }
+  }
+
+  @Test
+  public void messagesUseOverride() throws Exception {
+    Encrypt0COSEObject msg = new Encrypt0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.getCryptoContext().setProvider("AES/GCM/NoPadding", Security.getProvider("SunJCE"));
+    msg.encrypt(rgbKey128);
+
+    Encrypt0COSEObject msg2 =
+        (Encrypt0COSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    msg2.getCryptoContext().setProvider("AES/GCM/NoPadding", Security.getProvider("BC"));
+    assertArrayEquals(rgbContent, msg2.decrypt(rgbKey128));
+
+    ImmutableEncrypt0COSEObject view =
+        (ImmutableEncrypt0COSEObject) ImmutableCOSEObject.from(msg2);
+    assertArrayEquals(rgbContent, view.decrypt(rgbKey128));
+    assertEquals(
+        Security.getProvider("BC"), view.cryptoContext.getProvider("AES/GCM/NoPadding"));
+  }
+}
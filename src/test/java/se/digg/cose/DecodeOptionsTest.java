@@ -0,0 +1,178 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.upokecenter.cbor.CBORObject;
+import java.util.Arrays;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class DecodeOptionsTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+
+  static COSEKey signingKey;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @BeforeClass
+  public static void setUpClass() throws CoseException {
+    signingKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+  }
+
+  @Test
+  public void withinLimits() throws CoseException {
+    byte[] rgbMsg = signedMessage(rgbContent);
+
+    DecodeOptions options = new DecodeOptions();
+    options.setMaxTotalSize(rgbMsg.length);
+    options.setMaxPayloadSize(rgbContent.length);
+    options.setMaxNestingDepth(3);
+    options.setMaxHeaderMapEntries(2);
+    options.setMaxCountersignatures(0);
+
+    Sign1COSEObject msg = (Sign1COSEObject) COSEObject.DecodeFromBytes(
+        rgbMsg,
+        COSEObjectTag.Unknown,
+        options);
+    assertArrayEquals(rgbContent, msg.GetContent());
+    assert msg.validate(signingKey.PublicKey());
+  }
+
+  @Test
+  public void nullOptions() throws CoseException {
+    COSEObject msg = COSEObject.DecodeFromBytes(
+        signedMessage(rgbContent),
+        COSEObjectTag.Unknown,
+        null);
+    assertArrayEquals(rgbContent, msg.GetContent());
+  }
+
+  @Test
+  public void totalSize() throws CoseException {
+    DecodeOptions options = new DecodeOptions();
+    options.setMaxTotalSize(1024);
+
+    // The size is rejected before the content is looked at
+    byte[] rgbMsg = new byte[10 * 1024 * 1024];
+    Arrays.fill(rgbMsg, (byte) 0xff);
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Message exceeds maximum size");
+    COSEObject.DecodeFromBytes(rgbMsg, COSEObjectTag.Unknown, options);
+  }
+
+  @Test
+  public void payloadSize() throws CoseException {
+    DecodeOptions options = new DecodeOptions();
+    options.setMaxPayloadSize(rgbContent.length - 1);
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Payload exceeds maximum size");
+    COSEObject.DecodeFromBytes(signedMessage(rgbContent), COSEObjectTag.Unknown, options);
+  }
+
+  @Test
+  public void nestingDepth() throws CoseException {
+    CBORObject nested = CBORObject.NewArray();
+    CBORObject inner = nested;
+    for (int i = 0; i < 10; i++) {
+      CBORObject next = CBORObject.NewArray();
+      inner.Add(next);
+      inner = next;
+    }
+
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(CBORObject.FromInt32(-70000), nested, Attribute.UNPROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    DecodeOptions options = new DecodeOptions();
+    options.setMaxNestingDepth(14);
+    COSEObject.DecodeFromBytes(rgbMsg, COSEObjectTag.Unknown, options);
+
+    options.setMaxNestingDepth(13);
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Malformed CBOR - nesting too deep");
+    COSEObject.DecodeFromBytes(rgbMsg, COSEObjectTag.Unknown, options);
+  }
+
+  @Test
+  public void headerMapEntries() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    for (int i = 0; i < 5; i++) {
+      msg.addAttribute(
+          CBORObject.FromString("label" + i),
+          CBORObject.FromInt32(i),
+          Attribute.UNPROTECTED);
+    }
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    DecodeOptions options = new DecodeOptions();
+    options.setMaxHeaderMapEntries(5);
+    COSEObject.DecodeFromBytes(rgbMsg, COSEObjectTag.Unknown, options);
+
+    options.setMaxHeaderMapEntries(4);
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Header map exceeds maximum number of entries");
+    COSEObject.DecodeFromBytes(rgbMsg, COSEObjectTag.Unknown, options);
+  }
+
+  @Test
+  public void countersignatures() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    for (int i = 0; i < 3; i++) {
+      CounterSign cs = new CounterSign();
+      cs.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+      cs.setKey(signingKey);
+      msg.addCountersignature(cs);
+    }
+    msg.sign(signingKey);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    DecodeOptions options = new DecodeOptions();
+    options.setMaxCountersignatures(3);
+    COSEObject decoded = COSEObject.DecodeFromBytes(rgbMsg, COSEObjectTag.Unknown, options);
+    assertEquals(3, decoded.getCountersignerList().size());
+
+    options.setMaxCountersignatures(2);
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Message exceeds maximum number of countersignatures");
+    COSEObject.DecodeFromBytes(rgbMsg, COSEObjectTag.Unknown, options);
+  }
+
+  @Test
+  public void lengthBeyondInput() throws CoseException {
+    // A byte string claiming 2^32 - 1 bytes must not be allocated
+    byte[] rgbMsg = {(byte) 0xd2, (byte) 0x84, 0x40, (byte) 0xa0, 0x5a,
+        (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x00};
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Malformed CBOR - truncated data");
+    COSEObject.DecodeFromBytes(rgbMsg, COSEObjectTag.Unknown, new DecodeOptions());
+  }
+
+  private static byte[] signedMessage(byte[] content) throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(HeaderKeys.KID, new byte[] {1, 2}, Attribute.UNPROTECTED);
+    msg.SetContent(content);
+    msg.sign(signingKey);
+    return msg.EncodeToBytes();
+  }
+}
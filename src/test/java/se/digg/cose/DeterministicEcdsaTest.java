@@ -0,0 +1,122 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.upokecenter.cbor.CBORObject;
+import java.util.Arrays;
+import java.util.HexFormat;
+import org.junit.Test;
+
+public class DeterministicEcdsaTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+  static final byte[] rgbSample = "sample".getBytes();
+
+  static COSEKey ec2Key(CBORObject curve, String d, String x, String y) throws CoseException {
+    CBORObject key = CBORObject.NewMap();
+    key.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2);
+    key.Add(KeyKeys.EC2_Curve.AsCBOR(), curve);
+    key.Add(KeyKeys.EC2_D.AsCBOR(), HexFormat.of().parseHex(d));
+    key.Add(KeyKeys.EC2_X.AsCBOR(), HexFormat.of().parseHex(x));
+    key.Add(KeyKeys.EC2_Y.AsCBOR(), HexFormat.of().parseHex(y));
+    COSEKey cnKey = new COSEKey(key);
+    cnKey.getCryptoContext().setDeterministicEcdsa(true);
+    return cnKey;
+  }
+
+  static void check(AlgorithmID alg, COSEKey key, String r, String s) throws CoseException {
+    byte[] rgbSignature = SignCommon.computeSignature(alg, COSEObjectTag.Sign1, rgbSample, key);
+    assertArrayEquals(alg.name(), HexFormat.of().parseHex(r + s), rgbSignature);
+    assertTrue(SignCommon.validateSignature(
+        alg, COSEObjectTag.Sign1, rgbSample, rgbSignature, key));
+  }
+
+  @Test
+  public void rfc6979P256() throws Exception {
+    // RFC 6979 A.2.5, SHA-256, message "sample"
+    COSEKey key = ec2Key(
+        KeyKeys.EC2_P256,
+        "c9afa9d845ba75166b5c215767b1d6934e50c3db36e89b127b8a622b120f6721",
+        "60fed4ba255a9d31c961eb74c6356d68c049b8923b61fa6ce669622e60f29fb6",
+        "7903fe1008b8bc99a41ae9e95628bc64f2f1b20c2d7e9f5177a3c294d4462299");
+    check(
+        AlgorithmID.ECDSA_256,
+        key,
+        "efd48b2aacb6a8fd1140dd9cd45e81d69d2c877b56aaf991c34d0ea84eaf3716",
+        "f7cb1c942d657c41d436c7a1b6e29f65f3e900dbb9aff4064dc4ab2f843acda8");
+  }
+
+  @Test
+  public void rfc6979P384() throws Exception {
+    // RFC 6979 A.2.6, SHA-384, message "sample"
+    COSEKey key = ec2Key(
+        KeyKeys.EC2_P384,
+        "6b9d3dad2e1b8c1c05b19875b6659f4de23c3b667bf297ba9aa47740787137d8"
+            + "96d5724e4c70a825f872c9ea60d2edf5",
+        "ec3a4e415b4e19a4568618029f427fa5da9a8bc4ae92e02e06aae5286b300c64"
+            + "def8f0ea9055866064a254515480bc13",
+        "8015d9b72d7d57244ea8ef9ac0c621896708a59367f9dfb9f54ca84b3f1c9db1"
+            + "288b231c3ae0d4fe7344fd2533264720");
+    check(
+        AlgorithmID.ECDSA_384,
+        key,
+        "94edbb92a5ecb8aad4736e56c691916b3f88140666ce9fa73d64c4ea95ad133c"
+            + "81a648152e44acf96e36dd1e80fabe46",
+        "99ef4aeb15f178cea1fe40db2603138f130e740a19624526203b6351d0a3a94f"
+            + "a329c145786e679e7b82c71a38628ac8");
+  }
+
+  @Test
+  public void rfc6979P521() throws Exception {
+    // RFC 6979 A.2.7, SHA-512, message "sample"
+    COSEKey key = ec2Key(
+        KeyKeys.EC2_P521,
+        "00fad06daa62ba3b25d2fb40133da757205de67f5bb0018fee8c86e1b68c7e75"
+            + "caa896eb32f1f47c70855836a6d16fcc1466f6d8fbec67db89ec0c08b0e996b8"
+            + "3538",
+        "01894550d0785932e00eaa23b694f213f8c3121f86dc97a04e5a7167db4e5bcd"
+            + "371123d46e45db6b5d5370a7f20fb633155d38ffa16d2bd761dcac474b9a2f50"
+            + "23a4",
+        "00493101c962cd4d2fddf782285e64584139c2f91b47f87ff82354d6630f746a"
+            + "28a0db25741b5b34a828008b22acc23f924faafbd4d33f81ea66956dfeaa2bfd"
+            + "fcf5");
+    check(
+        AlgorithmID.ECDSA_512,
+        key,
+        "00c328fafcbd79dd77850370c46325d987cb525569fb63c5d3bc53950e6d4c5f"
+            + "174e25a1ee9017b5d450606add152b534931d7d4e8455cc91f9b15bf05ec36e3"
+            + "77fa",
+        "00617cce7cf5064806c467f678d3b4080d6f1cc50af26ca209417308281b68af"
+            + "282623eaa63e5b5c0723d8b8c37ff0777b1a20f8ccb1dccc43997f1ee0e44da4"
+            + "a67a");
+  }
+
+  static byte[] sign1(COSEKey key) throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(key);
+    return msg.EncodeToBytes();
+  }
+
+  @Test
+  public void reproducibleMessages() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    assertFalse(Arrays.equals(sign1(key), sign1(key)));
+
+    key.getCryptoContext().setDeterministicEcdsa(true);
+    byte[] rgbMsg = sign1(key);
+    assertArrayEquals(rgbMsg, sign1(key));
+
+    // Deterministic signatures verify without the mode set
+    COSEKey publicKey = key.PublicKey();
+    assertFalse(publicKey.getCryptoContext().isDeterministicEcdsa());
+    assertTrue(((Sign1COSEObject) COSEObject.DecodeFromBytes(rgbMsg)).validate(publicKey));
+  }
+}
@@ -0,0 +1,196 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.upokecenter.cbor.CBORObject;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.HexFormat;
+import org.junit.After;
+import org.junit.Test;
+
+public class EdDSABackendTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+
+  @After
+  public void resetDefault() {
+    CryptoContext.setDefaultEdDSABackend(null);
+  }
+
+  static CryptoContext context(EdDSABackend backend) {
+    CryptoContext context = new CryptoContext(null);
+    context.setEdDSABackend(backend);
+    return context;
+  }
+
+  static COSEKey okpKey(CBORObject curve, String d, String x) throws CoseException {
+    CBORObject key = CBORObject.NewMap();
+    key.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_OKP);
+    key.Add(KeyKeys.OKP_Curve.AsCBOR(), curve);
+    if (d != null) {
+      key.Add(KeyKeys.OKP_D.AsCBOR(), HexFormat.of().parseHex(d));
+    }
+    key.Add(KeyKeys.OKP_X.AsCBOR(), HexFormat.of().parseHex(x));
+    return new COSEKey(key);
+  }
+
+  static byte[] sign(COSEKey key) throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.EDDSA.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(key);
+    return msg.EncodeToBytes();
+  }
+
+  static boolean verify(byte[] rgbMsg, COSEKey key) throws CoseException {
+    return ((Sign1COSEObject) COSEObject.DecodeFromBytes(rgbMsg)).validate(key);
+  }
+
+  @Test
+  public void fastestSelected() throws Exception {
+    assertSame(EdDSABackend.BOUNCY_CASTLE, EdDSABackend.select(KeyKeys.OKP_Ed25519));
+    assertSame(EdDSABackend.BOUNCY_CASTLE, EdDSABackend.select(KeyKeys.OKP_Ed448));
+    assertTrue(EdDSABackend.I2P.supports(KeyKeys.OKP_Ed25519));
+    assertFalse(EdDSABackend.I2P.supports(KeyKeys.OKP_Ed448));
+    assertSame(EdDSABackend.BOUNCY_CASTLE, new CryptoContext(null).getEdDSABackend(
+        KeyKeys.OKP_Ed25519));
+  }
+
+  @Test
+  public void keysFollowBackend() throws Exception {
+    for (EdDSABackend backend : EdDSABackend.values()) {
+      CryptoContext.setDefaultEdDSABackend(backend);
+      COSEKey key = COSEKey.generateKey(AlgorithmID.EDDSA);
+      assertSame(backend, EdDSABackend.forKey(key.AsPrivateKey()));
+      assertSame(backend, EdDSABackend.forKey(key.AsPublicKey()));
+      assertEquals(32, key.get(KeyKeys.OKP_X).GetByteString().length);
+      assertEquals(32, key.get(KeyKeys.OKP_D).GetByteString().length);
+
+      COSEKey decoded = new COSEKey(CBORObject.DecodeFromBytes(key.EncodeToBytes()));
+      assertSame(backend, EdDSABackend.forKey(decoded.AsPrivateKey()));
+      assertTrue(verify(sign(key), decoded));
+    }
+  }
+
+  @Test
+  public void crossBackend() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.EDDSA);
+    for (EdDSABackend signer : EdDSABackend.values()) {
+      COSEKey signKey = new COSEKey(key.AsCBOR(), context(signer));
+      assertSame(signer, EdDSABackend.forKey(signKey.AsPrivateKey()));
+      byte[] rgbMsg = sign(signKey);
+      for (EdDSABackend verifier : EdDSABackend.values()) {
+        COSEKey verifyKey = new COSEKey(key.PublicKey().AsCBOR(), context(verifier));
+        assertTrue(signer + " to " + verifier, verify(rgbMsg, verifyKey));
+      }
+    }
+  }
+
+  @Test
+  public void jcaKeysConvert() throws Exception {
+    for (EdDSABackend backend : new EdDSABackend[] {
+        EdDSABackend.BOUNCY_CASTLE, EdDSABackend.JDK}) {
+      for (String curveName : new String[] {"Ed25519", "Ed448"}) {
+        KeyPairGenerator gen =
+            KeyPairGenerator.getInstance(curveName, backend.getProviderName());
+        KeyPair keyPair = gen.generateKeyPair();
+        COSEKey key = new COSEKey(keyPair.getPublic(), keyPair.getPrivate());
+        byte[] rgbMsg = sign(key);
+
+        for (EdDSABackend other : EdDSABackend.values()) {
+          if (!other.supports(key.get(KeyKeys.OKP_Curve))) {
+            continue;
+          }
+          COSEKey converted = new COSEKey(key.AsCBOR(), context(other));
+          assertTrue(verify(rgbMsg, converted));
+          assertTrue(verify(sign(converted), key));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void ed448() throws Exception {
+    for (EdDSABackend backend : new EdDSABackend[] {
+        EdDSABackend.BOUNCY_CASTLE, EdDSABackend.JDK}) {
+      CryptoContext.setDefaultEdDSABackend(backend);
+      COSEKey key = COSEKey.generateKey(KeyKeys.OKP_Ed448);
+      assertEquals(57, key.get(KeyKeys.OKP_X).GetByteString().length);
+      assertEquals(57, key.get(KeyKeys.OKP_D).GetByteString().length);
+      assertTrue(verify(sign(key), new COSEKey(key.PublicKey().AsCBOR())));
+    }
+  }
+
+  @Test
+  public void ed448NotOnI2p() throws Exception {
+    COSEKey key = COSEKey.generateKey(KeyKeys.OKP_Ed448);
+    try {
+      new COSEKey(key.AsCBOR(), context(EdDSABackend.I2P));
+      fail("Ed448 with i2p");
+    } catch (CoseException e) {
+      assertEquals("Curve not supported by the I2P EdDSA backend", e.getMessage());
+    }
+    CryptoContext.setDefaultEdDSABackend(EdDSABackend.I2P);
+    try {
+      COSEKey.generateKey(KeyKeys.OKP_Ed448);
+      fail("Ed448 with i2p");
+    } catch (CoseException e) {
+      assertEquals("Algorithm not supported.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void rfc8032Vectors() throws Exception {
+    // RFC 8032 section 7.1 TEST 1 and section 7.4 -----Blank, both over an empty message
+    COSEKey ed25519 = okpKey(
+        KeyKeys.OKP_Ed25519,
+        "9d61b19deffd5a60ba844af492ec2cc44449c5697b326919703bac031cae7f60",
+        "d75a980182b10ab7d54bfed3c964073a0ee172f3daa62325af021a68f707511a");
+    byte[] ed25519Signature = HexFormat.of().parseHex(
+        "e5564300c360ac729086e2cc806e828a84877f1eb8e5d974d873e06522490155"
+            + "5fb8821590a33bacc61e39701cf9b46bd25bf5f0595bbe24655141438e7a100b");
+    COSEKey ed448 = okpKey(
+        KeyKeys.OKP_Ed448,
+        "6c82a562cb808d10d632be89c8513ebf6c929f34ddfa8c9f63c9960ef6e348a3"
+            + "528c8a3fcc2f044e39a3fc5b94492f8f032e7549a20098f95b",
+        "5fd7449b59b461fd2ce787ec616ad46a1da1342485a70e1f8a0ea75d80e96778"
+            + "edf124769b46c7061bd6783df1e50f6cd1fa1abeafe8256180");
+    byte[] ed448Signature = HexFormat.of().parseHex(
+        "533a37f6bbe457251f023c0d88f976ae2dfb504a843e34d2074fd823d41a591f"
+            + "2b233f034f628281f2fd7a22ddd47d7828c59bd0a21bfd3980ff0d2028d4b18a"
+            + "9df63e006c5d1c2d345b925d8dc00b4104852db99ac5c7cdda8530a113a0f4db"
+            + "b61149f05a7363268c71d95808ff2e652600");
+
+    for (EdDSABackend backend : EdDSABackend.values()) {
+      COSEKey key = new COSEKey(ed25519.AsCBOR(), context(backend));
+      assertArrayEquals(ed25519Signature, SignCommon.computeSignature(
+          AlgorithmID.EDDSA, COSEObjectTag.Sign1, new byte[0], key));
+      assertTrue(SignCommon.validateSignature(
+          AlgorithmID.EDDSA, COSEObjectTag.Sign1, new byte[0], ed25519Signature, key));
+
+      if (backend.supports(KeyKeys.OKP_Ed448)) {
+        key = new COSEKey(ed448.AsCBOR(), context(backend));
+        assertArrayEquals(ed448Signature, SignCommon.computeSignature(
+            AlgorithmID.EDDSA, COSEObjectTag.Sign1, new byte[0], key));
+      }
+    }
+  }
+
+  @Test
+  public void otherProvidersKeys() throws Exception {
+    assertNull(EdDSABackend.forKey(COSEKey.generateKey(AlgorithmID.ECDSA_256).AsPublicKey()));
+    assertSame(EdDSABackend.JDK, EdDSABackend.forProvider(
+        java.security.Security.getProvider("SunEC")));
+  }
+}
@@ -0,0 +1,147 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.upokecenter.cbor.CBORObject;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class EphemeralKeyPoolTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void fillsToDepth() throws Exception {
+    try (EphemeralKeyPool pool = new EphemeralKeyPool(KeyKeys.EC2_P256, 4)) {
+      waitForKeys(pool, 4);
+      assertEquals(4, pool.getDepth());
+      assertTrue(pool.getGeneratedCount() >= 4);
+
+      Set<CBORObject> seen = new HashSet<CBORObject>();
+      for (int i = 0; i < 4; i++) {
+        COSEKey key = pool.take();
+        assertEquals(KeyKeys.EC2_P256, key.get(KeyKeys.EC2_Curve));
+        assertNotNull(key.AsPrivateKey());
+        assertTrue("key handed out twice", seen.add(key.get(KeyKeys.EC2_X)));
+      }
+      assertEquals(4, pool.getPooledCount());
+
+      // The pool refills in the background
+      waitForKeys(pool, 4);
+    }
+  }
+
+  @Test
+  public void otherCurves() throws Exception {
+    for (CBORObject curve : new CBORObject[] {
+        KeyKeys.EC2_P384, KeyKeys.EC2_P521, KeyKeys.OKP_X25519, KeyKeys.OKP_X448}) {
+      try (EphemeralKeyPool pool = new EphemeralKeyPool(curve, 1)) {
+        assertEquals(curve, pool.take().get(KeyKeys.EC2_Curve));
+      }
+    }
+  }
+
+  @Test
+  public void fallbackWhenClosed() throws Exception {
+    EphemeralKeyPool pool = new EphemeralKeyPool(KeyKeys.EC2_P256, 2);
+    pool.close();
+
+    assertEquals(0, pool.getAvailable());
+    COSEKey key = pool.take();
+    assertNotNull(key.AsPrivateKey());
+    assertEquals(1, pool.getFallbackCount());
+    assertEquals(0, pool.getPooledCount());
+  }
+
+  @Test
+  public void destroyPrivateKey() throws Exception {
+    try (EphemeralKeyPool pool = new EphemeralKeyPool(KeyKeys.EC2_P256, 1)) {
+      COSEKey key = pool.take();
+      byte[] rgbD = key.get(KeyKeys.EC2_D).GetByteString();
+
+      key.destroyPrivateKey();
+
+      assertNull(key.get(KeyKeys.EC2_D));
+      assertNull(key.AsPrivateKey());
+      assertNotNull(key.get(KeyKeys.EC2_X));
+      assertNotNull(key.AsPublicKey());
+      assertArrayEquals(new byte[rgbD.length], rgbD);
+    }
+  }
+
+  @Test
+  public void badDepth() throws CoseException {
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Pool depth must be positive");
+    new EphemeralKeyPool(KeyKeys.EC2_P256, 0);
+  }
+
+  @Test
+  public void badCurve() throws CoseException {
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Unknown curve");
+    new EphemeralKeyPool(CBORObject.FromInt32(99), 1);
+  }
+
+  @Test
+  public void recipientUsesPool() throws Exception {
+    COSEKey recipientKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+
+    try (EphemeralKeyPool pool = new EphemeralKeyPool(KeyKeys.EC2_P256, 2)) {
+      waitForKeys(pool, 2);
+
+      Set<CBORObject> epks = new HashSet<CBORObject>();
+      for (int i = 0; i < 2; i++) {
+        Recipient recipient = new Recipient();
+        recipient.addAttribute(
+            HeaderKeys.Algorithm,
+            AlgorithmID.ECDH_ES_HKDF_256.AsCBOR(),
+            Attribute.UNPROTECTED);
+        recipient.SetKey(recipientKey.PublicKey());
+        recipient.getCryptoContext().addEphemeralKeyPool(pool);
+
+        EncryptCOSEObject msg = new EncryptCOSEObject();
+        msg.addAttribute(
+            HeaderKeys.Algorithm,
+            AlgorithmID.AES_GCM_128.AsCBOR(),
+            Attribute.PROTECTED);
+        msg.SetContent(rgbContent);
+        msg.addRecipient(recipient);
+        msg.encrypt();
+
+        CBORObject epk = recipient.findAttribute(HeaderKeys.ECDH_EPK);
+        assertNull(epk.get(KeyKeys.EC2_D.AsCBOR()));
+        assertTrue(epks.add(epk.get(KeyKeys.EC2_X.AsCBOR())));
+
+        msg = (EncryptCOSEObject) COSEObject.DecodeFromBytes(msg.EncodeToBytes());
+        Recipient r = msg.getRecipient(0);
+        r.SetKey(recipientKey);
+        assertArrayEquals(rgbContent, msg.decrypt(r));
+      }
+      assertEquals(2, pool.getPooledCount());
+      assertEquals(0, pool.getFallbackCount());
+    }
+  }
+
+  private static void waitForKeys(EphemeralKeyPool pool, int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (pool.getAvailable() < count) {
+      assertTrue("pool did not refill", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+}
@@ -0,0 +1,257 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.upokecenter.cbor.CBORObject;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class FileKeySetSourceTest extends TestBase {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void loadFile() throws Exception {
+    COSEKey key1 = newKey("key-1");
+    COSEKey key2 = newKey("key-2");
+    Path file = folder.newFile("keys.cbor").toPath();
+    Files.write(file, keySet(key1, key2).EncodeToBytes());
+
+    try (FileKeySetSource source = new FileKeySetSource(file)) {
+      assertEquals(2, source.getKeySet().getList().size());
+      assertEquals(1, source.getLoadCount());
+      assertArrayEquals(key1.EncodeToBytes(), single(source, "key-1").EncodeToBytes());
+      assertArrayEquals(key2.EncodeToBytes(), single(source, "key-2").EncodeToBytes());
+      assertTrue(source.getKeys("key-3".getBytes()).isEmpty());
+    }
+  }
+
+  @Test
+  public void loadDirectory() throws Exception {
+    Path dir = folder.newFolder().toPath();
+    Files.write(dir.resolve("a.cbor"), newKey("key-1").EncodeToBytes());
+    Files.write(dir.resolve("b.cbor"), keySet(newKey("key-2"), newKey("key-3")).EncodeToBytes());
+    Files.write(dir.resolve(".hidden"), new byte[] {1, 2, 3});
+
+    try (FileKeySetSource source = new FileKeySetSource(dir)) {
+      assertEquals(3, source.getKeySet().getList().size());
+      assertNotNull(single(source, "key-1"));
+      assertNotNull(single(source, "key-3"));
+    }
+  }
+
+  @Test
+  public void keyWithoutKid() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    Path file = folder.newFile("keys.cbor").toPath();
+    Files.write(file, keySet(key, newKey("key-1")).EncodeToBytes());
+
+    try (FileKeySetSource source = new FileKeySetSource(file)) {
+      List<COSEKey> keys = source.getKeys(key.getThumbprint());
+      assertEquals(1, keys.size());
+      assertArrayEquals(key.EncodeToBytes(), keys.get(0).EncodeToBytes());
+    }
+  }
+
+  @Test
+  public void reloadOnChange() throws Exception {
+    Path file = folder.newFile("keys.cbor").toPath();
+    Files.write(file, keySet(newKey("key-1")).EncodeToBytes());
+
+    try (FileKeySetSource source = new FileKeySetSource(file)) {
+      KeySet first = source.getKeySet();
+
+      // Written next to the key file and moved into place, as a key rotation would do
+      Path tmp = folder.newFile("keys.tmp").toPath();
+      Files.write(tmp, keySet(newKey("key-2")).EncodeToBytes());
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+
+      waitFor(() -> !source.getKeys("key-2".getBytes()).isEmpty());
+      assertTrue(source.getKeys("key-1".getBytes()).isEmpty());
+      assertEquals(1, first.getList().size());
+      assertTrue(source.getKeySet() != first);
+    }
+  }
+
+  @Test
+  public void staleWhileReloadFails() throws Exception {
+    Path file = folder.newFile("keys.cbor").toPath();
+    Files.write(file, keySet(newKey("key-1")).EncodeToBytes());
+
+    try (FileKeySetSource source = new FileKeySetSource(file)) {
+      KeySet first = source.getKeySet();
+      Files.write(file, new byte[] {(byte) 0x82, 1});
+
+      try {
+        source.reload();
+      } catch (CoseException e) {
+        // expected
+      }
+      assertNotNull(source.getLastError());
+      assertSame(first, source.getKeySet());
+      assertNotNull(single(source, "key-1"));
+
+      Files.write(file, keySet(newKey("key-1")).EncodeToBytes());
+      source.reload();
+      assertNull(source.getLastError());
+    }
+  }
+
+  @Test
+  public void unknownKidRefreshes() throws Exception {
+    Path file = folder.newFile("keys.cbor").toPath();
+    Files.write(file, keySet(newKey("key-1")).EncodeToBytes());
+
+    try (FileKeySetSource source = new FileKeySetSource(
+        file, Duration.ofHours(1), Duration.ofHours(1))) {
+      source.getKeys("key-9".getBytes());
+      waitFor(() -> source.getLoadCount() >= 2);
+
+      // Remembered as unknown, so no more reloads for it
+      long loads = source.getLoadCount();
+      for (int i = 0; i < 100; i++) {
+        assertTrue(source.getKeys("key-9".getBytes()).isEmpty());
+      }
+      Thread.sleep(100);
+      assertEquals(loads, source.getLoadCount());
+    }
+  }
+
+  @Test
+  public void unknownKidsRateLimited() throws Exception {
+    Path file = folder.newFile("keys.cbor").toPath();
+    Files.write(file, keySet(newKey("key-1")).EncodeToBytes());
+
+    try (FileKeySetSource source = new FileKeySetSource(
+        file, Duration.ofHours(1), Duration.ofHours(1))) {
+      source.getKeys("key-9".getBytes());
+      waitFor(() -> source.getLoadCount() >= 2);
+
+      // Other unknown kids within the negative TTL do not reload again
+      long loads = source.getLoadCount();
+      for (int i = 0; i < 100; i++) {
+        assertTrue(source.getKeys(("other-" + i).getBytes()).isEmpty());
+      }
+      Thread.sleep(100);
+      assertEquals(loads, source.getLoadCount());
+    }
+  }
+
+  @Test
+  public void unknownKidsBounded() throws Exception {
+    Path file = folder.newFile("keys.cbor").toPath();
+    Files.write(file, keySet(newKey("key-1")).EncodeToBytes());
+
+    try (FileKeySetSource source = new FileKeySetSource(
+        file, Duration.ofHours(1), Duration.ofHours(1))) {
+      source.getKeys("first".getBytes());
+      for (int i = 0; i < FileKeySetSource.NEGATIVE_CACHE_SIZE; i++) {
+        source.getKeys(("other-" + i).getBytes());
+      }
+      assertEquals(FileKeySetSource.NEGATIVE_CACHE_SIZE, source.getUnknownKidCount());
+
+      // The oldest is forgotten to make room, the others are kept
+      source.getKeys("first".getBytes());
+      assertEquals(FileKeySetSource.NEGATIVE_CACHE_SIZE, source.getUnknownKidCount());
+    }
+  }
+
+  @Test
+  public void concurrentLookups() throws Exception {
+    Path file = folder.newFile("keys.cbor").toPath();
+    Files.write(file, keySet(newKey("key-1")).EncodeToBytes());
+
+    try (FileKeySetSource source = new FileKeySetSource(file)) {
+      Thread[] threads = new Thread[4];
+      Throwable[] failure = new Throwable[1];
+      for (int t = 0; t < threads.length; t++) {
+        threads[t] = new Thread(() -> {
+          try {
+            for (int i = 0; i < 1000; i++) {
+              assertEquals(1, source.getKeys("key-1".getBytes()).size());
+            }
+          } catch (Throwable e) {
+            failure[0] = e;
+          }
+        });
+        threads[t].start();
+      }
+      for (int i = 0; i < 5; i++) {
+        source.reload();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertNull(failure[0]);
+    }
+  }
+
+  @Test
+  public void malformedAtStart() throws Exception {
+    Path file = folder.newFile("keys.cbor").toPath();
+    Files.write(file, CBORObject.FromInt32(1).EncodeToBytes());
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Invalid key file keys.cbor");
+    new FileKeySetSource(file);
+  }
+
+  @Test
+  public void badTtl() throws Exception {
+    Path file = folder.newFile("keys.cbor").toPath();
+    Files.write(file, keySet(newKey("key-1")).EncodeToBytes());
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Time to live must be positive");
+    new FileKeySetSource(file, Duration.ZERO, Duration.ofSeconds(1));
+  }
+
+  private static COSEKey newKey(String kid) throws CoseException {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    key.add(KeyKeys.KeyId, CBORObject.FromByteArray(kid.getBytes()));
+    return key;
+  }
+
+  private static CBORObject keySet(COSEKey... keys) {
+    CBORObject keySet = CBORObject.NewArray();
+    for (COSEKey key : keys) {
+      keySet.Add(key.AsCBOR());
+    }
+    return keySet;
+  }
+
+  private static COSEKey single(KeySetSource source, String kid) {
+    List<COSEKey> keys = source.getKeys(kid.getBytes());
+    assertEquals(1, keys.size());
+    return keys.get(0);
+  }
+
+  private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!condition.getAsBoolean()) {
+      assertTrue("no reload", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.upokecenter.cbor.CBORObject;
+import java.security.Security;
+import org.junit.Test;
+
+public class HotKeyVerifierTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+
+  static boolean verify(AlgorithmID alg, byte[] rgbSignature, COSEKey key) throws CoseException {
+    return SignCommon.validateSignature(alg, COSEObjectTag.Sign1, rgbContent, rgbSignature, key);
+  }
+
+  static void check(AlgorithmID alg, COSEKey key) throws CoseException {
+    byte[] rgbSignature = SignCommon.computeSignature(alg, COSEObjectTag.Sign1, rgbContent, key);
+    COSEKey cold = key.PublicKey();
+    COSEKey hot = key.PublicKey();
+    hot.setHot(true);
+    assertTrue(hot.isHot());
+    assertNotNull(hot.getHotKeyVerifier());
+    assertTrue(hot.getHotKeyVerifier().supports(alg));
+
+    assertTrue(alg.name(), verify(alg, rgbSignature, cold));
+    assertTrue(alg.name(), verify(alg, rgbSignature, hot));
+
+    byte[] rgbBad = rgbSignature.clone();
+    rgbBad[rgbBad.length / 4] ^= 1;
+    assertFalse(alg.name(), verify(alg, rgbBad, cold));
+    assertFalse(alg.name(), verify(alg, rgbBad, hot));
+
+    rgbBad = rgbSignature.clone();
+    rgbBad[rgbBad.length - 1] ^= 1;
+    assertFalse(alg.name(), verify(alg, rgbBad, hot));
+    assertFalse(alg.name(), verify(alg, new byte[rgbSignature.length - 1], hot));
+
+    COSEKey other = COSEKey.generateKey(alg).PublicKey();
+    if (alg == AlgorithmID.EDDSA) {
+      other = COSEKey.generateKey(key.get(KeyKeys.OKP_Curve)).PublicKey();
+    }
+    other.setHot(true);
+    assertFalse(alg.name(), verify(alg, rgbSignature, other));
+  }
+
+  @Test
+  public void ecdsa() throws Exception {
+    for (AlgorithmID alg : new AlgorithmID[] {
+        AlgorithmID.ECDSA_256, AlgorithmID.ECDSA_384, AlgorithmID.ECDSA_512}) {
+      check(alg, COSEKey.generateKey(alg));
+    }
+  }
+
+  @Test
+  public void eddsa() throws Exception {
+    check(AlgorithmID.EDDSA, COSEKey.generateKey(KeyKeys.OKP_Ed25519));
+    check(AlgorithmID.EDDSA, COSEKey.generateKey(KeyKeys.OKP_Ed448));
+  }
+
+  @Test
+  public void sign1() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(key);
+    byte[] rgbMsg = msg.EncodeToBytes();
+
+    COSEKey hot = key.PublicKey();
+    hot.setHot(true);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(((Sign1COSEObject) COSEObject.DecodeFromBytes(rgbMsg)).validate(hot));
+    }
+  }
+
+  @Test
+  public void keptUntilChanged() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256).PublicKey();
+    assertNull(key.getHotKeyVerifier());
+
+    key.setHot(true);
+    HotKeyVerifier verifier = key.getHotKeyVerifier();
+    assertSame(verifier, key.getHotKeyVerifier());
+
+    key.add(KeyKeys.KeyId, CBORObject.FromObject("kid".getBytes()));
+    assertNotSame(verifier, key.getHotKeyVerifier());
+
+    key.setHot(false);
+    assertFalse(key.isHot());
+    assertNull(key.getHotKeyVerifier());
+  }
+
+  @Test
+  public void otherAlgorithmsAsUsual() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.RSA_PSS_256);
+    key.setHot(true);
+    assertNull(key.getHotKeyVerifier());
+    byte[] rgbSignature = SignCommon.computeSignature(
+        AlgorithmID.RSA_PSS_256, COSEObjectTag.Sign1, rgbContent, key);
+    assertTrue(verify(AlgorithmID.RSA_PSS_256, rgbSignature, key));
+
+    COSEKey ecKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    ecKey.setHot(true);
+    assertFalse(ecKey.getHotKeyVerifier().supports(AlgorithmID.EDDSA));
+    assertFalse(ecKey.getHotKeyVerifier().supports(AlgorithmID.RSA_PSS_256));
+  }
+
+  @Test
+  public void providerSetTakesJcaPath() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    byte[] rgbSignature = SignCommon.computeSignature(
+        AlgorithmID.ECDSA_256, COSEObjectTag.Sign1, rgbContent, key);
+    COSEKey hot = key.PublicKey();
+    hot.setHot(true);
+    hot.getCryptoContext().setProvider("SHA256withECDSA", Security.getProvider("SunEC"));
+    assertTrue(verify(AlgorithmID.ECDSA_256, rgbSignature, hot));
+    rgbSignature[0] ^= 1;
+    assertFalse(verify(AlgorithmID.ECDSA_256, rgbSignature, hot));
+  }
+}
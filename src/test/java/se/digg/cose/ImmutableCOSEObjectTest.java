@@ -0,0 +1,365 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.upokecenter.cbor.CBORObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Functional tests of the immutable message views, and stress tests that share one view between
+ * many threads while mixing good and bad keys.
+ */
+public class ImmutableCOSEObjectTest extends TestBase {
+
+  static final int THREADS = 8;
+  static final int ITERATIONS = 200;
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+  static final byte[] rgbKey128 = {
+      'a', 'b', 'c', 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+  static final byte[] rgbKey256 = {
+      'a', 'b', 'c', 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16,
+      17, 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30, 31, 32};
+
+  static COSEKey signingKey;
+  static COSEKey otherKey;
+  static COSEKey kek;
+  static COSEKey wrongKek;
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @BeforeClass
+  public static void setUpClass() throws CoseException {
+    signingKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    otherKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    kek = octetKey(rgbKey128);
+    byte[] wrong = rgbKey128.clone();
+    wrong[0] ^= 1;
+    wrongKek = octetKey(wrong);
+  }
+
+  @Test
+  public void sign1() throws Exception {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(HeaderKeys.KID, new byte[] {1, 2, 3}, Attribute.UNPROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+
+    ImmutableSign1COSEObject view =
+        (ImmutableSign1COSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+
+    assertEquals(COSEObjectTag.Sign1, view.getCOSEObjectTag());
+    assertArrayEquals(new byte[] {1, 2, 3}, view.findAttribute(HeaderKeys.KID).GetByteString());
+    assertArrayEquals(rgbContent, view.GetContent());
+    assertTrue(view.validate(signingKey.PublicKey()));
+    assertFalse(view.validate(otherKey.PublicKey()));
+    assertFalse(view.validate(signingKey.PublicKey(), new byte[] {1}));
+  }
+
+  @Test
+  public void sign1External() throws Exception {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.setExternal(new byte[] {9, 9});
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+
+    ImmutableSign1COSEObject view = (ImmutableSign1COSEObject) ImmutableCOSEObject.from(msg);
+
+    assertTrue(view.validate(signingKey.PublicKey(), new byte[] {9, 9}));
+    assertFalse(view.validate(signingKey.PublicKey()));
+  }
+
+  @Test
+  public void sign() throws Exception {
+    SignCOSEObject msg = new SignCOSEObject();
+    msg.SetContent(rgbContent);
+    for (COSEKey key : new COSEKey[] {signingKey, otherKey}) {
+      Signer signer = new Signer();
+      signer.addAttribute(
+          HeaderKeys.Algorithm,
+          AlgorithmID.ECDSA_256.AsCBOR(),
+          Attribute.PROTECTED);
+      signer.setKey(key);
+      msg.AddSigner(signer);
+    }
+    msg.sign();
+
+    ImmutableSignCOSEObject view =
+        (ImmutableSignCOSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+
+    assertEquals(2, view.getSignerCount());
+    assertEquals(
+        AlgorithmID.ECDSA_256.AsCBOR(),
+        view.findSignerAttribute(0, HeaderKeys.Algorithm));
+    assertTrue(view.validate(0, signingKey.PublicKey()));
+    assertTrue(view.validate(1, otherKey.PublicKey()));
+    assertFalse(view.validate(0, otherKey.PublicKey()));
+  }
+
+  @Test
+  public void mac0() throws Exception {
+    MAC0COSEObject msg = new MAC0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.Create(rgbKey256);
+
+    ImmutableMAC0COSEObject view =
+        (ImmutableMAC0COSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+
+    assertTrue(view.validate(rgbKey256));
+    byte[] wrong = rgbKey256.clone();
+    wrong[5] ^= 1;
+    assertFalse(view.validate(wrong));
+  }
+
+  @Test
+  public void mac() throws Exception {
+    MACCOSEObject msg = new MACCOSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.addRecipient(keyWrapRecipient());
+    msg.Create();
+
+    ImmutableMACCOSEObject view =
+        (ImmutableMACCOSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+
+    assertEquals(1, view.getRecipientCount());
+    assertEquals(
+        AlgorithmID.AES_KW_128.AsCBOR(),
+        view.findRecipientAttribute(0, HeaderKeys.Algorithm));
+    assertTrue(view.validate(0, kek));
+  }
+
+  @Test
+  public void encrypt0() throws Exception {
+    Encrypt0COSEObject msg = new Encrypt0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.encrypt(rgbKey128);
+
+    ImmutableEncrypt0COSEObject view =
+        (ImmutableEncrypt0COSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+
+    assertArrayEquals(rgbContent, view.decrypt(rgbKey128));
+    assertArrayEquals(rgbContent, view.decrypt(rgbKey128));
+    assertFalse(view.HasContent());
+  }
+
+  @Test
+  public void encrypt0WrongKey() throws Exception {
+    Encrypt0COSEObject msg = new Encrypt0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_CCM_16_64_128.AsCBOR(),
+        Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.encrypt(rgbKey128);
+
+    ImmutableEncrypt0COSEObject view =
+        (ImmutableEncrypt0COSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+
+    byte[] wrong = rgbKey128.clone();
+    wrong[0] ^= 1;
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Decryption failure");
+    view.decrypt(wrong);
+  }
+
+  @Test
+  public void encrypt() throws Exception {
+    EncryptCOSEObject msg = new EncryptCOSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.addRecipient(keyWrapRecipient());
+    msg.encrypt();
+
+    ImmutableEncryptCOSEObject view =
+        (ImmutableEncryptCOSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+
+    assertEquals(1, view.getRecipientCount());
+    assertArrayEquals(rgbContent, view.decrypt(0, kek));
+  }
+
+  @Test
+  public void snapshotIsIndependent() throws Exception {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(HeaderKeys.KID, new byte[] {1}, Attribute.UNPROTECTED);
+    msg.SetContent(rgbContent.clone());
+    msg.sign(signingKey);
+
+    ImmutableSign1COSEObject view = (ImmutableSign1COSEObject) ImmutableCOSEObject.from(msg);
+
+    // Changes to the message and to returned values do not reach the view
+    msg.addAttribute(HeaderKeys.KID, new byte[] {2}, Attribute.UNPROTECTED);
+    msg.GetContent()[0] = 'X';
+    view.GetContent()[1] = 'X';
+    view.findAttribute(HeaderKeys.KID).GetByteString()[0] = 7;
+    view.getSignature()[0] ^= 1;
+
+    assertArrayEquals(new byte[] {1}, view.findAttribute(HeaderKeys.KID).GetByteString());
+    assertArrayEquals(rgbContent, view.GetContent());
+    assertTrue(view.validate(signingKey.PublicKey()));
+  }
+
+  @Test
+  public void incompleteMessage() throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("sign function not called");
+    ImmutableCOSEObject.from(msg);
+  }
+
+  @Test
+  public void concurrentSign1() throws Exception {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+    ImmutableSign1COSEObject view =
+        (ImmutableSign1COSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    COSEKey goodKey = signingKey.PublicKey();
+    COSEKey badKey = otherKey.PublicKey();
+
+    runConcurrently((thread, i) -> {
+      boolean good = ((thread + i) & 1) == 0;
+      assertEquals(good, view.validate(good ? goodKey : badKey));
+    });
+  }
+
+  @Test
+  public void concurrentEncrypt0() throws Exception {
+    Encrypt0COSEObject msg = new Encrypt0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.encrypt(rgbKey128);
+    ImmutableEncrypt0COSEObject view =
+        (ImmutableEncrypt0COSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    byte[] wrong = rgbKey128.clone();
+    wrong[0] ^= 1;
+
+    runConcurrently((thread, i) -> {
+      if (((thread + i) & 1) == 0) {
+        assertArrayEquals(rgbContent, view.decrypt(rgbKey128));
+      } else {
+        try {
+          view.decrypt(wrong);
+          org.junit.Assert.fail("decrypted with the wrong key");
+        } catch (CoseException e) {
+          assertEquals("Decryption failure", e.getMessage());
+        }
+      }
+    });
+  }
+
+  @Test
+  public void concurrentMAC0() throws Exception {
+    MAC0COSEObject msg = new MAC0COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.Create(rgbKey256);
+    ImmutableMAC0COSEObject view =
+        (ImmutableMAC0COSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+    byte[] wrong = rgbKey256.clone();
+    wrong[31] ^= 1;
+
+    runConcurrently((thread, i) -> {
+      boolean good = ((thread + i) & 1) == 0;
+      assertEquals(good, view.validate(good ? rgbKey256 : wrong));
+    });
+  }
+
+  @Test
+  public void concurrentEncrypt() throws Exception {
+    EncryptCOSEObject msg = new EncryptCOSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    msg.addRecipient(keyWrapRecipient());
+    msg.encrypt();
+    ImmutableEncryptCOSEObject view =
+        (ImmutableEncryptCOSEObject) ImmutableCOSEObject.DecodeFromBytes(msg.EncodeToBytes());
+
+    runConcurrently((thread, i) -> {
+      if (((thread + i) & 1) == 0) {
+        assertArrayEquals(rgbContent, view.decrypt(0, kek));
+      } else {
+        try {
+          view.decrypt(0, wrongKek);
+          org.junit.Assert.fail("decrypted with the wrong key");
+        } catch (CoseException e) {
+          // expected, the key unwrap fails
+        }
+      }
+    });
+  }
+
+  interface Step {
+    void run(int thread, int iteration) throws Exception;
+  }
+
+  /**
+   * Run a step on several threads at once. All threads are released together to maximise overlap.
+   */
+  private static void runConcurrently(Step step) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<Void>> results = new ArrayList<>();
+      for (int t = 0; t < THREADS; t++) {
+        final int thread = t;
+        Callable<Void> task = () -> {
+          start.await();
+          for (int i = 0; i < ITERATIONS; i++) {
+            step.run(thread, i);
+          }
+          return null;
+        };
+        results.add(executor.submit(task));
+      }
+      start.countDown();
+      for (Future<Void> result : results) {
+        result.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static Recipient keyWrapRecipient() throws CoseException {
+    Recipient recipient = new Recipient();
+    recipient.addAttribute(
+        HeaderKeys.Algorithm,
+        AlgorithmID.AES_KW_128.AsCBOR(),
+        Attribute.UNPROTECTED);
+    recipient.SetKey(kek);
+    return recipient;
+  }
+
+  private static COSEKey octetKey(byte[] rgbKey) throws CoseException {
+    CBORObject key = CBORObject.NewMap();
+    key.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_Octet);
+    key.Add(KeyKeys.Octet_K.AsCBOR(), CBORObject.FromByteArray(rgbKey));
+    return new COSEKey(key);
+  }
+}
@@ -0,0 +1,221 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.upokecenter.cbor.CBORObject;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedKeySetStoreTest extends TestBase {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void lookup() throws Exception {
+    COSEKey[] keys = new COSEKey[20];
+    CBORObject keySet = CBORObject.NewArray();
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+      keys[i].add(KeyKeys.KeyId, CBORObject.FromByteArray(kid(keys.length - i)));
+      keySet.Add(keys[i].AsCBOR());
+    }
+    Path file = folder.newFile().toPath();
+    MappedKeySetStore.write(keySet, file);
+
+    try (MappedKeySetStore store = new MappedKeySetStore(file)) {
+      assertEquals(keys.length, store.size());
+      assertEquals(0, store.getCachedCount());
+      for (int i = 0; i < keys.length; i++) {
+        byte[] kid = kid(keys.length - i);
+        assertTrue(store.contains(kid));
+        COSEKey key = store.get(kid);
+        assertArrayEquals(keys[i].EncodeToBytes(), key.EncodeToBytes());
+        assertArrayEquals(
+            keys[i].AsPublicKey().getEncoded(), key.AsPublicKey().getEncoded());
+      }
+      assertEquals(keys.length, store.getCachedCount());
+
+      assertFalse(store.contains(kid(0)));
+      assertNull(store.get(kid(0)));
+      assertNull(store.get(new byte[0]));
+      assertNull(store.get(new byte[] {(byte) 0xff, 1, 2, 3}));
+    }
+  }
+
+  @Test
+  public void sharedKid() throws Exception {
+    COSEKey first = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    COSEKey second = COSEKey.generateKey(AlgorithmID.ECDSA_384);
+    COSEKey other = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    first.add(KeyKeys.KeyId, CBORObject.FromByteArray(kid(7)));
+    second.add(KeyKeys.KeyId, CBORObject.FromByteArray(kid(7)));
+    other.add(KeyKeys.KeyId, CBORObject.FromByteArray(kid(3)));
+
+    CBORObject keySet = CBORObject.NewArray();
+    keySet.Add(first.AsCBOR());
+    keySet.Add(other.AsCBOR());
+    keySet.Add(second.AsCBOR());
+    Path file = folder.newFile().toPath();
+    MappedKeySetStore.write(keySet, file);
+
+    try (MappedKeySetStore store = new MappedKeySetStore(file)) {
+      List<COSEKey> found = store.getAll(kid(7));
+      assertEquals(2, found.size());
+      assertArrayEquals(first.EncodeToBytes(), found.get(0).EncodeToBytes());
+      assertArrayEquals(second.EncodeToBytes(), found.get(1).EncodeToBytes());
+      assertEquals(1, store.getAll(kid(3)).size());
+      assertTrue(store.getAll(kid(4)).isEmpty());
+    }
+  }
+
+  @Test
+  public void cacheIsBounded() throws Exception {
+    Path file = writeKeys(10);
+
+    try (MappedKeySetStore store = new MappedKeySetStore(file, 3)) {
+      COSEKey key = store.get(kid(0));
+      assertSame(key, store.get(kid(0)));
+      for (int i = 1; i < 10; i++) {
+        store.get(kid(i));
+        assertTrue(store.getCachedCount() <= 3);
+      }
+      assertEquals(3, store.getCachedCount());
+
+      // Evicted keys are decoded again
+      COSEKey again = store.get(kid(0));
+      assertArrayEquals(key.EncodeToBytes(), again.EncodeToBytes());
+      assertTrue(key != again);
+    }
+
+    try (MappedKeySetStore store = new MappedKeySetStore(file, 0)) {
+      store.get(kid(1));
+      assertEquals(0, store.getCachedCount());
+    }
+  }
+
+  @Test
+  public void convert() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.EDDSA);
+    key.add(KeyKeys.KeyId, CBORObject.FromByteArray(kid(1)));
+    CBORObject keySet = CBORObject.NewArray();
+    keySet.Add(key.AsCBOR());
+
+    Path in = folder.newFile().toPath();
+    Path out = folder.newFile().toPath();
+    Files.write(in, keySet.EncodeToBytes());
+    MappedKeySetStore.main(new String[] {in.toString(), out.toString()});
+
+    try (MappedKeySetStore store = new MappedKeySetStore(out)) {
+      assertArrayEquals(key.EncodeToBytes(), store.get(kid(1)).EncodeToBytes());
+    }
+  }
+
+  @Test
+  public void emptyKeySet() throws Exception {
+    Path file = folder.newFile().toPath();
+    MappedKeySetStore.write(CBORObject.NewArray(), file);
+
+    try (MappedKeySetStore store = new MappedKeySetStore(file)) {
+      assertEquals(0, store.size());
+      assertNull(store.get(kid(1)));
+    }
+  }
+
+  @Test
+  public void keyWithoutKid() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    CBORObject keySet = CBORObject.NewArray();
+    keySet.Add(key.AsCBOR());
+    Path file = folder.newFile().toPath();
+    MappedKeySetStore.write(keySet, file);
+
+    try (MappedKeySetStore store = new MappedKeySetStore(file)) {
+      assertArrayEquals(key.EncodeToBytes(), store.get(key.getThumbprint()).EncodeToBytes());
+    }
+  }
+
+  @Test
+  public void keyWithoutKidOrThumbprint() throws Exception {
+    CBORObject key = CBORObject.NewMap();
+    key.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_EC2);
+    CBORObject keySet = CBORObject.NewArray();
+    keySet.Add(key);
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Key at index 0 has no key identifier");
+    MappedKeySetStore.write(keySet, folder.newFile().toPath());
+  }
+
+  @Test
+  public void malformedKeyOnLookup() throws Exception {
+    CBORObject key = CBORObject.NewMap();
+    key.Add(KeyKeys.KeyType.AsCBOR(), CBORObject.FromInt32(99));
+    key.Add(KeyKeys.KeyId.AsCBOR(), CBORObject.FromByteArray(kid(1)));
+    CBORObject keySet = CBORObject.NewArray();
+    keySet.Add(key);
+    Path file = folder.newFile().toPath();
+    MappedKeySetStore.write(keySet, file);
+
+    try (MappedKeySetStore store = new MappedKeySetStore(file)) {
+      assertTrue(store.contains(kid(1)));
+      thrown.expect(CoseException.class);
+      store.get(kid(1));
+    }
+  }
+
+  @Test
+  public void notAStore() throws Exception {
+    Path file = folder.newFile().toPath();
+    Files.write(file, CBORObject.NewArray().EncodeToBytes());
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Invalid key store file");
+    new MappedKeySetStore(file);
+  }
+
+  @Test
+  public void closed() throws Exception {
+    MappedKeySetStore store = new MappedKeySetStore(writeKeys(1));
+    store.get(kid(0));
+    store.close();
+    assertEquals(0, store.getCachedCount());
+
+    thrown.expect(CoseException.class);
+    thrown.expectMessage("Key store is closed");
+    store.get(kid(0));
+  }
+
+  private Path writeKeys(int count) throws Exception {
+    CBORObject keySet = CBORObject.NewArray();
+    for (int i = 0; i < count; i++) {
+      COSEKey key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+      key.add(KeyKeys.KeyId, CBORObject.FromByteArray(kid(i)));
+      keySet.Add(key.AsCBOR());
+    }
+    Path file = folder.newFile().toPath();
+    MappedKeySetStore.write(keySet, file);
+    return file;
+  }
+
+  private static byte[] kid(int i) {
+    return ("device-" + i).getBytes();
+  }
+}
@@ -5,7 +5,11 @@
 
 package se.digg.cose;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
 import com.upokecenter.cbor.CBORObject;
+import java.io.ByteArrayOutputStream;
 import org.bouncycastle.asn1.nist.NISTNamedCurves;
 import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
@@ -338,4 +342,52 @@ public class Sign1COSEObjectTest extends TestBase {
     byte[] rgb = obj.EncodeToBytes();
     COSEObject.DecodeFromBytes(rgb, COSEObjectTag.Sign1);
   }
+
+  @Test
+  public void embeddedCborPayload() throws CoseException {
+    byte[] inner = new byte[8192];
+    for (int i = 0; i < inner.length; i++) {
+      inner[i] = (byte) i;
+    }
+    byte[] payload = CBORObject.FromByteArray(inner).WithTag(24).EncodeToBytes();
+
+    checkEmbeddedPayload(payload, true);
+    checkEmbeddedPayload(payload, false);
+  }
+
+  @Test
+  public void embeddedCborPayloadNotPreferred() throws CoseException {
+    // Tag 24 wrapping a five byte string whose length is encoded in two bytes. Re-encoding the
+    // decoded tree would shorten the length and break the signature.
+    byte[] payload = {(byte) 0xd8, 0x18, 0x59, 0x00, 0x05, 0x43, 0x01, 0x02, 0x03, 0x04};
+
+    checkEmbeddedPayload(payload, true);
+  }
+
+  /**
+   * Sign the encoded payload and place it in the message as a data item rather than as a byte
+   * string, as done for embedded CBOR.
+   */
+  private void checkEmbeddedPayload(byte[] payload, boolean tagged) throws CoseException {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(payload);
+    msg.sign(cnKeyPrivate);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (tagged) {
+      out.write(0xd2);
+    }
+    out.write(0x84);
+    out.writeBytes(CBORObject.FromByteArray(msg.rgbProtected).EncodeToBytes());
+    out.write(0xa0);
+    out.writeBytes(payload);
+    out.writeBytes(CBORObject.FromByteArray(msg.rgbSignature).EncodeToBytes());
+
+    Sign1COSEObject decoded = (Sign1COSEObject) COSEObject.DecodeFromBytes(
+        out.toByteArray(),
+        COSEObjectTag.Sign1);
+    assertArrayEquals(payload, decoded.GetContent());
+    assertTrue(decoded.validate(cnKeyPublic));
+  }
 }
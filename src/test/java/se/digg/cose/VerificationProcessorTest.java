@@ -0,0 +1,375 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.upokecenter.cbor.CBORObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class VerificationProcessorTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+  static final byte[] kid = "key-1".getBytes();
+  static COSEKey key;
+  static KeySetSource source;
+
+  @BeforeClass
+  public static void setUpKeys() throws Exception {
+    key = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    COSEKey publicKey = key.PublicKey();
+    source = new KeySetSource() {
+      @Override
+      public KeySet getKeySet() {
+        KeySet keySet = new KeySet();
+        keySet.add(publicKey);
+        return keySet;
+      }
+
+      @Override
+      public List<COSEKey> getKeys(byte[] id) {
+        return Arrays.equals(kid, id)
+            ? Collections.singletonList(publicKey)
+            : Collections.<COSEKey>emptyList();
+      }
+    };
+  }
+
+  static byte[] signed(byte[] keyId, COSEKey signingKey) throws Exception {
+    Sign1COSEObject msg = new Sign1COSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    msg.addAttribute(HeaderKeys.KID, CBORObject.FromByteArray(keyId), Attribute.UNPROTECTED);
+    msg.SetContent(rgbContent);
+    msg.sign(signingKey);
+    return msg.EncodeToBytes();
+  }
+
+  /**
+   * Collects the results, requesting them one batch at a time.
+   */
+  static class Collector implements Flow.Subscriber<VerificationResult> {
+
+    final List<VerificationResult> results = Collections.synchronizedList(
+        new ArrayList<VerificationResult>());
+    final CountDownLatch done = new CountDownLatch(1);
+    final long initialRequest;
+    volatile Flow.Subscription subscription;
+    volatile Throwable error;
+
+    Collector(long initialRequest) {
+      this.initialRequest = initialRequest;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+      this.subscription = subscription;
+      subscription.request(initialRequest);
+    }
+
+    @Override
+    public void onNext(VerificationResult item) {
+      results.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      error = throwable;
+      done.countDown();
+    }
+
+    @Override
+    public void onComplete() {
+      done.countDown();
+    }
+  }
+
+  @Test
+  public void orderedResults() throws Exception {
+    COSEKey otherKey = COSEKey.generateKey(AlgorithmID.ECDSA_256);
+    List<byte[]> messages = new ArrayList<byte[]>();
+    for (int i = 0; i < 50; i++) {
+      messages.add(i % 5 == 0 ? signed(kid, otherKey) : signed(kid, key));
+    }
+
+    VerificationProcessor processor =
+        new VerificationProcessor(source, 4, 8, true, COSEAsync.VIRTUAL_THREADS);
+    Collector collector = new Collector(Long.MAX_VALUE);
+    processor.subscribe(collector);
+    try (SubmissionPublisher<byte[]> publisher = new SubmissionPublisher<byte[]>()) {
+      publisher.subscribe(processor);
+      for (byte[] message : messages) {
+        publisher.submit(message);
+      }
+    }
+
+    assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+    assertNull(collector.error);
+    assertEquals(50, collector.results.size());
+    for (int i = 0; i < 50; i++) {
+      VerificationResult result = collector.results.get(i);
+      assertEquals(i, result.getIndex());
+      assertNull(result.getError());
+      assertNotNull(result.getMessage());
+      assertEquals(i % 5 != 0, result.isValid());
+    }
+  }
+
+  @Test
+  public void unorderedResults() throws Exception {
+    VerificationProcessor processor =
+        new VerificationProcessor(source, 8, 16, false, COSEAsync.VIRTUAL_THREADS);
+    Collector collector = new Collector(Long.MAX_VALUE);
+    processor.subscribe(collector);
+    try (SubmissionPublisher<byte[]> publisher = new SubmissionPublisher<byte[]>()) {
+      publisher.subscribe(processor);
+      for (int i = 0; i < 100; i++) {
+        publisher.submit(signed(kid, key));
+      }
+    }
+
+    assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+    Set<Long> indexes = new HashSet<Long>();
+    for (VerificationResult result : collector.results) {
+      assertTrue(result.isValid());
+      indexes.add(result.getIndex());
+    }
+    assertEquals(100, indexes.size());
+  }
+
+  @Test
+  public void itemErrors() throws Exception {
+    MAC0COSEObject mac = new MAC0COSEObject();
+    mac.addAttribute(HeaderKeys.Algorithm, AlgorithmID.HMAC_SHA_256.AsCBOR(), Attribute.PROTECTED);
+    mac.SetContent(rgbContent);
+    mac.Create(new byte[32]);
+
+    VerificationProcessor processor = new VerificationProcessor(source);
+    Collector collector = new Collector(Long.MAX_VALUE);
+    processor.subscribe(collector);
+    try (SubmissionPublisher<byte[]> publisher = new SubmissionPublisher<byte[]>()) {
+      publisher.subscribe(processor);
+      publisher.submit(new byte[] {1, 2, 3});
+      publisher.submit(signed("unknown".getBytes(), key));
+      publisher.submit(mac.EncodeToBytes());
+      publisher.submit(signed(kid, key));
+    }
+
+    assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+    assertNull(collector.error);
+    assertEquals(4, collector.results.size());
+    assertNull(collector.results.get(0).getMessage());
+    assertNotNull(collector.results.get(0).getError());
+    assertEquals("No key for the key identifier", collector.results.get(1).getError().getMessage());
+    assertEquals("Not a signed message", collector.results.get(2).getError().getMessage());
+    assertFalse(collector.results.get(2).isValid());
+    assertTrue(collector.results.get(3).isValid());
+  }
+
+  @Test
+  public void signMessage() throws Exception {
+    SignCOSEObject msg = new SignCOSEObject();
+    msg.SetContent(rgbContent);
+    Signer signer = new Signer();
+    signer.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    signer.addAttribute(HeaderKeys.KID, CBORObject.FromByteArray(kid), Attribute.UNPROTECTED);
+    signer.setKey(key);
+    msg.AddSigner(signer);
+    msg.sign();
+
+    VerificationResult result = new VerificationProcessor(source).verify(0, msg.EncodeToBytes());
+    assertNull(result.getError());
+    assertTrue(result.isValid());
+  }
+
+  @Test
+  public void signersWithoutKeysSkipped() throws Exception {
+    SignCOSEObject msg = new SignCOSEObject();
+    msg.SetContent(rgbContent);
+    Signer noKid = new Signer();
+    noKid.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    noKid.setKey(COSEKey.generateKey(AlgorithmID.ECDSA_256));
+    msg.AddSigner(noKid);
+    Signer unknown = new Signer();
+    unknown.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    unknown.addAttribute(
+        HeaderKeys.KID, CBORObject.FromByteArray("unknown".getBytes()), Attribute.UNPROTECTED);
+    unknown.setKey(COSEKey.generateKey(AlgorithmID.ECDSA_256));
+    msg.AddSigner(unknown);
+    Signer known = new Signer();
+    known.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    known.addAttribute(HeaderKeys.KID, CBORObject.FromByteArray(kid), Attribute.UNPROTECTED);
+    known.setKey(key);
+    msg.AddSigner(known);
+    msg.sign();
+
+    VerificationProcessor processor = new VerificationProcessor(source);
+    VerificationResult result = processor.verify(0, msg.EncodeToBytes());
+    assertNull(result.getError());
+    assertTrue(result.isValid());
+
+    SignCOSEObject noneKnown = new SignCOSEObject();
+    noneKnown.SetContent(rgbContent);
+    noneKnown.AddSigner(noKid);
+    noneKnown.AddSigner(unknown);
+    noneKnown.sign();
+    result = processor.verify(1, noneKnown.EncodeToBytes());
+    assertFalse(result.isValid());
+    assertEquals("Message has no key identifier", result.getError().getMessage());
+  }
+
+  @Test
+  public void otherKeysWithSameIdentifierSkipped() throws Exception {
+    CBORObject cborOctet = CBORObject.NewMap();
+    cborOctet.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_Octet);
+    cborOctet.Add(KeyKeys.Octet_K.AsCBOR(), new byte[32]);
+    COSEKey octetKey = new COSEKey(cborOctet);
+    KeySetSource shared = new KeySetSource() {
+      @Override
+      public KeySet getKeySet() {
+        return source.getKeySet();
+      }
+
+      @Override
+      public List<COSEKey> getKeys(byte[] id) {
+        List<COSEKey> keys = new ArrayList<COSEKey>();
+        keys.add(octetKey);
+        keys.addAll(source.getKeys(id));
+        return keys;
+      }
+    };
+    VerificationProcessor processor = new VerificationProcessor(shared);
+
+    VerificationResult result = processor.verify(0, signed(kid, key));
+    assertNull(result.getError());
+    assertTrue(result.isValid());
+
+    SignCOSEObject msg = new SignCOSEObject();
+    msg.SetContent(rgbContent);
+    Signer signer = new Signer();
+    signer.addAttribute(HeaderKeys.Algorithm, AlgorithmID.ECDSA_256.AsCBOR(), Attribute.PROTECTED);
+    signer.addAttribute(HeaderKeys.KID, CBORObject.FromByteArray(kid), Attribute.UNPROTECTED);
+    signer.setKey(key);
+    msg.AddSigner(signer);
+    msg.sign();
+    result = processor.verify(1, msg.EncodeToBytes());
+    assertNull(result.getError());
+    assertTrue(result.isValid());
+
+    // With no other key, the error of the key that failed is reported
+    result = new VerificationProcessor(new KeySetSource() {
+      @Override
+      public KeySet getKeySet() {
+        return new KeySet();
+      }
+
+      @Override
+      public List<COSEKey> getKeys(byte[] id) {
+        return Collections.singletonList(octetKey);
+      }
+    }).verify(2, signed(kid, key));
+    assertFalse(result.isValid());
+    assertNotNull(result.getError());
+  }
+
+  /**
+   * An upstream error is passed on after the messages being verified have been handed over to the
+   * publisher, so none of them fails on a closed publisher.
+   */
+  @Test
+  public void upstreamErrorAfterRunning() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger failures = new AtomicInteger();
+    Executor executor = command -> Thread.ofVirtual().start(() -> {
+      try {
+        release.await();
+        command.run();
+      } catch (Throwable t) {
+        failures.incrementAndGet();
+      }
+    });
+    VerificationProcessor processor = new VerificationProcessor(source, 4, 8, true, executor);
+    Collector collector = new Collector(Long.MAX_VALUE);
+    processor.subscribe(collector);
+    processor.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {}
+
+      @Override
+      public void cancel() {}
+    });
+    byte[] message = signed(kid, key);
+    for (int i = 0; i < 6; i++) {
+      processor.onNext(message);
+    }
+    IllegalStateException error = new IllegalStateException("upstream");
+    processor.onError(error);
+    release.countDown();
+
+    assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+    assertEquals(error, collector.error);
+    // The publisher may pass on the error ahead of results still in the subscriber buffer
+    assertTrue(collector.results.size() <= 4);
+    assertEquals(0, failures.get());
+  }
+
+  /**
+   * A subscriber that asks for a few results gets no more than that, and upstream is not drained
+   * past the buffer while the results are not taken.
+   */
+  @Test
+  public void honorsDemand() throws Exception {
+    AtomicInteger requested = new AtomicInteger();
+    VerificationProcessor processor =
+        new VerificationProcessor(source, 2, 4, true, COSEAsync.VIRTUAL_THREADS);
+    Collector collector = new Collector(3);
+    processor.subscribe(collector);
+
+    byte[] message = signed(kid, key);
+    processor.onSubscribe(new Flow.Subscription() {
+      @Override
+      public void request(long n) {
+        requested.addAndGet((int) n);
+      }
+
+      @Override
+      public void cancel() {}
+    });
+    assertEquals(4, requested.get());
+    for (int i = 0; i < 4; i++) {
+      processor.onNext(message);
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (collector.results.size() < 3 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(100);
+    assertEquals(3, collector.results.size());
+    // One more message for every result handed to the subscriber buffer
+    assertEquals(8, requested.get());
+
+    collector.subscription.request(10);
+    processor.onComplete();
+    assertTrue(collector.done.await(30, TimeUnit.SECONDS));
+    assertEquals(4, collector.results.size());
+  }
+}
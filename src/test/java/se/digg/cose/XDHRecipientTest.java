@@ -0,0 +1,125 @@
+// SPDX-FileCopyrightText: 2025 diggsweden/cose-lib
+//
+// SPDX-License-Identifier: BSD-3-Clause
+
+package se.digg.cose;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import com.upokecenter.cbor.CBORObject;
+import org.junit.Test;
+
+public class XDHRecipientTest extends TestBase {
+
+  static final byte[] rgbContent = "This is some content".getBytes();
+
+  static final AlgorithmID[] ECDH = {
+      AlgorithmID.ECDH_ES_HKDF_256,
+      AlgorithmID.ECDH_ES_HKDF_512,
+      AlgorithmID.ECDH_SS_HKDF_256,
+      AlgorithmID.ECDH_SS_HKDF_512,
+      AlgorithmID.ECDH_ES_HKDF_256_AES_KW_128,
+      AlgorithmID.ECDH_ES_HKDF_256_AES_KW_192,
+      AlgorithmID.ECDH_ES_HKDF_256_AES_KW_256,
+      AlgorithmID.ECDH_SS_HKDF_256_AES_KW_128,
+      AlgorithmID.ECDH_SS_HKDF_256_AES_KW_192,
+      AlgorithmID.ECDH_SS_HKDF_256_AES_KW_256,
+  };
+
+  static EncryptCOSEObject encrypt(AlgorithmID alg, COSEKey key, COSEKey senderKey)
+      throws Exception {
+    EncryptCOSEObject msg = new EncryptCOSEObject();
+    msg.addAttribute(HeaderKeys.Algorithm, AlgorithmID.AES_GCM_128.AsCBOR(), Attribute.PROTECTED);
+    msg.SetContent(rgbContent);
+    Recipient recipient = new Recipient();
+    recipient.addAttribute(HeaderKeys.Algorithm, alg.AsCBOR(), Attribute.UNPROTECTED);
+    recipient.SetKey(key.PublicKey());
+    if (senderKey != null) {
+      recipient.SetSenderKey(senderKey);
+      recipient.addAttribute(
+          HeaderKeys.ECDH_SPK, senderKey.PublicKey().AsCBOR(), Attribute.UNPROTECTED);
+    }
+    msg.addRecipient(recipient);
+    msg.encrypt();
+    return msg;
+  }
+
+  static byte[] decrypt(byte[] rgbMsg, COSEKey key) throws Exception {
+    EncryptCOSEObject msg = (EncryptCOSEObject) COSEObject.DecodeFromBytes(rgbMsg);
+    Recipient recipient = msg.getRecipient(0);
+    recipient.SetKey(key);
+    return msg.decrypt(recipient);
+  }
+
+  @Test
+  public void generateKeys() throws Exception {
+    COSEKey key = COSEKey.generateKey(KeyKeys.OKP_X25519);
+    assertEquals(KeyKeys.KeyType_OKP, key.get(KeyKeys.KeyType));
+    assertEquals(32, key.get(KeyKeys.OKP_X).GetByteString().length);
+    assertEquals(32, key.get(KeyKeys.OKP_D).GetByteString().length);
+    assertNull(key.get(KeyKeys.Algorithm));
+
+    key = COSEKey.generateKey(KeyKeys.OKP_X448);
+    assertEquals(56, key.get(KeyKeys.OKP_X).GetByteString().length);
+    assertEquals(56, key.get(KeyKeys.OKP_D).GetByteString().length);
+
+    COSEKey copy = new COSEKey(key.AsPublicKey(), key.AsPrivateKey());
+    assertEquals(KeyKeys.OKP_X448, copy.get(KeyKeys.OKP_Curve));
+    assertEquals(key.get(KeyKeys.OKP_X), copy.get(KeyKeys.OKP_X));
+    assertEquals(key.get(KeyKeys.OKP_D), copy.get(KeyKeys.OKP_D));
+    assertNull(copy.get(KeyKeys.Algorithm));
+  }
+
+  @Test
+  public void allAlgorithms() throws Exception {
+    for (CBORObject curve : new CBORObject[] {KeyKeys.OKP_X25519, KeyKeys.OKP_X448}) {
+      COSEKey key = COSEKey.generateKey(curve);
+      COSEKey senderKey = COSEKey.generateKey(curve);
+      for (AlgorithmID alg : ECDH) {
+        boolean ss = alg.name().startsWith("ECDH_SS_");
+        EncryptCOSEObject msg = encrypt(alg, key, ss ? senderKey : null);
+        assertArrayEquals(alg + " " + curve, rgbContent, decrypt(msg.EncodeToBytes(), key));
+      }
+    }
+  }
+
+  @Test
+  public void ephemeralKeyHeader() throws Exception {
+    COSEKey key = COSEKey.generateKey(KeyKeys.OKP_X25519);
+    EncryptCOSEObject msg = encrypt(AlgorithmID.ECDH_ES_HKDF_256, key, null);
+
+    CBORObject epk = msg.getRecipient(0).findAttribute(HeaderKeys.ECDH_EPK);
+    assertEquals(KeyKeys.KeyType_OKP, epk.get(KeyKeys.KeyType.AsCBOR()));
+    assertEquals(KeyKeys.OKP_X25519, epk.get(KeyKeys.OKP_Curve.AsCBOR()));
+    assertEquals(32, epk.get(KeyKeys.OKP_X.AsCBOR()).GetByteString().length);
+    assertNull(epk.get(KeyKeys.OKP_D.AsCBOR()));
+  }
+
+  @Test
+  public void curvesMustMatch() throws Exception {
+    COSEKey key = COSEKey.generateKey(KeyKeys.OKP_X25519);
+    for (COSEKey senderKey : new COSEKey[] {
+        COSEKey.generateKey(KeyKeys.OKP_X448), COSEKey.generateKey(KeyKeys.EC2_P256)}) {
+      try {
+        encrypt(AlgorithmID.ECDH_SS_HKDF_256, key, senderKey);
+        fail("mixed curves");
+      } catch (CoseException e) {
+        assertEquals("Curves are not the same", e.getMessage());
+      }
+    }
+  }
+
+  @Test
+  public void signingKeyRejected() throws Exception {
+    COSEKey key = COSEKey.generateKey(AlgorithmID.EDDSA);
+    try {
+      encrypt(AlgorithmID.ECDH_ES_HKDF_256, key, null);
+      fail("Ed25519 key for ECDH");
+    } catch (CoseException e) {
+      assertEquals("Key and algorithm do not agree", e.getMessage());
+    }
+  }
+}